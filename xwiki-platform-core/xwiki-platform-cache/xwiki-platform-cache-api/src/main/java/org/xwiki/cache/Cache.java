@@ -19,6 +19,9 @@
  */
 package org.xwiki.cache;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.xwiki.cache.event.CacheEntryListener;
 
 /**
@@ -51,6 +54,35 @@
      */
     T get(String key);
 
+    /**
+     * Get the value associated with the provided key, computing and storing it if it's missing. Concurrent calls for
+     * the same missing key wait for a single computation instead of computing the value each.
+     * 
+     * @param key the key used to access the value in the cache.
+     * @param loader used to compute the value if it's not in the cache
+     * @return the value associated with the provided key, or null if there is no value and the loader returned null
+     * @throws CacheException when the loader failed to compute the value, the cause of the exception being the loader
+     *             failure
+     * @since 4.2M3
+     */
+    T get(String key, CacheLoader<T> loader) throws CacheException;
+
+    /**
+     * @param keys the keys used to access the values in the cache.
+     * @return the values associated with the provided keys, the keys without any value being left out
+     * @since 4.2M3
+     */
+    Map<String, T> getAll(Collection<String> keys);
+
+    /**
+     * Add new values or overwrite the existing ones associated with the provided keys.
+     * 
+     * @param entries the values to store in the cache, indexed by their keys.
+     * @see #set(String, Object)
+     * @since 4.2M3
+     */
+    void setAll(Map<String, ? extends T> entries);
+
     /**
      * Remove the entry associated with the provided key from the cache.
      * <p>
@@ -83,6 +115,12 @@
      */
     void removeCacheEntryListener(CacheEntryListener<T> listener);
 
+    /**
+     * @return statistics about the use of this cache
+     * @since 4.2M3
+     */
+    CacheStatistics getStatistics();
+
     /**
      * Release all the resources this cache use.
      */
@@ -19,6 +19,8 @@
  */
 package org.xwiki.cache;
 
+import java.util.Map;
+
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.annotation.Role;
 import org.xwiki.component.manager.ComponentLookupException;
@@ -70,4 +72,23 @@
      * @throws CacheException error when creating the cache.
      */
     <T> Cache<T> createNewLocalCache(CacheConfiguration config) throws CacheException;
+
+    /**
+     * @return the statistics of the caches created by this manager and still in use, indexed by the identifier of
+     *         their configuration (made unique when several caches share the same configuration identifier)
+     * @since 4.2M3
+     */
+    Map<String, CacheStatistics> getStatistics();
+
+    /**
+     * Expose the statistics of a cache which is not created by this manager (e.g. a cache managed by its user) along
+     * with the statistics of the caches created by this manager. The statistics are weakly referenced so that they are
+     * forgotten once the cache is garbage collected.
+     * 
+     * @param id the identifier of the cache, made unique when several caches share the same identifier
+     * @param statistics the statistics of the cache
+     * @see #getStatistics()
+     * @since 4.2M3
+     */
+    void registerStatistics(String id, CacheStatistics statistics);
 }
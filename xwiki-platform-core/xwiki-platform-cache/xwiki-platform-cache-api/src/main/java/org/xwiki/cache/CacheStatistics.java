@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache;
+
+/**
+ * Statistics about the use of a cache since it has been created.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ * @see Cache#getStatistics()
+ */
+public interface CacheStatistics
+{
+    /**
+     * @return the number of lookups which found a value in the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups which didn't find any value in the cache
+     */
+    long getMissCount();
+
+    /**
+     * @return the ratio of lookups which found a value in the cache, between 0 and 1 (1 when there was no lookup)
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of calls to the loaders passed to {@link Cache#get(String, CacheLoader)}, including failed
+     *         ones
+     */
+    long getLoadCount();
+
+    /**
+     * @return the number of {@link CacheLoader} calls which failed
+     */
+    long getLoadFailureCount();
+
+    /**
+     * @return the total time spent in {@link CacheLoader}s, in nanoseconds
+     */
+    long getTotalLoadTime();
+
+    /**
+     * @return the number of entries removed from the cache by the cache itself, because of its capacity or of the
+     *         entries expiration
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the current number of entries in the cache, -1 if it's unknown
+     */
+    long getSize();
+}
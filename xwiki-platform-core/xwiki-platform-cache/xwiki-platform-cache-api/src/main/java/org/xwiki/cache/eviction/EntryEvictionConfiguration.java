@@ -64,6 +64,9 @@ public class EntryEvictionConfiguration extends HashMap<String, Object>
          * Evicts the least recently used entry when thresholds are hit.
          * <p>
          * Support <code>maxentries</code> property. See {@link LRUEvictionConfiguration}.
+         * <p>
+         * Support <code>maxweight</code> and <code>weigher</code> properties. See
+         * {@link WeightedEvictionConfiguration}.
          */
         LRU
     }
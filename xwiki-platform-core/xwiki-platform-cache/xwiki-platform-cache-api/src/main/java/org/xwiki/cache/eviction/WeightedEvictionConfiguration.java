@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.eviction;
+
+/**
+ * An helper for {@link EntryEvictionConfiguration.Algorithm#LRU} cache algorithm bounded by the weight of the entries.
+ * Evicts the least recently used entries when the total weight of the entries, as estimated by the {@link Weigher},
+ * exceeds the maximum weight. It can be combined with a maximum number of entries.
+ * <p>
+ * <code>
+ * WeightedEvictionConfiguration wec = new WeightedEvictionConfiguration();
+ * wec.setMaxWeight(50 * 1024 * 1024);
+ * wec.setWeigher(new StringWeigher());
+ * conf.put(WeightedEvictionConfiguration.CONFIGURATIONID, wec);
+ * </code>
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class WeightedEvictionConfiguration extends LRUEvictionConfiguration
+{
+    /**
+     * The key to access the maximum total weight of the entries.
+     */
+    public static final String MAXWEIGHT_ID = "maxweight";
+
+    /**
+     * The key to access the {@link Weigher} used to estimate the weight of the entries.
+     */
+    public static final String WEIGHER_ID = "weigher";
+
+    /**
+     * @param maxWeight the maximum total weight of the entries, in bytes
+     */
+    public void setMaxWeight(long maxWeight)
+    {
+        put(MAXWEIGHT_ID, maxWeight);
+    }
+
+    /**
+     * @return the maximum total weight of the entries, in bytes, 0 if unbounded
+     */
+    public long getMaxWeight()
+    {
+        Object obj = get(MAXWEIGHT_ID);
+
+        return obj == null ? 0 : ((Number) obj).longValue();
+    }
+
+    /**
+     * @param weigher used to estimate the weight of the entries
+     */
+    public void setWeigher(Weigher< ? > weigher)
+    {
+        put(WEIGHER_ID, weigher);
+    }
+
+    /**
+     * @return the tool used to estimate the weight of the entries, null if each entry weighs 1
+     */
+    public Weigher< ? > getWeigher()
+    {
+        return (Weigher< ? >) get(WEIGHER_ID);
+    }
+}
@@ -19,8 +19,16 @@
  */
 package org.xwiki.cache.internal;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheLoader;
+import org.xwiki.cache.CacheStatistics;
 import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.util.AtomicCacheStatistics;
 
 /**
  * Default implementation of {@link Cache}. Does not really store anything and always return null when trying to get a
@@ -31,6 +39,11 @@
  */
 public class DefaultCache<T> implements Cache<T>
 {
+    /**
+     * The statistics of the cache, counting the loads only since nothing is stored.
+     */
+    private final AtomicCacheStatistics statistics = new AtomicCacheStatistics();
+
     @Override
     public void remove(String key)
     {
@@ -49,6 +62,43 @@ public T get(String key)
         return null;
     }
 
+    @Override
+    public T get(String key, CacheLoader<T> loader) throws CacheException
+    {
+        this.statistics.recordLookup(false);
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T value = loader.load(key);
+            success = true;
+
+            return value;
+        } catch (Exception e) {
+            throw new CacheException("Failed to load the value of key [" + key + "]", e);
+        } finally {
+            this.statistics.recordLoad(System.nanoTime() - start, success);
+        }
+    }
+
+    @Override
+    public Map<String, T> getAll(Collection<String> keys)
+    {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void setAll(Map<String, ? extends T> entries)
+    {
+
+    }
+
+    @Override
+    public CacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
     @Override
     public void removeAll()
     {
@@ -19,6 +19,12 @@
  */
 package org.xwiki.cache.internal;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -27,6 +33,7 @@
 import org.xwiki.cache.CacheFactory;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.CacheManagerConfiguration;
+import org.xwiki.cache.CacheStatistics;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
@@ -55,6 +62,19 @@ public class DefaultCacheManager implements CacheManager
     @Inject
     private CacheManagerConfiguration configuration;
 
+    /**
+     * The caches created by this manager, associated with the identifier of their configuration. The caches are weakly
+     * referenced so that the disposed caches are forgotten once they're garbage collected.
+     */
+    private final Map<Cache< ? >, String> caches = Collections.synchronizedMap(new WeakHashMap<Cache< ? >, String>());
+
+    /**
+     * The statistics of the caches not created by this manager, associated with the identifier of their cache. The
+     * statistics are weakly referenced so that they are forgotten once their cache is garbage collected.
+     */
+    private final Map<CacheStatistics, String> registeredStatistics = Collections
+        .synchronizedMap(new WeakHashMap<CacheStatistics, String>());
+
     @Override
     public CacheFactory getCacheFactory() throws ComponentLookupException
     {
@@ -109,6 +129,53 @@ public <T> Cache<T> createNewCache(CacheConfiguration config, String cacheHint)
             throw new CacheException("Failed to get cache factory for role hint [" + cacheHint + "]", e);
         }
 
-        return cacheFactory.newCache(config);
+        Cache<T> cache = cacheFactory.newCache(config);
+        this.caches.put(cache, String.valueOf(config.getConfigurationId()));
+
+        return cache;
+    }
+
+    @Override
+    public Map<String, CacheStatistics> getStatistics()
+    {
+        // Copy the caches to hold strong references to them while the statistics are collected.
+        Map<Cache< ? >, String> currentCaches;
+        synchronized (this.caches) {
+            currentCaches = new HashMap<Cache< ? >, String>(this.caches);
+        }
+        Map<CacheStatistics, String> currentStatistics;
+        synchronized (this.registeredStatistics) {
+            currentStatistics = new HashMap<CacheStatistics, String>(this.registeredStatistics);
+        }
+
+        Map<String, CacheStatistics> statistics = new TreeMap<String, CacheStatistics>();
+        for (Map.Entry<Cache< ? >, String> entry : currentCaches.entrySet()) {
+            addStatistics(entry.getValue(), entry.getKey().getStatistics(), statistics);
+        }
+        for (Map.Entry<CacheStatistics, String> entry : currentStatistics.entrySet()) {
+            addStatistics(entry.getValue(), entry.getKey(), statistics);
+        }
+
+        return statistics;
+    }
+
+    @Override
+    public void registerStatistics(String id, CacheStatistics statistics)
+    {
+        this.registeredStatistics.put(statistics, String.valueOf(id));
+    }
+
+    /**
+     * @param id the identifier of the cache
+     * @param cacheStatistics the statistics of the cache
+     * @param statistics the statistics collected so far, indexed by unique identifier
+     */
+    private void addStatistics(String id, CacheStatistics cacheStatistics, Map<String, CacheStatistics> statistics)
+    {
+        String name = id;
+        for (int i = 2; statistics.containsKey(name); ++i) {
+            name = id + '#' + i;
+        }
+        statistics.put(name, cacheStatistics);
     }
 }
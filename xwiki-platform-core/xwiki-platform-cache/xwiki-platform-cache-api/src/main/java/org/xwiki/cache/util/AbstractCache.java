@@ -19,18 +19,39 @@
  */
 package org.xwiki.cache.util;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 import javax.swing.event.EventListenerList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheLoader;
+import org.xwiki.cache.CacheStatistics;
 import org.xwiki.cache.DisposableCacheValue;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.event.CacheEntryEvent;
 import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.Weigher;
+import org.xwiki.cache.eviction.WeightedEvictionConfiguration;
 
 /**
- * Base class for {@link Cache} implementations. It provides events {@link DisposableCacheValue} management.
+ * Base class for {@link Cache} implementations. It provides events {@link DisposableCacheValue} management, a
+ * single computation of the values loaded concurrently for the same key, the bulk operations, the statistics and the
+ * eviction based on the weight of the entries (see {@link WeightedEvictionConfiguration}).
+ * <p>
+ * To support the weight based eviction the implementations have to send the entries events, call
+ * {@link #recordLookup(String, Object)} from {@link #get(String)}, {@link #evictOverweightEntries()} from
+ * {@link #set(String, Object)} and {@link #clearWeights()} from {@link #removeAll()}.
  * 
  * @param <T>
  * @version $Id$
@@ -52,12 +73,286 @@
      */
     protected final EventListenerList cacheEntryListeners = new EventListenerList();
 
+    /**
+     * The statistics of the cache, to be updated by the implementations when looking up or evicting an entry.
+     * 
+     * @since 4.2M3
+     */
+    protected final AtomicCacheStatistics statistics = new AtomicCacheStatistics()
+    {
+        @Override
+        public long getSize()
+        {
+            return AbstractCache.this.getSize();
+        }
+    };
+
+    /**
+     * The values being loaded, indexed by key.
+     */
+    private final ConcurrentMap<String, FutureTask<T>> loading = new ConcurrentHashMap<String, FutureTask<T>>();
+
+    /**
+     * Set while the thread loading a value checks if another thread stored it in the meantime, so that the miss which
+     * triggered the load is not counted twice.
+     */
+    private final ThreadLocal<Boolean> checkingBeforeLoad = new ThreadLocal<Boolean>();
+
+    /**
+     * The weight of the entries, from the least recently used to the most recently used, when the cache is bounded by
+     * weight.
+     */
+    private final LinkedHashMap<String, Long> weights = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * The total weight of the entries.
+     */
+    private long totalWeight;
+
+    @Override
+    public T get(final String key, final CacheLoader<T> loader) throws CacheException
+    {
+        T value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        FutureTask<T> task = new FutureTask<T>(new Callable<T>()
+        {
+            @Override
+            public T call() throws Exception
+            {
+                return load(key, loader);
+            }
+        });
+        FutureTask<T> currentTask = this.loading.putIfAbsent(key, task);
+        if (currentTask == null) {
+            // This thread is in charge of loading the value.
+            currentTask = task;
+            try {
+                task.run();
+            } finally {
+                this.loading.remove(key, task);
+            }
+        }
+
+        try {
+            return currentTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheException("Interrupted while waiting for the value of key [" + key + "] to be loaded", e);
+        } catch (ExecutionException e) {
+            throw new CacheException("Failed to load the value of key [" + key + "]", e.getCause());
+        }
+    }
+
+    /**
+     * Compute the value associated with the provided key and store it in the cache.
+     * 
+     * @param key the key of the value
+     * @param loader used to compute the value
+     * @return the computed value
+     * @throws Exception when the loader failed to compute the value
+     */
+    private T load(String key, CacheLoader<T> loader) throws Exception
+    {
+        // Another thread may have stored the value in the meantime.
+        T value;
+        this.checkingBeforeLoad.set(Boolean.TRUE);
+        try {
+            value = get(key);
+        } finally {
+            this.checkingBeforeLoad.remove();
+        }
+        if (value != null) {
+            return value;
+        }
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            value = loader.load(key);
+            success = true;
+        } finally {
+            this.statistics.recordLoad(System.nanoTime() - start, success);
+        }
+
+        if (value != null) {
+            set(key, value);
+        }
+
+        return value;
+    }
+
+    @Override
+    public Map<String, T> getAll(Collection<String> keys)
+    {
+        Map<String, T> values = new LinkedHashMap<String, T>();
+        for (String key : keys) {
+            T value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public void setAll(Map<String, ? extends T> entries)
+    {
+        for (Map.Entry<String, ? extends T> entry : entries.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Record a lookup in the statistics and, when the cache is bounded by weight, in the order of the entries.
+     * 
+     * @param key the key looked up
+     * @param value the value found, null if there was none
+     * @since 4.2M3
+     */
+    protected void recordLookup(String key, T value)
+    {
+        if (this.checkingBeforeLoad.get() == null) {
+            this.statistics.recordLookup(value != null);
+        }
+
+        if (value != null && getMaxWeight() > 0) {
+            synchronized (this.weights) {
+                // Move the entry to the most recently used end.
+                this.weights.get(key);
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used entries until the total weight of the entries is not bigger than the maximum
+     * weight.
+     * 
+     * @since 4.2M3
+     */
+    protected void evictOverweightEntries()
+    {
+        long maxWeight = getMaxWeight();
+        if (maxWeight <= 0) {
+            return;
+        }
+
+        while (true) {
+            String key;
+            synchronized (this.weights) {
+                if (this.totalWeight <= maxWeight || this.weights.isEmpty()) {
+                    return;
+                }
+                key = this.weights.keySet().iterator().next();
+                this.totalWeight -= this.weights.remove(key);
+            }
+
+            remove(key);
+            this.statistics.recordEviction();
+        }
+    }
+
+    /**
+     * @return the configured weight based eviction, null if the cache is not bounded by weight
+     */
+    private WeightedEvictionConfiguration getWeightedEvictionConfiguration()
+    {
+        if (this.configuration != null) {
+            Object eviction = this.configuration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+            if (eviction instanceof WeightedEvictionConfiguration) {
+                return (WeightedEvictionConfiguration) eviction;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the maximum total weight of the entries, 0 if the cache is not bounded by weight
+     */
+    private long getMaxWeight()
+    {
+        WeightedEvictionConfiguration eviction = getWeightedEvictionConfiguration();
+
+        return eviction != null ? eviction.getMaxWeight() : 0;
+    }
+
+    /**
+     * Forget the weight of all the entries, to be called when the cache is cleared without sending any event.
+     * 
+     * @since 4.2M3
+     */
+    protected void clearWeights()
+    {
+        synchronized (this.weights) {
+            this.weights.clear();
+            this.totalWeight = 0;
+        }
+    }
+
+    /**
+     * Update the weight of an added or modified entry.
+     * 
+     * @param key the key of the entry
+     * @param value the new value of the entry
+     */
+    private void updateWeight(String key, T value)
+    {
+        WeightedEvictionConfiguration eviction = getWeightedEvictionConfiguration();
+        if (eviction == null || eviction.getMaxWeight() <= 0) {
+            return;
+        }
+
+        Weigher<T> weigher = (Weigher<T>) eviction.getWeigher();
+        long weight = weigher != null ? weigher.weigh(key, value) : 1;
+
+        synchronized (this.weights) {
+            Long previousWeight = this.weights.put(key, weight);
+            this.totalWeight += weight - (previousWeight != null ? previousWeight : 0);
+        }
+    }
+
+    /**
+     * Forget the weight of a removed entry.
+     * 
+     * @param key the key of the entry
+     */
+    private void removeWeight(String key)
+    {
+        synchronized (this.weights) {
+            Long weight = this.weights.remove(key);
+            if (weight != null) {
+                this.totalWeight -= weight;
+            }
+        }
+    }
+
+    @Override
+    public CacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
+    /**
+     * @return the current number of entries in the cache, -1 if it's unknown
+     * @since 4.2M3
+     */
+    protected long getSize()
+    {
+        return -1;
+    }
+
     @Override
     public void dispose()
     {
         for (CacheEntryListener<T> listener : this.cacheEntryListeners.getListeners(CacheEntryListener.class)) {
             this.cacheEntryListeners.remove(CacheEntryListener.class, listener);
         }
+
+        clearWeights();
     }
 
     @Override
@@ -79,6 +374,8 @@ public void removeCacheEntryListener(CacheEntryListener<T> listener)
      */
     protected void sendEntryAddedEvent(CacheEntryEvent<T> event)
     {
+        updateWeight(event.getEntry().getKey(), event.getEntry().getValue());
+
         for (org.xwiki.cache.event.CacheEntryListener<T> listener : this.cacheEntryListeners
             .getListeners(org.xwiki.cache.event.CacheEntryListener.class)) {
             listener.cacheEntryAdded(event);
@@ -92,6 +389,8 @@ protected void sendEntryAddedEvent(CacheEntryEvent<T> event)
      */
     protected void sendEntryRemovedEvent(CacheEntryEvent<T> event)
     {
+        removeWeight(event.getEntry().getKey());
+
         for (org.xwiki.cache.event.CacheEntryListener<T> listener : this.cacheEntryListeners
             .getListeners(org.xwiki.cache.event.CacheEntryListener.class)) {
             listener.cacheEntryRemoved(event);
@@ -107,6 +406,8 @@ protected void sendEntryRemovedEvent(CacheEntryEvent<T> event)
      */
     protected void sendEntryModifiedEvent(CacheEntryEvent<T> event)
     {
+        updateWeight(event.getEntry().getKey(), event.getEntry().getValue());
+
         for (org.xwiki.cache.event.CacheEntryListener<T> listener : this.cacheEntryListeners
             .getListeners(org.xwiki.cache.event.CacheEntryListener.class)) {
             listener.cacheEntryModified(event);
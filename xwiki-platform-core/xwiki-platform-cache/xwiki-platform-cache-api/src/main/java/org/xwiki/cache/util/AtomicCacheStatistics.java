@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.cache.CacheStatistics;
+
+/**
+ * Thread safe {@link CacheStatistics} implementation to be updated by the {@link org.xwiki.cache.Cache}
+ * implementations.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class AtomicCacheStatistics implements CacheStatistics
+{
+    /**
+     * @see #getHitCount()
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * @see #getMissCount()
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @see #getLoadCount()
+     */
+    private final AtomicLong loadCount = new AtomicLong();
+
+    /**
+     * @see #getLoadFailureCount()
+     */
+    private final AtomicLong loadFailureCount = new AtomicLong();
+
+    /**
+     * @see #getTotalLoadTime()
+     */
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    /**
+     * @see #getEvictionCount()
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Record a lookup.
+     * 
+     * @param hit true if the lookup found a value
+     */
+    public void recordLookup(boolean hit)
+    {
+        if (hit) {
+            this.hitCount.incrementAndGet();
+        } else {
+            this.missCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record a call to a {@link org.xwiki.cache.CacheLoader}.
+     * 
+     * @param time the time spent computing the value, in nanoseconds
+     * @param success false if the loader failed to compute the value
+     */
+    public void recordLoad(long time, boolean success)
+    {
+        this.loadCount.incrementAndGet();
+        if (!success) {
+            this.loadFailureCount.incrementAndGet();
+        }
+        this.totalLoadTime.addAndGet(time);
+    }
+
+    /**
+     * Record the eviction of an entry.
+     */
+    public void recordEviction()
+    {
+        this.evictionCount.incrementAndGet();
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+
+    @Override
+    public double getHitRatio()
+    {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+
+        return lookups == 0 ? 1.0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getLoadCount()
+    {
+        return this.loadCount.get();
+    }
+
+    @Override
+    public long getLoadFailureCount()
+    {
+        return this.loadFailureCount.get();
+    }
+
+    @Override
+    public long getTotalLoadTime()
+    {
+        return this.totalLoadTime.get();
+    }
+
+    @Override
+    public long getEvictionCount()
+    {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Caches able to count their entries should override this method.
+     * </p>
+     * 
+     * @see org.xwiki.cache.CacheStatistics#getSize()
+     */
+    @Override
+    public long getSize()
+    {
+        return -1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("hits=%d, misses=%d, hitRatio=%.2f, loads=%d, loadFailures=%d, loadTime=%dms, "
+            + "evictions=%d, size=%d", getHitCount(), getMissCount(), getHitRatio(), getLoadCount(),
+            getLoadFailureCount(), getTotalLoadTime() / 1000000, getEvictionCount(), getSize());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.util;
+
+import org.xwiki.cache.eviction.Weigher;
+
+/**
+ * {@link Weigher} for {@link String} values.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class StringWeigher implements Weigher<String>
+{
+    /**
+     * The approximate memory used by an empty string: the object header, its fields and the characters array header.
+     */
+    private static final int STRING_HEADER = 40;
+
+    /**
+     * The memory used by each character.
+     */
+    private static final int CHAR_SIZE = 2;
+
+    /**
+     * @param value the string to weigh
+     * @return the approximate memory used by the string in bytes, 0 for null
+     */
+    public static long weigh(String value)
+    {
+        return value != null ? STRING_HEADER + (long) CHAR_SIZE * value.length() : 0;
+    }
+
+    @Override
+    public long weigh(String key, String value)
+    {
+        return weigh(key) + weigh(value);
+    }
+}
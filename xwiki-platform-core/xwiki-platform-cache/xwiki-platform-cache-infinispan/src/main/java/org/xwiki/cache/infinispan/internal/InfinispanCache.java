@@ -68,6 +68,7 @@
     InfinispanCache(EmbeddedCacheManager cacheManager, CacheConfiguration configuration)
     {
         this.cacheManager = cacheManager;
+        this.configuration = configuration;
         this.cache = cacheManager.<String, T> getCache(configuration.getConfigurationId());
 
         this.cache.addListener(this);
@@ -84,6 +85,8 @@ public void set(String key, T obj)
     {
         if (obj != null) {
             this.cache.put(key, obj);
+
+            evictOverweightEntries();
         } else {
             this.cache.remove(key);
         }
@@ -92,13 +95,25 @@ public void set(String key, T obj)
     @Override
     public T get(String key)
     {
-        return this.cache.get(key);
+        T value = this.cache.get(key);
+
+        recordLookup(key, value);
+
+        return value;
+    }
+
+    @Override
+    protected long getSize()
+    {
+        return this.cache.size();
     }
 
     @Override
     public void removeAll()
     {
         this.cache.clear();
+
+        clearWeights();
     }
 
     @Override
@@ -123,6 +138,8 @@ public void nodeEvicted(CacheEntriesEvictedEvent<String, T> event)
             String key = entry.getKey();
             T value = entry.getValue();
 
+            this.statistics.recordEviction();
+
             // Looks like eviction does not produce any pre event
             cacheEntryRemoved(key, value);
         }
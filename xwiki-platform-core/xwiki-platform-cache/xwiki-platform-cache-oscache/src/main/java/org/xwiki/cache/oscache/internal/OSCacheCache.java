@@ -111,6 +111,8 @@ public void remove(String key)
     public void set(String key, T obj)
     {
         this.cacheAdmin.putInCache(cacheKey(key), obj);
+
+        evictOverweightEntries();
     }
 
     @Override
@@ -129,13 +131,23 @@ public T get(String key)
             }
         }
 
+        recordLookup(key, value);
+
         return value;
     }
 
+    @Override
+    protected long getSize()
+    {
+        return this.cacheAdmin.getCache().getSize();
+    }
+
     @Override
     public void removeAll()
     {
         this.cacheAdmin.flushAll();
+
+        clearWeights();
     }
 
     @Override
@@ -165,6 +177,9 @@ public void cacheEntryFlushed(CacheEntryEvent event)
     @Override
     public void cacheEntryRemoved(CacheEntryEvent event)
     {
+        // OSCache only removes entries by itself when the cache is full, the explicit removals being flushes.
+        this.statistics.recordEviction();
+
         sendEntryRemovedEvent(new OSCacheCacheEntryEvent<T>(this, event));
     }
 
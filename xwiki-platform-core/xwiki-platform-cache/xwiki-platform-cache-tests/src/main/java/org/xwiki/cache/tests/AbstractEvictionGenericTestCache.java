@@ -25,6 +25,8 @@
 import org.xwiki.cache.CacheFactory;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.eviction.Weigher;
+import org.xwiki.cache.eviction.WeightedEvictionConfiguration;
 import org.xwiki.cache.tests.CacheEntryListenerTest.EventType;
 
 /**
@@ -100,6 +102,51 @@ public void testCreateAndDestroyCacheLRUMaxEntries() throws Exception
         cache.dispose();
     }
 
+    /**
+     * Validate the maximum weight constraint.
+     * 
+     * @throws Exception error
+     */
+    @Test
+    public void testCreateAndDestroyCacheMaxWeight() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        WeightedEvictionConfiguration wec = new WeightedEvictionConfiguration();
+        wec.setMaxWeight(15);
+        wec.setWeigher(new Weigher<Object>()
+        {
+            @Override
+            public long weigh(String key, Object value)
+            {
+                return 10;
+            }
+        });
+        conf.put(WeightedEvictionConfiguration.CONFIGURATIONID, wec);
+
+        Cache<Object> cache = factory.newCache(conf);
+
+        CacheEntryListenerTest eventListener = new CacheEntryListenerTest();
+        cache.addCacheEntryListener(eventListener);
+
+        cache.set(KEY, VALUE);
+
+        Assert.assertEquals(VALUE, cache.get(KEY));
+
+        cache.set(KEY2, VALUE2);
+
+        Assert.assertTrue("No value has been evicted from the cache",
+            eventListener.waitForEntryEvent(EventType.REMOVE));
+        Assert.assertSame(VALUE, eventListener.getRemovedEvent().getEntry().getValue());
+
+        Assert.assertNull(cache.get(KEY));
+        Assert.assertEquals(VALUE2, cache.get(KEY2));
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+
+        cache.dispose();
+    }
+
     /**
      * Validate the maximum time to live constraint.
      * 
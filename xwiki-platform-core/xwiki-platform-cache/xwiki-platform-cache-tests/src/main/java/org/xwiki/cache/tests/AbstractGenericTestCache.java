@@ -19,10 +19,18 @@
  */
 package org.xwiki.cache.tests;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheLoader;
 import org.xwiki.cache.config.CacheConfiguration;
 
 /**
@@ -213,4 +221,188 @@ public void testRecreateCache() throws Exception
 
         Assert.assertEquals(VALUE, cache.get(KEY));
     }
+
+    /**
+     * Validate {@link Cache#get(String, CacheLoader)}.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testGetWithLoader() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        Cache<Object> cache = factory.newCache(new CacheConfiguration());
+
+        final AtomicInteger calls = new AtomicInteger();
+        CacheLoader<Object> loader = new CacheLoader<Object>()
+        {
+            @Override
+            public Object load(String key)
+            {
+                calls.incrementAndGet();
+
+                return VALUE;
+            }
+        };
+
+        Assert.assertEquals(VALUE, cache.get(KEY, loader));
+        Assert.assertEquals(VALUE, cache.get(KEY, loader));
+        Assert.assertEquals(VALUE, cache.get(KEY));
+        Assert.assertEquals(1, calls.get());
+
+        Assert.assertEquals(1, cache.getStatistics().getLoadCount());
+        Assert.assertEquals(0, cache.getStatistics().getLoadFailureCount());
+        // The first call is a single miss, even though the value is looked up again before being loaded.
+        Assert.assertEquals(1, cache.getStatistics().getMissCount());
+        Assert.assertEquals(2, cache.getStatistics().getHitCount());
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate that {@link Cache#get(String, CacheLoader)} wraps the loader failures.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testGetWithFailingLoader() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        Cache<Object> cache = factory.newCache(new CacheConfiguration());
+
+        final Exception failure = new Exception("failure");
+        try {
+            cache.get(KEY, new CacheLoader<Object>()
+            {
+                @Override
+                public Object load(String key) throws Exception
+                {
+                    throw failure;
+                }
+            });
+            Assert.fail("Should have thrown a CacheException");
+        } catch (CacheException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+
+        Assert.assertNull(cache.get(KEY));
+        Assert.assertEquals(1, cache.getStatistics().getLoadFailureCount());
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate that concurrent {@link Cache#get(String, CacheLoader)} calls for the same key load the value once.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testGetWithLoaderConcurrently() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        final Cache<Object> cache = factory.newCache(new CacheConfiguration());
+
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CacheLoader<Object> loader = new CacheLoader<Object>()
+        {
+            @Override
+            public Object load(String key) throws Exception
+            {
+                calls.incrementAndGet();
+                loading.countDown();
+                release.await();
+
+                return VALUE;
+            }
+        };
+
+        final Object[] results = new Object[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; ++i) {
+            final int index = i;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        results[index] = cache.get(KEY, loader);
+                    } catch (CacheException e) {
+                        results[index] = e;
+                    }
+                }
+            };
+            threads[i].start();
+            if (i == 0) {
+                // Make sure the other threads start while the first one is loading the value.
+                loading.await();
+            }
+        }
+
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(1, calls.get());
+        for (Object result : results) {
+            Assert.assertEquals(VALUE, result);
+        }
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate {@link Cache#setAll(Map)} and {@link Cache#getAll(java.util.Collection)}.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testSetAllAndGetAll() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        Cache<Object> cache = factory.newCache(new CacheConfiguration());
+
+        Map<String, Object> entries = new HashMap<String, Object>();
+        entries.put(KEY, VALUE);
+        entries.put(KEY2, VALUE2);
+        cache.setAll(entries);
+
+        Map<String, Object> values = cache.getAll(Arrays.asList(KEY, KEY2, "missing"));
+
+        Assert.assertEquals(entries, values);
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate the lookup statistics.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testStatistics() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        Cache<Object> cache = factory.newCache(new CacheConfiguration());
+
+        Assert.assertEquals(1.0, cache.getStatistics().getHitRatio(), 0);
+
+        cache.set(KEY, VALUE);
+        cache.get(KEY);
+        cache.get(KEY2);
+
+        Assert.assertEquals(1, cache.getStatistics().getHitCount());
+        Assert.assertEquals(1, cache.getStatistics().getMissCount());
+        Assert.assertEquals(0.5, cache.getStatistics().getHitRatio(), 0);
+
+        cache.dispose();
+    }
 }
@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.tinylfu.internal;
+
+/**
+ * Approximate the access frequency of the keys of a cache using a Count-Min sketch of 4 bits counters. The counters
+ * are halved periodically so that the old accesses weigh less than the recent ones.
+ * <p>
+ * This class is not thread safe.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+class FrequencySketch
+{
+    /**
+     * The seeds of the hash functions, one per counter.
+     */
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+        0xcbf29ce484222325L};
+
+    /**
+     * Select the 4 bits of the counters, without their lowest bit.
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * Select the lowest bit of the counters.
+     */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /**
+     * The maximum value of a counter.
+     */
+    private static final long COUNTER_MASK = 0xfL;
+
+    /**
+     * The number of bits of a counter.
+     */
+    private static final int COUNTER_BITS = 4;
+
+    /**
+     * The number of counters incremented for each key.
+     */
+    private static final int DEPTH = 4;
+
+    /**
+     * The number of increments, relative to the number of tracked keys, after which the counters are halved.
+     */
+    private static final int SAMPLE_FACTOR = 10;
+
+    /**
+     * The largest table allocated.
+     */
+    private static final int MAX_TABLE_SIZE = 1 << 24;
+
+    /**
+     * The counters, 16 per long.
+     */
+    private final long[] table;
+
+    /**
+     * Used to compute an index in {@link #table}.
+     */
+    private final int tableMask;
+
+    /**
+     * The number of increments after which the counters are halved.
+     */
+    private final int sampleSize;
+
+    /**
+     * The number of increments since the counters have been halved.
+     */
+    private int size;
+
+    /**
+     * @param maximumSize the number of keys to track, usually the maximum number of entries of the cache
+     */
+    FrequencySketch(int maximumSize)
+    {
+        int tableSize = Math.max(1, Math.min(maximumSize, MAX_TABLE_SIZE));
+        tableSize = Integer.highestOneBit(tableSize);
+        if (tableSize < maximumSize && tableSize < MAX_TABLE_SIZE) {
+            tableSize <<= 1;
+        }
+
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = (int) Math.min((long) SAMPLE_FACTOR * Math.max(1, maximumSize), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param key the key
+     * @return the estimated number of recent accesses to the key, between 0 and 15
+     */
+    int frequency(String key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & (DEPTH - 1)) * DEPTH;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; ++i) {
+            int index = indexOf(hash, i);
+            int count = (int) ((this.table[index] >>> ((start + i) * COUNTER_BITS)) & COUNTER_MASK);
+            frequency = Math.min(frequency, count);
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Record an access to the key.
+     * 
+     * @param key the key
+     */
+    void increment(String key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & (DEPTH - 1)) * DEPTH;
+
+        boolean added = false;
+        for (int i = 0; i < DEPTH; ++i) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && ++this.size >= this.sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @param index the index of the long holding the counter
+     * @param counter the index of the counter in the long
+     * @return true if the counter has been incremented, false if it already had its maximum value
+     */
+    private boolean incrementAt(int index, int counter)
+    {
+        int offset = counter * COUNTER_BITS;
+        long mask = COUNTER_MASK << offset;
+        if ((this.table[index] & mask) != mask) {
+            this.table[index] += 1L << offset;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Halve all the counters.
+     */
+    private void reset()
+    {
+        int odd = 0;
+        for (int i = 0; i < this.table.length; ++i) {
+            odd += Long.bitCount(this.table[i] & ONE_MASK);
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        // Each odd counter lost half an increment when halved.
+        this.size = (this.size >>> 1) - (odd >>> 2);
+    }
+
+    /**
+     * @param hash the spread hash of the key
+     * @param i the index of the hash function
+     * @return the index of the long holding the counter of the key for the hash function
+     */
+    private int indexOf(int hash, int i)
+    {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+
+        return ((int) h) & this.tableMask;
+    }
+
+    /**
+     * Improve the distribution of the hash codes of the keys.
+     * 
+     * @param x the hash code
+     * @return the spread hash code
+     */
+    private static int spread(int x)
+    {
+        int h = ((x >>> 16) ^ x) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+
+        return (h >>> 16) ^ h;
+    }
+}
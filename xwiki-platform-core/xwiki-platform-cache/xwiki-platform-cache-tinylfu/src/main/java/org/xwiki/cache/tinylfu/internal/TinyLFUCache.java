@@ -0,0 +1,709 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.tinylfu.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.util.AbstractCache;
+
+/**
+ * In-process {@link org.xwiki.cache.Cache} implementation with a scan resistant eviction policy (W-TinyLFU).
+ * <p>
+ * New entries enter a small LRU window. The entries leaving the window compete with the least recently used entry of
+ * the main space, which is segmented in a probation and a protected LRU, and only the most frequently accessed one,
+ * according to a {@link FrequencySketch}, stays in the cache. A burst of entries accessed only once, like a crawler
+ * visiting all the pages of the wiki, thus only goes through the window and doesn't evict the popular entries.
+ * <p>
+ * Lookups don't lock: the accesses are recorded in a buffer which is applied to the eviction policy by the next thread
+ * acquiring the eviction lock. Modifications are serialized by the eviction lock.
+ * <p>
+ * The time to live of {@link EntryEvictionConfiguration#getTimeToLive()} is the maximum time an entry is kept in the
+ * cache without being accessed.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class TinyLFUCache<T> extends AbstractCache<T>
+{
+    /**
+     * The percentage of the entries kept in the window.
+     */
+    private static final int WINDOW_PERCENTAGE = 1;
+
+    /**
+     * The percentage of the main space entries kept in the protected segment.
+     */
+    private static final int PROTECTED_PERCENTAGE = 80;
+
+    /**
+     * The maximum number of accesses buffered before they're applied to the eviction policy. The accesses beyond are
+     * lost, which only makes the eviction policy slightly less accurate.
+     */
+    private static final int READ_BUFFER_SIZE = 128;
+
+    /**
+     * The number of buffered accesses after which the reading thread tries to apply them to the eviction policy.
+     */
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 32;
+
+    /**
+     * The segments of the cache.
+     * 
+     * @version $Id$
+     */
+    private enum Region
+    {
+        /**
+         * The entry is not in the cache anymore.
+         */
+        NONE,
+
+        /**
+         * The new entries.
+         */
+        WINDOW,
+
+        /**
+         * The main space entries not accessed since they entered the main space.
+         */
+        PROBATION,
+
+        /**
+         * The main space entries accessed since they entered the main space.
+         */
+        PROTECTED
+    }
+
+    /**
+     * An entry of the cache.
+     * 
+     * @param <T> the class of the data stored in the cache.
+     * @version $Id$
+     */
+    private static final class Node<T>
+    {
+        /**
+         * The key of the entry.
+         */
+        private final String key;
+
+        /**
+         * The value of the entry.
+         */
+        private volatile T value;
+
+        /**
+         * The date of the last access to the entry, from {@link System#nanoTime()}.
+         */
+        private volatile long accessTime;
+
+        /**
+         * The segment of the cache holding the entry, guarded by the eviction lock.
+         */
+        private Region region = Region.NONE;
+
+        /**
+         * The previous (less recently used) entry of the segment, guarded by the eviction lock.
+         */
+        private Node<T> previous;
+
+        /**
+         * The next (more recently used) entry of the segment, guarded by the eviction lock.
+         */
+        private Node<T> next;
+
+        /**
+         * @param key the key of the entry
+         * @param value the value of the entry
+         * @param accessTime the date of the creation of the entry
+         */
+        Node(String key, T value, long accessTime)
+        {
+            this.key = key;
+            this.value = value;
+            this.accessTime = accessTime;
+        }
+    }
+
+    /**
+     * The entries of a segment, from the least recently used to the most recently used. Not thread safe.
+     * 
+     * @param <T> the class of the data stored in the cache.
+     * @version $Id$
+     */
+    private static final class AccessOrder<T>
+    {
+        /**
+         * The segment.
+         */
+        private final Region region;
+
+        /**
+         * The least recently used entry.
+         */
+        private Node<T> head;
+
+        /**
+         * The most recently used entry.
+         */
+        private Node<T> tail;
+
+        /**
+         * The number of entries.
+         */
+        private int size;
+
+        /**
+         * @param region the segment
+         */
+        AccessOrder(Region region)
+        {
+            this.region = region;
+        }
+
+        /**
+         * @param node the entry to add as the most recently used one
+         */
+        void add(Node<T> node)
+        {
+            node.region = this.region;
+            node.previous = this.tail;
+            node.next = null;
+            if (this.tail == null) {
+                this.head = node;
+            } else {
+                this.tail.next = node;
+            }
+            this.tail = node;
+            ++this.size;
+        }
+
+        /**
+         * @param node the entry to remove
+         */
+        void remove(Node<T> node)
+        {
+            if (node.previous == null) {
+                this.head = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                this.tail = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            node.region = Region.NONE;
+            --this.size;
+        }
+
+        /**
+         * @param node the entry to mark as the most recently used one
+         */
+        void moveToTail(Node<T> node)
+        {
+            if (node != this.tail) {
+                remove(node);
+                add(node);
+            }
+        }
+
+        /**
+         * @return the least recently used entry, null if the segment is empty
+         */
+        Node<T> peekFirst()
+        {
+            return this.head;
+        }
+
+        /**
+         * @return the most recently used entry, null if the segment is empty
+         */
+        Node<T> peekLast()
+        {
+            return this.tail;
+        }
+
+        /**
+         * @return the least recently used entry, removed from the segment, null if the segment is empty
+         */
+        Node<T> pollFirst()
+        {
+            Node<T> node = this.head;
+            if (node != null) {
+                remove(node);
+            }
+
+            return node;
+        }
+
+        /**
+         * Remove all the entries.
+         */
+        void clear()
+        {
+            while (this.head != null) {
+                remove(this.head);
+            }
+        }
+    }
+
+    /**
+     * The entries.
+     */
+    private final ConcurrentMap<String, Node<T>> data = new ConcurrentHashMap<String, Node<T>>();
+
+    /**
+     * Guard the eviction policy and the modifications of {@link #data}.
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * The accesses not yet applied to the eviction policy.
+     */
+    private final Queue<Node<T>> readBuffer = new ConcurrentLinkedQueue<Node<T>>();
+
+    /**
+     * The approximate size of {@link #readBuffer}.
+     */
+    private final AtomicInteger readBufferSize = new AtomicInteger();
+
+    /**
+     * The maximum number of entries, 0 if the cache is unbounded.
+     */
+    private final int maximumSize;
+
+    /**
+     * The maximum number of entries in {@link #window}.
+     */
+    private final int windowMaximumSize;
+
+    /**
+     * The maximum number of entries in {@link #protectedOrder}.
+     */
+    private final int protectedMaximumSize;
+
+    /**
+     * The maximum time an entry is kept without being accessed, in nanoseconds, 0 if unlimited.
+     */
+    private final long timeToLive;
+
+    /**
+     * The access frequency of the keys, null if the cache is unbounded.
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * The new entries.
+     */
+    private final AccessOrder<T> window = new AccessOrder<T>(Region.WINDOW);
+
+    /**
+     * The main space entries not accessed since they entered the main space.
+     */
+    private final AccessOrder<T> probation = new AccessOrder<T>(Region.PROBATION);
+
+    /**
+     * The main space entries accessed since they entered the main space.
+     */
+    private final AccessOrder<T> protectedOrder = new AccessOrder<T>(Region.PROTECTED);
+
+    /**
+     * The date of the last removal of the expired entries, guarded by the eviction lock.
+     */
+    private long lastExpiration = System.nanoTime();
+
+    /**
+     * @param configuration the configuration of the cache
+     */
+    public TinyLFUCache(CacheConfiguration configuration)
+    {
+        this.configuration = configuration;
+
+        int maxEntries = 0;
+        int ttl = 0;
+        EntryEvictionConfiguration eviction =
+            (EntryEvictionConfiguration) configuration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+        if (eviction != null) {
+            if (eviction.getAlgorithm() == EntryEvictionConfiguration.Algorithm.LRU
+                && eviction.containsKey(LRUEvictionConfiguration.MAXENTRIES_ID)) {
+                maxEntries = ((Number) eviction.get(LRUEvictionConfiguration.MAXENTRIES_ID)).intValue();
+            }
+            ttl = eviction.getTimeToLive();
+        }
+
+        this.maximumSize = Math.max(0, maxEntries);
+        this.windowMaximumSize = Math.max(1, this.maximumSize * WINDOW_PERCENTAGE / 100);
+        this.protectedMaximumSize = (this.maximumSize - this.windowMaximumSize) * PROTECTED_PERCENTAGE / 100;
+        this.timeToLive = TimeUnit.SECONDS.toNanos(Math.max(0, ttl));
+        this.sketch = this.maximumSize > 0 ? new FrequencySketch(this.maximumSize) : null;
+    }
+
+    @Override
+    public T get(String key)
+    {
+        Node<T> node = this.data.get(key);
+        T value = null;
+
+        if (node != null) {
+            long now = System.nanoTime();
+            if (isExpired(node, now)) {
+                expire(node);
+            } else {
+                value = node.value;
+                if (this.timeToLive > 0) {
+                    node.accessTime = now;
+                }
+                afterRead(node);
+            }
+        }
+
+        recordLookup(key, value);
+
+        return value;
+    }
+
+    @Override
+    public void set(String key, T value)
+    {
+        if (value == null) {
+            remove(key);
+
+            return;
+        }
+
+        long now = System.nanoTime();
+        List<Node<T>> evicted = new ArrayList<Node<T>>();
+        boolean added;
+        T previousValue = null;
+
+        this.evictionLock.lock();
+        try {
+            drainReadBuffer();
+
+            Node<T> node = this.data.get(key);
+            if (node == null) {
+                node = new Node<T>(key, value, now);
+                this.data.put(key, node);
+                onInsert(node);
+                added = true;
+            } else {
+                previousValue = node.value;
+                node.value = value;
+                node.accessTime = now;
+                onAccess(node);
+                added = false;
+            }
+
+            evict(evicted);
+            expire(now, evicted);
+        } finally {
+            this.evictionLock.unlock();
+        }
+
+        TinyLFUCacheEntryEvent<T> event = new TinyLFUCacheEntryEvent<T>(this, key, value);
+        if (added) {
+            sendEntryAddedEvent(event);
+        } else {
+            if (previousValue != value) {
+                disposeCacheValue(previousValue);
+            }
+            sendEntryModifiedEvent(event);
+        }
+
+        for (Node<T> node : evicted) {
+            this.statistics.recordEviction();
+            sendEntryRemovedEvent(new TinyLFUCacheEntryEvent<T>(this, node.key, node.value));
+        }
+
+        evictOverweightEntries();
+    }
+
+    @Override
+    public void remove(String key)
+    {
+        Node<T> node;
+
+        this.evictionLock.lock();
+        try {
+            node = this.data.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+
+        if (node != null) {
+            sendEntryRemovedEvent(new TinyLFUCacheEntryEvent<T>(this, node.key, node.value));
+        }
+    }
+
+    @Override
+    public void removeAll()
+    {
+        this.evictionLock.lock();
+        try {
+            this.data.clear();
+            this.window.clear();
+            this.probation.clear();
+            this.protectedOrder.clear();
+            drainReadBuffer();
+        } finally {
+            this.evictionLock.unlock();
+        }
+
+        clearWeights();
+    }
+
+    @Override
+    public void dispose()
+    {
+        super.dispose();
+
+        removeAll();
+    }
+
+    @Override
+    protected long getSize()
+    {
+        return this.data.size();
+    }
+
+    /**
+     * @param node an entry
+     * @param now the current date, from {@link System#nanoTime()}
+     * @return true if the entry has not been accessed for longer than the time to live
+     */
+    private boolean isExpired(Node<T> node, long now)
+    {
+        return this.timeToLive > 0 && now - node.accessTime > this.timeToLive;
+    }
+
+    /**
+     * Remove an expired entry found by a lookup.
+     * 
+     * @param node the expired entry
+     */
+    private void expire(Node<T> node)
+    {
+        boolean removed;
+
+        this.evictionLock.lock();
+        try {
+            removed = this.data.remove(node.key, node);
+            if (removed) {
+                unlink(node);
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+
+        if (removed) {
+            this.statistics.recordEviction();
+            sendEntryRemovedEvent(new TinyLFUCacheEntryEvent<T>(this, node.key, node.value));
+        }
+    }
+
+    /**
+     * Remove the expired entries which have not been looked up, at most once per time to live period. Must be called
+     * with the eviction lock held.
+     * 
+     * @param now the current date, from {@link System#nanoTime()}
+     * @param evicted the list where to add the removed entries
+     */
+    private void expire(long now, List<Node<T>> evicted)
+    {
+        if (this.timeToLive > 0 && now - this.lastExpiration > this.timeToLive) {
+            this.lastExpiration = now;
+            for (Node<T> node : this.data.values()) {
+                if (isExpired(node, now) && this.data.remove(node.key, node)) {
+                    unlink(node);
+                    evicted.add(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record an access to an entry, applying the buffered accesses to the eviction policy when there's enough of them
+     * and nobody else is doing it.
+     * 
+     * @param node the accessed entry
+     */
+    private void afterRead(Node<T> node)
+    {
+        if (this.sketch == null) {
+            return;
+        }
+
+        if (this.readBufferSize.get() < READ_BUFFER_SIZE) {
+            this.readBuffer.offer(node);
+            if (this.readBufferSize.incrementAndGet() < READ_BUFFER_DRAIN_THRESHOLD) {
+                return;
+            }
+        }
+
+        if (this.evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                this.evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply the buffered accesses to the eviction policy. Must be called with the eviction lock held.
+     */
+    private void drainReadBuffer()
+    {
+        Node<T> node;
+        while ((node = this.readBuffer.poll()) != null) {
+            this.readBufferSize.decrementAndGet();
+            if (node.region != Region.NONE) {
+                onAccess(node);
+            }
+        }
+    }
+
+    /**
+     * Add a new entry to the eviction policy. Must be called with the eviction lock held.
+     * 
+     * @param node the new entry
+     */
+    private void onInsert(Node<T> node)
+    {
+        if (this.sketch != null) {
+            this.sketch.increment(node.key);
+            this.window.add(node);
+        }
+    }
+
+    /**
+     * Apply an access to the eviction policy. Must be called with the eviction lock held.
+     * 
+     * @param node the accessed entry
+     */
+    private void onAccess(Node<T> node)
+    {
+        if (this.sketch == null) {
+            return;
+        }
+
+        this.sketch.increment(node.key);
+
+        switch (node.region) {
+            case WINDOW:
+                this.window.moveToTail(node);
+                break;
+            case PROBATION:
+                // The entry proved useful, protect it.
+                this.probation.remove(node);
+                this.protectedOrder.add(node);
+                while (this.protectedOrder.size > this.protectedMaximumSize) {
+                    this.probation.add(this.protectedOrder.pollFirst());
+                }
+                break;
+            case PROTECTED:
+                this.protectedOrder.moveToTail(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Remove an entry from the eviction policy. Must be called with the eviction lock held.
+     * 
+     * @param node the removed entry
+     */
+    private void unlink(Node<T> node)
+    {
+        switch (node.region) {
+            case WINDOW:
+                this.window.remove(node);
+                break;
+            case PROBATION:
+                this.probation.remove(node);
+                break;
+            case PROTECTED:
+                this.protectedOrder.remove(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Remove the entries exceeding the maximum size. Must be called with the eviction lock held.
+     * 
+     * @param evicted the list where to add the removed entries
+     */
+    private void evict(List<Node<T>> evicted)
+    {
+        if (this.sketch == null) {
+            return;
+        }
+
+        // The entries leaving the window become candidates to the main space.
+        while (this.window.size > this.windowMaximumSize) {
+            this.probation.add(this.window.pollFirst());
+        }
+
+        while (this.window.size + this.probation.size + this.protectedOrder.size > this.maximumSize) {
+            Node<T> candidate = this.probation.peekLast();
+            Node<T> victim = this.probation.peekFirst();
+            if (victim == candidate) {
+                // The candidate is alone in the probation segment, it competes with the protected entries.
+                victim = this.protectedOrder.peekFirst();
+            }
+
+            Node<T> evictedNode;
+            if (candidate == null) {
+                evictedNode = this.protectedOrder.size > 0 ? this.protectedOrder.peekFirst() : this.window.peekFirst();
+            } else if (victim == null) {
+                evictedNode = candidate;
+            } else {
+                // Admit the candidate only if it's more popular than the entry it would replace.
+                evictedNode =
+                    this.sketch.frequency(candidate.key) > this.sketch.frequency(victim.key) ? victim : candidate;
+            }
+
+            unlink(evictedNode);
+            this.data.remove(evictedNode.key, evictedNode);
+            evicted.add(evictedNode);
+        }
+    }
+}
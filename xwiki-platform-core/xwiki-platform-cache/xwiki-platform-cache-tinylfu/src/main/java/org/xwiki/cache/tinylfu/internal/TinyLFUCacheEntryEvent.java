@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.tinylfu.internal;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.event.CacheEntryEvent;
+
+/**
+ * Implements {@link CacheEntryEvent} and the associated {@link CacheEntry} for {@link TinyLFUCache}.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 4.2M3
+ */
+class TinyLFUCacheEntryEvent<T> implements CacheEntryEvent<T>, CacheEntry<T>
+{
+    /**
+     * The cache which generated this event.
+     */
+    private final Cache<T> cache;
+
+    /**
+     * The entry key.
+     */
+    private final String key;
+
+    /**
+     * The entry data.
+     */
+    private final T data;
+
+    /**
+     * @param cache the cache which generated this event
+     * @param key the entry key
+     * @param data the entry data
+     */
+    TinyLFUCacheEntryEvent(Cache<T> cache, String key, T data)
+    {
+        this.cache = cache;
+        this.key = key;
+        this.data = data;
+    }
+
+    @Override
+    public Cache<T> getCache()
+    {
+        return this.cache;
+    }
+
+    @Override
+    public CacheEntry<T> getEntry()
+    {
+        return this;
+    }
+
+    @Override
+    public String getKey()
+    {
+        return this.key;
+    }
+
+    @Override
+    public T getValue()
+    {
+        return this.data;
+    }
+}
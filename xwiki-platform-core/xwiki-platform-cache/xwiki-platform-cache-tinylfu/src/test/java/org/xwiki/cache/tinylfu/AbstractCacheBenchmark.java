@@ -0,0 +1,243 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.tinylfu;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.tests.AbstractTestCache;
+
+/**
+ * Base class for comparing the hit ratio and the throughput of cache component implementations by replaying access
+ * traces: each key is looked up and set in the cache when it's missing. The results are logged.
+ * <p>
+ * The benchmarks are skipped unless the {@code xwiki.cache.benchmark} system property is {@code true}. The following
+ * system properties control them:
+ * <ul>
+ * <li>{@code xwiki.cache.benchmark.traces}: comma separated list of recorded traces files (see {@link AccessTrace}),
+ * a generated trace mixing popular keys and scans is used when not set</li>
+ * <li>{@code xwiki.cache.benchmark.capacity}: the maximum number of entries of the caches, 1000 by default</li>
+ * <li>{@code xwiki.cache.benchmark.threads}: the number of threads replaying the traces when measuring the
+ * throughput, the number of processors by default</li>
+ * </ul>
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public abstract class AbstractCacheBenchmark extends AbstractTestCache
+{
+    /**
+     * Used to report the results of the benchmarks.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCacheBenchmark.class);
+
+    /**
+     * The prefix of the system properties controlling the benchmarks.
+     */
+    private static final String PROPERTY_PREFIX = "xwiki.cache.benchmark";
+
+    /**
+     * The role hints of the cache component implementations to compare.
+     */
+    private final String[] roleHints;
+
+    /**
+     * The traces to replay.
+     */
+    private List<AccessTrace> traces;
+
+    /**
+     * The maximum number of entries of the caches.
+     */
+    private int capacity;
+
+    /**
+     * @param roleHints the role hints of the cache component implementations to compare, the first one being the
+     *            implementation under test
+     */
+    protected AbstractCacheBenchmark(String... roleHints)
+    {
+        super(roleHints[0]);
+
+        this.roleHints = roleHints;
+    }
+
+    /**
+     * Load the traces to replay.
+     * 
+     * @throws Exception error when loading the traces
+     */
+    @Before
+    public void loadTraces() throws Exception
+    {
+        Assume.assumeTrue(Boolean.getBoolean(PROPERTY_PREFIX));
+
+        this.capacity = Integer.getInteger(PROPERTY_PREFIX + ".capacity", 1000);
+
+        this.traces = new ArrayList<AccessTrace>();
+        String files = System.getProperty(PROPERTY_PREFIX + ".traces");
+        if (files == null || files.trim().length() == 0) {
+            this.traces.add(AccessTrace.generate(this.capacity * 500, this.capacity * 5, this.capacity * 2,
+                this.capacity * 20, 42));
+        } else {
+            for (String file : files.split(",")) {
+                this.traces.add(AccessTrace.load(new File(file.trim())));
+            }
+        }
+    }
+
+    /**
+     * Compare the hit ratio of the implementations when replaying the traces with a single thread.
+     * 
+     * @throws Exception error
+     */
+    @Test
+    public void benchmarkHitRatio() throws Exception
+    {
+        for (AccessTrace trace : this.traces) {
+            for (String roleHint : this.roleHints) {
+                Cache<Object> cache = newCache(roleHint);
+
+                long start = System.nanoTime();
+                long hits = replay(cache, trace.getKeys(), 0, trace.getKeys().size());
+                long duration = System.nanoTime() - start;
+
+                cache.dispose();
+
+                LOGGER.info(String.format("[%s] %s, capacity %d: hit ratio %.2f%% in %d ms", trace.getName(),
+                    roleHint, this.capacity, hits * 100.0 / trace.getKeys().size(),
+                    TimeUnit.NANOSECONDS.toMillis(duration)));
+            }
+        }
+    }
+
+    /**
+     * Compare the throughput of the implementations when replaying the traces with several threads.
+     * 
+     * @throws Exception error
+     */
+    @Test
+    public void benchmarkThroughput() throws Exception
+    {
+        int threadCount = Integer.getInteger(PROPERTY_PREFIX + ".threads", Runtime.getRuntime().availableProcessors());
+
+        for (final AccessTrace trace : this.traces) {
+            for (String roleHint : this.roleHints) {
+                final Cache<Object> cache = newCache(roleHint);
+
+                // Warm up the cache and the JIT.
+                replay(cache, trace.getKeys(), 0, trace.getKeys().size());
+
+                final AtomicLong hits = new AtomicLong();
+                final CountDownLatch startSignal = new CountDownLatch(1);
+                List<Thread> threads = new ArrayList<Thread>();
+                final int size = trace.getKeys().size();
+                for (int i = 0; i < threadCount; ++i) {
+                    // Each thread replays the trace from a different offset.
+                    final int offset = i * (size / threadCount);
+                    Thread thread = new Thread()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try {
+                                startSignal.await();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                            hits.addAndGet(replay(cache, trace.getKeys(), offset, size));
+                        }
+                    };
+                    thread.start();
+                    threads.add(thread);
+                }
+
+                long start = System.nanoTime();
+                startSignal.countDown();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                long duration = System.nanoTime() - start;
+
+                cache.dispose();
+
+                long operations = (long) size * threadCount;
+                LOGGER.info(String.format("[%s] %s, %d threads: %.0f operations/s, hit ratio %.2f%%",
+                    trace.getName(), roleHint, threadCount, operations * 1e9 / duration, hits.get() * 100.0
+                        / operations));
+            }
+        }
+    }
+
+    /**
+     * @param roleHint the role hint of the cache component implementation
+     * @return a new cache bounded by the configured capacity
+     * @throws Exception error when creating the cache
+     */
+    private Cache<Object> newCache(String roleHint) throws Exception
+    {
+        CacheFactory factory = getComponentManager().getInstance(CacheFactory.class, roleHint);
+
+        CacheConfiguration configuration = new CacheConfiguration();
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(this.capacity);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        return factory.newCache(configuration);
+    }
+
+    /**
+     * Replay a trace: look up each key and set it when it's missing.
+     * 
+     * @param cache the cache
+     * @param keys the keys of the trace
+     * @param offset the index of the first key to replay, the keys before being replayed at the end
+     * @param count the number of keys to replay
+     * @return the number of keys found in the cache
+     */
+    private long replay(Cache<Object> cache, List<String> keys, int offset, int count)
+    {
+        long hits = 0;
+        int size = keys.size();
+        for (int i = 0; i < count; ++i) {
+            String key = keys.get((offset + i) % size);
+            if (cache.get(key) != null) {
+                ++hits;
+            } else {
+                cache.set(key, key);
+            }
+        }
+
+        return hits;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.tinylfu;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A sequence of cache keys to replay against a cache.
+ * <p>
+ * Recorded traces are text files (optionally gzipped) with one key per line, the empty lines and the lines starting
+ * with {@code #} being ignored. For example the requested document names can be extracted from the access logs of a
+ * wiki to replay its document cache usage.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class AccessTrace
+{
+    /**
+     * The name of the trace.
+     */
+    private final String name;
+
+    /**
+     * The keys, in the order they're accessed.
+     */
+    private final List<String> keys;
+
+    /**
+     * @param name the name of the trace
+     * @param keys the keys, in the order they're accessed
+     */
+    public AccessTrace(String name, List<String> keys)
+    {
+        this.name = name;
+        this.keys = Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * @return the name of the trace
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @return the keys, in the order they're accessed
+     */
+    public List<String> getKeys()
+    {
+        return this.keys;
+    }
+
+    /**
+     * @return the number of distinct keys
+     */
+    public int getDistinctKeyCount()
+    {
+        return new HashSet<String>(this.keys).size();
+    }
+
+    /**
+     * Load a recorded trace.
+     * 
+     * @param file the file containing the trace
+     * @return the trace
+     * @throws IOException when failing to read the file
+     */
+    public static AccessTrace load(File file) throws IOException
+    {
+        List<String> keys = new ArrayList<String>();
+
+        InputStream stream = new FileInputStream(file);
+        try {
+            if (file.getName().endsWith(".gz")) {
+                stream = new GZIPInputStream(stream);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String key = line.trim();
+                if (key.length() > 0 && !key.startsWith("#")) {
+                    keys.add(key);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+
+        return new AccessTrace(file.getName(), keys);
+    }
+
+    /**
+     * Generate a trace where popular keys, following a Zipf distribution, are interleaved with scans of keys accessed
+     * only once, like a crawler visiting all the pages of a wiki.
+     * 
+     * @param length the number of accesses
+     * @param popularKeyCount the number of popular keys
+     * @param scanLength the number of keys of each scan
+     * @param scanPeriod the number of accesses to popular keys between two scans
+     * @param seed the seed of the random generator, to replay the same trace
+     * @return the trace
+     */
+    public static AccessTrace generate(int length, int popularKeyCount, int scanLength, int scanPeriod, long seed)
+    {
+        // The cumulative distribution of the Zipf law with an exponent of 1.
+        double[] distribution = new double[popularKeyCount];
+        double total = 0;
+        for (int i = 0; i < popularKeyCount; ++i) {
+            total += 1.0 / (i + 1);
+            distribution[i] = total;
+        }
+
+        Random random = new Random(seed);
+        List<String> keys = new ArrayList<String>(length);
+        int scanned = 0;
+        while (keys.size() < length) {
+            for (int i = 0; i < scanPeriod && keys.size() < length; ++i) {
+                int index = Arrays.binarySearch(distribution, random.nextDouble() * total);
+                keys.add("popular" + (index < 0 ? -index - 1 : index));
+            }
+            for (int i = 0; i < scanLength && keys.size() < length; ++i) {
+                keys.add("scan" + scanned++);
+            }
+        }
+
+        return new AccessTrace(String.format("zipf-%d-scan-%d/%d", popularKeyCount, scanLength, scanPeriod), keys);
+    }
+}
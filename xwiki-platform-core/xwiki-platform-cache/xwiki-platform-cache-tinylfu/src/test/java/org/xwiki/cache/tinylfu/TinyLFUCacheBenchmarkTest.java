@@ -0,0 +1,33 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.tinylfu;
+
+/**
+ * Compare the TinyLFU cache with the Infinispan LRU cache. Run with {@code -Dxwiki.cache.benchmark=true}.
+ * 
+ * @version $Id$
+ */
+public class TinyLFUCacheBenchmarkTest extends AbstractCacheBenchmark
+{
+    public TinyLFUCacheBenchmarkTest()
+    {
+        super("tinylfu", "infinispan/local");
+    }
+}
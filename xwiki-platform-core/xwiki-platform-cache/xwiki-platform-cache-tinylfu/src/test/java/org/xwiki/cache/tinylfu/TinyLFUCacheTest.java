@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.tinylfu;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.tests.AbstractEvictionGenericTestCache;
+
+public class TinyLFUCacheTest extends AbstractEvictionGenericTestCache
+{
+    public TinyLFUCacheTest()
+    {
+        super("tinylfu", true);
+    }
+
+    @Test
+    public void testScanResistance() throws Exception
+    {
+        CacheConfiguration configuration = new CacheConfiguration();
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(100);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        Cache<Object> cache = getCacheFactory().newCache(configuration);
+
+        // Make some entries popular.
+        for (int i = 0; i < 50; ++i) {
+            for (int j = 0; j < 50; ++j) {
+                if (cache.get("popular" + j) == null) {
+                    cache.set("popular" + j, VALUE);
+                }
+            }
+        }
+
+        // Scan many more entries than the cache can hold.
+        for (int i = 0; i < 10000; ++i) {
+            cache.set("scan" + i, VALUE);
+        }
+
+        // A plain LRU cache would have kept none of them. The only one which can be lost is the last inserted one,
+        // which never left the window.
+        int popular = 0;
+        for (int j = 0; j < 50; ++j) {
+            if (cache.get("popular" + j) != null) {
+                ++popular;
+            }
+        }
+        Assert.assertTrue(popular >= 49);
+        Assert.assertTrue(cache.getStatistics().getSize() <= 100);
+
+        cache.dispose();
+    }
+}
@@ -21,8 +21,10 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -30,7 +32,9 @@
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.extension.InstallException;
 import org.xwiki.extension.LocalExtension;
 import org.xwiki.extension.ResolveException;
@@ -41,7 +45,9 @@
 import org.xwiki.extension.xar.internal.handler.packager.PackageConfiguration;
 import org.xwiki.extension.xar.internal.handler.packager.Packager;
 import org.xwiki.extension.xar.internal.handler.packager.XarEntry;
+import org.xwiki.extension.xar.internal.handler.packager.XarEntryMergeResult;
 import org.xwiki.extension.xar.internal.handler.packager.XarFile;
+import org.xwiki.extension.xar.internal.handler.packager.XarMergeResult;
 import org.xwiki.extension.xar.internal.repository.XarInstalledExtension;
 import org.xwiki.job.Job;
 import org.xwiki.job.JobContext;
@@ -63,6 +69,12 @@ public class XarExtensionHandler extends AbstractExtensionHandler
 
     private static final String PROPERTY_USERREFERENCE = "user.reference";
 
+    /**
+     * The configuration property indicating how many wikis a XAR extension can be imported into at the same time when
+     * it's installed on the whole farm.
+     */
+    private static final String CONFIGURATION_IMPORTTHREADS = "extension.xar.importThreads";
+
     @Inject
     private Packager packager;
 
@@ -159,13 +171,46 @@ private void install(XarInstalledExtension previousExtension, LocalExtension loc
         Request request) throws InstallException
     {
         // import xar into wiki (add new version when the page already exists)
+        Map<String, XarMergeResult> mergeResults;
         try {
-            this.packager.importXAR(previousExtension != null ? new XarFile(new File(previousExtension.getFile()
-                .getAbsolutePath()), previousExtension.getPages()) : null, new File(localExtension.getFile()
-                .getAbsolutePath()), createPackageConfiguration(request, wiki));
+            mergeResults =
+                this.packager.importXAR(previousExtension != null ? new XarFile(new File(previousExtension.getFile()
+                    .getAbsolutePath()), previousExtension.getPages()) : null, new File(localExtension.getFile()
+                    .getAbsolutePath()), createPackageConfiguration(request, wiki));
         } catch (Exception e) {
             throw new InstallException("Failed to import xar for extension [" + localExtension + "]", e);
         }
+
+        reportMergeResults(localExtension, mergeResults);
+    }
+
+    /**
+     * Report in the log of the install job the documents which have been merged with the existing ones in each wiki,
+     * and those for which the merge failed.
+     * 
+     * @param localExtension the installed extension
+     * @param mergeResults the merge results of each wiki
+     */
+    private void reportMergeResults(LocalExtension localExtension, Map<String, XarMergeResult> mergeResults)
+    {
+        for (Map.Entry<String, XarMergeResult> wikiMergeResult : mergeResults.entrySet()) {
+            Collection<XarEntryMergeResult> results = wikiMergeResult.getValue().getMergeResults().values();
+            if (results.isEmpty()) {
+                continue;
+            }
+
+            int conflicts = 0;
+            for (XarEntryMergeResult result : results) {
+                if (!result.getResult().getErrors().isEmpty()) {
+                    this.logger.warn("Failed to merge document [{}] of extension [{}] in wiki [{}]", new Object[] {
+                        result.getEntry(), localExtension, wikiMergeResult.getKey()});
+                    ++conflicts;
+                }
+            }
+
+            this.logger.info("Merged [{}] documents of extension [{}] in wiki [{}], [{}] with errors", new Object[] {
+                results.size(), localExtension, wikiMergeResult.getKey(), conflicts});
+        }
     }
 
     @Override
@@ -214,6 +259,7 @@ private PackageConfiguration createPackageConfiguration(Request request, String
         configuration.setInteractive(request.isInteractive());
         configuration.setUser((DocumentReference) request.getProperty(PROPERTY_USERREFERENCE));
         configuration.setWiki(wiki);
+        configuration.setThreads(getImportThreads());
 
         try {
             Job currentJob = this.componentManager.<JobContext>getInstance(JobContext.class).getCurrentJob();
@@ -226,4 +272,16 @@ private PackageConfiguration createPackageConfiguration(Request request, String
 
         return configuration;
     }
+
+    private int getImportThreads()
+    {
+        try {
+            ConfigurationSource configuration =
+                this.componentManager.getInstance(ConfigurationSource.class, "xwikiproperties");
+
+            return configuration.getProperty(CONFIGURATION_IMPORTTHREADS, 1);
+        } catch (ComponentLookupException e) {
+            return 1;
+        }
+    }
 }
@@ -41,6 +41,8 @@ public class DefaultPackageConfiguration implements PackageConfiguration
 
     private JobStatus jobStatus;
 
+    private int threads = 1;
+
     @Override
     public String getWiki()
     {
@@ -95,4 +97,15 @@ public void setJobStatus(JobStatus jobStatus)
     {
         this.jobStatus = jobStatus;
     }
+
+    @Override
+    public int getThreads()
+    {
+        return this.threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
 }
@@ -26,7 +26,17 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -38,6 +48,7 @@
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.input.CloseShieldInputStream;
 import org.slf4j.Logger;
 import org.xml.sax.ContentHandler;
@@ -50,10 +61,13 @@
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.extension.xar.internal.handler.packager.xml.DocumentHandler;
 import org.xwiki.extension.xar.internal.handler.packager.xml.DocumentImporterHandler;
 import org.xwiki.extension.xar.internal.handler.packager.xml.RootHandler;
 import org.xwiki.extension.xar.internal.handler.packager.xml.UnknownRootElement;
 import org.xwiki.extension.xar.internal.handler.packager.xml.XarPageLimitedHandler;
+import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
@@ -62,6 +76,7 @@
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.internal.event.XARImportedEvent;
 import com.xpn.xwiki.internal.event.XARImportingEvent;
@@ -108,26 +123,322 @@ public void initialize() throws InitializationException
     }
 
     @Override
-    public void importXAR(XarFile previousXarFile, File xarFile, PackageConfiguration configuration)
-        throws IOException, XWikiException
+    public Map<String, XarMergeResult> importXAR(XarFile previousXarFile, File xarFile,
+        PackageConfiguration configuration) throws IOException, XWikiException
     {
+        Map<String, XarMergeResult> mergeResults;
+
         if (configuration.getWiki() == null) {
             XWikiContext context = getXWikiContext();
             if (context.getWiki().isVirtualMode()) {
-                List<String> wikis = getXWikiContext().getWiki().getVirtualWikisDatabaseNames(context);
+                List<String> wikis = new ArrayList<String>();
 
-                if (!wikis.contains(context.getMainXWiki())) {
-                    importXARToWiki(previousXarFile, xarFile, context.getMainXWiki(), configuration);
+                List<String> subwikis = getXWikiContext().getWiki().getVirtualWikisDatabaseNames(context);
+                if (!subwikis.contains(context.getMainXWiki())) {
+                    wikis.add(context.getMainXWiki());
                 }
-
-                for (String subwiki : wikis) {
-                    importXARToWiki(previousXarFile, xarFile, subwiki, configuration);
+                wikis.addAll(subwikis);
+
+                if (configuration.getThreads() > 1 && wikis.size() > 1) {
+                    mergeResults = importXARToWikis(previousXarFile, xarFile, wikis, configuration);
+                } else {
+                    mergeResults = new LinkedHashMap<String, XarMergeResult>();
+                    for (String wiki : wikis) {
+                        mergeResults.put(wiki, importXARToWiki(previousXarFile, xarFile, wiki, configuration));
+                    }
                 }
             } else {
-                importXARToWiki(previousXarFile, xarFile, context.getMainXWiki(), configuration);
+                mergeResults =
+                    Collections.singletonMap(context.getMainXWiki(),
+                        importXARToWiki(previousXarFile, xarFile, context.getMainXWiki(), configuration));
             }
         } else {
-            importXARToWiki(previousXarFile, xarFile, configuration.getWiki(), configuration);
+            mergeResults =
+                Collections.singletonMap(configuration.getWiki(),
+                    importXARToWiki(previousXarFile, xarFile, configuration.getWiki(), configuration));
+        }
+
+        return mergeResults;
+    }
+
+    /**
+     * Import a XAR file into several wikis at the same time. Each document is parsed only once (as well as its
+     * previous version) and then saved in each wiki by a pool of {@link PackageConfiguration#getThreads()} threads.
+     * Each thread gets its own copy of the parsed documents, made by the calling thread since copying a document is
+     * not thread safe.
+     * <p>
+     * The import threads don't log anything: the failures, the merge results and the progress are reported from the
+     * calling (job) thread so that they end up in the job status.
+     * 
+     * @param previousXarFile the previous version of the XAR file, null if there is none
+     * @param xarFile the XAR file to import
+     * @param wikis the wikis to import the XAR file into
+     * @param configuration the configuration of the import
+     * @return the merge results of each wiki
+     * @throws IOException when failing to read the XAR file
+     */
+    private Map<String, XarMergeResult> importXARToWikis(XarFile previousXarFile, File xarFile, List<String> wikis,
+        PackageConfiguration configuration) throws IOException
+    {
+        Map<String, XarMergeResult> mergeResults = new LinkedHashMap<String, XarMergeResult>();
+        for (String wiki : wikis) {
+            mergeResults.put(wiki, new XarMergeResult());
+        }
+
+        XWikiContext xcontext = getXWikiContext();
+
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.min(configuration.getThreads(), wikis.size()), new ImportThreadFactory(
+                xcontext.getUserReference()));
+
+        DocumentImporter importer = new DocumentImporter(configuration);
+
+        int entryCount = countEntries(xarFile);
+
+        FileInputStream fis = new FileInputStream(xarFile);
+        ZipArchiveInputStream zis = new ZipArchiveInputStream(fis);
+
+        String currentWiki = xcontext.getDatabase();
+        try {
+            for (String wiki : wikis) {
+                xcontext.setDatabase(wiki);
+                this.observation.notify(new XARImportingEvent(), null, xcontext);
+            }
+
+            int entryIndex = 0;
+            for (ArchiveEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                if (!entry.isDirectory()) {
+                    try {
+                        DocumentHandler documentHandler = new DocumentHandler(this.componentManager, wikis.get(0));
+                        parseDocument(zis, documentHandler);
+
+                        XWikiDocument nextDocument = documentHandler.getDocument();
+                        XWikiDocument previousDocument = getPreviousDocument(previousXarFile, nextDocument);
+
+                        List<ImportDocumentTask> tasks = new ArrayList<ImportDocumentTask>(wikis.size());
+                        for (String wiki : wikis) {
+                            tasks.add(new ImportDocumentTask(importer, wiki, duplicate(nextDocument, wiki),
+                                previousDocument != null ? duplicate(previousDocument, wiki) : null));
+                        }
+                        List<Future<XarEntryMergeResult>> futures = executor.invokeAll(tasks);
+
+                        for (int i = 0; i < futures.size(); ++i) {
+                            addMergeResult(futures.get(i), nextDocument, wikis.get(i), mergeResults, configuration);
+                        }
+                    } catch (NotADocumentException e) {
+                        // Impossible to know that before parsing
+                        this.logger.debug("Entry [" + entry + "] is not a document", e);
+                    } catch (InterruptedException e) {
+                        this.logger.warn("Import of [{}] has been interrupted", xarFile);
+
+                        break;
+                    } catch (Exception e) {
+                        this.logger.error("Failed to parse document [" + entry.getName() + "]", e);
+                    } finally {
+                        logProgress(++entryIndex, entryCount, wikis.size());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+
+            for (String wiki : wikis) {
+                xcontext.setDatabase(wiki);
+                this.observation.notify(new XARImportedEvent(), null, xcontext);
+            }
+
+            xcontext.setDatabase(currentWiki);
+
+            zis.close();
+        }
+
+        return mergeResults;
+    }
+
+    /**
+     * Report the result of the import of a document in a wiki.
+     * 
+     * @param future the result of the import task
+     * @param document the imported document
+     * @param wiki the wiki where the document has been imported
+     * @param mergeResults the merge results of each wiki
+     * @param configuration the configuration of the import
+     * @throws InterruptedException when the import has been interrupted
+     */
+    private void addMergeResult(Future<XarEntryMergeResult> future, XWikiDocument document, String wiki,
+        Map<String, XarMergeResult> mergeResults, PackageConfiguration configuration) throws InterruptedException
+    {
+        try {
+            XarEntryMergeResult mergeResult = future.get();
+            if (mergeResult != null) {
+                mergeResults.get(wiki).addMergeResult(mergeResult);
+
+                // The merge happened in an import thread, make its log part of the job log
+                if (configuration.getJobStatus() != null) {
+                    configuration.getJobStatus().getLog().addAll(mergeResult.getResult().getLog());
+                }
+            }
+        } catch (ExecutionException e) {
+            this.logger.error("Failed to import document [" + document.getDocumentReference() + "] into wiki ["
+                + wiki + "]", e.getCause());
+        }
+    }
+
+    /**
+     * Log the progress of the import about every tenth of the XAR file.
+     * 
+     * @param index the number of entries imported so far
+     * @param count the number of entries of the XAR file
+     * @param wikiCount the number of wikis the XAR file is imported into
+     */
+    private void logProgress(int index, int count, int wikiCount)
+    {
+        if (index % Math.max(1, count / 10) == 0 || index == count) {
+            this.logger.info("Imported [{}] of [{}] XAR entries into [{}] wikis", new Object[] {index, count,
+                wikiCount});
+        }
+    }
+
+    /**
+     * @param xarFile the XAR file
+     * @return the number of files in the XAR file, read from the zip central directory
+     * @throws IOException when failing to read the XAR file
+     */
+    private int countEntries(File xarFile) throws IOException
+    {
+        int count = 0;
+
+        ZipFile zipFile = new ZipFile(xarFile);
+        try {
+            for (Enumeration<ZipArchiveEntry> entries = zipFile.getEntries(); entries.hasMoreElements();) {
+                if (!entries.nextElement().isDirectory()) {
+                    ++count;
+                }
+            }
+        } finally {
+            ZipFile.closeQuietly(zipFile);
+        }
+
+        return count;
+    }
+
+    private XWikiDocument duplicate(XWikiDocument document, String wiki)
+    {
+        DocumentReference reference = document.getDocumentReference();
+
+        return document.duplicate(new DocumentReference(wiki, reference.getLastSpaceReference().getName(),
+            reference.getName()));
+    }
+
+    private XWikiDocument getPreviousDocument(XarFile previousXarFile, XWikiDocument document)
+        throws NotADocumentException, ParserConfigurationException, SAXException, IOException
+    {
+        XWikiDocument previousDocument = null;
+
+        if (previousXarFile != null) {
+            XarEntry realEntry =
+                previousXarFile.getEntry(new EntityReference(document.getName(), EntityType.DOCUMENT,
+                    new EntityReference(document.getSpace(), EntityType.SPACE)), document.getRealLanguage());
+            if (realEntry != null) {
+                DocumentHandler documentHandler = new DocumentHandler(this.componentManager, document.getWikiName());
+
+                parseDocument(previousXarFile.getInputStream(realEntry), documentHandler);
+
+                previousDocument = documentHandler.getDocument();
+            }
+        }
+
+        return previousDocument;
+    }
+
+    /**
+     * Save a document parsed once in one of the target wikis. Each task works on its own copy of the parsed documents,
+     * made for its wiki.
+     */
+    private class ImportDocumentTask implements Callable<XarEntryMergeResult>
+    {
+        private final DocumentImporter importer;
+
+        private final String wiki;
+
+        private final XWikiDocument document;
+
+        private final XWikiDocument previousDocument;
+
+        ImportDocumentTask(DocumentImporter importer, String wiki, XWikiDocument document,
+            XWikiDocument previousDocument)
+        {
+            this.importer = importer;
+            this.wiki = wiki;
+            this.document = document;
+            this.previousDocument = previousDocument;
+        }
+
+        @Override
+        public XarEntryMergeResult call() throws Exception
+        {
+            XWikiContext xcontext = getXWikiContext();
+            xcontext.setDatabase(this.wiki);
+
+            String comment = "Import";
+            if (!this.document.getAttachmentList().isEmpty()) {
+                for (XWikiAttachment attachment : this.document.getAttachmentList()) {
+                    this.importer.importAttachment(this.document, attachment, "Import: add attachment", xcontext);
+                }
+                comment = "Import: final save";
+            }
+
+            return this.importer.importDocument(this.document, this.previousDocument, comment, xcontext);
+        }
+    }
+
+    /**
+     * Create import threads with their own execution and XWiki contexts.
+     */
+    private class ImportThreadFactory implements ThreadFactory
+    {
+        private final DocumentReference userReference;
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        ImportThreadFactory(DocumentReference userReference)
+        {
+            this.userReference = userReference;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    ExecutionContext context = new ExecutionContext();
+
+                    try {
+                        componentManager.<ExecutionContextManager>getInstance(ExecutionContextManager.class)
+                            .initialize(context);
+                    } catch (Exception e) {
+                        logger.error("Failed to initialize XAR import thread execution context", e);
+
+                        return;
+                    }
+
+                    XWikiContext xcontext = contextProvider.createStubContext();
+                    xcontext.setUserReference(userReference);
+                    context.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, xcontext);
+
+                    try {
+                        runnable.run();
+                    } finally {
+                        execution.removeContext();
+                    }
+                }
+            }, "XAR import " + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
         }
     }
 
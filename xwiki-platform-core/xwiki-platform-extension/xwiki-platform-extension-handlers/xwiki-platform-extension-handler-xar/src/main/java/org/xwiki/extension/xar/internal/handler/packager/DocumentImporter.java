@@ -0,0 +1,243 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.extension.xar.internal.handler.ConflictQuestion;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.doc.merge.MergeResult;
+
+/**
+ * Save the documents read from a XAR file into the wiki, merging them with the existing documents.
+ * <p>
+ * The same instance can be used by several threads importing the same package into different wikis.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class DocumentImporter
+{
+    private PackageConfiguration configuration;
+
+    /**
+     * Used to ask one conflict question at a time.
+     */
+    private final Object questionLock = new Object();
+
+    /**
+     * @param configuration the configuration of the import
+     */
+    public DocumentImporter(PackageConfiguration configuration)
+    {
+        this.configuration = configuration;
+    }
+
+    private DocumentReference getUserReference(XWikiContext context)
+    {
+        DocumentReference userReference = this.configuration.getUserReference();
+
+        if (userReference == null) {
+            userReference = context.getUserReference();
+        }
+
+        return userReference;
+    }
+
+    /**
+     * @param document the document read from the XAR file
+     * @param context the XWiki context
+     * @return the document currently stored in the wiki (which may be new)
+     * @throws XWikiException when failing to load the document
+     */
+    public XWikiDocument getDatabaseDocument(XWikiDocument document, XWikiContext context) throws XWikiException
+    {
+        XWikiDocument existingDocument = context.getWiki().getDocument(document.getDocumentReference(), context);
+
+        if (StringUtils.isNotEmpty(document.getLanguage())) {
+            String defaultLanguage = existingDocument.getDefaultLanguage();
+            XWikiDocument translatedDocument = existingDocument.getTranslatedDocument(document.getLanguage(), context);
+
+            if (translatedDocument == existingDocument) {
+                translatedDocument = new XWikiDocument(document.getDocumentReference());
+                translatedDocument.setDefaultLanguage(defaultLanguage);
+                translatedDocument.setTranslation(1);
+                translatedDocument.setLanguage(document.getLanguage());
+            }
+
+            existingDocument = translatedDocument;
+        }
+
+        return existingDocument;
+    }
+
+    private void saveDocument(XWikiDocument nextDocument, XWikiDocument document, String comment,
+        XWikiContext context) throws Exception
+    {
+        XWikiDocument currentDocument = getDatabaseDocument(nextDocument, context);
+        DocumentReference userReference = getUserReference(context);
+
+        if (!currentDocument.isNew()) {
+            if (document != currentDocument) {
+                if (document.isNew()) {
+                    currentDocument.apply(document);
+                } else {
+                    currentDocument = document;
+                }
+            }
+        } else {
+            currentDocument = document;
+            currentDocument.setCreatorReference(userReference);
+        }
+
+        currentDocument.setAuthorReference(userReference);
+        currentDocument.setContentAuthorReference(userReference);
+
+        context.getWiki().saveDocument(currentDocument, comment, context);
+    }
+
+    private XWikiDocument askDocumentToSave(XWikiDocument currentDocument, XWikiDocument previousDocument,
+        XWikiDocument nextDocument, XWikiDocument mergedDocument)
+    {
+        // Ask what to do
+        ConflictQuestion question =
+            new ConflictQuestion(currentDocument, previousDocument, nextDocument, mergedDocument);
+
+        if (this.configuration != null && this.configuration.getJobStatus() != null) {
+            synchronized (this.questionLock) {
+                try {
+                    this.configuration.getJobStatus().ask(question);
+                } catch (InterruptedException e) {
+                    // TODO: log something ?
+                }
+            }
+        }
+
+        XWikiDocument documentToSave;
+
+        switch (question.getGlobalAction()) {
+            case CURRENT:
+                documentToSave = currentDocument;
+                break;
+            case NEXT:
+                documentToSave = nextDocument;
+                break;
+            case PREVIOUS:
+                documentToSave = previousDocument;
+                break;
+            case CUSTOM:
+                documentToSave = question.getCustomDocument() != null ? question.getCustomDocument() : mergedDocument;
+                break;
+            default:
+                documentToSave = mergedDocument;
+                break;
+        }
+
+        return documentToSave;
+    }
+
+    /**
+     * Merge and save a document.
+     *
+     * @param nextDocument the document read from the XAR file
+     * @param previousDocument the same document in the previous version of the XAR file, null if there is none
+     * @param comment the save comment
+     * @param context the XWiki context
+     * @return the result of the merge with the existing document, null if no merge was needed
+     * @throws Exception when failing to save the document
+     */
+    public XarEntryMergeResult importDocument(XWikiDocument nextDocument, XWikiDocument previousDocument,
+        String comment, XWikiContext context) throws Exception
+    {
+        XarEntryMergeResult mergeResult = null;
+
+        XWikiDocument currentDocument = getDatabaseDocument(nextDocument, context);
+
+        // Merge and save
+        if (currentDocument != null && !currentDocument.isNew()) {
+            if (previousDocument != null) {
+                XWikiDocument mergedDocument = currentDocument.clone();
+
+                MergeResult documentMergeResult =
+                    mergedDocument.merge(previousDocument, nextDocument, this.configuration.getMergeConfiguration(),
+                        context);
+
+                if (documentMergeResult.isModified()) {
+                    if (this.configuration.isInteractive() && !documentMergeResult.getErrors().isEmpty()) {
+                        XWikiDocument documentToSave =
+                            askDocumentToSave(currentDocument, previousDocument, nextDocument, mergedDocument);
+
+                        if (documentToSave != currentDocument) {
+                            saveDocument(nextDocument, documentToSave, comment, context);
+                        }
+                    } else {
+                        saveDocument(nextDocument, mergedDocument, comment, context);
+                    }
+                }
+
+                mergeResult =
+                    new XarEntryMergeResult(new XarEntry(mergedDocument.getDocumentReference(),
+                        mergedDocument.getLanguage()), documentMergeResult);
+            } else {
+                saveDocument(nextDocument, nextDocument, comment, context);
+            }
+        } else {
+            saveDocument(nextDocument, nextDocument, comment, context);
+        }
+
+        return mergeResult;
+    }
+
+    /**
+     * Save an attachment of a document read from the XAR file.
+     *
+     * @param document the document read from the XAR file
+     * @param attachment the attachment to save
+     * @param comment the save comment
+     * @param context the XWiki context
+     * @throws Exception when failing to save the attachment
+     */
+    public void importAttachment(XWikiDocument document, XWikiAttachment attachment, String comment,
+        XWikiContext context) throws Exception
+    {
+        // Set proper author
+        // TODO: add a setAuthorReference in XWikiAttachment
+        document.setAuthorReference(context.getUserReference());
+        attachment.setAuthor(document.getAuthor());
+
+        XWikiDocument dbDocument = getDatabaseDocument(document, context);
+
+        XWikiAttachment dbAttachment = dbDocument.getAttachment(attachment.getFilename());
+
+        if (dbAttachment == null) {
+            dbDocument.getAttachmentList().add(attachment);
+        } else {
+            dbAttachment.setContent(attachment.getContentInputStream(context));
+            dbAttachment.setFilename(attachment.getFilename());
+            dbAttachment.setAuthor(attachment.getAuthor());
+        }
+
+        context.getWiki().saveDocument(dbDocument, comment, context);
+    }
+}
@@ -40,4 +40,10 @@
     MergeConfiguration getMergeConfiguration();
     
     JobStatus getJobStatus();
+
+    /**
+     * @return the maximum number of threads to use when importing a package into several wikis
+     * @since 4.2M3
+     */
+    int getThreads();
 }
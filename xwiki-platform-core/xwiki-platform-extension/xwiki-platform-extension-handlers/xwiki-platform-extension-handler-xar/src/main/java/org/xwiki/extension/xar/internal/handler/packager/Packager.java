@@ -23,6 +23,7 @@
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.xwiki.component.annotation.Role;
 
@@ -37,8 +38,18 @@
 @Role
 public interface Packager
 {
-    void importXAR(XarFile previousXarFile, File xarFile, PackageConfiguration configuration) throws IOException,
-        XWikiException;
+    /**
+     * Import a XAR file into the wiki of the configuration, or into all the wikis if there is none.
+     * 
+     * @param previousXarFile the previous version of the XAR file, null if there is none
+     * @param xarFile the XAR file to import
+     * @param configuration the configuration of the import
+     * @return the results of the merge with the existing documents, for each wiki the XAR file has been imported into
+     * @throws IOException when failing to read the XAR file
+     * @throws XWikiException when failing to import the XAR file
+     */
+    Map<String, XarMergeResult> importXAR(XarFile previousXarFile, File xarFile, PackageConfiguration configuration)
+        throws IOException, XWikiException;
 
     void unimportXAR(File xarFile, PackageConfiguration configuration) throws IOException, XWikiException;
 
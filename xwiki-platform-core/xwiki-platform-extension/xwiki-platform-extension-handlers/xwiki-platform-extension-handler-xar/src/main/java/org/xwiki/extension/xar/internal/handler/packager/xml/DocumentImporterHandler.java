@@ -23,26 +23,20 @@
 
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.apache.commons.lang3.StringUtils;
 import org.xml.sax.SAXException;
-import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
-import org.xwiki.extension.xar.internal.handler.ConflictQuestion;
 import org.xwiki.extension.xar.internal.handler.packager.DefaultPackager;
+import org.xwiki.extension.xar.internal.handler.packager.DocumentImporter;
 import org.xwiki.extension.xar.internal.handler.packager.NotADocumentException;
 import org.xwiki.extension.xar.internal.handler.packager.PackageConfiguration;
 import org.xwiki.extension.xar.internal.handler.packager.XarEntry;
 import org.xwiki.extension.xar.internal.handler.packager.XarEntryMergeResult;
 import org.xwiki.extension.xar.internal.handler.packager.XarFile;
 import org.xwiki.model.EntityType;
-import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 
-import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.doc.merge.MergeResult;
 
 /**
  * @version $Id$
@@ -58,6 +52,8 @@ public class DocumentImporterHandler extends DocumentHandler
 
     private PackageConfiguration configuration;
 
+    private DocumentImporter importer;
+
     public DocumentImporterHandler(DefaultPackager packager, ComponentManager componentManager, String wiki)
     {
         super(componentManager, wiki);
@@ -75,152 +71,37 @@ public void setConfiguration(PackageConfiguration configuration)
         this.configuration = configuration;
     }
 
-    public XarEntryMergeResult getMergeResult()
-    {
-        return this.mergeResult;
-    }
-
-    private DocumentReference getUserReference(XWikiContext context)
+    /**
+     * @param importer the importer to use to save the document, shared by several handlers
+     * @since 4.2M3
+     */
+    public void setImporter(DocumentImporter importer)
     {
-        DocumentReference userReference = this.configuration.getUserReference();
-
-        if (userReference == null) {
-            userReference = context.getUserReference();
-        }
-
-        return userReference;
+        this.importer = importer;
     }
 
-    private void saveDocument(XWikiDocument document, String comment, XWikiContext context) throws Exception
-    {
-        XWikiDocument currentDocument = getDatabaseDocument();
-        DocumentReference userReference = getUserReference(context);
-
-        if (!currentDocument.isNew()) {
-            if (document != currentDocument) {
-                if (document.isNew()) {
-                    currentDocument.apply(document);
-                } else {
-                    currentDocument = document;
-                }
-            }
-        } else {
-            currentDocument = document;
-            currentDocument.setCreatorReference(userReference);
-        }
-
-        currentDocument.setAuthorReference(userReference);
-        currentDocument.setContentAuthorReference(userReference);
-
-        context.getWiki().saveDocument(currentDocument, comment, context);
-    }
-
-    private XWikiDocument askDocumentToSave(XWikiDocument currentDocument, XWikiDocument previousDocument,
-        XWikiDocument nextDocument, XWikiDocument mergedDocument)
+    public XarEntryMergeResult getMergeResult()
     {
-        // Ask what to do
-        ConflictQuestion question =
-            new ConflictQuestion(currentDocument, previousDocument, nextDocument, mergedDocument);
-
-        if (this.configuration != null && this.configuration.getJobStatus() != null) {
-            try {
-                this.configuration.getJobStatus().ask(question);
-            } catch (InterruptedException e) {
-                // TODO: log something ?
-            }
-        }
-
-        XWikiDocument documentToSave;
-
-        switch (question.getGlobalAction()) {
-            case CURRENT:
-                documentToSave = currentDocument;
-                break;
-            case NEXT:
-                documentToSave = nextDocument;
-                break;
-            case PREVIOUS:
-                documentToSave = previousDocument;
-                break;
-            case CUSTOM:
-                documentToSave = question.getCustomDocument() != null ? question.getCustomDocument() : mergedDocument;
-                break;
-            default:
-                documentToSave = mergedDocument;
-                break;
-        }
-
-        return documentToSave;
+        return this.mergeResult;
     }
 
     private void saveDocument(String comment) throws SAXException
     {
         try {
-            XWikiContext context = getXWikiContext();
-
-            XWikiDocument currentDocument = getDatabaseDocument();
-            XWikiDocument nextDocument = getDocument();
-
-            // Merge and save
-            if (currentDocument != null && !currentDocument.isNew()) {
-                XWikiDocument previousDocument = getPreviousDocument();
-
-                if (previousDocument != null) {
-                    XWikiDocument mergedDocument = currentDocument.clone();
-
-                    MergeResult documentMergeResult =
-                        mergedDocument.merge(previousDocument, nextDocument,
-                            this.configuration.getMergeConfiguration(), context);
-
-                    if (documentMergeResult.isModified()) {
-                        if (this.configuration.isInteractive() && !documentMergeResult.getErrors().isEmpty()) {
-                            XWikiDocument documentToSave =
-                                askDocumentToSave(currentDocument, previousDocument, nextDocument, mergedDocument);
-
-                            if (documentToSave != currentDocument) {
-                                saveDocument(documentToSave, comment, context);
-                            }
-                        } else {
-                            saveDocument(mergedDocument, comment, context);
-                        }
-                    }
-
-                    this.mergeResult =
-                        new XarEntryMergeResult(new XarEntry(mergedDocument.getDocumentReference(),
-                            mergedDocument.getLanguage()), documentMergeResult);
-                } else {
-                    saveDocument(nextDocument, comment, context);
-                }
-            } else {
-                saveDocument(nextDocument, comment, context);
-            }
+            this.mergeResult = getImporter().importDocument(getDocument(), getPreviousDocument(), comment,
+                getXWikiContext());
         } catch (Exception e) {
             throw new SAXException("Failed to save document", e);
         }
     }
 
-    private XWikiDocument getDatabaseDocument() throws ComponentLookupException, XWikiException
+    private DocumentImporter getImporter()
     {
-        XWikiContext context = getXWikiContext();
-        XWikiDocument document = getDocument();
-
-        XWikiDocument existingDocument = context.getWiki().getDocument(document.getDocumentReference(), context);
-
-        if (StringUtils.isNotEmpty(document.getLanguage())) {
-            String defaultLanguage = existingDocument.getDefaultLanguage();
-            XWikiDocument translatedDocument = existingDocument.getTranslatedDocument(document.getLanguage(), context);
-
-            if (translatedDocument == existingDocument) {
-                translatedDocument = new XWikiDocument(document.getDocumentReference());
-                translatedDocument.setDefaultLanguage(defaultLanguage);
-                translatedDocument.setTranslation(1);
-                translatedDocument.setLanguage(document.getLanguage());
-            }
-
-            existingDocument = translatedDocument;
+        if (this.importer == null) {
+            this.importer = new DocumentImporter(this.configuration);
         }
 
-        return existingDocument;
+        return this.importer;
     }
 
     private XWikiDocument getPreviousDocument() throws NotADocumentException, ParserConfigurationException,
@@ -249,27 +130,7 @@ private XWikiDocument getPreviousDocument() throws NotADocumentException, Parser
     private void saveAttachment(XWikiAttachment attachment, String comment) throws SAXException
     {
         try {
-            XWikiContext context = getXWikiContext();
-
-            // Set proper author
-            // TODO: add a setAuthorReference in XWikiAttachment
-            XWikiDocument document = getDocument();
-            document.setAuthorReference(context.getUserReference());
-            attachment.setAuthor(document.getAuthor());
-
-            XWikiDocument dbDocument = getDatabaseDocument();
-
-            XWikiAttachment dbAttachment = dbDocument.getAttachment(attachment.getFilename());
-
-            if (dbAttachment == null) {
-                dbDocument.getAttachmentList().add(attachment);
-            } else {
-                dbAttachment.setContent(attachment.getContentInputStream(context));
-                dbAttachment.setFilename(attachment.getFilename());
-                dbAttachment.setAuthor(attachment.getAuthor());
-            }
-
-            context.getWiki().saveDocument(dbDocument, comment, context);
+            getImporter().importAttachment(getDocument(), attachment, comment, getXWikiContext());
 
             // reset content to since it could consume lots of memory and it's not used in diff for now
             attachment.setAttachment_content(null);
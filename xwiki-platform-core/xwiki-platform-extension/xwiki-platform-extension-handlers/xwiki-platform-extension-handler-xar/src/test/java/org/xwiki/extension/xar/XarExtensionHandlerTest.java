@@ -19,9 +19,12 @@
  */
 package org.xwiki.extension.xar;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import junit.framework.Assert;
 
@@ -29,6 +32,7 @@
 import org.jmock.lib.action.CustomAction;
 import org.junit.Before;
 import org.junit.Test;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.extension.ExtensionId;
 import org.xwiki.extension.job.InstallRequest;
 import org.xwiki.extension.job.UninstallRequest;
@@ -60,8 +64,9 @@ public class XarExtensionHandlerTest extends AbstractBridgedComponentTestCase
 
     private XWikiStoreInterface mockStore;
 
+    // Concurrent since the documents can be imported in several wikis at the same time
     private Map<DocumentReference, Map<String, XWikiDocument>> documents =
-        new HashMap<DocumentReference, Map<String, XWikiDocument>>();
+        new ConcurrentHashMap<DocumentReference, Map<String, XWikiDocument>>();
 
     private ExtensionId localXarExtensiontId1;
 
@@ -240,6 +245,13 @@ public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
     }
 
     private XarInstalledExtension install(ExtensionId extensionId, String wiki) throws Throwable
+    {
+        executeInstall(extensionId, wiki);
+
+        return (XarInstalledExtension) this.xarExtensionRepository.resolve(extensionId);
+    }
+
+    private Job executeInstall(ExtensionId extensionId, String wiki) throws Throwable
     {
         InstallRequest installRequest = new InstallRequest();
         installRequest.setProperty("user.reference", getContext().getUserReference());
@@ -254,7 +266,7 @@ private XarInstalledExtension install(ExtensionId extensionId, String wiki) thro
             throw errors.get(0).getThrowable();
         }
 
-        return (XarInstalledExtension) this.xarExtensionRepository.resolve(extensionId);
+        return installJob;
     }
 
     private void uninstall(ExtensionId extensionId, String wiki) throws Throwable
@@ -384,4 +396,77 @@ public void testUninstall() throws Throwable
 
         Assert.assertTrue("Document wiki.space1.page1 has not been removed from the database", page1.isNew());
     }
+
+    @Test
+    public void testUpgradeOnAllWikisInParallel() throws Throwable
+    {
+        final ConfigurationSource mockConfiguration =
+            registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockConfiguration).getProperty("extension.xar.importThreads", 1);
+                will(returnValue(2));
+
+                allowing(mockConfiguration).getProperty(with(any(String.class)), with(any(Object.class)));
+                will(new CustomAction("getProperty")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        return invocation.getParameter(1);
+                    }
+                });
+
+                allowing(mockXWiki).getVirtualWikisDatabaseNames(with(any(XWikiContext.class)));
+                will(returnValue(Arrays.asList("wiki1", "wiki2")));
+            }
+        });
+
+        install(this.localXarExtensiontId1, null);
+
+        // Modify the document in one of the wikis
+        XWikiDocument modifiedPage =
+            this.mockXWiki.getDocument(new DocumentReference("wiki2", "space", "page"), getContext());
+        modifiedPage.setTitle("modified title");
+
+        // upgrade
+
+        Job upgradeJob = executeInstall(this.localXarExtensiontId2, null);
+
+        // validate
+
+        for (String wiki : Arrays.asList("xwiki", "wiki1", "wiki2")) {
+            XWikiDocument page = this.mockXWiki.getDocument(new DocumentReference(wiki, "space", "page"), getContext());
+
+            Assert.assertFalse("Document " + wiki + ":space.page has not been saved in the database", page.isNew());
+            Assert.assertEquals("Wrong content in wiki " + wiki, "content 2", page.getContent());
+            Assert.assertEquals("Wrong author in wiki " + wiki, this.contextUser, page.getAuthorReference());
+
+            XWikiDocument page2 =
+                this.mockXWiki.getDocument(new DocumentReference(wiki, "space2", "page2"), getContext());
+            Assert.assertFalse("Document " + wiki + ":space2.page2 has not been saved in the database",
+                page2.isNew());
+
+            XWikiDocument page1 =
+                this.mockXWiki.getDocument(new DocumentReference(wiki, "space1", "page1"), getContext());
+            Assert.assertTrue("Document " + wiki + ":space1.page1 has not been removed from the database",
+                page1.isNew());
+        }
+
+        // The modification has been kept by the merge
+        Assert.assertEquals("modified title",
+            this.mockXWiki.getDocument(new DocumentReference("wiki2", "space", "page"), getContext()).getTitle());
+
+        // The merge results of each wiki are reported in the install job
+        List<String> wikis = new ArrayList<String>();
+        for (LogEvent logEvent : upgradeJob.getStatus().getLog(LogLevel.INFO)) {
+            String message = logEvent.getFormattedMessage();
+            if (message.startsWith("Merged [1] documents of extension") && message.endsWith("[0] with errors")) {
+                wikis.add(message.substring(message.indexOf("in wiki [") + 9, message.indexOf("], [0]")));
+            }
+        }
+        Assert.assertEquals(Arrays.asList("xwiki", "wiki1", "wiki2"), wikis);
+    }
 }
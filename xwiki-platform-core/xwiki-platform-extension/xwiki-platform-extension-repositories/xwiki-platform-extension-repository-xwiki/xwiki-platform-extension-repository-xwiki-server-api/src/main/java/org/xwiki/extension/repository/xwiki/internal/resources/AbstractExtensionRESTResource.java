@@ -485,7 +485,8 @@ protected ResponseBuilder getAttachmentResponse(XWikiAttachment xwikiAttachment)
         XWikiContext xcontext = getXWikiContext();
 
         response = response.type(xwikiAttachment.getMimeType(xcontext));
-        response = response.entity(xwikiAttachment.getContent(xcontext));
+        // The stream is written to the response and closed by the JAX-RS runtime.
+        response = response.entity(xwikiAttachment.getContentInputStream(xcontext));
         response =
             response.header("content-disposition", "attachment; filename=\"" + xwikiAttachment.getFilename() + "\"");
 
@@ -143,6 +143,8 @@
 import com.xpn.xwiki.internal.event.XObjectPropertyEvent;
 import com.xpn.xwiki.internal.event.XObjectPropertyUpdatedEvent;
 import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+import com.xpn.xwiki.internal.template.TemplateSourceCache;
+import com.xpn.xwiki.internal.wiki.WikiInitializer;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.PropertyInterface;
 import com.xpn.xwiki.objects.classes.BaseClass;
@@ -170,10 +172,14 @@
 import com.xpn.xwiki.store.XWikiAttachmentStoreInterface;
 import com.xpn.xwiki.store.XWikiCacheStore;
 import com.xpn.xwiki.store.XWikiCacheStoreInterface;
+import com.xpn.xwiki.store.VoidAttachmentVersioningStore;
+import com.xpn.xwiki.store.XWikiHibernateAttachmentStore;
 import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiHibernateVersioningStore;
 import com.xpn.xwiki.store.XWikiRecycleBinStoreInterface;
 import com.xpn.xwiki.store.XWikiStoreInterface;
 import com.xpn.xwiki.store.XWikiVersioningStoreInterface;
+import com.xpn.xwiki.store.hibernate.HibernateAttachmentVersioningStore;
 import com.xpn.xwiki.user.api.XWikiAuthService;
 import com.xpn.xwiki.user.api.XWikiGroupService;
 import com.xpn.xwiki.user.api.XWikiRightService;
@@ -353,6 +359,17 @@ public class XWiki implements EventListener
      */
     private Environment environment = Utils.getComponent((Type) Environment.class);
 
+    /**
+     * Used to avoid resolving and reading the templates again for each request, see
+     * {@link #getTemplateSourceCache()}.
+     */
+    private TemplateSourceCache templateSourceCache;
+
+    /**
+     * Used to initialize each wiki once.
+     */
+    private WikiInitializer wikiInitializer;
+
     /**
      * Whether backlinks are enabled or not (cached for performance).
      * 
@@ -404,6 +421,9 @@ public static XWiki getMainXWiki(XWikiContext context) throws XWikiException
                 // object) which make it unusable
                 Utils.<XWikiStubContextProvider> getComponent((Type) XWikiStubContextProvider.class)
                     .initialize(context);
+
+                // The stub context is needed by the background threads
+                xwiki.initializeWikisInBackground(context);
             } else {
                 context.setWiki(xwiki);
             }
@@ -816,8 +836,12 @@ public void initXWiki(XWikiConfig config, XWikiContext context, XWikiEngineConte
     /**
      * Ensure that mandatory classes (ie classes XWiki needs to work properly) exist and create them if they don't
      * exist.
+     * 
+     * @param context the XWiki context, indicating the wiki where to check the classes
+     * @throws XWikiException when failing to create or update a class
+     * @since 4.2M3
      */
-    private void initializeMandatoryClasses(XWikiContext context) throws XWikiException
+    public void initializeMandatoryClasses(XWikiContext context) throws XWikiException
     {
         getPrefsClass(context);
         getUserClass(context);
@@ -907,21 +931,20 @@ public void updateDatabase(String wikiName, boolean force, boolean initClasses,
 
             // Make sure the wiki is updated
             if (force) {
-                wikiList.remove(wikiName);
+                synchronized (wikiList) {
+                    wikiList.remove(wikiName);
+                }
                 context.remove("initdone");
             }
 
             context.setDatabase(wikiName);
-            synchronized (wikiName) {
+
+            // Make sure these classes exists and the plugins are initialized, only once for each wiki
+            getWikiInitializer().initialize(wikiName, force, initClasses, context);
+
+            synchronized (wikiList) {
                 if (!wikiList.contains(wikiName)) {
                     wikiList.add(wikiName);
-
-                    // Make sure these classes exists
-                    if (initClasses) {
-                        initializeMandatoryClasses(context);
-                        getPluginManager().virtualInit(context);
-                        getRenderingEngine().virtualInit(context);
-                    }
                 }
             }
 
@@ -938,6 +961,42 @@ public void updateDatabase(String wikiName, boolean force, boolean initClasses,
         }
     }
 
+    /**
+     * Start initializing all the wikis of the farm in the background so that the first request to each wiki does not
+     * have to wait for it. The number of wikis initialized at the same time is configured with
+     * {@code xwiki.init.wikis.threads} in xwiki.cfg, 0 (the default) meaning that the wikis are only initialized on
+     * first access.
+     * 
+     * @param context the XWiki context
+     */
+    private void initializeWikisInBackground(XWikiContext context)
+    {
+        int threads = (int) ParamAsLong("xwiki.init.wikis.threads", 0);
+
+        if (threads > 0 && isVirtualMode()) {
+            try {
+                List<String> wikis = new ArrayList<String>(getVirtualWikisDatabaseNames(context));
+                wikis.remove(context.getMainXWiki());
+
+                getWikiInitializer().initializeInBackground(wikis, threads);
+            } catch (XWikiException e) {
+                LOGGER.error("Failed to get the list of wikis to initialize", e);
+            }
+        }
+    }
+
+    /**
+     * @return the component in charge of initializing the wikis
+     */
+    private WikiInitializer getWikiInitializer()
+    {
+        if (this.wikiInitializer == null) {
+            this.wikiInitializer = Utils.getComponent((Type) WikiInitializer.class);
+        }
+
+        return this.wikiInitializer;
+    }
+
     /**
      * @return a cached list of all active virtual wikis (i.e. wikis who have been hit by a user request). To get a full
      *         list of all virtual wikis database names use {@link #getVirtualWikisDatabaseNames(XWikiContext)}.
@@ -1363,64 +1422,111 @@ public void saveDocument(XWikiDocument doc, String comment, boolean isMinorEdit,
 
             // We need to save the original document since saveXWikiDoc() will reset it and we
             // need that original document for the notification below.
-            XWikiDocument originalDocument = doc.getOriginalDocument();
-            // Always use an originalDocument, to provide a consistent behavior. The cases where
-            // originalDocument is null are rare (specifically when the XWikiDocument object is
-            // manually constructed, and not obtained using the API).
-            if (originalDocument == null) {
-                originalDocument = new XWikiDocument(doc.getDocumentReference());
+            XWikiDocument originalDocument = notifyDocumentSaving(doc, context);
+
+            getStore().saveXWikiDoc(doc, context);
+
+            notifyDocumentSaved(doc, originalDocument, context);
+        } finally {
+            if ((server != null) && (database != null)) {
+                context.setDatabase(database);
             }
+        }
+    }
 
-            ObservationManager om = Utils.getComponent((Type) ObservationManager.class);
+    /**
+     * Notify the listeners that a document is about to be created or updated, in the wiki of the document. This is
+     * the first half of the notifications sent by {@link #saveDocument(XWikiDocument, String, boolean, XWikiContext)},
+     * for the code saving documents directly with the store.
+     * 
+     * @param doc the document about to be saved
+     * @param context the XWiki context
+     * @return the original document of the saved document, to pass to
+     *         {@link #notifyDocumentSaved(XWikiDocument, XWikiDocument, XWikiContext)} since saving the document
+     *         resets it
+     * @since 4.2M3
+     */
+    public XWikiDocument notifyDocumentSaving(XWikiDocument doc, XWikiContext context)
+    {
+        XWikiDocument originalDocument = doc.getOriginalDocument();
+        // Always use an originalDocument, to provide a consistent behavior. The cases where
+        // originalDocument is null are rare (specifically when the XWikiDocument object is
+        // manually constructed, and not obtained using the API).
+        if (originalDocument == null) {
+            originalDocument = new XWikiDocument(doc.getDocumentReference());
+        }
 
-            // Notify listeners about the document about to be created or updated
+        ObservationManager om = Utils.getComponent((Type) ObservationManager.class);
 
-            // Note that for the moment the event being send is a bridge event, as we are still passing around
-            // an XWikiDocument as source and an XWikiContext as data.
+        // Notify listeners about the document about to be created or updated
+
+        // Note that for the moment the event being send is a bridge event, as we are still passing around
+        // an XWikiDocument as source and an XWikiContext as data.
+
+        if (om != null) {
+            String database = context.getDatabase();
+            try {
+                context.setDatabase(doc.getDocumentReference().getWikiReference().getName());
 
-            if (om != null) {
                 if (originalDocument.isNew()) {
                     om.notify(new DocumentCreatingEvent(doc.getDocumentReference()), doc, context);
                 } else {
                     om.notify(new DocumentUpdatingEvent(doc.getDocumentReference()), doc, context);
                 }
+            } finally {
+                context.setDatabase(database);
             }
+        }
 
-            getStore().saveXWikiDoc(doc, context);
+        return originalDocument;
+    }
+
+    /**
+     * Notify the listeners that a document has been created or updated, in the wiki of the document. This is the
+     * second half of the notifications sent by {@link #saveDocument(XWikiDocument, String, boolean, XWikiContext)},
+     * for the code saving documents directly with the store.
+     * 
+     * @param doc the saved document
+     * @param originalDocument the original document returned by
+     *            {@link #notifyDocumentSaving(XWikiDocument, XWikiContext)}
+     * @param context the XWiki context
+     * @since 4.2M3
+     */
+    public void notifyDocumentSaved(XWikiDocument doc, XWikiDocument originalDocument, XWikiContext context)
+    {
+        ObservationManager om = Utils.getComponent((Type) ObservationManager.class);
 
-            // Since the store#saveXWikiDoc resets originalDocument, we need to temporarily put it
-            // back to send notifications.
-            XWikiDocument newOriginal = doc.getOriginalDocument();
+        // Since the store#saveXWikiDoc resets originalDocument, we need to temporarily put it
+        // back to send notifications.
+        XWikiDocument newOriginal = doc.getOriginalDocument();
+        String database = context.getDatabase();
 
-            try {
-                doc.setOriginalDocument(originalDocument);
+        try {
+            context.setDatabase(doc.getDocumentReference().getWikiReference().getName());
+            doc.setOriginalDocument(originalDocument);
 
-                // Notify listeners about the document having been created or updated
+            // Notify listeners about the document having been created or updated
 
-                // First the legacy notification mechanism
+            // First the legacy notification mechanism
 
-                // Then the new observation module
-                // Note that for the moment the event being send is a bridge event, as we are still passing around
-                // an XWikiDocument as source and an XWikiContext as data.
-                // The old version is made available using doc.getOriginalDocument()
+            // Then the new observation module
+            // Note that for the moment the event being send is a bridge event, as we are still passing around
+            // an XWikiDocument as source and an XWikiContext as data.
+            // The old version is made available using doc.getOriginalDocument()
 
-                if (om != null) {
-                    if (originalDocument.isNew()) {
-                        om.notify(new DocumentCreatedEvent(doc.getDocumentReference()), doc, context);
-                    } else {
-                        om.notify(new DocumentUpdatedEvent(doc.getDocumentReference()), doc, context);
-                    }
+            if (om != null) {
+                if (originalDocument.isNew()) {
+                    om.notify(new DocumentCreatedEvent(doc.getDocumentReference()), doc, context);
+                } else {
+                    om.notify(new DocumentUpdatedEvent(doc.getDocumentReference()), doc, context);
                 }
-            } catch (Exception ex) {
-                LOGGER.error("Failed to send document save notification for document ["
-                    + this.defaultEntityReferenceSerializer.serialize(doc.getDocumentReference()) + "]", ex);
-            } finally {
-                doc.setOriginalDocument(newOriginal);
             }
+        } catch (Exception ex) {
+            LOGGER.error("Failed to send document save notification for document ["
+                + this.defaultEntityReferenceSerializer.serialize(doc.getDocumentReference()) + "]", ex);
         } finally {
-            if ((server != null) && (database != null)) {
-                context.setDatabase(database);
-            }
+            doc.setOriginalDocument(newOriginal);
+            context.setDatabase(database);
         }
     }
 
@@ -1792,45 +1898,25 @@ public String evaluateTemplate(String template, XWikiContext context) throws IOE
             return "";
         }
 
-        String content = getResourceContent(template);
+        String content = getTemplateSourceCache().getFileTemplate(template, context);
+        if (content == null) {
+            throw new FileNotFoundException(template);
+        }
+
         return XWikiVelocityRenderer.evaluate(content, template, (VelocityContext) context.get("vcontext"), context);
     }
 
     public String parseTemplate(String template, String skin, XWikiContext context)
     {
-        try {
-            XWikiDocument doc = getDocument(skin, context);
-            if (!doc.isNew()) {
-                // Try parsing the object property
-                BaseObject object =
-                    doc.getXObject(new DocumentReference(doc.getDocumentReference().getWikiReference().getName(),
-                        SYSTEM_SPACE, "XWikiSkins"));
-                if (object != null) {
-                    String content = object.getStringValue(template);
-                    if (StringUtils.isNotBlank(content)) {
-                        // Let's use this template
-                        // Use "" as namespace to register macros in global namespace. That way it
-                        // can be used in a renderer content not parsed at the same level.
-                        return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"),
-                            context);
-                    }
-                }
-                // Try parsing a document attachment
-                XWikiAttachment attachment = doc.getAttachment(template);
-                if (attachment != null) {
-                    // It's impossible to know the real attachemtn encoding, but let's assume that they respect the
-                    // standard and use UTF-8 (which is required for the files located on the filesystem)
-                    String content = IOUtils.toString(attachment.getContentInputStream(context), DEFAULT_ENCODING);
-                    if (StringUtils.isNotBlank(content)) {
-                        // Let's use this template
-                        // Use "" as namespace to register macros in global namespace. That way it
-                        // can be used in a renderer content not parsed at the same level.
-                        return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"),
-                            context);
-                    }
-                }
-            }
-        } catch (Exception e) {
+        TemplateSourceCache templateSourceCache = getTemplateSourceCache();
+
+        // Try parsing the object property or a document attachment
+        String content = templateSourceCache.getDocumentTemplate(skin, template, context);
+        if (content != null) {
+            // Let's use this template
+            // Use "" as namespace to register macros in global namespace. That way it
+            // can be used in a renderer content not parsed at the same level.
+            return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"), context);
         }
 
         // Try parsing a file located in the directory with the same name.
@@ -1842,10 +1928,13 @@ public String parseTemplate(String template, String skin, XWikiContext context)
             // This is a safe assumption, as templates found under /templates/ are treated
             // separately, and there is no need to have templates in another place.
             if (path.startsWith("/skins/")) {
-                String content = getResourceContent(path);
-                // Use "" as namespace to register macros in global namespace. That way it can be
-                // used in a renderer content not parsed at the same level.
-                return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"), context);
+                content = templateSourceCache.getFileTemplate(path, context);
+                if (content != null) {
+                    // Use "" as namespace to register macros in global namespace. That way it can be
+                    // used in a renderer content not parsed at the same level.
+                    return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"),
+                        context);
+                }
             } else {
                 LOGGER.warn("Illegal access, tried to use file [" + path + "] as a template."
                     + " Possible break-in attempt!");
@@ -1856,6 +1945,18 @@ public String parseTemplate(String template, String skin, XWikiContext context)
         return null;
     }
 
+    /**
+     * @return the cache of the resolved template sources
+     */
+    private TemplateSourceCache getTemplateSourceCache()
+    {
+        if (this.templateSourceCache == null) {
+            this.templateSourceCache = Utils.getComponent((Type) TemplateSourceCache.class);
+        }
+
+        return this.templateSourceCache;
+    }
+
     public String renderTemplate(String template, String skin, XWikiContext context)
     {
         try {
@@ -2751,6 +2852,7 @@ public void flushCache(XWikiContext context)
     {
         // We need to flush the virtual wiki list
         this.virtualWikiList = new ArrayList<String>();
+        getWikiInitializer().reset();
         // We need to flush the server Cache
         if (this.virtualWikiMap != null) {
             this.virtualWikiMap.dispose();
@@ -4718,6 +4820,123 @@ public int copyWiki(String sourceWiki, String targetWiki, String language, boole
         return copySpaceBetweenWikis(null, sourceWiki, targetWiki, language, clean, context);
     }
 
+    /**
+     * Copy a template wiki, with all its languages, into a newly created wiki.
+     * <p>
+     * When everything is stored with Hibernate and the new wiki is empty, the documents are copied directly in the
+     * database instead of being loaded and saved one by one, see {@link XWikiHibernateStore#copyWikiData}. Compared to
+     * {@link #copyWiki(String, String, String, XWikiContext)}, with this bulk copy:
+     * <ul>
+     * <li>a {@link DocumentCreatedEvent} is sent for each copied document and translation, once they are all copied,
+     * so that the listeners can initialize the new wiki (wiki macros, components, etc.)</li>
+     * <li>no {@link DocumentCreatingEvent} is sent and the rights are not checked</li>
+     * <li>the copied documents keep their history, authors and dates instead of getting a new version</li>
+     * </ul>
+     * The bulk copy can be disabled by setting {@code xwiki.store.hibernate.bulkcopy} to 0 in xwiki.cfg, in which case,
+     * or when the database or the stores don't support it, the wiki is copied with
+     * {@link #copyWiki(String, String, String, XWikiContext)}.
+     * 
+     * @param templateWiki the template wiki identifier
+     * @param targetWiki the new wiki identifier
+     * @param context the XWiki context
+     * @return the number of copied documents
+     * @throws XWikiException failed to copy wiki
+     * @since 4.2M3
+     */
+    public int copyTemplateWiki(String templateWiki, String targetWiki, XWikiContext context) throws XWikiException
+    {
+        int nb = copyWikiData(templateWiki, targetWiki, context);
+        if (nb >= 0) {
+            return nb;
+        }
+
+        return copyWiki(templateWiki, targetWiki, null, context);
+    }
+
+    /**
+     * Copy an entire wiki to an empty wiki directly in the database, see
+     * {@link #copyTemplateWiki(String, String, XWikiContext)}.
+     * 
+     * @param sourceWiki the source wiki identifier
+     * @param targetWiki the target wiki identifier
+     * @param context the XWiki context
+     * @return the number of copied documents, -1 if the wiki could not be copied this way
+     * @throws XWikiException failed to copy wiki
+     */
+    private int copyWikiData(String sourceWiki, String targetWiki, XWikiContext context) throws XWikiException
+    {
+        XWikiHibernateStore hibernateStore = getHibernateStore();
+
+        if (!"1".equals(Param("xwiki.store.hibernate.bulkcopy", "1")) || hibernateStore == null
+            || !(getAttachmentStore() instanceof XWikiHibernateAttachmentStore)
+            || !(getVersioningStore() instanceof XWikiHibernateVersioningStore)
+            || !(getAttachmentVersioningStore() instanceof HibernateAttachmentVersioningStore
+            || getAttachmentVersioningStore() instanceof VoidAttachmentVersioningStore)) {
+            return -1;
+        }
+
+        int nb = hibernateStore.copyWikiData(sourceWiki, targetWiki, context);
+
+        if (nb >= 0) {
+            LOGGER.info("Copied [{}] documents from wiki [{}] to wiki [{}] in bulk", new Object[] {nb, sourceWiki,
+                targetWiki});
+
+            // The target wiki may have been accessed before being filled
+            if (getStore() instanceof XWikiCacheStoreInterface) {
+                ((XWikiCacheStoreInterface) getStore()).flushCache();
+            }
+
+            notifyCopiedDocuments(targetWiki, context);
+        }
+
+        return nb;
+    }
+
+    /**
+     * Send a {@link DocumentCreatedEvent} for each document and translation of a wiki filled directly in the database,
+     * as if they had been saved one by one.
+     * 
+     * @param wiki the wiki identifier
+     * @param context the XWiki context
+     * @throws XWikiException when failing to list the documents of the wiki
+     */
+    private void notifyCopiedDocuments(String wiki, XWikiContext context) throws XWikiException
+    {
+        ObservationManager om = Utils.getComponent((Type) ObservationManager.class);
+        if (om == null) {
+            return;
+        }
+
+        String db = context.getDatabase();
+        try {
+            context.setDatabase(wiki);
+
+            List<Object[]> documents =
+                getStore().search("select doc.fullName, doc.language from XWikiDocument as doc", 0, 0, context);
+            for (Object[] document : documents) {
+                DocumentReference reference = this.currentMixedDocumentReferenceResolver.resolve((String) document[0]);
+                try {
+                    XWikiDocument doc = new XWikiDocument(reference);
+                    doc.setLanguage(StringUtils.defaultString((String) document[1]));
+                    doc = getStore().loadXWikiDoc(doc, context);
+
+                    XWikiDocument originalDocument = doc.getOriginalDocument();
+                    try {
+                        doc.setOriginalDocument(new XWikiDocument(reference));
+                        om.notify(new DocumentCreatedEvent(reference), doc, context);
+                    } finally {
+                        doc.setOriginalDocument(originalDocument);
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("Failed to send document creation notification for document [" + reference
+                        + "] copied in bulk", e);
+                }
+            }
+        } finally {
+            context.setDatabase(db);
+        }
+    }
+
     public String getEncoding()
     {
         return Param("xwiki.encoding", "UTF-8");
@@ -6985,7 +7204,12 @@ public boolean isTitleInCompatibilityMode()
     public void onEvent(Event event, Object source, Object data)
     {
         if (event instanceof WikiDeletedEvent) {
-            getVirtualWikiList().remove(((WikiDeletedEvent) event).getWikiId());
+            String wikiId = ((WikiDeletedEvent) event).getWikiId();
+            List<String> wikiList = getVirtualWikiList();
+            synchronized (wikiList) {
+                wikiList.remove(wikiId);
+            }
+            getWikiInitializer().reset(wikiId);
             return;
         }
 
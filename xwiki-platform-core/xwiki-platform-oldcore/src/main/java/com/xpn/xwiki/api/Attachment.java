@@ -20,6 +20,7 @@
 package com.xpn.xwiki.api;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Date;
 import java.util.List;
@@ -143,6 +144,19 @@ public byte[] getContentAsBytes() throws XWikiException
         }
     }
 
+    /**
+     * Gives access to the content of the attachment without loading it in memory, the stream must be closed by the
+     * caller.
+     * 
+     * @return a stream on the content of the attachment
+     * @throws XWikiException if the content can't be loaded
+     * @since 4.2M3
+     */
+    public InputStream getContentInputStream() throws XWikiException
+    {
+        return this.attachment.getContentInputStream(getXWikiContext());
+    }
+
     public String getContentAsString() throws XWikiException
     {
         // TODO: detect correct encoding for XML files?
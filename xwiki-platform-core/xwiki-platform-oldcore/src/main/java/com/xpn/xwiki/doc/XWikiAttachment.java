@@ -28,6 +28,7 @@
 import java.util.List;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -411,7 +412,13 @@ public void toXML(XMLWriter wr, boolean bWithAttachmentContent, boolean bWithVer
             loadContent(context);
             XWikiAttachmentContent acontent = getAttachment_content();
             if (acontent != null) {
-                wr.writeBase64(el, getAttachment_content().getContentInputStream());
+                // Stream the content through the base64 encoder instead of loading it in memory.
+                InputStream stream = acontent.getContentInputStream();
+                try {
+                    wr.writeBase64(el, stream);
+                } finally {
+                    IOUtils.closeQuietly(stream);
+                }
             } else {
                 el.addText("");
                 wr.write(el);
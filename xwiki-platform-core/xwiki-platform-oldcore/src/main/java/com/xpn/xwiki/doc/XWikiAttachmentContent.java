@@ -213,6 +213,20 @@ public InputStream getContentInputStream()
         }
     }
 
+    /**
+     * Give access to the local file holding the content, for callers able to read it more efficiently than through
+     * {@link #getContentInputStream()} (e.g. using {@link java.nio.channels.FileChannel}). The file must not be
+     * modified.
+     * 
+     * @return the file holding the content of the attachment, or null if the content is not stored in a file which can
+     *         be read directly
+     * @since 4.2M3
+     */
+    public File getContentFile()
+    {
+        return null;
+    }
+
     /**
      * Set the content of the attachment from a portion of an InputStream.
      * 
@@ -21,9 +21,12 @@
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -48,6 +51,84 @@
  */
 public class XWikiDocumentArchive
 {
+    /** The configuration property indicating how often a full version is stored. */
+    public static final String NODES_PER_FULL_PROPERTY = "xwiki.store.rcs.nodesPerFull";
+
+    /** The default number of versions between two full versions. */
+    private static final int DEFAULT_NODES_PER_FULL = 5;
+
+    /** The maximum total number of characters of the reconstructed versions kept in memory. */
+    private static final long VERSION_CACHE_MAX_LENGTH = 1024 * 1024;
+
+    /**
+     * The most recently reconstructed versions, as lists of lines, bounded by their total length.
+     */
+    private static class VersionCache
+    {
+        /** The versions in access order. */
+        private final Map<Version, List<String>> versions = new LinkedHashMap<Version, List<String>>(16, 0.75f, true);
+
+        /** The total number of characters of the cached versions. */
+        private long length;
+
+        /**
+         * @param version the version
+         * @return the lines of the version, null if it's not cached
+         */
+        public synchronized List<String> get(Version version)
+        {
+            return this.versions.get(version);
+        }
+
+        /**
+         * Cache a version, evicting the least recently used versions to stay under {@link #VERSION_CACHE_MAX_LENGTH}.
+         * 
+         * @param version the version
+         * @param text the lines of the version
+         */
+        public synchronized void put(Version version, List<String> text)
+        {
+            long textLength = getLength(text);
+            if (textLength > VERSION_CACHE_MAX_LENGTH) {
+                return;
+            }
+
+            List<String> previousText = this.versions.put(version, text);
+            if (previousText != null) {
+                this.length -= getLength(previousText);
+            }
+            this.length += textLength;
+
+            // The version which has just been added is the most recently used one so it's not evicted
+            for (Iterator<List<String>> it = this.versions.values().iterator(); this.length > VERSION_CACHE_MAX_LENGTH
+                && it.hasNext();) {
+                this.length -= getLength(it.next());
+                it.remove();
+            }
+        }
+
+        /** Remove all the cached versions. */
+        public synchronized void clear()
+        {
+            this.versions.clear();
+            this.length = 0;
+        }
+
+        /**
+         * @param text lines of text
+         * @return the number of characters of the text
+         */
+        private static long getLength(List<String> text)
+        {
+            long length = 0;
+            for (String line : text) {
+                length += line.length();
+            }
+
+            return length;
+        }
+    }
+
     /** =docId. */
     private long id;
 
@@ -70,6 +151,12 @@
     /** Set of {@link XWikiRCSNodeContent} which need to update. */
     private Set<XWikiRCSNodeContent> updatedNodeContents = new TreeSet<XWikiRCSNodeContent>();
 
+    /** Recently reconstructed versions, to avoid applying the same patches again when browsing the history. */
+    private VersionCache versionCache = new VersionCache();
+
+    /** Versions read from a too long chain of patches, to store as full versions when the archive is next saved. */
+    private Set<Version> versionsToSnapshot = Collections.synchronizedSet(new TreeSet<Version>());
+
     /** @param id = {@link XWikiDocument#getId()} */
     public XWikiDocumentArchive(long id)
     {
@@ -130,11 +217,11 @@ protected XWikiRCSNodeContent makePatch(XWikiRCSNodeInfo newnode, XWikiDocument
         newnode.setContent(result);
         XWikiRCSNodeInfo latestNode = getLatestNode();
         if (latestNode != null) {
-            int nodesCount = getNodes().size();
-            int nodesPerFull =
-                context.getWiki() == null ? 5 : Integer.parseInt(context.getWiki().getConfig()
-                    .getProperty("xwiki.store.rcs.nodesPerFull", "5"));
-            if (nodesPerFull <= 0 || (nodesCount % nodesPerFull) != 0) {
+            // Keep the previous latest version as a full version when it would otherwise make the chain of patches
+            // to apply too long. Only the most recent nodes are needed to decide, which allows to append a version
+            // to an archive which has not been fully loaded.
+            int nodesPerFull = getNodesPerFull(context);
+            if (nodesPerFull <= 0 || getLatestDiffChainLength() + 1 < nodesPerFull) {
                 XWikiRCSNodeContent latestContent = latestNode.getContent(context);
                 latestContent.getPatch().setDiffVersion(latestContent.getPatch().getContent(),
                     doc, context);
@@ -146,6 +233,114 @@ protected XWikiRCSNodeContent makePatch(XWikiRCSNodeInfo newnode, XWikiDocument
         return result;
     }
 
+    /**
+     * @param context the XWiki context, used to access the configuration
+     * @return the number of versions between two full versions, a negative or null value meaning that only the latest
+     *         version is full
+     * @since 4.2M3
+     */
+    public static int getNodesPerFull(XWikiContext context)
+    {
+        if (context == null || context.getWiki() == null) {
+            return DEFAULT_NODES_PER_FULL;
+        }
+
+        return Integer.parseInt(context.getWiki().getConfig()
+            .getProperty(NODES_PER_FULL_PROPERTY, String.valueOf(DEFAULT_NODES_PER_FULL)));
+    }
+
+    /**
+     * @return the number of consecutive patches directly preceding the latest version
+     */
+    private int getLatestDiffChainLength()
+    {
+        int length = 0;
+
+        Iterator<XWikiRCSNodeInfo> it = getNodes().iterator();
+        if (it.hasNext()) {
+            // Skip the latest version, which is always full
+            it.next();
+            while (it.hasNext() && it.next().isDiff()) {
+                ++length;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * @param version the version
+     * @return the number of patches to apply to the nearest full version to get the passed version, 0 if the version
+     *         is stored as a full version or is unknown
+     * @since 4.2M3
+     */
+    public int getDiffChainLength(Version version)
+    {
+        Version nearestFullVersion = getNearestFullVersion(version);
+
+        if (nearestFullVersion == null || getNode(version) == null) {
+            return 0;
+        }
+
+        return getNodes(nearestFullVersion, version).size() - 1;
+    }
+
+    /**
+     * Store the passed version as a full version instead of a patch, to shorten the chain of patches to apply to get
+     * the versions preceding it. The modified node needs to be saved after.
+     * 
+     * @param version the version to store as a full version
+     * @param context used for loading nodes content
+     * @throws XWikiException if any error
+     * @since 4.2M3
+     */
+    public void snapshotVersion(Version version, XWikiContext context) throws XWikiException
+    {
+        XWikiRCSNodeInfo node = getNode(version);
+        if (node != null && node.isDiff()) {
+            String xml = getVersionXml(version, context);
+            XWikiRCSNodeContent content = node.getContent(context);
+            content.getPatch().setFullVersion(xml);
+            node.setContent(content);
+            updateNode(node);
+            getUpdatedNodeContents().add(content);
+        }
+    }
+
+    /**
+     * Mark a version to be stored as a full version the next time {@link #snapshotVersions(XWikiContext)} is called,
+     * which the store does when saving the archive. This allows to fix long chains of patches found when reading
+     * versions without writing anything from the read path.
+     * 
+     * @param version the version to store as a full version
+     * @since 4.2M3
+     */
+    public void addVersionToSnapshot(Version version)
+    {
+        this.versionsToSnapshot.add(version);
+    }
+
+    /**
+     * Store as full versions the versions marked with {@link #addVersionToSnapshot(Version)}. The modified nodes need
+     * to be saved after.
+     * 
+     * @param context used for loading nodes content
+     * @throws XWikiException if any error
+     * @since 4.2M3
+     */
+    public void snapshotVersions(XWikiContext context) throws XWikiException
+    {
+        List<Version> versions;
+        synchronized (this.versionsToSnapshot) {
+            versions = new ArrayList<Version>(this.versionsToSnapshot);
+            this.versionsToSnapshot.clear();
+        }
+
+        for (Version version : versions) {
+            snapshotVersion(version, context);
+        }
+    }
+
     /** @return {@link XWikiDocument#getId()} - primary key */
     public long getId()
     {
@@ -305,6 +500,8 @@ public void removeVersions(Version newerVersion, Version olderVersion, XWikiCont
             getUpdatedNodeContents().add(ncBefore);
         }
         // if (firstVersionBefore == null) => nothing else to do, except delete
+        this.versionCache.clear();
+        this.versionsToSnapshot.clear();
         for (Iterator<XWikiRCSNodeInfo> it = getNodes(upperBound, lowerBound).iterator(); it.hasNext();) {
             XWikiRCSNodeInfo ni = it.next();
             fullVersions.remove(ni.getId().getVersion());
@@ -357,12 +554,32 @@ public XWikiDocument loadDocument(Version version, XWikiContext context)
      */
     public String getVersionXml(Version version, XWikiContext context) throws XWikiException
     {
+        List<String> cachedText = this.versionCache.get(version);
+        if (cachedText != null) {
+            return ToString.arrayToString(cachedText.toArray());
+        }
+
         Version nearestFullVersion = getNearestFullVersion(version);
 
-        List<XWikiRCSNodeContent> lstContent = loadRCSNodeContents(nearestFullVersion, version, context);
+        // Start from the reconstructed version which is the closest to the requested version, if any
         List<String> origText = new ArrayList<String>();
-        for (XWikiRCSNodeContent nodeContent : lstContent) {
-            nodeContent.getPatch().patch(origText);
+        List<XWikiRCSNodeInfo> nodesToApply = new ArrayList<XWikiRCSNodeInfo>();
+        for (XWikiRCSNodeInfo nodeInfo : getNodes(nearestFullVersion, version)) {
+            cachedText = this.versionCache.get(nodeInfo.getId().getVersion());
+            if (cachedText != null) {
+                origText = new ArrayList<String>(cachedText);
+                nodesToApply.clear();
+            } else {
+                nodesToApply.add(nodeInfo);
+            }
+        }
+
+        for (XWikiRCSNodeInfo nodeInfo : nodesToApply) {
+            nodeInfo.getContent(context).getPatch().patch(origText);
+        }
+
+        if (!version.equals(nearestFullVersion)) {
+            this.versionCache.put(version, Collections.unmodifiableList(origText));
         }
 
         return ToString.arrayToString(origText.toArray());
@@ -429,29 +646,13 @@ public Version getNearestFullVersion(Version ver)
         return (headSet.size() == 0) ? null : headSet.last();
     }
 
-    /**
-     * @return List of {@link XWikiRCSNodeContent} where vfrom<=version<=vto order by version
-     * @param vfrom - start version
-     * @param vto - end version
-     * @param context - used everywhere
-     * @throws XWikiException if any error
-     */
-    private List<XWikiRCSNodeContent> loadRCSNodeContents(Version vfrom, Version vto, XWikiContext context)
-        throws XWikiException
-    {
-        List<XWikiRCSNodeContent> result = new ArrayList<XWikiRCSNodeContent>();
-        for (XWikiRCSNodeInfo nodeInfo : getNodes(vfrom, vto)) {
-            XWikiRCSNodeContent nodeContent = nodeInfo.getContent(context);
-            result.add(nodeContent);
-        }
-        return result;
-    }
-
     /** reset history. history becomes empty. */
     public void resetArchive()
     {
         versionToNode.clear();
         fullVersions.clear();
+        versionCache.clear();
+        versionsToSnapshot.clear();
         deletedNodes.addAll(updatedNodeInfos);
         updatedNodeInfos.clear();
         updatedNodeContents.clear();
@@ -34,6 +34,9 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.eviction.WeightedEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
@@ -145,6 +148,15 @@ public void create(CacheConfiguration cacheConfiguration) throws CacheException
 
         CacheConfiguration mappingCacheConfiguration = (CacheConfiguration) cacheConfiguration.clone();
         mappingCacheConfiguration.setConfigurationId(cacheConfiguration.getConfigurationId() + ".mapping");
+        Object eviction = mappingCacheConfiguration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+        if (eviction instanceof WeightedEvictionConfiguration) {
+            // The weigher is meant for the cached data, the mappings are only bounded by their number.
+            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            lru.putAll((WeightedEvictionConfiguration) eviction);
+            lru.remove(WeightedEvictionConfiguration.MAXWEIGHT_ID);
+            lru.remove(WeightedEvictionConfiguration.WEIGHER_ID);
+            mappingCacheConfiguration.put(EntryEvictionConfiguration.CONFIGURATIONID, lru);
+        }
 
         this.mappingCache = this.cacheManager.createNewCache(mappingCacheConfiguration);
 
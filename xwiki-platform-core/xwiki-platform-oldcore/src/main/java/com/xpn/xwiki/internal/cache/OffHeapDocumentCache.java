@@ -0,0 +1,418 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.util.AtomicCacheStatistics;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Second level of the document cache, keeping the documents evicted from the heap in a compressed XML form stored in
+ * direct (off-heap) memory, so that a much larger working set can be kept without growing the garbage collected heap.
+ * <p>
+ * The memory is allocated in a few large direct buffers split in fixed size blocks, each document using as many blocks
+ * as needed. The least recently used documents are evicted when there's not enough free blocks. The attachments
+ * content and the archive are not stored: they are loaded from the store when needed, as for the documents of the heap
+ * cache.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class OffHeapDocumentCache
+{
+    /**
+     * The size of the blocks, in bytes.
+     */
+    static final int BLOCK_SIZE = 1024;
+
+    /**
+     * The maximum size of a direct buffer, in bytes.
+     */
+    private static final int ARENA_SIZE = 1 << 28;
+
+    /**
+     * The number of blocks of a direct buffer.
+     */
+    private static final int ARENA_BLOCKS = ARENA_SIZE / BLOCK_SIZE;
+
+    /**
+     * The number of generation counters. The keys sharing a counter only lose the concurrent writes of each other.
+     */
+    private static final int GENERATION_STRIPES = 1024;
+
+    /**
+     * The location of a document in the direct buffers.
+     * 
+     * @version $Id$
+     */
+    private static class Entry
+    {
+        /**
+         * The blocks holding the document.
+         */
+        private final int[] blocks;
+
+        /**
+         * The size of the stored document, in bytes.
+         */
+        private final int length;
+
+        /**
+         * @param blocks the blocks holding the document
+         * @param length the size of the stored document, in bytes
+         */
+        Entry(int[] blocks, int length)
+        {
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The direct buffers, allocated when their first block is used.
+     */
+    private final ByteBuffer[] arenas;
+
+    /**
+     * The total number of blocks.
+     */
+    private final int blockCount;
+
+    /**
+     * The released blocks, available to store new documents.
+     */
+    private final int[] freeBlocks;
+
+    /**
+     * The number of released blocks in {@link #freeBlocks}.
+     */
+    private int freeBlockCount;
+
+    /**
+     * The blocks after this one have never been used.
+     */
+    private int nextBlock;
+
+    /**
+     * The stored documents, in least recently used order.
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Incremented when a document is removed, so that a version of the document serialized concurrently, which is
+     * outdated, is not stored. Indexed by {@link #getStripe(String)}.
+     */
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    /**
+     * The statistics of the cache. The loads are the rehydrations of the stored documents.
+     */
+    private final AtomicCacheStatistics statistics = new AtomicCacheStatistics()
+    {
+        @Override
+        public long getSize()
+        {
+            synchronized (OffHeapDocumentCache.this) {
+                return entries.size();
+            }
+        }
+    };
+
+    /**
+     * @param maxSize the maximum size of the stored documents, in bytes
+     */
+    public OffHeapDocumentCache(long maxSize)
+    {
+        this.blockCount = (int) Math.min(Integer.MAX_VALUE, maxSize / BLOCK_SIZE);
+        this.arenas = new ByteBuffer[(this.blockCount + ARENA_BLOCKS - 1) / ARENA_BLOCKS];
+        this.freeBlocks = new int[this.blockCount];
+    }
+
+    /**
+     * Rehydrate a stored document. The current wiki must be the wiki of the document since the references of the XML
+     * are resolved relatively to it.
+     * 
+     * @param document the document to get, only its reference and language are used
+     * @return the stored document, null if it's not stored
+     */
+    public XWikiDocument get(XWikiDocument document)
+    {
+        String key = document.getKey();
+        byte[] data = getData(key);
+        if (data == null) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        XWikiDocument storedDocument = new XWikiDocument(document.getDocumentReference());
+        InputStream input = new InflaterInputStream(new ByteArrayInputStream(data));
+        try {
+            storedDocument.fromXML(input, false);
+        } catch (Exception e) {
+            this.statistics.recordLoad(System.nanoTime() - start, false);
+            remove(key);
+
+            return null;
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        this.statistics.recordLoad(System.nanoTime() - start, true);
+
+        return storedDocument;
+    }
+
+    /**
+     * Store a document, replacing any previous version.
+     * 
+     * @param document the document to store
+     * @param context the XWiki context
+     * @return false if the document could not be stored
+     */
+    public boolean set(XWikiDocument document, XWikiContext context)
+    {
+        return set(document, getGeneration(document.getKey()), context);
+    }
+
+    /**
+     * Store a document, replacing any previous version, unless the document was removed since the given generation.
+     * 
+     * @param document the document to store
+     * @param generation the generation of the document key, taken before the document could become outdated
+     * @param context the XWiki context
+     * @return false if the document could not be stored or was removed in the meantime
+     * @see #getGeneration(String)
+     */
+    public boolean set(XWikiDocument document, long generation, XWikiContext context)
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(BLOCK_SIZE);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(output, deflater);
+            document.toXML(deflaterOutput, true, false, false, false, context);
+            deflaterOutput.close();
+        } catch (Exception e) {
+            remove(document.getKey());
+
+            return false;
+        } finally {
+            deflater.end();
+        }
+
+        return setData(document.getKey(), output.toByteArray(), generation);
+    }
+
+    /**
+     * @param key the key of the document, see {@link XWikiDocument#getKey()}
+     * @return the current generation of the key, which changes each time the document is removed
+     */
+    public synchronized long getGeneration(String key)
+    {
+        return this.generations[getStripe(key)];
+    }
+
+    /**
+     * @param key the key of the document, see {@link XWikiDocument#getKey()}
+     * @return true if the document is stored
+     */
+    public synchronized boolean contains(String key)
+    {
+        return this.entries.containsKey(key);
+    }
+
+    /**
+     * Remove an outdated document. The versions of the document being serialized are not stored.
+     * 
+     * @param key the key of the document to remove, see {@link XWikiDocument#getKey()}
+     */
+    public synchronized void remove(String key)
+    {
+        ++this.generations[getStripe(key)];
+        removeEntry(key);
+    }
+
+    /**
+     * Remove all the stored documents. The direct buffers are kept to be reused.
+     */
+    public synchronized void removeAll()
+    {
+        for (int i = 0; i < this.generations.length; ++i) {
+            ++this.generations[i];
+        }
+        this.entries.clear();
+        this.freeBlockCount = 0;
+        this.nextBlock = 0;
+    }
+
+    /**
+     * @return the statistics of the cache, the loads being the rehydrations of the stored documents
+     */
+    public CacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
+    /**
+     * @return the memory used by the stored documents, in bytes
+     */
+    public synchronized long getUsedSize()
+    {
+        return (long) (this.nextBlock - this.freeBlockCount) * BLOCK_SIZE;
+    }
+
+    /**
+     * @return the maximum memory used by the stored documents, in bytes
+     */
+    public long getMaxSize()
+    {
+        return (long) this.blockCount * BLOCK_SIZE;
+    }
+
+    /**
+     * @param key the key of the document
+     * @return the serialized document, null if it's not stored
+     */
+    synchronized byte[] getData(String key)
+    {
+        Entry entry = this.entries.get(key);
+        this.statistics.recordLookup(entry != null);
+        if (entry == null) {
+            return null;
+        }
+
+        byte[] data = new byte[entry.length];
+        for (int i = 0, offset = 0; offset < data.length; ++i, offset += BLOCK_SIZE) {
+            ByteBuffer arena = getArena(entry.blocks[i]);
+            arena.get(data, offset, Math.min(BLOCK_SIZE, data.length - offset));
+        }
+
+        return data;
+    }
+
+    /**
+     * @param key the key of the document
+     * @param data the serialized document
+     * @return false if the document is too large to be stored
+     */
+    synchronized boolean setData(String key, byte[] data)
+    {
+        return setData(key, data, getGeneration(key));
+    }
+
+    /**
+     * @param key the key of the document
+     * @param data the serialized document
+     * @param generation the generation of the key when the document was serialized
+     * @return false if the document is too large to be stored or was removed since it was serialized
+     */
+    synchronized boolean setData(String key, byte[] data, long generation)
+    {
+        if (this.generations[getStripe(key)] != generation) {
+            // The document was removed while it was being serialized, the serialized version is outdated.
+            return false;
+        }
+
+        removeEntry(key);
+
+        int neededBlocks = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (neededBlocks > this.blockCount) {
+            return false;
+        }
+
+        Iterator<Entry> it = this.entries.values().iterator();
+        while (this.freeBlockCount + this.blockCount - this.nextBlock < neededBlocks) {
+            release(it.next());
+            it.remove();
+            this.statistics.recordEviction();
+        }
+
+        int[] blocks = new int[neededBlocks];
+        for (int i = 0, offset = 0; i < neededBlocks; ++i, offset += BLOCK_SIZE) {
+            blocks[i] = this.freeBlockCount > 0 ? this.freeBlocks[--this.freeBlockCount] : this.nextBlock++;
+            ByteBuffer arena = getArena(blocks[i]);
+            arena.put(data, offset, Math.min(BLOCK_SIZE, data.length - offset));
+        }
+        this.entries.put(key, new Entry(blocks, data.length));
+
+        return true;
+    }
+
+    /**
+     * @param key the key of the document whose entry is removed
+     */
+    private void removeEntry(String key)
+    {
+        Entry entry = this.entries.remove(key);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    /**
+     * @param key the key of a document
+     * @return the index of the generation counter of the key
+     */
+    private static int getStripe(String key)
+    {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * @param entry the entry whose blocks are released
+     */
+    private void release(Entry entry)
+    {
+        for (int block : entry.blocks) {
+            this.freeBlocks[this.freeBlockCount++] = block;
+        }
+    }
+
+    /**
+     * @param block a block
+     * @return the direct buffer holding the block, positioned at the beginning of the block
+     */
+    private ByteBuffer getArena(int block)
+    {
+        int index = block / ARENA_BLOCKS;
+        ByteBuffer arena = this.arenas[index];
+        if (arena == null) {
+            int arenaBlocks = Math.min(ARENA_BLOCKS, this.blockCount - index * ARENA_BLOCKS);
+            arena = ByteBuffer.allocateDirect(arenaBlocks * BLOCK_SIZE);
+            this.arenas[index] = arena;
+        }
+        arena.position((block % ARENA_BLOCKS) * BLOCK_SIZE);
+
+        return arena;
+    }
+}
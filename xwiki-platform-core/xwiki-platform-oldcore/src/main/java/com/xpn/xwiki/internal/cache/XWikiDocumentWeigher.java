@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.xwiki.cache.eviction.Weigher;
+import org.xwiki.cache.util.StringWeigher;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+
+/**
+ * {@link Weigher} for {@link XWikiDocument} values, estimating the memory used by the content, the objects and the
+ * attachments metadata of the document. The attachments content is not taken into account since it's not kept in the
+ * document once it has been stored.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class XWikiDocumentWeigher implements Weigher<XWikiDocument>
+{
+    /**
+     * The approximate memory used by an empty document: the document itself, its references, dates and metadata.
+     */
+    private static final int DOCUMENT_OVERHEAD = 2048;
+
+    /**
+     * The approximate memory used by an object or an attachment, besides its properties.
+     */
+    private static final int ELEMENT_OVERHEAD = 256;
+
+    /**
+     * The approximate memory used by a property, besides its value.
+     */
+    private static final int PROPERTY_OVERHEAD = 64;
+
+    @Override
+    public long weigh(String key, XWikiDocument document)
+    {
+        long weight = StringWeigher.weigh(key) + DOCUMENT_OVERHEAD;
+
+        if (document != null) {
+            weight += StringWeigher.weigh(document.getContent());
+            weight += StringWeigher.weigh(document.getTitle());
+
+            for (List<BaseObject> objects : document.getXObjects().values()) {
+                for (BaseObject object : objects) {
+                    // Deleted objects leave null entries in the list.
+                    if (object != null) {
+                        weight += weigh(object);
+                    }
+                }
+            }
+
+            for (XWikiAttachment attachment : document.getAttachmentList()) {
+                weight += ELEMENT_OVERHEAD + StringWeigher.weigh(attachment.getFilename())
+                    + StringWeigher.weigh(attachment.getComment());
+            }
+        }
+
+        return weight;
+    }
+
+    /**
+     * @param object the object to weigh
+     * @return the approximate memory used by the object, in bytes
+     */
+    private long weigh(BaseObject object)
+    {
+        long weight = ELEMENT_OVERHEAD;
+
+        for (Object field : object.getFieldList()) {
+            weight += PROPERTY_OVERHEAD;
+            if (field instanceof BaseProperty) {
+                weight += weighValue(((BaseProperty< ? >) field).getValue());
+            }
+        }
+
+        return weight;
+    }
+
+    /**
+     * @param value the value of a property
+     * @return the approximate memory used by the value, in bytes
+     */
+    private long weighValue(Object value)
+    {
+        long weight;
+
+        if (value instanceof String) {
+            weight = StringWeigher.weigh((String) value);
+        } else if (value instanceof Collection) {
+            weight = PROPERTY_OVERHEAD;
+            for (Object item : (Collection< ? >) value) {
+                weight += weighValue(item);
+            }
+        } else {
+            weight = value != null ? PROPERTY_OVERHEAD : 0;
+        }
+
+        return weight;
+    }
+}
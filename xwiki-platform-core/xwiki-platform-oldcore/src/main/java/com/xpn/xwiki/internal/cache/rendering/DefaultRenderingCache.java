@@ -28,6 +28,8 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.eviction.WeightedEvictionConfiguration;
+import org.xwiki.cache.util.StringWeigher;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
@@ -74,7 +76,16 @@ public void initialize() throws InitializationException
         if (this.configuration.isEnabled()) {
             CacheConfiguration cacheConfiguration = new CacheConfiguration();
             cacheConfiguration.setConfigurationId(NAME);
-            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            LRUEvictionConfiguration lru;
+            long maxWeight = this.configuration.getMaxWeight();
+            if (maxWeight > 0) {
+                WeightedEvictionConfiguration weighted = new WeightedEvictionConfiguration();
+                weighted.setMaxWeight(maxWeight);
+                weighted.setWeigher(new StringWeigher());
+                lru = weighted;
+            } else {
+                lru = new LRUEvictionConfiguration();
+            }
             lru.setMaxEntries(this.configuration.getSize());
             lru.setTimeToLive(this.configuration.getDuration());
             cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
@@ -78,6 +78,11 @@ public class DefaultRenderingCacheConfiguration implements RenderingCacheConfigu
      */
     private static final int PROPVALUE_SIZE = 100;
 
+    /**
+     * Name of the property indicating the maximum total size of the cached results.
+     */
+    private static final String PROPNAME_MAXWEIGHT = PREFIX + "maxweight";
+
     /**
      * xwiki.properties file configurations.
      */
@@ -150,6 +155,12 @@ public int getSize()
         return this.farmConfiguration.getProperty(PROPNAME_SIZE, PROPVALUE_SIZE);
     }
 
+    @Override
+    public long getMaxWeight()
+    {
+        return this.farmConfiguration.getProperty(PROPNAME_MAXWEIGHT, 0L);
+    }
+
     @Override
     public boolean isCached(DocumentReference documentReference)
     {
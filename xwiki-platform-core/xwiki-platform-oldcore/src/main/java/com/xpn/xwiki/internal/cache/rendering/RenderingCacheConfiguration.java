@@ -46,6 +46,13 @@
      */
     int getSize();
 
+    /**
+     * @return the maximum total size of the cached results, in bytes, 0 if the cache is only bounded by
+     *         {@link #getSize()}
+     * @since 4.2M3
+     */
+    long getMaxWeight();
+
     /**
      * Indicate if the provided document's rendering result should be cached.
      * 
@@ -0,0 +1,374 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.export;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.environment.Environment;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Default implementation of {@link ExportJobManager}.
+ * <p>
+ * The exports run on a fixed number of daemon threads ({@code export.async.threads} in xwiki.properties) and wait in a
+ * bounded queue ({@code export.async.queueSize}). A user can't have more than {@code export.async.maxJobsPerUser}
+ * unfinished exports, and the results are deleted {@code export.async.retention} seconds after the end of the export.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+@Component
+@Singleton
+public class DefaultExportJobManager implements ExportJobManager, Initializable, Disposable
+{
+    /**
+     * Configuration key prefix.
+     */
+    private static final String PREFIX = "export.async.";
+
+    /**
+     * The XWiki context keys which must not be shared with the request thread.
+     */
+    private static final String[] REQUEST_CONTEXT_KEYS = {"vcontext", "gcontext"};
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * xwiki.properties file configurations.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to initialize the execution context of the exports.
+     */
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * Used to clean the execution context of the exports.
+     */
+    @Inject
+    private Execution execution;
+
+    /**
+     * Used to find the temporary directory.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * The exports, indexed by identifier.
+     */
+    private final ConcurrentMap<String, ExportJobStatus> jobs = new ConcurrentHashMap<String, ExportJobStatus>();
+
+    /**
+     * Run the exports.
+     */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * The directory where the results of the exports are written.
+     */
+    private File directory;
+
+    /**
+     * The maximum number of unfinished exports of a user.
+     */
+    private int maxJobsPerUser;
+
+    /**
+     * The time during which the results are kept, in milliseconds.
+     */
+    private long retention;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int threads = Math.max(1, this.configuration.getProperty(PREFIX + "threads", 2));
+        int queueSize = Math.max(1, this.configuration.getProperty(PREFIX + "queueSize", 20));
+        this.maxJobsPerUser = this.configuration.getProperty(PREFIX + "maxJobsPerUser", 2);
+        this.retention = TimeUnit.SECONDS.toMillis(this.configuration.getProperty(PREFIX + "retention", 3600));
+
+        this.executor =
+            new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
+                queueSize), new ExportThreadFactory());
+
+        this.directory = new File(this.environment.getTemporaryDirectory(), "export");
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+
+        for (ExportJobStatus job : this.jobs.values()) {
+            delete(job);
+        }
+        this.jobs.clear();
+    }
+
+    @Override
+    public ExportJobStatus submit(String format, final ExportTask task, XWikiContext context)
+    {
+        XWikiDocument doc = context.getDoc();
+        final ExportJobStatus job =
+            new ExportJobStatus(RandomStringUtils.randomAlphanumeric(16), context.getUser(), format,
+                doc != null ? doc.getPrefixedFullName() : null);
+
+        synchronized (this.jobs) {
+            removeExpiredJobs();
+
+            if (this.maxJobsPerUser > 0 && countUnfinishedJobs(job.getUser()) >= this.maxJobsPerUser) {
+                this.logger.debug("Export rejected: user [{}] has too many unfinished exports", job.getUser());
+
+                return null;
+            }
+
+            this.jobs.put(job.getId(), job);
+        }
+
+        final XWikiContext jobContext = createJobContext(context);
+        try {
+            this.executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    DefaultExportJobManager.this.run(job, task, jobContext);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.jobs.remove(job.getId());
+            this.logger.debug("Export rejected: the queue is full");
+
+            return null;
+        }
+
+        return job;
+    }
+
+    /**
+     * @param user a user
+     * @return the number of exports of the user which are not finished
+     */
+    private int countUnfinishedJobs(String user)
+    {
+        int count = 0;
+        for (ExportJobStatus job : this.jobs.values()) {
+            if (!job.isDone() && StringUtils.equals(job.getUser(), user)) {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Create the context of an export, which must not share anything mutable with the request thread.
+     *
+     * @param context the XWiki context of the request asking for the export
+     * @return the XWiki context of the export
+     */
+    private XWikiContext createJobContext(XWikiContext context)
+    {
+        XWikiContext jobContext = context.clone();
+
+        for (String key : REQUEST_CONTEXT_KEYS) {
+            jobContext.remove(key);
+        }
+
+        if (context.getRequest() != null) {
+            jobContext.setRequest(new ExportJobRequest(context.getRequest()));
+        }
+        jobContext.setResponse(new ExportJobResponse());
+        jobContext.setFinished(false);
+
+        return jobContext;
+    }
+
+    /**
+     * Run an export and write its result to a temporary file.
+     *
+     * @param job the status of the export
+     * @param task the export to run
+     * @param jobContext the XWiki context of the export
+     */
+    private void run(ExportJobStatus job, ExportTask task, XWikiContext jobContext)
+    {
+        job.start();
+
+        ExecutionContext executionContext = new ExecutionContext();
+        // Prevent XWikiStubContextInitializer from injecting a stub context
+        executionContext.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, jobContext);
+
+        File file = null;
+        OutputStream stream = null;
+        Throwable error = null;
+        try {
+            this.executionContextManager.initialize(executionContext);
+
+            // Fill the velocity context of the export thread
+            if (jobContext.getDoc() != null) {
+                jobContext.getDoc().setAsContextDoc(jobContext);
+            }
+
+            this.directory.mkdirs();
+            file = File.createTempFile(job.getFormat() + '-', ".tmp", this.directory);
+            stream = new BufferedOutputStream(new FileOutputStream(file));
+            ExportJobResponse response = (ExportJobResponse) jobContext.getResponse();
+            response.setOutpuStream(stream);
+
+            task.export(jobContext);
+
+            stream.close();
+            job.finish(file, response.getContentType(), response.getContentDisposition(), null);
+        } catch (Exception e) {
+            error = e;
+        } catch (Error e) {
+            // Such as running out of memory, don't let the export wait forever
+            error = e;
+            throw e;
+        } finally {
+            if (error != null) {
+                IOUtils.closeQuietly(stream);
+                if (file != null) {
+                    file.delete();
+                }
+                job.finish(null, null, null, error);
+
+                this.logger.error("Failed to export [" + job.getDocument() + "] as [" + job.getFormat() + "]", error);
+            }
+
+            // Release the database connections of the export, as done at the end of the requests
+            if (jobContext.getWiki() != null) {
+                try {
+                    jobContext.getWiki().getStore().cleanUp(jobContext);
+                } catch (Exception e) {
+                    this.logger.warn("Failed to clean up the store after exporting [{}]: {}", job.getDocument(),
+                        e.getMessage());
+                }
+            }
+
+            this.execution.removeContext();
+
+            this.logger.debug("Export: {}", job);
+        }
+    }
+
+    @Override
+    public ExportJobStatus getJobStatus(String id)
+    {
+        synchronized (this.jobs) {
+            removeExpiredJobs();
+        }
+
+        return this.jobs.get(id);
+    }
+
+    @Override
+    public void remove(String id)
+    {
+        ExportJobStatus job = this.jobs.remove(id);
+        if (job != null) {
+            delete(job);
+        }
+    }
+
+    /**
+     * Delete the results which are kept for longer than the retention time.
+     */
+    private void removeExpiredJobs()
+    {
+        long limit = System.currentTimeMillis() - this.retention;
+        for (Iterator<ExportJobStatus> it = this.jobs.values().iterator(); it.hasNext();) {
+            ExportJobStatus job = it.next();
+            if (job.isDone() && job.getEndDate().getTime() < limit) {
+                it.remove();
+                delete(job);
+            }
+        }
+    }
+
+    /**
+     * @param job an export
+     */
+    private void delete(ExportJobStatus job)
+    {
+        File file = job.getFile();
+        if (file != null && file.exists() && !file.delete()) {
+            this.logger.warn("Failed to delete export result [{}]", file);
+        }
+    }
+
+    /**
+     * Create the daemon threads running the exports.
+     */
+    private static class ExportThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "Export " + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
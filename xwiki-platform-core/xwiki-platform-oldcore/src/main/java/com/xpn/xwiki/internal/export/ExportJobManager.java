@@ -0,0 +1,60 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.export;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Run the exports in the background on a bounded number of threads instead of the servlet threads, and keep their
+ * results in temporary files until they are downloaded.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+@ComponentRole
+public interface ExportJobManager
+{
+    /**
+     * Queue an export. The request parameters, the current user, wiki and document are copied from the given context
+     * so that the export runs as it would in the servlet thread.
+     *
+     * @param format the export format
+     * @param task the export to run
+     * @param context the XWiki context of the request asking for the export
+     * @return the status of the export, null if the current user has too many unfinished exports or if the queue is
+     *         full
+     */
+    ExportJobStatus submit(String format, ExportTask task, XWikiContext context);
+
+    /**
+     * @param id the identifier of an export
+     * @return the status of the export, null if there's no such export or if its result expired
+     */
+    ExportJobStatus getJobStatus(String id);
+
+    /**
+     * Forget an export and delete its result.
+     *
+     * @param id the identifier of the export
+     */
+    void remove(String id);
+}
@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.export;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.XWikiServletRequestStub;
+
+/**
+ * Snapshot of the request which asked for an export, so that the export can read the request parameters and create
+ * URLs from a background thread once the servlet request is recycled.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+class ExportJobRequest extends XWikiServletRequestStub
+{
+    /**
+     * The request parameters.
+     */
+    private final Map<String, String[]> parameters = new HashMap<String, String[]>();
+
+    /**
+     * @see #getContextPath()
+     */
+    private final String contextPath;
+
+    /**
+     * @see #getServletPath()
+     */
+    private final String servletPath;
+
+    /**
+     * @see #getRequestURI()
+     */
+    private final String requestURI;
+
+    /**
+     * @see #getServerName()
+     */
+    private final String serverName;
+
+    /**
+     * @see #getServerPort()
+     */
+    private final int serverPort;
+
+    /**
+     * @see #isSecure()
+     */
+    private final boolean secure;
+
+    /**
+     * @see #getLocale()
+     */
+    private final Locale locale;
+
+    /**
+     * @param request the request to copy
+     */
+    ExportJobRequest(XWikiRequest request)
+    {
+        setHost(request.getHeader("x-forwarded-host"));
+        setScheme(request.getScheme());
+
+        @SuppressWarnings("unchecked")
+        Map<String, String[]> requestParameters = request.getParameterMap();
+        if (requestParameters != null) {
+            for (Map.Entry<String, String[]> entry : requestParameters.entrySet()) {
+                this.parameters.put(entry.getKey(), entry.getValue().clone());
+            }
+        }
+
+        this.contextPath = request.getContextPath();
+        this.servletPath = request.getServletPath();
+        this.requestURI = request.getRequestURI();
+        this.serverName = request.getServerName();
+        this.serverPort = request.getServerPort();
+        this.secure = request.isSecure();
+        this.locale = request.getLocale();
+    }
+
+    @Override
+    public String get(String name)
+    {
+        return getParameter(name);
+    }
+
+    @Override
+    public String getParameter(String name)
+    {
+        String[] values = this.parameters.get(name);
+
+        return values != null && values.length > 0 ? values[0] : null;
+    }
+
+    @Override
+    public String[] getParameterValues(String name)
+    {
+        String[] values = this.parameters.get(name);
+
+        return values != null ? values.clone() : null;
+    }
+
+    @Override
+    public Map getParameterMap()
+    {
+        return Collections.unmodifiableMap(this.parameters);
+    }
+
+    @Override
+    public Enumeration getParameterNames()
+    {
+        return Collections.enumeration(this.parameters.keySet());
+    }
+
+    @Override
+    public String getContextPath()
+    {
+        return this.contextPath;
+    }
+
+    @Override
+    public String getServletPath()
+    {
+        return this.servletPath;
+    }
+
+    @Override
+    public String getRequestURI()
+    {
+        return this.requestURI;
+    }
+
+    @Override
+    public String getServerName()
+    {
+        return this.serverName;
+    }
+
+    @Override
+    public int getServerPort()
+    {
+        return this.serverPort;
+    }
+
+    @Override
+    public boolean isSecure()
+    {
+        return this.secure;
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        return this.locale;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.export;
+
+import com.xpn.xwiki.web.XWikiServletResponseStub;
+
+/**
+ * Response of an export running in the background: the content is written to a temporary file and the headers needed
+ * to send it later are remembered.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+class ExportJobResponse extends XWikiServletResponseStub
+{
+    /**
+     * The name of the header holding the file name of the export.
+     */
+    private static final String CONTENT_DISPOSITION = "Content-disposition";
+
+    /**
+     * @see #getContentType()
+     */
+    private String contentType;
+
+    /**
+     * @see #getContentDisposition()
+     */
+    private String contentDisposition;
+
+    @Override
+    public void setContentType(String type)
+    {
+        this.contentType = type;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return this.contentType;
+    }
+
+    @Override
+    public void setHeader(String name, String value)
+    {
+        if (CONTENT_DISPOSITION.equalsIgnoreCase(name)) {
+            this.contentDisposition = value;
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value)
+    {
+        setHeader(name, value);
+    }
+
+    /**
+     * @return the value of the {@code Content-disposition} header set by the export
+     */
+    String getContentDisposition()
+    {
+        return this.contentDisposition;
+    }
+}
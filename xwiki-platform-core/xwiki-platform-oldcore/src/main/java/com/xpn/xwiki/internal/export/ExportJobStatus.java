@@ -0,0 +1,261 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.export;
+
+import java.io.File;
+import java.util.Date;
+
+/**
+ * The state and result of an export running in the background.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class ExportJobStatus
+{
+    /**
+     * The possible states of the export.
+     */
+    public enum State
+    {
+        /** The export is queued but did not start yet. */
+        WAITING,
+
+        /** The export is running. */
+        RUNNING,
+
+        /** The export is finished and its result can be downloaded. */
+        DONE,
+
+        /** The export failed. */
+        FAILED
+    }
+
+    /**
+     * @see #getId()
+     */
+    private final String id;
+
+    /**
+     * @see #getUser()
+     */
+    private final String user;
+
+    /**
+     * @see #getFormat()
+     */
+    private final String format;
+
+    /**
+     * @see #getDocument()
+     */
+    private final String document;
+
+    /**
+     * @see #getSubmitDate()
+     */
+    private final Date submitDate = new Date();
+
+    /**
+     * @see #getState()
+     */
+    private volatile State state = State.WAITING;
+
+    /**
+     * @see #getStartDate()
+     */
+    private volatile Date startDate;
+
+    /**
+     * @see #getEndDate()
+     */
+    private volatile Date endDate;
+
+    /**
+     * @see #getFile()
+     */
+    private volatile File file;
+
+    /**
+     * @see #getContentType()
+     */
+    private volatile String contentType;
+
+    /**
+     * @see #getContentDisposition()
+     */
+    private volatile String contentDisposition;
+
+    /**
+     * @see #getError()
+     */
+    private volatile Throwable error;
+
+    /**
+     * @param id the identifier of the export
+     * @param user the user who requested the export
+     * @param format the export format
+     * @param document the document from which the export was requested
+     */
+    public ExportJobStatus(String id, String user, String format, String document)
+    {
+        this.id = id;
+        this.user = user;
+        this.format = format;
+        this.document = document;
+    }
+
+    /**
+     * @return the identifier of the export
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * @return the user who requested the export, the only one allowed to access its result
+     */
+    public String getUser()
+    {
+        return this.user;
+    }
+
+    /**
+     * @return the export format (xar, html, pdf, rtf, etc.)
+     */
+    public String getFormat()
+    {
+        return this.format;
+    }
+
+    /**
+     * @return the document from which the export was requested
+     */
+    public String getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * @return the state of the export
+     */
+    public State getState()
+    {
+        return this.state;
+    }
+
+    /**
+     * @return true if the export is finished, successfully or not
+     */
+    public boolean isDone()
+    {
+        return this.state == State.DONE || this.state == State.FAILED;
+    }
+
+    /**
+     * Indicate that the export started.
+     */
+    void start()
+    {
+        this.startDate = new Date();
+        this.state = State.RUNNING;
+    }
+
+    /**
+     * Indicate that the export is finished.
+     *
+     * @param file the file holding the result of the export, null if it failed
+     * @param contentType the MIME type of the result
+     * @param contentDisposition the {@code Content-disposition} header to send with the result, holding its file name
+     * @param error the error which made the export fail, null if it succeeded
+     */
+    void finish(File file, String contentType, String contentDisposition, Throwable error)
+    {
+        this.file = file;
+        this.contentType = contentType;
+        this.contentDisposition = contentDisposition;
+        this.error = error;
+        this.endDate = new Date();
+        this.state = error != null ? State.FAILED : State.DONE;
+    }
+
+    /**
+     * @return the date when the export was requested
+     */
+    public Date getSubmitDate()
+    {
+        return this.submitDate;
+    }
+
+    /**
+     * @return the date when the export started, null if it did not start yet
+     */
+    public Date getStartDate()
+    {
+        return this.startDate;
+    }
+
+    /**
+     * @return the date when the export finished, null if it is not finished
+     */
+    public Date getEndDate()
+    {
+        return this.endDate;
+    }
+
+    /**
+     * @return the temporary file holding the result of the export, null if it is not finished or if it failed
+     */
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    /**
+     * @return the MIME type of the result of the export
+     */
+    public String getContentType()
+    {
+        return this.contentType;
+    }
+
+    /**
+     * @return the {@code Content-disposition} header to send with the result of the export
+     */
+    public String getContentDisposition()
+    {
+        return this.contentDisposition;
+    }
+
+    /**
+     * @return the error which made the export fail, null if it did not fail
+     */
+    public Throwable getError()
+    {
+        return this.error;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [%s, %s, %s]: %s", this.id, this.user, this.format, this.document, this.state);
+    }
+}
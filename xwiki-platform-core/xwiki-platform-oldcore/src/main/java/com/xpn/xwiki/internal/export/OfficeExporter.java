@@ -27,9 +27,12 @@
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.xml.transform.Templates;
+
 import org.artofsolving.jodconverter.document.DefaultDocumentFormatRegistry;
 import org.artofsolving.jodconverter.document.DocumentFormat;
 import org.artofsolving.jodconverter.document.DocumentFormatRegistry;
+import org.dom4j.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.officeimporter.openoffice.OpenOfficeConverter;
@@ -88,7 +91,7 @@ public ExportType getExportType(String format)
     }
 
     @Override
-    protected void exportXHTML(String xhtml, OutputStream out, ExportType type, XWikiContext context)
+    protected void exportXHTML(Document xhtml, OutputStream out, ExportType type, XWikiContext context)
         throws XWikiException
     {
         exportXHTML(xhtml, out, documentFormatRegistry.getFormatByExtension(type.getExtension()), context);
@@ -104,7 +107,7 @@ protected void exportXHTML(String xhtml, OutputStream out, ExportType type, XWik
      *            location on the file system
      * @throws XWikiException if the conversion fails
      */
-    private void exportXHTML(String xhtml, OutputStream out, DocumentFormat format, XWikiContext context)
+    private void exportXHTML(Document xhtml, OutputStream out, DocumentFormat format, XWikiContext context)
         throws XWikiException
     {
         String html = applyXSLT(xhtml, getOfficeExportXSLT(context));
@@ -154,11 +157,12 @@ private void addEmbeddedObjects(Map<String, InputStream> inputStreams, XWikiCont
      * Get the XSLT for preparing a (valid) XHTML to be converted to an office format.
      * 
      * @param context the current request context
-     * @return the content of the XSLT as a byte stream
-     * @see PdfExportImpl#getXslt(String, String, XWikiContext)
+     * @return the compiled XSLT
+     * @throws XWikiException if the XSLT can't be compiled
+     * @see PdfExportImpl#getXsltTemplates(String, String, XWikiContext)
      */
-    private InputStream getOfficeExportXSLT(XWikiContext context)
+    private Templates getOfficeExportXSLT(XWikiContext context) throws XWikiException
     {
-        return getXslt("officeExportXSLT", "officeExport.xsl", context);
+        return getXsltTemplates("officeExportXSLT", "officeExport.xsl", context);
     }
 }
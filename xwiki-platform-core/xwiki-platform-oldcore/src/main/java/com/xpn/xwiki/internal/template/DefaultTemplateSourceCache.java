@@ -0,0 +1,288 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import java.io.File;
+import java.io.InputStream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.cache.DocumentCache;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.web.XWikiEngineContext;
+
+/**
+ * Default implementation of {@link TemplateSourceCache}.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+@Component
+@Singleton
+public class DefaultTemplateSourceCache implements TemplateSourceCache, Initializable
+{
+    /**
+     * Identifier of the cache of the templates stored in skin documents.
+     */
+    private static final String DOCUMENT_CACHE_NAME = "core.templatecache.documents";
+
+    /**
+     * Identifier of the cache of the templates stored in files.
+     */
+    private static final String FILE_CACHE_NAME = "core.templatecache.files";
+
+    /**
+     * The maximum number of entries in each cache.
+     */
+    private static final int CACHE_SIZE = 500;
+
+    /**
+     * The name of the class of the skin objects.
+     */
+    private static final String SKIN_CLASS_NAME = "XWikiSkins";
+
+    /**
+     * The value cached when a skin document does not provide a template.
+     */
+    private static final String NOT_FOUND = "";
+
+    /**
+     * A template file and the modification date of the file it has been read from.
+     * 
+     * @version $Id$
+     */
+    private static final class FileTemplate
+    {
+        /**
+         * The content of the template, null if the file does not exist.
+         */
+        private final String content;
+
+        /**
+         * The modification date of the file, 0 if it's unknown.
+         */
+        private final long lastModified;
+
+        /**
+         * @param content the content of the template, null if the file does not exist
+         * @param lastModified the modification date of the file, 0 if it's unknown
+         */
+        private FileTemplate(String content, long lastModified)
+        {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * Used to create the cache of the template files.
+     */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * Used to resolve the skin names the same way {@link XWiki#getDocument(String, XWikiContext)} does.
+     */
+    @Inject
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> currentMixedDocumentReferenceResolver;
+
+    /**
+     * The templates stored in skin documents, automatically cleaned when a skin document is modified.
+     */
+    @Inject
+    private DocumentCache<String> documentCache;
+
+    /**
+     * The templates stored in files.
+     */
+    private Cache<FileTemplate> fileCache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.documentCache.create(createCacheConfiguration(DOCUMENT_CACHE_NAME));
+            this.fileCache = this.cacheManager.createNewCache(createCacheConfiguration(FILE_CACHE_NAME));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to initialize template cache", e);
+        }
+    }
+
+    /**
+     * @param name the identifier of the cache
+     * @return the configuration of the cache
+     */
+    private CacheConfiguration createCacheConfiguration(String name)
+    {
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId(name);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        return cacheConfiguration;
+    }
+
+    @Override
+    public String getDocumentTemplate(String skin, String template, XWikiContext context)
+    {
+        DocumentReference skinReference = this.currentMixedDocumentReferenceResolver.resolve(skin);
+
+        String content = this.documentCache.get(skinReference, template);
+
+        if (content == null) {
+            try {
+                content = loadDocumentTemplate(skinReference, template, context);
+            } catch (Exception e) {
+                // Don't cache anything, the next call will try again
+                this.logger.debug("Failed to load template [" + template + "] from skin document [" + skinReference
+                    + "]", e);
+
+                return null;
+            }
+
+            this.documentCache.set(content, skinReference, template);
+        }
+
+        return content.length() > 0 ? content : null;
+    }
+
+    /**
+     * @param skinReference the reference of the skin document
+     * @param template the template name
+     * @param context the XWiki context
+     * @return the template content or {@link #NOT_FOUND} if the skin document does not provide it
+     * @throws Exception when failing to load the skin document or the attachment content
+     */
+    private String loadDocumentTemplate(DocumentReference skinReference, String template, XWikiContext context)
+        throws Exception
+    {
+        XWikiDocument doc = context.getWiki().getDocument(skinReference, context);
+
+        if (!doc.isNew()) {
+            // Try the object property
+            BaseObject object =
+                doc.getXObject(new DocumentReference(skinReference.getWikiReference().getName(), XWiki.SYSTEM_SPACE,
+                    SKIN_CLASS_NAME));
+            if (object != null) {
+                String content = object.getStringValue(template);
+                if (StringUtils.isNotBlank(content)) {
+                    return content;
+                }
+            }
+
+            // Try a document attachment
+            XWikiAttachment attachment = doc.getAttachment(template);
+            if (attachment != null) {
+                // It's impossible to know the real attachment encoding, but let's assume that they respect the
+                // standard and use UTF-8 (which is required for the files located on the filesystem)
+                InputStream stream = attachment.getContentInputStream(context);
+                try {
+                    String content = IOUtils.toString(stream, XWiki.DEFAULT_ENCODING);
+                    if (StringUtils.isNotBlank(content)) {
+                        return content;
+                    }
+                } finally {
+                    IOUtils.closeQuietly(stream);
+                }
+            }
+        }
+
+        return NOT_FOUND;
+    }
+
+    @Override
+    public String getFileTemplate(String path, XWikiContext context)
+    {
+        long lastModified = getLastModified(path, context);
+
+        FileTemplate fileTemplate = this.fileCache.get(path);
+
+        if (fileTemplate == null || fileTemplate.lastModified != lastModified) {
+            String content;
+            try {
+                content = context.getWiki().getResourceContent(path);
+            } catch (Exception e) {
+                content = null;
+            }
+
+            fileTemplate = new FileTemplate(content, lastModified);
+            this.fileCache.set(path, fileTemplate);
+        }
+
+        return fileTemplate.content;
+    }
+
+    /**
+     * @param path the path of the file in the web application
+     * @param context the XWiki context
+     * @return the modification date of the file, 0 if the file does not exist or if it can't be accessed (for example
+     *         because the web application is not exploded)
+     */
+    private long getLastModified(String path, XWikiContext context)
+    {
+        try {
+            XWikiEngineContext engineContext = context.getWiki().getEngineContext();
+            String realPath = engineContext != null ? engineContext.getRealPath(path) : null;
+            if (realPath != null) {
+                return new File(realPath).lastModified();
+            }
+        } catch (Exception e) {
+            // Probably a SecurityException
+            this.logger.debug("Failed to get modification date of file [{}]", path, e);
+        }
+
+        return 0;
+    }
+
+    @Override
+    public void flush()
+    {
+        this.documentCache.removeAll();
+        this.fileCache.removeAll();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Cache the resolved source of the Velocity templates so that looking for a template in the skins does not load the
+ * skin documents and read the template files again for each request. Templates which cannot be found are cached too.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+@ComponentRole
+public interface TemplateSourceCache
+{
+    /**
+     * Get the content of a template stored in a skin document, either as a property of the skin object or as an
+     * attachment.
+     * <p>
+     * The entry is invalidated when the skin document is modified.
+     * 
+     * @param skin the skin document name
+     * @param template the template name
+     * @param context the XWiki context
+     * @return the template content or null if the skin document does not provide a non blank version of the template
+     */
+    String getDocumentTemplate(String skin, String template, XWikiContext context);
+
+    /**
+     * Get the content of a template stored in the web application.
+     * <p>
+     * The entry is reloaded when the modification date of the file changes.
+     * 
+     * @param path the normalized path of the template file in the web application
+     * @param context the XWiki context
+     * @return the template content or null if the file does not exist
+     */
+    String getFileTemplate(String path, XWikiContext context);
+
+    /**
+     * Remove all the entries of the cache.
+     */
+    void flush();
+}
@@ -0,0 +1,505 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.wiki;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.macro.wikibridge.WikiMacroInitializer;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.user.api.XWikiRightService;
+
+/**
+ * Default implementation of {@link WikiInitializer}.
+ * <p>
+ * Checking the mandatory classes of a wiki means loading (and sometimes saving) a dozen documents, so a marker of the
+ * definitions which were last checked is saved in a hidden document of the wiki,
+ * {@code XWiki.WikiInitializationMarker}, and the check is skipped when it did not change. The marker is made of the version of XWiki and of a hash of the code
+ * defining the mandatory classes, so that it changes even when a snapshot or a patched build is deployed with the same
+ * version, and of the wiki identifier, so that a marker copied with the other documents of the wiki (template wiki,
+ * XAR export) does not apply to another wiki. This can be disabled by setting
+ * {@code xwiki.init.classes.skipunchanged} to 0 in xwiki.cfg.
+ * <p>
+ * A thread accessing a wiki initialized by another thread waits for it at most {@code xwiki.init.wikis.timeout}
+ * seconds (5 minutes by default), and does not wait at all when the other thread is itself waiting for a wiki
+ * initialized by the current thread.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+@Component
+@Singleton
+public class DefaultWikiInitializer implements WikiInitializer
+{
+    /**
+     * The space of the document holding the marker of the checked classes.
+     */
+    static final String MARKER_SPACE = "XWiki";
+
+    /**
+     * The name of the document holding the marker of the checked classes.
+     */
+    static final String MARKER_PAGE = "WikiInitializationMarker";
+
+    /**
+     * The default maximum time to wait for a wiki initialized by another thread, in seconds.
+     */
+    private static final long DEFAULT_TIMEOUT = 300;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * Used to initialize the execution context of the background threads.
+     */
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * Used to clean the execution context of the background threads.
+     */
+    @Inject
+    private Execution execution;
+
+    /**
+     * The initializations, indexed by wiki identifier.
+     */
+    private final ConcurrentMap<String, WikiInitialization> initializations =
+        new ConcurrentHashMap<String, WikiInitialization>();
+
+    /**
+     * Used to find the code defining the wiki macro classes.
+     */
+    @Inject
+    private ComponentManager componentManager;
+
+    /**
+     * The initialization each thread is waiting for, used to detect threads waiting for each other.
+     */
+    private final ConcurrentMap<Thread, WikiInitialization> waiting =
+        new ConcurrentHashMap<Thread, WikiInitialization>();
+
+    /**
+     * The hash of the code defining the mandatory classes, lazily computed.
+     */
+    private String definitionsHash;
+
+    /**
+     * The initialization of a wiki.
+     */
+    private static final class WikiInitialization
+    {
+        private final WikiInitializationStatus status;
+
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile Thread thread;
+
+        WikiInitialization(String wiki)
+        {
+            this.status = new WikiInitializationStatus(wiki);
+        }
+    }
+
+    @Override
+    public void initialize(String wiki, boolean force, boolean initClasses, XWikiContext context)
+        throws XWikiException
+    {
+        if (force) {
+            this.initializations.remove(wiki);
+        }
+
+        WikiInitialization initialization = getInitialization(wiki);
+
+        if (initialization.started.compareAndSet(false, true)) {
+            initialization.thread = Thread.currentThread();
+            run(initialization, initClasses, context);
+        } else if (initialization.thread != Thread.currentThread()) {
+            // Don't let the wiki be accessed before it's ready
+            await(initialization, context);
+        }
+    }
+
+    /**
+     * Wait for a wiki initialized by another thread, unless this thread would wait for itself.
+     *
+     * @param initialization the initialization to wait for
+     * @param context the XWiki context
+     */
+    private void await(WikiInitialization initialization, XWikiContext context)
+    {
+        String wiki = initialization.status.getWiki();
+        Thread currentThread = Thread.currentThread();
+
+        // Registered before checking so that at least one of two threads waiting for each other notices it
+        this.waiting.put(currentThread, initialization);
+        try {
+            if (isWaitingFor(initialization.thread, currentThread)) {
+                this.logger.warn("Wiki [{}] is accessed before being initialized since the thread initializing it"
+                    + " is waiting for a wiki initialized by the current thread", wiki);
+
+                return;
+            }
+
+            long timeout = context.getWiki().ParamAsLong("xwiki.init.wikis.timeout", DEFAULT_TIMEOUT);
+            if (!initialization.done.await(timeout, TimeUnit.SECONDS)) {
+                this.logger.warn("Wiki [{}] is accessed before being initialized since its initialization did not"
+                    + " finish in [{}] seconds", wiki, timeout);
+            }
+        } catch (InterruptedException e) {
+            currentThread.interrupt();
+        } finally {
+            this.waiting.remove(currentThread);
+        }
+    }
+
+    /**
+     * @param thread the thread initializing a wiki
+     * @param expected the thread to look for
+     * @return true if the thread is waiting, directly or through other initializing threads, for the expected thread
+     */
+    private boolean isWaitingFor(Thread thread, Thread expected)
+    {
+        Set<Thread> visited = new HashSet<Thread>();
+        for (Thread current = thread; current != null && visited.add(current);) {
+            WikiInitialization awaited = this.waiting.get(current);
+            current = awaited != null ? awaited.thread : null;
+            if (current == expected) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private WikiInitialization getInitialization(String wiki)
+    {
+        WikiInitialization initialization = this.initializations.get(wiki);
+
+        if (initialization == null) {
+            initialization = new WikiInitialization(wiki);
+            WikiInitialization existing = this.initializations.putIfAbsent(wiki, initialization);
+            if (existing != null) {
+                initialization = existing;
+            }
+        }
+
+        return initialization;
+    }
+
+    private void run(WikiInitialization initialization, boolean initClasses, XWikiContext context)
+        throws XWikiException
+    {
+        WikiInitializationStatus status = initialization.status;
+        status.start();
+
+        Throwable error = null;
+        String database = context.getDatabase();
+        try {
+            context.setDatabase(status.getWiki());
+
+            if (initClasses) {
+                initialize(status, context);
+            }
+        } catch (XWikiException e) {
+            error = e;
+            throw e;
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            context.setDatabase(database);
+
+            status.finish(error);
+            initialization.done.countDown();
+
+            this.logger.debug("Wiki initialization: {}", status);
+        }
+    }
+
+    private void initialize(WikiInitializationStatus status, XWikiContext context) throws XWikiException
+    {
+        XWiki xwiki = context.getWiki();
+
+        long time = System.currentTimeMillis();
+        String marker = getClassesMarker(xwiki, status.getWiki());
+        XWikiDocument markerDocument =
+            xwiki.getDocument(new DocumentReference(status.getWiki(), MARKER_SPACE, MARKER_PAGE), context);
+        if ("1".equals(xwiki.Param("xwiki.init.classes.skipunchanged", "1")) && !markerDocument.isNew()
+            && marker.equals(markerDocument.getContent())) {
+            status.setClassesSkipped(true);
+        } else {
+            xwiki.initializeMandatoryClasses(context);
+            setMarker(markerDocument, marker, context);
+        }
+        status.setClassesDuration(System.currentTimeMillis() - time);
+
+        time = System.currentTimeMillis();
+        xwiki.getPluginManager().virtualInit(context);
+        status.setPluginsDuration(System.currentTimeMillis() - time);
+
+        time = System.currentTimeMillis();
+        xwiki.getRenderingEngine().virtualInit(context);
+        status.setRenderingDuration(System.currentTimeMillis() - time);
+    }
+
+    /**
+     * @param xwiki the XWiki instance
+     * @param wiki the identifier of the wiki
+     * @return a marker which changes when the definitions of the mandatory classes change
+     */
+    private String getClassesMarker(XWiki xwiki, String wiki)
+    {
+        return xwiki.getVersion() + '-' + getDefinitionsHash() + '-' + xwiki.Param("xwiki.preferences.redirect", "0")
+            + '-' + wiki;
+    }
+
+    /**
+     * Save the marker of the checked classes in the wiki. Failing to save it only means that the classes will be
+     * checked again next time.
+     *
+     * @param markerDocument the document holding the marker
+     * @param marker the marker of the checked classes
+     * @param context the XWiki context
+     */
+    private void setMarker(XWikiDocument markerDocument, String marker, XWikiContext context)
+    {
+        if (!markerDocument.isNew() && marker.equals(markerDocument.getContent())) {
+            return;
+        }
+
+        markerDocument.setContent(marker);
+        markerDocument.setSyntax(Syntax.PLAIN_1_0);
+        markerDocument.setHidden(true);
+        if (StringUtils.isBlank(markerDocument.getCreator())) {
+            markerDocument.setCreator(XWikiRightService.SUPERADMIN_USER);
+        }
+        if (StringUtils.isBlank(markerDocument.getAuthor())) {
+            markerDocument.setAuthor(markerDocument.getCreator());
+        }
+
+        try {
+            context.getWiki().saveDocument(markerDocument, "Checked the mandatory classes", true, context);
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to save the marker of the checked classes in wiki [{}]: {}",
+                markerDocument.getDocumentReference().getWikiReference().getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return the hash of the bytecode of the classes defining the mandatory classes
+     */
+    private synchronized String getDefinitionsHash()
+    {
+        if (this.definitionsHash == null) {
+            List<Class< ? >> definitionClasses = new ArrayList<Class< ? >>();
+            definitionClasses.add(XWiki.class);
+            try {
+                definitionClasses.add(this.componentManager.getInstance(WikiMacroInitializer.class).getClass());
+            } catch (ComponentLookupException e) {
+                this.logger.debug("No wiki macro initializer", e);
+            }
+
+            ByteArrayOutputStream definitions = new ByteArrayOutputStream();
+            for (Class< ? > definitionClass : definitionClasses) {
+                String className = definitionClass.getName();
+                InputStream stream =
+                    definitionClass.getResourceAsStream(className.substring(className.lastIndexOf('.') + 1) + ".class");
+                if (stream != null) {
+                    try {
+                        IOUtils.copy(stream, definitions);
+                    } catch (IOException e) {
+                        this.logger.warn("Failed to read the bytecode of [{}]: {}", className, e.getMessage());
+                    } finally {
+                        IOUtils.closeQuietly(stream);
+                    }
+                }
+            }
+
+            this.definitionsHash = DigestUtils.md5Hex(definitions.toByteArray());
+        }
+
+        return this.definitionsHash;
+    }
+
+    @Override
+    public void initializeInBackground(Collection<String> wikis, int threads)
+    {
+        if (wikis.isEmpty() || threads <= 0) {
+            return;
+        }
+
+        this.logger.info("Initializing [{}] wikis in the background with [{}] threads", wikis.size(), threads);
+
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.min(threads, wikis.size()), new InitializationThreadFactory());
+        for (final String wiki : wikis) {
+            // Make the wiki appear as waiting right away
+            getInitialization(wiki);
+
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    initializeInBackground(wiki);
+                }
+            });
+        }
+
+        // The threads stop once all the wikis are initialized
+        executor.shutdown();
+    }
+
+    private void initializeInBackground(String wiki)
+    {
+        WikiInitialization initialization = this.initializations.get(wiki);
+        if (initialization == null || initialization.started.get()) {
+            // Reset or already initialized on first access
+            return;
+        }
+
+        XWikiContext xcontext =
+            (XWikiContext) this.execution.getContext().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        if (xcontext == null) {
+            this.logger.warn("No XWiki context available to initialize wiki [{}] in the background", wiki);
+
+            return;
+        }
+
+        try {
+            // Go through XWiki so that the wiki is registered and the WikiReadyEvent sent as on first access
+            xcontext.getWiki().updateDatabase(wiki, false, true, xcontext);
+        } catch (Exception e) {
+            this.logger.error("Failed to initialize wiki [" + wiki + "]", e);
+        }
+    }
+
+    @Override
+    public WikiInitializationStatus getStatus(String wiki)
+    {
+        WikiInitialization initialization = this.initializations.get(wiki);
+
+        return initialization != null ? initialization.status : null;
+    }
+
+    @Override
+    public Map<String, WikiInitializationStatus> getStatuses()
+    {
+        Map<String, WikiInitializationStatus> statuses = new TreeMap<String, WikiInitializationStatus>();
+
+        for (WikiInitialization initialization : this.initializations.values()) {
+            statuses.put(initialization.status.getWiki(), initialization.status);
+        }
+
+        return statuses;
+    }
+
+    @Override
+    public void reset()
+    {
+        this.initializations.clear();
+    }
+
+    @Override
+    public void reset(String wiki)
+    {
+        // The marker of the checked classes is deleted with the wiki
+        this.initializations.remove(wiki);
+    }
+
+    /**
+     * Create daemon threads with their own execution and XWiki contexts.
+     */
+    private class InitializationThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        // The stub XWiki context is injected by XWikiStubContextInitializer
+                        executionContextManager.initialize(new ExecutionContext());
+                    } catch (Exception e) {
+                        logger.error("Failed to initialize wiki initialization thread execution context", e);
+
+                        return;
+                    }
+
+                    try {
+                        runnable.run();
+                    } finally {
+                        execution.removeContext();
+                    }
+                }
+            }, "Wiki initialization " + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.wiki;
+
+import java.util.Date;
+
+/**
+ * The state and timings of the initialization of a wiki.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class WikiInitializationStatus
+{
+    /**
+     * The possible states of the initialization.
+     */
+    public enum State
+    {
+        /** The initialization is scheduled but did not start yet. */
+        WAITING,
+
+        /** The wiki is being initialized. */
+        INITIALIZING,
+
+        /** The wiki is initialized. */
+        READY,
+
+        /** The initialization failed. */
+        FAILED
+    }
+
+    /**
+     * @see #getWiki()
+     */
+    private final String wiki;
+
+    /**
+     * @see #getState()
+     */
+    private volatile State state = State.WAITING;
+
+    /**
+     * @see #getStartDate()
+     */
+    private volatile Date startDate;
+
+    /**
+     * @see #getEndDate()
+     */
+    private volatile Date endDate;
+
+    /**
+     * @see #getClassesDuration()
+     */
+    private volatile long classesDuration;
+
+    /**
+     * @see #getPluginsDuration()
+     */
+    private volatile long pluginsDuration;
+
+    /**
+     * @see #getRenderingDuration()
+     */
+    private volatile long renderingDuration;
+
+    /**
+     * @see #isClassesSkipped()
+     */
+    private volatile boolean classesSkipped;
+
+    /**
+     * @see #getError()
+     */
+    private volatile Throwable error;
+
+    /**
+     * @param wiki the identifier of the wiki
+     */
+    public WikiInitializationStatus(String wiki)
+    {
+        this.wiki = wiki;
+    }
+
+    /**
+     * @return the identifier of the wiki
+     */
+    public String getWiki()
+    {
+        return this.wiki;
+    }
+
+    /**
+     * @return the state of the initialization
+     */
+    public State getState()
+    {
+        return this.state;
+    }
+
+    /**
+     * @return true if the wiki is initialized (or failed to be initialized) and can't be slowed down by its
+     *         initialization anymore
+     */
+    public boolean isDone()
+    {
+        return this.state == State.READY || this.state == State.FAILED;
+    }
+
+    /**
+     * Indicate that the initialization started.
+     */
+    void start()
+    {
+        this.startDate = new Date();
+        this.state = State.INITIALIZING;
+    }
+
+    /**
+     * Indicate that the initialization is finished.
+     *
+     * @param error the error which made the initialization fail, null if it succeeded
+     */
+    void finish(Throwable error)
+    {
+        this.error = error;
+        this.endDate = new Date();
+        this.state = error != null ? State.FAILED : State.READY;
+    }
+
+    /**
+     * @return the date when the initialization started, null if it did not start yet
+     */
+    public Date getStartDate()
+    {
+        return this.startDate;
+    }
+
+    /**
+     * @return the date when the initialization finished, null if it is not finished
+     */
+    public Date getEndDate()
+    {
+        return this.endDate;
+    }
+
+    /**
+     * @return the total duration of the initialization in milliseconds, or the time spent so far if it is not
+     *         finished
+     */
+    public long getDuration()
+    {
+        if (this.startDate == null) {
+            return 0;
+        }
+
+        return (this.endDate != null ? this.endDate.getTime() : System.currentTimeMillis())
+            - this.startDate.getTime();
+    }
+
+    /**
+     * @return the time spent checking the mandatory classes, in milliseconds
+     */
+    public long getClassesDuration()
+    {
+        return this.classesDuration;
+    }
+
+    /**
+     * @param classesDuration the time spent checking the mandatory classes, in milliseconds
+     */
+    void setClassesDuration(long classesDuration)
+    {
+        this.classesDuration = classesDuration;
+    }
+
+    /**
+     * @return the time spent initializing the plugins, in milliseconds
+     */
+    public long getPluginsDuration()
+    {
+        return this.pluginsDuration;
+    }
+
+    /**
+     * @param pluginsDuration the time spent initializing the plugins, in milliseconds
+     */
+    void setPluginsDuration(long pluginsDuration)
+    {
+        this.pluginsDuration = pluginsDuration;
+    }
+
+    /**
+     * @return the time spent initializing the rendering engine, in milliseconds
+     */
+    public long getRenderingDuration()
+    {
+        return this.renderingDuration;
+    }
+
+    /**
+     * @param renderingDuration the time spent initializing the rendering engine, in milliseconds
+     */
+    void setRenderingDuration(long renderingDuration)
+    {
+        this.renderingDuration = renderingDuration;
+    }
+
+    /**
+     * @return true if the check of the mandatory classes has been skipped because they were already checked by the
+     *         same version of XWiki
+     */
+    public boolean isClassesSkipped()
+    {
+        return this.classesSkipped;
+    }
+
+    /**
+     * @param classesSkipped true if the check of the mandatory classes has been skipped
+     */
+    void setClassesSkipped(boolean classesSkipped)
+    {
+        this.classesSkipped = classesSkipped;
+    }
+
+    /**
+     * @return the error which made the initialization fail, null if it did not fail
+     */
+    public Throwable getError()
+    {
+        return this.error;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.wiki + " " + this.state + " (" + getDuration() + " ms)";
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.wiki;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Initialize the wikis (mandatory classes, plugins and rendering engine) once, either on first access or in the
+ * background, and keep track of the state of each initialization.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+@Role
+public interface WikiInitializer
+{
+    /**
+     * Initialize the passed wiki if it's not already initialized. If the wiki is being initialized by another thread,
+     * wait for it to be done, unless the wait times out or the other thread is waiting for the current thread.
+     *
+     * @param wiki the identifier of the wiki
+     * @param force if true the wiki is initialized again even if it has already been initialized
+     * @param initClasses if false the wiki is only marked as initialized
+     * @param context the XWiki context
+     * @throws XWikiException when failing to initialize the wiki
+     */
+    void initialize(String wiki, boolean force, boolean initClasses, XWikiContext context) throws XWikiException;
+
+    /**
+     * Initialize the passed wikis in the background, using a bounded number of threads. Wikis which are accessed
+     * before their turn are initialized on first access as usual.
+     *
+     * @param wikis the identifiers of the wikis
+     * @param threads the maximum number of wikis to initialize at the same time
+     */
+    void initializeInBackground(Collection<String> wikis, int threads);
+
+    /**
+     * @param wiki the identifier of the wiki
+     * @return the status of the initialization of the wiki, null if it has not been initialized or scheduled
+     */
+    WikiInitializationStatus getStatus(String wiki);
+
+    /**
+     * @return the status of all the initialized or scheduled wikis, indexed by wiki identifier
+     */
+    Map<String, WikiInitializationStatus> getStatuses();
+
+    /**
+     * Forget about all the initialized wikis so that they are initialized again on next access.
+     */
+    void reset();
+
+    /**
+     * Forget about a wiki (usually because it has been deleted) so that it's fully initialized again on next access.
+     *
+     * @param wiki the identifier of the wiki
+     */
+    void reset(String wiki);
+}
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.wiki.scripting;
+
+import java.util.Date;
+
+import com.xpn.xwiki.internal.wiki.WikiInitializationStatus;
+
+/**
+ * The status of the initialization of a wiki as exposed to scripts: the error which made the initialization fail is
+ * only exposed to scripts with programming rights.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class SafeWikiInitializationStatus extends WikiInitializationStatus
+{
+    /**
+     * The wrapped status.
+     */
+    private final WikiInitializationStatus status;
+
+    /**
+     * @see #getError()
+     */
+    private final boolean withError;
+
+    /**
+     * @param status the wrapped status
+     * @param withError true if the error which made the initialization fail can be exposed
+     */
+    public SafeWikiInitializationStatus(WikiInitializationStatus status, boolean withError)
+    {
+        super(status.getWiki());
+
+        this.status = status;
+        this.withError = withError;
+    }
+
+    @Override
+    public State getState()
+    {
+        return this.status.getState();
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        return this.status.isDone();
+    }
+
+    @Override
+    public Date getStartDate()
+    {
+        return this.status.getStartDate();
+    }
+
+    @Override
+    public Date getEndDate()
+    {
+        return this.status.getEndDate();
+    }
+
+    @Override
+    public long getDuration()
+    {
+        return this.status.getDuration();
+    }
+
+    @Override
+    public long getClassesDuration()
+    {
+        return this.status.getClassesDuration();
+    }
+
+    @Override
+    public long getPluginsDuration()
+    {
+        return this.status.getPluginsDuration();
+    }
+
+    @Override
+    public long getRenderingDuration()
+    {
+        return this.status.getRenderingDuration();
+    }
+
+    @Override
+    public boolean isClassesSkipped()
+    {
+        return this.status.isClassesSkipped();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Always null when the script does not have programming rights.
+     */
+    @Override
+    public Throwable getError()
+    {
+        return this.withError ? this.status.getError() : null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.status.toString();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.wiki.scripting;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.script.service.ScriptService;
+
+import com.xpn.xwiki.internal.wiki.WikiInitializationStatus;
+import com.xpn.xwiki.internal.wiki.WikiInitializer;
+
+/**
+ * Exposes the state and timings of the initialization of the wikis to scripts, for example to implement a readiness
+ * check. The errors which made the initializations fail are only exposed to scripts with programming rights, since
+ * they can disclose details about the configuration of the server.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+@Component
+@Named("wikiinitialization")
+@Singleton
+public class WikiInitializationScriptService implements ScriptService
+{
+    /**
+     * The component keeping track of the wikis initialization.
+     */
+    @Inject
+    private WikiInitializer wikiInitializer;
+
+    /**
+     * Used to check the programming rights of the script.
+     */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * @param wiki the identifier of the wiki
+     * @return the status of the initialization of the wiki, null if it has not been initialized or scheduled
+     */
+    public WikiInitializationStatus getStatus(String wiki)
+    {
+        WikiInitializationStatus status = this.wikiInitializer.getStatus(wiki);
+
+        return status != null ? new SafeWikiInitializationStatus(status, hasProgrammingRights()) : null;
+    }
+
+    /**
+     * @return the status of all the initialized or scheduled wikis, indexed by wiki identifier
+     */
+    public Map<String, WikiInitializationStatus> getStatuses()
+    {
+        boolean withError = hasProgrammingRights();
+
+        Map<String, WikiInitializationStatus> statuses = new TreeMap<String, WikiInitializationStatus>();
+        for (Map.Entry<String, WikiInitializationStatus> entry : this.wikiInitializer.getStatuses().entrySet()) {
+            statuses.put(entry.getKey(), new SafeWikiInitializationStatus(entry.getValue(), withError));
+        }
+
+        return statuses;
+    }
+
+    /**
+     * @return true if the current script has programming rights
+     */
+    private boolean hasProgrammingRights()
+    {
+        return this.documentAccessBridge.hasProgrammingRights();
+    }
+
+    /**
+     * @param wiki the identifier of the wiki
+     * @return true if the wiki is initialized and its first access won't have to wait for the initialization
+     */
+    public boolean isReady(String wiki)
+    {
+        WikiInitializationStatus status = this.wikiInitializer.getStatus(wiki);
+
+        return status != null && status.getState() == WikiInitializationStatus.State.READY;
+    }
+
+    /**
+     * @return true if no wiki is waiting to be initialized or being initialized
+     */
+    public boolean isAllDone()
+    {
+        for (WikiInitializationStatus status : this.wikiInitializer.getStatuses().values()) {
+            if (!status.isDone()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -19,13 +19,11 @@
  */
 package com.xpn.xwiki.internal.xml;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.util.EmptyStackException;
 
-import org.apache.commons.codec.binary.Base64OutputStream;
 import org.apache.commons.io.IOUtils;
 import org.dom4j.Document;
 import org.dom4j.Element;
@@ -90,6 +88,23 @@
  */
 public class DOMXMLWriter extends XMLWriter
 {
+    /**
+     * The number of bytes encoded at once by {@link #writeBase64(Element, InputStream)}. It's a multiple of 3 so that
+     * the Base64 text of each chunk can be concatenated without padding in the middle.
+     */
+    private static final int BASE64_CHUNK_SIZE = 3 * 8192;
+
+    /**
+     * The Base64 alphabet, see RFC 4648.
+     */
+    private static final char[] BASE64_ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /**
+     * The Base64 padding character.
+     */
+    private static final char BASE64_PADDING = '=';
+
     /**
      * The <code>{@link Document}</code> currently built by this writer.
      */
@@ -162,20 +177,68 @@ public void write(Element element, Reader rd) throws IOException
      * Add the element into the <code>{@link Document}</code> as a children of the element at the top of the stack of
      * opened elements, putting the whole stream content as Base64 text in the content of the
      * <code>{@link Element}</code>.
+     * <p>
+     * The stream is encoded chunk by chunk, each chunk being added as a text node, so that only the Base64 text ends up
+     * in memory instead of also buffering the whole content and its encoded bytes.
      * 
      * @see com.xpn.xwiki.internal.xml.XMLWriter#writeBase64(org.dom4j.Element, java.io.InputStream)
      */
     @Override
     public void writeBase64(Element element, InputStream is) throws IOException
     {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        Base64OutputStream out = new Base64OutputStream(baos, true, 0, null);
-        IOUtils.copy(is, out);
-        out.close();
-        element.addText(baos.toString(this.format.getEncoding()));
+        byte[] bytes = new byte[BASE64_CHUNK_SIZE];
+        char[] chars = new char[BASE64_CHUNK_SIZE / 3 * 4];
+        for (int length = fill(is, bytes); length > 0; length = fill(is, bytes)) {
+            element.addText(new String(chars, 0, encodeBase64(bytes, length, chars)));
+        }
         write(element);
     }
 
+    /**
+     * @param is the stream to read
+     * @param buffer the buffer to fill
+     * @return the number of bytes read, less than the size of the buffer only when the end of the stream is reached
+     * @throws IOException when failing to read the stream
+     */
+    private static int fill(InputStream is, byte[] buffer) throws IOException
+    {
+        int length = 0;
+        while (length < buffer.length) {
+            int read = is.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+
+        return length;
+    }
+
+    /**
+     * Encode bytes in Base64, without line breaks.
+     * 
+     * @param bytes the bytes to encode
+     * @param length the number of bytes to encode
+     * @param chars where to write the encoded characters, 4 for each group of 3 bytes
+     * @return the number of characters written
+     */
+    private static int encodeBase64(byte[] bytes, int length, char[] chars)
+    {
+        int index = 0;
+        for (int i = 0; i < length; i += 3) {
+            int b0 = bytes[i] & 0xff;
+            int b1 = i + 1 < length ? bytes[i + 1] & 0xff : 0;
+            int b2 = i + 2 < length ? bytes[i + 2] & 0xff : 0;
+
+            chars[index++] = BASE64_ALPHABET[b0 >> 2];
+            chars[index++] = BASE64_ALPHABET[((b0 & 0x03) << 4) | (b1 >> 4)];
+            chars[index++] = i + 1 < length ? BASE64_ALPHABET[((b1 & 0x0f) << 2) | (b2 >> 6)] : BASE64_PADDING;
+            chars[index++] = i + 2 < length ? BASE64_ALPHABET[b2 & 0x3f] : BASE64_PADDING;
+        }
+
+        return index;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -29,23 +29,30 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -61,18 +68,12 @@
 import org.apache.fop.apps.PageSequenceResults;
 import org.apache.velocity.VelocityContext;
 import org.dom4j.Element;
-import org.dom4j.io.OutputFormat;
+import org.dom4j.io.DocumentSource;
 import org.dom4j.io.SAXReader;
-import org.dom4j.io.XMLWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.bootstrap.DOMImplementationRegistry;
 import org.w3c.dom.css.CSSStyleDeclaration;
-import org.w3c.dom.ls.DOMImplementationLS;
-import org.w3c.dom.ls.LSOutput;
-import org.w3c.dom.ls.LSSerializer;
 import org.w3c.tidy.Tidy;
 import org.xml.sax.InputSource;
 import org.xwiki.bridge.DocumentAccessBridge;
@@ -116,40 +117,68 @@ public class PdfExportImpl implements PdfExport
     /** Tidy configuration. */
     private static final Properties TIDY_CONFIGURATION;
 
-    /** Document name resolver. */
-    private static DocumentReferenceResolver<String> referenceResolver = Utils.getComponent(
-        DocumentReferenceResolver.TYPE_STRING, "currentmixed");
-
-    /** Document name serializer. */
-    private static EntityReferenceSerializer<String> referenceSerializer = Utils
-        .getComponent(EntityReferenceSerializer.TYPE_STRING);
+    /** The maximum number of compiled XSLT to keep in memory. */
+    private static final int TEMPLATES_CACHE_SIZE = 32;
 
-    /** Provides access to document properties. */
-    private static DocumentAccessBridge dab = Utils.getComponent(DocumentAccessBridge.class);
+    /**
+     * The compiled XSLT, indexed by their source: the content of a PDFTemplate property, or the name of the resource
+     * used when the PDFTemplate doesn't override it.
+     */
+    private static final Map<String, Templates> TEMPLATES_CACHE = Collections
+        .synchronizedMap(new LinkedHashMap<String, Templates>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Templates> eldest)
+            {
+                return size() > TEMPLATES_CACHE_SIZE;
+            }
+        });
 
-    /** Velocity engine manager, used for interpreting velocity. */
-    private static VelocityManager velocityManager = Utils.getComponent(VelocityManager.class);
+    /**
+     * The JTidy instances used for cleaning up HTML documents. They are expensive to configure and not thread safe, so
+     * each thread reuses its own.
+     */
+    private static final ThreadLocal<Tidy> TIDY = new ThreadLocal<Tidy>()
+    {
+        @Override
+        protected Tidy initialValue()
+        {
+            Tidy tidy = new Tidy();
+            tidy.setConfigurationFromProps(TIDY_CONFIGURATION);
+            return tidy;
+        }
+    };
 
     /** DOM parser factory. */
     private static DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
 
-    /** DOM Serializer factory. */
-    private static DOMImplementationLS lsImpl;
-
     /** XSLT transformer factory. */
     private static TransformerFactory transformerFactory = TransformerFactory.newInstance();
 
     /** The Apache FOP instance used for XSL-FO processing. */
     private static FopFactory fopFactory;
 
-    /** The JTidy instance used for cleaning up HTML documents. */
-    private Tidy tidy;
-
     /**
      * Used to get the temporary directory.
      */
     private Environment environment = Utils.getComponent((Type) Environment.class);
 
+    /** Document name resolver. */
+    private DocumentReferenceResolver<String> referenceResolver = Utils.getComponent(
+        DocumentReferenceResolver.TYPE_STRING, "currentmixed");
+
+    /** Document name serializer. */
+    private EntityReferenceSerializer<String> referenceSerializer = Utils
+        .getComponent(EntityReferenceSerializer.TYPE_STRING);
+
+    /** Provides access to document properties. */
+    private DocumentAccessBridge dab = Utils.getComponent(DocumentAccessBridge.class);
+
+    /** Velocity engine manager, used for interpreting velocity. */
+    private VelocityManager velocityManager = Utils.getComponent(VelocityManager.class);
+
     // Fields initialization
     static {
         // ----------------------------------------------------------------------
@@ -158,12 +187,6 @@ public class PdfExportImpl implements PdfExport
         dbFactory.setNamespaceAware(true);
         dbFactory.setValidating(false);
 
-        try {
-            lsImpl = (DOMImplementationLS) DOMImplementationRegistry.newInstance().getDOMImplementation("LS 3.0");
-        } catch (Exception ex) {
-            LOGGER.warn("Cannot initialize the DomLS implementation needed by the PDF export: " + ex.getMessage());
-        }
-
         // ----------------------------------------------------------------------
         // CSS4J configuration
         // ----------------------------------------------------------------------
@@ -230,13 +253,6 @@ public class PdfExportImpl implements PdfExport
         }
     }
 
-    /** Default constructor. */
-    public PdfExportImpl()
-    {
-        this.tidy = new Tidy();
-        this.tidy.setConfigurationFromProps(TIDY_CONFIGURATION);
-    }
-
     @Override
     public void exportToPDF(XWikiDocument doc, OutputStream out, XWikiContext context) throws XWikiException
     {
@@ -254,8 +270,6 @@ public void export(XWikiDocument doc, OutputStream out, ExportType type, XWikiCo
 
         File dir = this.environment.getTemporaryDirectory();
         File tempdir = new File(dir, RandomStringUtils.randomAlphanumeric(8));
-        this.tidy.setOutputEncoding(context.getWiki().getEncoding());
-        this.tidy.setInputEncoding(context.getWiki().getEncoding());
         try {
             tempdir.mkdirs();
             context.put("pdfexportdir", tempdir);
@@ -283,49 +297,68 @@ public void export(XWikiDocument doc, OutputStream out, ExportType type, XWikiCo
     @Override
     public void exportHtml(String html, OutputStream out, ExportType type, XWikiContext context) throws XWikiException
     {
-        exportXHTML(applyCSS(convertToStrictXHtml(html), context), out, type, context);
+        XHTMLDocument xhtml = convertToStrictXHtml(html, context);
+        applyCSS(xhtml, context);
+        exportXHTML(xhtml, out, type, context);
     }
 
     /**
      * Cleans up an HTML document, turning it into valid XHTML.
      * 
      * @param input the source HTML to process
-     * @return the cleaned up source
+     * @param context the current request context
+     * @return the cleaned up document
+     * @throws XWikiException if the document can't be parsed, even without being cleaned up
      */
-    private String convertToStrictXHtml(String input)
+    private XHTMLDocument convertToStrictXHtml(String input, XWikiContext context) throws XWikiException
     {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Cleaning HTML: " + input);
         }
 
+        XHTMLDocument document;
         try {
             // First step, Tidy the document
+            Tidy tidy = TIDY.get();
+            if (context != null && context.getWiki() != null) {
+                tidy.setOutputEncoding(context.getWiki().getEncoding());
+                tidy.setInputEncoding(context.getWiki().getEncoding());
+            }
             StringWriter tidyOutput = new StringWriter(input.length());
-            this.tidy.parse(new StringReader(input), tidyOutput);
+            tidy.parse(new StringReader(input), tidyOutput);
 
-            // Tidy can't solve duplicate IDs, so it needs to be done manually
-            DocumentBuilder docBuilder = dbFactory.newDocumentBuilder();
-            docBuilder.setEntityResolver(Utils.getComponent(EntityResolver.class));
             String tidied = tidyOutput.toString().trim();
             if (StringUtils.isEmpty(tidied)) {
                 tidied = input.trim();
             }
-            Document doc = docBuilder.parse(new InputSource(new StringReader(tidied)));
-            List<String> seenIDs = new ArrayList<String>();
-            this.cleanIDs(doc.getDocumentElement(), seenIDs);
-
-            // Write back the fixed document to a String
-            LSOutput output = lsImpl.createLSOutput();
-            StringWriter result = new StringWriter();
-            output.setCharacterStream(result);
-            LSSerializer serializer = lsImpl.createLSSerializer();
-            serializer.setNewLine("\n");
-            output.setEncoding(doc.getXmlEncoding());
-            serializer.write(doc, output);
-            return result.toString();
+            document = parseXHTML(tidied);
         } catch (Exception ex) {
             LOGGER.warn("Failed to tidy document for export: " + ex.getMessage(), ex);
-            return input;
+            document = parseXHTML(input);
+        }
+
+        // Tidy can't solve duplicate IDs, so it needs to be done manually
+        cleanIDs(document.getRootElement(), new HashSet<String>());
+
+        return document;
+    }
+
+    /**
+     * Parse an XHTML document into a DOM on which CSS style sheets can be applied.
+     * 
+     * @param xhtml the XHTML document to parse
+     * @return the parsed document
+     * @throws XWikiException if the document is not valid XML
+     */
+    private XHTMLDocument parseXHTML(String xhtml) throws XWikiException
+    {
+        try {
+            SAXReader reader = new SAXReader(XHTMLDocumentFactory.getInstance());
+            reader.setEntityResolver(new DefaultEntityResolver());
+            return (XHTMLDocument) reader.read(new InputSource(new StringReader(xhtml)));
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT, XWikiException.ERROR_XWIKI_EXPORT_XSL_FAILED,
+                "Failed to parse the exported XHTML", e);
         }
     }
 
@@ -334,27 +367,26 @@ private String convertToStrictXHtml(String input)
      * current element by suffixing its original ID with a counter.
      * 
      * @param e the current element to process
-     * @param seenIDs the list of already encountered IDs so far
+     * @param seenIDs the already encountered IDs so far
      */
-    private void cleanIDs(org.w3c.dom.Element e, List<String> seenIDs)
+    private void cleanIDs(Element e, Set<String> seenIDs)
     {
-        String id = e.getAttribute("id");
+        String id = e.attributeValue("id");
         if (StringUtils.isNotEmpty(id)) {
             if (seenIDs.contains(id)) {
                 int i = 0;
                 while (seenIDs.contains(id + i)) {
                     ++i;
                 }
-                e.setAttribute("id", id + i);
+                e.addAttribute("id", id + i);
                 seenIDs.add(id + i);
             } else {
                 seenIDs.add(id);
             }
         }
-        NodeList children = e.getChildNodes();
-        for (int i = 0; i < children.getLength(); ++i) {
-            if (children.item(i) instanceof org.w3c.dom.Element) {
-                cleanIDs((org.w3c.dom.Element) children.item(i), seenIDs);
+        for (int i = 0; i < e.nodeCount(); ++i) {
+            if (e.node(i) instanceof Element) {
+                cleanIDs((Element) e.node(i), seenIDs);
             }
         }
     }
@@ -375,51 +407,63 @@ private void cleanIDs(org.w3c.dom.Element e, List<String> seenIDs)
     protected void exportXHTML(String xhtml, OutputStream out, ExportType type, XWikiContext context)
         throws XWikiException
     {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Final XHTML for export: " + xhtml);
-        }
-
-        // XSL Transformation to XML-FO
-        String xmlfo = convertXHtmlToXMLFO(xhtml, context);
-
-        // Debug output
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("XSL-FO source: " + xmlfo);
-        }
-
-        renderXSLFO(xmlfo, out, type);
+        exportXHTML(parseXHTML(xhtml), out, type, context);
     }
 
     /**
-     * Convert a valid XHTML document into an XSL-FO document through XSLT transformations. Two transformations are
-     * involved:
-     * <ol>
-     * <li>A base transformation which converts the XHTML into a temporary XSL-FO; it uses the <tt>xhtml2fo.xsl</tt>
-     * file, or the <tt>xhtmlxsl</tt> property of the applied PDFTemplate.</li>
-     * <li>An eventual post-processing transformation which cleans up the temporary XSL-FO in order to avoid FOP bugs;
-     * it uses the <tt>fop.xsl</tt> file, or the <tt>fopxsl</tt> property of the applied PDFTemplate.</li>
-     * </ol>
+     * Convert a valid XHTML document into PDF. No further processing of the XHTML occurs.
+     * <p>
+     * The document goes through the XSLT transformations converting it into XSL-FO (see
+     * {@link #getXsltTemplates(String, String, XWikiContext)}) and then through FOP as a stream of SAX events, without
+     * serializing the intermediate documents.
      * 
-     * @param xhtml the XHTML document to convert
+     * @param xhtml the source document to transform
+     * @param out where to write the resulting document
+     * @param type the type of the output: PDF or RTF
      * @param context the current request context
-     * @return the resulting XML-FO document
      * @throws XWikiException if the conversion fails for any reason
+     * @since 4.2M3
      */
-    private String convertXHtmlToXMLFO(String xhtml, XWikiContext context) throws XWikiException
+    protected void exportXHTML(org.dom4j.Document xhtml, OutputStream out, ExportType type, XWikiContext context)
+        throws XWikiException
     {
-        String xmlfo = applyXSLT(xhtml, getXhtml2FopXslt(context));
-        return applyXSLT(xmlfo, getFopCleanupXslt(context));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Final XHTML for export: " + xhtml.asXML());
+        }
+
+        // XSL Transformation to XML-FO, the base transformation followed by the post-processing which cleans up the
+        // XSL-FO in order to avoid FOP bugs
+        Templates xhtml2fo = getXsltTemplates("xhtmlxsl", DEFAULT_XHTML2FOP_XSLT, context);
+        Templates cleanup = getXsltTemplates("fopxsl", DEFAULT_CLEANUP_XSLT, context);
+
+        if (LOGGER.isDebugEnabled()) {
+            // The XSL-FO is only kept in memory when it has to be logged.
+            StringWriter xmlfo = new StringWriter();
+            try {
+                transform(new DocumentSource(xhtml), new StreamResult(xmlfo), xhtml2fo, cleanup);
+            } catch (TransformerException e) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT,
+                    XWikiException.ERROR_XWIKI_EXPORT_XSL_FAILED, "XSL Transformation Failed", e);
+            }
+            LOGGER.debug("XSL-FO source: " + xmlfo);
+
+            renderXSLFO(new StreamSource(new StringReader(xmlfo.toString())), out, type);
+        } else {
+            renderXSLFO(new DocumentSource(xhtml), out, type, xhtml2fo, cleanup);
+        }
     }
 
     /**
      * Convert an XSL-FO document into PDF.
      * 
-     * @param xmlfo the source FO to render
+     * @param source the source to render, XSL-FO or a document that the given XSLT transform into XSL-FO
      * @param out where to write the resulting document
      * @param type the type of the output: PDF or RTF
+     * @param stylesheets the XSLT to apply, in order, to get the XSL-FO
      * @throws XWikiException if the conversion fails for any reason
      */
-    private void renderXSLFO(String xmlfo, OutputStream out, ExportType type) throws XWikiException
+    private void renderXSLFO(Source source, OutputStream out, ExportType type, Templates... stylesheets)
+        throws XWikiException
     {
         try {
             FOUserAgent foUserAgent = fopFactory.newFOUserAgent();
@@ -427,17 +471,11 @@ private void renderXSLFO(String xmlfo, OutputStream out, ExportType type) throws
             // Construct fop with desired output format
             Fop fop = fopFactory.newFop(type.getMimeType(), foUserAgent, out);
 
-            // Identity transformer
-            Transformer transformer = transformerFactory.newTransformer();
-
-            // Setup input stream
-            Source source = new StreamSource(new StringReader(xmlfo));
-
             // Resulting SAX events (the generated FO) must be piped through to FOP
             Result res = new SAXResult(fop.getDefaultHandler());
 
             // Start XSLT transformation and FOP processing
-            transformer.transform(source, res);
+            transform(source, res, stylesheets);
 
             // Result processing
             FormattingResults foResults = fop.getResults();
@@ -457,6 +495,38 @@ private void renderXSLFO(String xmlfo, OutputStream out, ExportType type) throws
         }
     }
 
+    /**
+     * Apply a chain of XSLT transformations, each one streaming its output to the next one as SAX events.
+     * 
+     * @param source the document to transform
+     * @param result where to write the transformed document
+     * @param stylesheets the XSLT to apply, in order; the document is copied as is when there's none
+     * @throws TransformerException if the transformation fails
+     */
+    private void transform(Source source, Result result, Templates... stylesheets) throws TransformerException
+    {
+        Result next = result;
+        for (int i = stylesheets.length - 1; i > 0; --i) {
+            TransformerHandler handler;
+            synchronized (transformerFactory) {
+                handler = ((SAXTransformerFactory) transformerFactory).newTransformerHandler(stylesheets[i]);
+            }
+            handler.setResult(next);
+            next = new SAXResult(handler);
+        }
+
+        Transformer transformer;
+        if (stylesheets.length > 0) {
+            transformer = stylesheets[0].newTransformer();
+        } else {
+            synchronized (transformerFactory) {
+                // Identity transformer
+                transformer = transformerFactory.newTransformer();
+            }
+        }
+        transformer.transform(source, next);
+    }
+
     /**
      * Applies an XSLT transformation to an XML document.
      * 
@@ -484,6 +554,29 @@ protected String applyXSLT(String xml, InputStream xslt) throws XWikiException
         return output.toString();
     }
 
+    /**
+     * Applies a compiled XSLT transformation to an XML document.
+     * 
+     * @param xml the XML document to convert
+     * @param xslt the compiled XSLT to apply, see {@link #getXsltTemplates(String, String, XWikiContext)}
+     * @return the converted document
+     * @throws XWikiException if the transformation fails for any reason
+     * @since 4.2M3
+     */
+    protected String applyXSLT(org.dom4j.Document xml, Templates xslt) throws XWikiException
+    {
+        StringWriter output = new StringWriter();
+
+        try {
+            transform(new DocumentSource(xml), new StreamResult(output), xslt);
+        } catch (TransformerException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT, XWikiException.ERROR_XWIKI_EXPORT_XSL_FAILED,
+                "XSL Transformation Failed", e);
+        }
+
+        return output.toString();
+    }
+
     /**
      * Apply CSS styling to an XHTML document. The style to apply is taken from:
      * <ol>
@@ -491,15 +584,13 @@ protected String applyXSLT(String xml, InputStream xslt) throws XWikiException
      * <li>and the <tt>style</tt> property of the applied PDFTemplate</li>
      * </ol>
      * The content found in these locations is concatenated. The CSS rules are applied on the document, and the
-     * resulting style properties are embedded in the document, inside <tt>style</tt> attributes. The resulting XHTML
-     * document with the inlined style is then serialized and returned.
+     * resulting style properties are embedded in the document, inside <tt>style</tt> attributes.
      * 
-     * @param html the valid XHTML document to style
+     * @param document the valid XHTML document to style
      * @param context the current request context
-     * @return the document with inlined style
      * @throws XWikiException if any exception occurs
      */
-    private String applyCSS(String html, XWikiContext context) throws XWikiException
+    private void applyCSS(XHTMLDocument document, XWikiContext context) throws XWikiException
     {
         String css =
             (context == null || context.getWiki() == null) ? "" : context.getWiki().parseTemplate("pdf.css", context);
@@ -507,49 +598,28 @@ private String applyCSS(String html, XWikiContext context) throws XWikiException
         if (style != null) {
             css += style;
         }
-        return applyCSS(html, css, context);
+        applyCSS(document, css);
     }
 
     /**
-     * Apply a CSS style sheet to an XHTML document and return the document with the resulting style properties inlined
-     * in <tt>style</tt> attributes.
+     * Apply a CSS style sheet to an XHTML document, inlining the resulting style properties in <tt>style</tt>
+     * attributes.
      * 
-     * @param html the valid XHTML document to style
+     * @param document the valid XHTML document to style
      * @param css the style sheet to apply
-     * @param context the current request context
-     * @return the document with inlined style
      */
-    private String applyCSS(String html, String css, XWikiContext context)
+    private void applyCSS(XHTMLDocument document, String css)
     {
         try {
-            // Prepare the input
-            Reader re = new StringReader(html);
-            InputSource source = new InputSource(re);
-            SAXReader reader = new SAXReader(XHTMLDocumentFactory.getInstance());
-            reader.setEntityResolver(new DefaultEntityResolver());
-            XHTMLDocument document = (XHTMLDocument) reader.read(source);
-
             // Apply the style sheet
             document.addStyleSheet(new org.w3c.css.sac.InputSource(new StringReader(css)));
             applyInlineStyle(document.getRootElement());
-            OutputFormat outputFormat = new OutputFormat("", false);
-            if ((context == null) || (context.getWiki() == null)) {
-                outputFormat.setEncoding("UTF-8");
-            } else {
-                outputFormat.setEncoding(context.getWiki().getEncoding());
-            }
-            StringWriter out = new StringWriter();
-            XMLWriter writer = new XMLWriter(out, outputFormat);
-            writer.write(document);
-            String result = out.toString();
             // Debug output
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("HTML with CSS applied: " + result);
+                LOGGER.debug("HTML with CSS applied: " + document.asXML());
             }
-            return result;
         } catch (Exception ex) {
             LOGGER.warn("Failed to apply CSS: " + ex.getMessage(), ex);
-            return html;
         }
     }
 
@@ -576,36 +646,6 @@ private void applyInlineStyle(Element element)
         }
     }
 
-    /**
-     * Get the XSLT for converting (valid) XHTML to XSL-FO. The content is searched in:
-     * <ol>
-     * <li>the <tt>xhtmlxsl</tt> property of the current PDFTemplate</li>
-     * <li>the <tt>xhtml2fo.xsl</tt> resource (usually a file inside xwiki-core-*.jar)</li>
-     * </ol>
-     * 
-     * @param context the current request context
-     * @return the content of the XSLT as a byte stream
-     */
-    private InputStream getXhtml2FopXslt(XWikiContext context)
-    {
-        return getXslt("xhtmlxsl", DEFAULT_XHTML2FOP_XSLT, context);
-    }
-
-    /**
-     * Get the XSLT for post-processing the XSL-FO file. The content is searched in:
-     * <ol>
-     * <li>the <tt>fopxsl</tt> property of the current PDFTemplate</li>
-     * <li>the <tt>fop.xsl</tt> resource (usually a file inside xwiki-core-*.jar)</li>
-     * </ol>
-     * 
-     * @param context the current request context
-     * @return the content of the XSLT as a byte stream
-     */
-    private InputStream getFopCleanupXslt(XWikiContext context)
-    {
-        return getXslt("fopxsl", DEFAULT_CLEANUP_XSLT, context);
-    }
-
     /**
      * Get an XSLT file. The content is searched in:
      * <ol>
@@ -632,6 +672,57 @@ protected InputStream getXslt(String propertyName, String fallbackFile, XWikiCon
         return getClass().getClassLoader().getResourceAsStream(fallbackFile);
     }
 
+    /**
+     * Get a compiled XSLT. The content is searched in the same locations as {@link #getXslt(String, String,
+     * XWikiContext)}. The XSLT is compiled the first time it's used and then reused, as long as its content doesn't
+     * change.
+     * 
+     * @param propertyName the name of the <tt>XWiki.PDFClass</tt> property to read from the current PDFTemplate
+     *            document
+     * @param fallbackFile the name of a resource file to use when the PDFTemplate does not contain an override
+     * @param context the current request context
+     * @return the compiled XSLT, which can be used by several threads at the same time
+     * @throws XWikiException if the XSLT can't be compiled
+     * @since 4.2M3
+     */
+    protected Templates getXsltTemplates(String propertyName, String fallbackFile, XWikiContext context)
+        throws XWikiException
+    {
+        String xsl = getPDFTemplateProperty(propertyName, context);
+        String key = StringUtils.isBlank(xsl) ? fallbackFile : xsl;
+
+        Templates templates = TEMPLATES_CACHE.get(key);
+        if (templates == null) {
+            InputStream xslt = null;
+            try {
+                InputSource source;
+                if (StringUtils.isBlank(xsl)) {
+                    xslt = getClass().getClassLoader().getResourceAsStream(fallbackFile);
+                    source = new InputSource(xslt);
+                } else {
+                    source = new InputSource(new StringReader(xsl));
+                }
+                DocumentBuilder docBuilder = dbFactory.newDocumentBuilder();
+                docBuilder.setEntityResolver(Utils.getComponent(EntityResolver.class));
+                Document xsltDocument = docBuilder.parse(source);
+                synchronized (transformerFactory) {
+                    templates = transformerFactory.newTemplates(new DOMSource(xsltDocument));
+                }
+            } catch (TransformerConfigurationException e) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT,
+                    XWikiException.ERROR_XWIKI_EXPORT_XSL_FAILED, "Failed to compile the XSLT", e);
+            } catch (Exception e) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT,
+                    XWikiException.ERROR_XWIKI_EXPORT_XSL_FAILED, "Failed to parse the XSLT", e);
+            } finally {
+                IOUtils.closeQuietly(xslt);
+            }
+            TEMPLATES_CACHE.put(key, templates);
+        }
+
+        return templates;
+    }
+
     /**
      * Read a property from the current PDFTemplate document, and pass it through the Velocity engine.
      * 
@@ -643,26 +734,26 @@ protected InputStream getXslt(String propertyName, String fallbackFile, XWikiCon
     private String getPDFTemplateProperty(String propertyName, XWikiContext context)
     {
         String pdftemplate = context.getRequest().getParameter("pdftemplate");
-        String currentWiki = dab.getCurrentDocumentReference().getRoot().getName();
-        DocumentReference templateReference = dab.getCurrentDocumentReference();
+        String currentWiki = this.dab.getCurrentDocumentReference().getRoot().getName();
+        DocumentReference templateReference = this.dab.getCurrentDocumentReference();
         DocumentReference classReference = new DocumentReference(currentWiki, "XWiki", "PDFClass");
 
         if (StringUtils.isNotEmpty(pdftemplate)) {
-            templateReference = referenceResolver.resolve(pdftemplate);
+            templateReference = this.referenceResolver.resolve(pdftemplate);
         }
 
-        String result = (String) dab.getProperty(templateReference, classReference, propertyName);
+        String result = (String) this.dab.getProperty(templateReference, classReference, propertyName);
         if (StringUtils.isBlank(result)) {
             return "";
         }
-        String templateName = referenceSerializer.serialize(templateReference);
+        String templateName = this.referenceSerializer.serialize(templateReference);
         try {
             StringWriter writer = new StringWriter();
-            VelocityEngine engine = velocityManager.getVelocityEngine();
+            VelocityEngine engine = this.velocityManager.getVelocityEngine();
             try {
-                VelocityContext vcontext = velocityManager.getVelocityContext();
+                VelocityContext vcontext = this.velocityManager.getVelocityContext();
                 engine.startedUsingMacroNamespace(templateName);
-                velocityManager.getVelocityEngine().evaluate(vcontext, writer, templateName, result);
+                this.velocityManager.getVelocityEngine().evaluate(vcontext, writer, templateName, result);
                 result = writer.toString();
             } finally {
                 engine.stoppedUsingMacroNamespace(templateName);
@@ -25,22 +25,51 @@
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
-
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.eviction.WeightedEvictionConfiguration;
+import org.xwiki.cache.util.ByteArrayWeigher;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.environment.Environment;
+import org.xwiki.observation.ObservationManager;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.api.Api;
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
 import com.xpn.xwiki.plugin.XWikiDefaultPlugin;
 import com.xpn.xwiki.plugin.XWikiPluginInterface;
 import com.xpn.xwiki.web.Utils;
@@ -65,10 +94,54 @@ public class ImagePlugin extends XWikiDefaultPlugin
     private static final String PLUGIN_NAME = "image";
 
     /**
-     * Cache for already served images.
+     * Separates the parts of the cache keys.
+     */
+    private static final String KEY_SEPARATOR = ";";
+
+    /**
+     * In-memory cache for already served images, in front of {@link #diskCache}. An empty value means that the original
+     * image is served as is.
      */
     private Cache<byte[]> imageCache;
 
+    /**
+     * Persistent cache for already served images, {@code null} if disabled. This can be configured using the key
+     * {@code xwiki.plugin.image.cache.disk}.
+     */
+    private ThumbnailDiskCache diskCache;
+
+    /**
+     * The keys of the thumbnails held by {@link #imageCache}, indexed by image (see {@link #getImageKey}), so that they
+     * can be dropped when the image is modified or deleted.
+     */
+    private final ConcurrentMap<String, Set<String>> cachedThumbnails = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * The thumbnails being computed, allowing concurrent requests for the same thumbnail to share the computation.
+     */
+    private final ConcurrentMap<String, Future<byte[]>> pendingThumbnails =
+        new ConcurrentHashMap<String, Future<byte[]>>();
+
+    /**
+     * The threads scaling the images, which limits the number of images decoded at the same time. The number of
+     * threads can be configured using the key {@code xwiki.plugin.image.scaling.threads} and the number of waiting
+     * thumbnails using the key {@code xwiki.plugin.image.scaling.queue}.
+     */
+    private ExecutorService scalingExecutor;
+
+    /**
+     * The number of seconds a request waits for its thumbnail before serving the original image. This parameter can be
+     * configured using the key {@code xwiki.plugin.image.scaling.timeout}.
+     */
+    private long scalingTimeout = 30;
+
+    /**
+     * The dimensions ({width, height}) of the thumbnails computed as soon as an image is attached. This can be
+     * configured using the key {@code xwiki.plugin.image.pregenerate} as a comma separated list of
+     * {@code <width>x<height>} values.
+     */
+    private List<int[]> pregeneratedDimensions = new ArrayList<int[]>();
+
     /**
      * The size of the cache. This parameter can be configured using the key {@code xwiki.plugin.image.cache.capacity}.
      */
@@ -122,6 +195,7 @@ public void init(XWikiContext context)
         super.init(context);
 
         initCache(context);
+        initScaling(context);
 
         String defaultQualityParam = context.getWiki().Param("xwiki.plugin.image.defaultQuality");
         if (!StringUtils.isBlank(defaultQualityParam)) {
@@ -134,6 +208,50 @@ public void init(XWikiContext context)
         }
     }
 
+    /**
+     * Initializes the threads scaling the images and registers the listener maintaining the thumbnails of the modified
+     * images.
+     * 
+     * @param context the XWiki context
+     */
+    private void initScaling(XWikiContext context)
+    {
+        if (this.scalingExecutor == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            String threadsParam = context.getWiki().Param("xwiki.plugin.image.scaling.threads");
+            if (!StringUtils.isBlank(threadsParam) && StringUtils.isNumeric(threadsParam.trim())) {
+                threads = Math.max(1, Integer.parseInt(threadsParam.trim()));
+            }
+            int queueCapacity =
+                Math.max(1, (int) context.getWiki().ParamAsLong("xwiki.plugin.image.scaling.queue", 100));
+            // The thumbnails which don't fit in the queue are dropped when pre-generated and computed by the
+            // requesting thread otherwise (see #computeThumbnail).
+            this.scalingExecutor =
+                new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity), new ScalingThreadFactory());
+        }
+        this.scalingTimeout = context.getWiki().ParamAsLong("xwiki.plugin.image.scaling.timeout", this.scalingTimeout);
+
+        this.pregeneratedDimensions = new ArrayList<int[]>();
+        for (String dimensions : StringUtils.split(
+            StringUtils.defaultString(context.getWiki().Param("xwiki.plugin.image.pregenerate")), ", ")) {
+            try {
+                this.pregeneratedDimensions.add(new int[] {
+                    Integer.parseInt(StringUtils.substringBefore(dimensions, "x")),
+                    Integer.parseInt(StringUtils.substringAfter(dimensions, "x"))});
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring invalid thumbnail dimensions [{}] in the xwiki.plugin.image.pregenerate "
+                    + "configuration parameter.", dimensions);
+            }
+        }
+
+        // Replace the listener of a previous initialization of the plugin.
+        ObservationManager observationManager = Utils.getComponent(ObservationManager.class);
+        ImagePluginListener listener = new ImagePluginListener(this);
+        observationManager.removeListener(listener.getName());
+        observationManager.addListener(listener);
+    }
+
     /**
      * Tries to initializes the image cache. If the initialization fails the image cache remains {@code null}.
      * 
@@ -156,7 +274,17 @@ private void initCache(XWikiContext context)
             }
             configuration.put("cache.path", imgTempDir.getAbsolutePath());
             // Set cache constraints.
-            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            LRUEvictionConfiguration lru;
+            long maxWeight =
+                NumberUtils.toLong(StringUtils.trim(context.getWiki().Param("xwiki.plugin.image.cache.maxweight")));
+            if (maxWeight > 0) {
+                WeightedEvictionConfiguration weighted = new WeightedEvictionConfiguration();
+                weighted.setMaxWeight(maxWeight);
+                weighted.setWeigher(new ByteArrayWeigher());
+                lru = weighted;
+            } else {
+                lru = new LRUEvictionConfiguration();
+            }
             configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
 
             String capacityParam = context.getWiki().Param("xwiki.plugin.image.cache.capacity");
@@ -173,9 +301,21 @@ private void initCache(XWikiContext context)
 
             try {
                 this.imageCache = context.getWiki().getLocalCacheFactory().newCache(configuration);
+                if (this.imageCache != null) {
+                    this.imageCache.addCacheEntryListener(new ThumbnailCacheListener());
+                }
             } catch (CacheException e) {
                 LOG.error("Error initializing the image cache.", e);
             }
+
+            // The thumbnails stored on disk survive restarts.
+            if (this.diskCache == null
+                && !"0".equals(StringUtils.trim(context.getWiki().Param("xwiki.plugin.image.cache.disk")))) {
+                long maxSize = context.getWiki().ParamAsLong("xwiki.plugin.image.cache.disk.maxsize", 104857600L);
+                this.diskCache =
+                    new ThumbnailDiskCache(new File(this.environment.getPermanentDirectory(), "cache/thumbnails"),
+                        maxSize);
+            }
         }
     }
 
@@ -186,6 +326,7 @@ public void flushCache()
             this.imageCache.dispose();
         }
         this.imageCache = null;
+        this.cachedThumbnails.clear();
     }
 
     /**
@@ -290,21 +431,237 @@ private XWikiAttachment downloadImage(XWikiAttachment image, int width, int heig
     private XWikiAttachment downloadImageFromCache(XWikiAttachment image, int width, int height,
         boolean keepAspectRatio, float quality, XWikiContext context) throws Exception
     {
-        String key =
-            String.format("%s;%s;%s;%s;%s;%s", image.getId(), image.getVersion(), width, height, keepAspectRatio,
-                quality);
-        byte[] data = this.imageCache.get(key);
-        XWikiAttachment thumbnail;
-        if (data != null) {
-            thumbnail = (XWikiAttachment) image.clone();
-            thumbnail.setContent(new ByteArrayInputStream(data), data.length);
-        } else {
-            thumbnail = shrinkImage(image, width, height, keepAspectRatio, quality, context);
-            this.imageCache.set(key, thumbnail.getContent(context));
+        String wiki = getWiki(image, context);
+        String imageKey = getImageKey(wiki, image);
+        String key = getThumbnailKey(image, width, height, keepAspectRatio, quality);
+        String cacheKey = imageKey + KEY_SEPARATOR + key;
+        byte[] data = this.imageCache.get(cacheKey);
+        if (data == null && this.diskCache != null) {
+            data = this.diskCache.get(wiki, image.getId(), key);
+            if (data != null) {
+                cacheThumbnail(imageKey, cacheKey, data);
+            }
         }
+        if (data == null) {
+            try {
+                // A timeout is thrown when the scaling threads are late, the original image is then served instead.
+                data =
+                    computeThumbnail(image, width, height, keepAspectRatio, quality, false, context).get(
+                        this.scalingTimeout, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            }
+        }
+
+        if (data.length == 0) {
+            // No transformation is needed, the original image can be streamed from the store.
+            return image;
+        }
+        XWikiAttachment thumbnail = (XWikiAttachment) image.clone();
+        thumbnail.setContent(new ByteArrayInputStream(data), data.length);
         return thumbnail;
     }
 
+    /**
+     * Computes the given thumbnail on the scaling threads, unless it is already being computed. When the scaling
+     * threads are overloaded, pre-generated thumbnails are dropped while requested thumbnails are computed on the
+     * calling thread.
+     * 
+     * @param image the image to be transformed
+     * @param width the desired image width
+     * @param height the desired image height
+     * @param keepAspectRatio {@code true} to preserve aspect ratio when resizing the image, {@code false} otherwise
+     * @param quality the desired compression quality
+     * @param pregenerate {@code true} if the thumbnail is not requested yet, {@code false} otherwise
+     * @param context the XWiki context
+     * @return the thumbnail data once computed, empty if the original image doesn't need to be transformed;
+     *         {@code null} if a pre-generated thumbnail has been dropped
+     */
+    private Future<byte[]> computeThumbnail(final XWikiAttachment image, final int width, final int height,
+        final boolean keepAspectRatio, final float quality, boolean pregenerate, XWikiContext context)
+    {
+        final String wiki = getWiki(image, context);
+        final String imageKey = getImageKey(wiki, image);
+        final String key = getThumbnailKey(image, width, height, keepAspectRatio, quality);
+        final String cacheKey = imageKey + KEY_SEPARATOR + key;
+
+        Future<byte[]> pending = this.pendingThumbnails.get(cacheKey);
+        if (pending != null) {
+            return pending;
+        }
+
+        final String mimeType = image.getMimeType(context);
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call() throws Exception
+            {
+                try {
+                    byte[] data =
+                        scaleImage(loadContent(image, wiki), mimeType, width, height, keepAspectRatio, quality);
+                    if (data == null) {
+                        data = new byte[0];
+                    }
+                    if (diskCache != null) {
+                        diskCache.set(wiki, image.getId(), key, data);
+                    }
+                    if (imageCache != null) {
+                        cacheThumbnail(imageKey, cacheKey, data);
+                    }
+                    return data;
+                } finally {
+                    pendingThumbnails.remove(cacheKey);
+                }
+            }
+        });
+        pending = this.pendingThumbnails.putIfAbsent(cacheKey, task);
+        if (pending == null) {
+            pending = task;
+            try {
+                this.scalingExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                if (pregenerate) {
+                    this.pendingThumbnails.remove(cacheKey, task);
+                    LOG.debug("Too many images are being scaled, skipping the pre-generation of [{}].", cacheKey);
+                    return null;
+                }
+                // The content is loaded with the context of the calling thread, which the task then reuses.
+                image.loadContent(context);
+                task.run();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Loads the content of an image outside of the request threads.
+     * 
+     * @param image the image
+     * @param wiki the wiki of the image
+     * @return the content of the image
+     * @throws Exception if initializing the execution context fails
+     */
+    private XWikiAttachmentContent loadContent(XWikiAttachment image, String wiki) throws Exception
+    {
+        if (image.getAttachment_content() == null) {
+            ExecutionContextManager executionContextManager = Utils.getComponent(ExecutionContextManager.class);
+            Execution execution = Utils.getComponent(Execution.class);
+
+            try {
+                // The stub XWiki context is injected by XWikiStubContextInitializer
+                executionContextManager.initialize(new ExecutionContext());
+
+                XWikiContext context =
+                    (XWikiContext) execution.getContext().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+                context.setDatabase(wiki);
+                image.loadContent(context);
+            } finally {
+                execution.removeContext();
+            }
+        }
+
+        return image.getAttachment_content();
+    }
+
+    /**
+     * Stores a thumbnail in the memory cache, remembering its key so that it can be dropped with the image.
+     * 
+     * @param imageKey the key of the image
+     * @param cacheKey the key of the thumbnail
+     * @param data the thumbnail data
+     */
+    private void cacheThumbnail(String imageKey, String cacheKey, byte[] data)
+    {
+        Set<String> keys = this.cachedThumbnails.get(imageKey);
+        if (keys == null) {
+            keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            Set<String> previousKeys = this.cachedThumbnails.putIfAbsent(imageKey, keys);
+            if (previousKeys != null) {
+                keys = previousKeys;
+            }
+        }
+        keys.add(cacheKey);
+        this.imageCache.set(cacheKey, data);
+    }
+
+    /**
+     * Computes in the background the configured thumbnails of an image which has just been attached, so that they are
+     * ready when the image is first displayed.
+     * 
+     * @param image the attached image
+     * @param context the XWiki context
+     */
+    void pregenerateThumbnails(XWikiAttachment image, XWikiContext context)
+    {
+        initCache(context);
+        if (this.pregeneratedDimensions.isEmpty() || this.diskCache == null
+            || !this.imageProcessor.isMimeTypeSupported(image.getMimeType(context))) {
+            return;
+        }
+
+        for (int[] dimensions : this.pregeneratedDimensions) {
+            computeThumbnail(image, dimensions[0], dimensions[1], false, -1, true, context);
+        }
+    }
+
+    /**
+     * Drops the thumbnails computed for all the versions of an image, from memory and from disk.
+     * 
+     * @param image the modified or deleted image
+     * @param context the XWiki context
+     */
+    void removeThumbnails(XWikiAttachment image, XWikiContext context)
+    {
+        String wiki = getWiki(image, context);
+        Set<String> keys = this.cachedThumbnails.remove(getImageKey(wiki, image));
+        Cache<byte[]> cache = this.imageCache;
+        if (keys != null && cache != null) {
+            for (String key : keys) {
+                cache.remove(key);
+            }
+        }
+        if (this.diskCache != null) {
+            this.diskCache.remove(wiki, image.getId());
+        }
+    }
+
+    /**
+     * @param wiki the wiki of the image
+     * @param image an image attachment
+     * @return the prefix of the keys of the thumbnails of the image in the memory cache
+     */
+    private String getImageKey(String wiki, XWikiAttachment image)
+    {
+        return wiki + KEY_SEPARATOR + image.getId();
+    }
+
+    /**
+     * @param image an image attachment
+     * @param width the desired image width
+     * @param height the desired image height
+     * @param keepAspectRatio {@code true} to preserve aspect ratio when resizing the image, {@code false} otherwise
+     * @param quality the desired compression quality
+     * @return the identifier of the thumbnail among the thumbnails of the image
+     */
+    private String getThumbnailKey(XWikiAttachment image, int width, int height, boolean keepAspectRatio,
+        float quality)
+    {
+        // The date distinguishes an image uploaded again after being deleted, which starts over from version 1.1.
+        // Unspecified dimensions are normalized so that pre-generated thumbnails match the requested ones.
+        return String.format("%s;%s;%s;%s;%s;%s", image.getVersion(), image.getDate() != null ? image.getDate()
+            .getTime() : 0, width > 0 ? width : -1, height > 0 ? height : -1, keepAspectRatio, quality);
+    }
+
+    /**
+     * @param image an image attachment
+     * @param context the XWiki context
+     * @return the wiki of the image
+     */
+    private String getWiki(XWikiAttachment image, XWikiContext context)
+    {
+        return image.getDoc() != null ? image.getDoc().getDatabase() : context.getDatabase();
+    }
+
     /**
      * Reduces the size (i.e. the number of bytes) of an image by scaling its width and height and by reducing its
      * compression quality. This helps decreasing the time needed to download the image attachment.
@@ -325,7 +682,49 @@ private XWikiAttachment downloadImageFromCache(XWikiAttachment image, int width,
     private XWikiAttachment shrinkImage(XWikiAttachment attachment, int requestedWidth, int requestedHeight,
         boolean keepAspectRatio, float requestedQuality, XWikiContext context) throws Exception
     {
-        Image image = this.imageProcessor.readImage(attachment.getContentInputStream(context));
+        attachment.loadContent(context);
+        byte[] data =
+            scaleImage(attachment.getAttachment_content(), attachment.getMimeType(context), requestedWidth,
+                requestedHeight, keepAspectRatio, requestedQuality);
+        if (data == null) {
+            return attachment;
+        }
+
+        // Create an image attachment for the shrunk image.
+        XWikiAttachment thumbnail = (XWikiAttachment) attachment.clone();
+        thumbnail.setContent(new ByteArrayInputStream(data), data.length);
+
+        return thumbnail;
+    }
+
+    /**
+     * Scales an image and reduces its compression quality, without relying on the XWiki context so that it can be done
+     * outside of the request thread.
+     * 
+     * @param content the content of the image to be shrunk
+     * @param mimeType the mime type of the image
+     * @param requestedWidth the desired image width
+     * @param requestedHeight the desired image height
+     * @param keepAspectRatio {@code true} to preserve the image aspect ratio
+     * @param requestedQuality the desired compression quality
+     * @return the shrunk image, {@code null} if the original image doesn't need to be transformed
+     * @throws Exception if shrinking the image fails
+     * @see #shrinkImage(XWikiAttachment, int, int, boolean, float, XWikiContext)
+     */
+    private byte[] scaleImage(XWikiAttachmentContent content, String mimeType, int requestedWidth,
+        int requestedHeight, boolean keepAspectRatio, float requestedQuality) throws Exception
+    {
+        if (content == null) {
+            throw new IOException("Failed to load the image content");
+        }
+
+        Image image;
+        InputStream stream = content.getContentInputStream();
+        try {
+            image = this.imageProcessor.readImage(stream);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
 
         // Compute the new image dimension.
         int currentWidth = image.getWidth(null);
@@ -337,7 +736,7 @@ private XWikiAttachment shrinkImage(XWikiAttachment attachment, int requestedWid
         if (quality < 0) {
             // If no scaling is needed and the quality parameter is not specified, return the original image.
             if (dimensions[0] == currentWidth && dimensions[1] == currentHeight) {
-                return attachment;
+                return null;
             }
             quality = this.defaultQuality;
         }
@@ -347,13 +746,9 @@ private XWikiAttachment shrinkImage(XWikiAttachment attachment, int requestedWid
 
         // Write the shrunk image to a byte array output stream.
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        this.imageProcessor.writeImage(shrunkImage, attachment.getMimeType(context), quality, bout);
-
-        // Create an image attachment for the shrunk image.
-        XWikiAttachment thumbnail = (XWikiAttachment) attachment.clone();
-        thumbnail.setContent(new ByteArrayInputStream(bout.toByteArray()), bout.size());
+        this.imageProcessor.writeImage(shrunkImage, mimeType, quality, bout);
 
-        return thumbnail;
+        return bout.toByteArray();
     }
 
     /**
@@ -420,7 +815,7 @@ private int[] reduceImageDimensions(int currentWidth, int currentHeight, int req
      */
     public int getWidth(XWikiAttachment attachment, XWikiContext context) throws IOException, XWikiException
     {
-        return this.imageProcessor.readImage(attachment.getContentInputStream(context)).getWidth(null);
+        return readImage(attachment, context).getWidth(null);
     }
 
     /**
@@ -432,6 +827,79 @@ public int getWidth(XWikiAttachment attachment, XWikiContext context) throws IOE
      */
     public int getHeight(XWikiAttachment attachment, XWikiContext context) throws IOException, XWikiException
     {
-        return this.imageProcessor.readImage(attachment.getContentInputStream(context)).getHeight(null);
+        return readImage(attachment, context).getHeight(null);
+    }
+
+    /**
+     * Reads the image from the attachment content stream, making sure the stream is closed afterwards.
+     * 
+     * @param attachment an image attachment
+     * @param context the XWiki context
+     * @return the image read from the attachment content
+     * @throws IOException if reading the image from the attachment content fails
+     * @throws XWikiException if reading the attachment content fails
+     */
+    private Image readImage(XWikiAttachment attachment, XWikiContext context) throws IOException, XWikiException
+    {
+        InputStream stream = attachment.getContentInputStream(context);
+        try {
+            return this.imageProcessor.readImage(stream);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Forgets the keys of the thumbnails evicted from the memory cache.
+     */
+    private class ThumbnailCacheListener implements CacheEntryListener<byte[]>
+    {
+        @Override
+        public void cacheEntryAdded(CacheEntryEvent<byte[]> event)
+        {
+            // Nothing to do.
+        }
+
+        @Override
+        public void cacheEntryRemoved(CacheEntryEvent<byte[]> event)
+        {
+            String cacheKey = event.getEntry().getKey();
+            int index = StringUtils.ordinalIndexOf(cacheKey, KEY_SEPARATOR, 2);
+            if (index < 0) {
+                return;
+            }
+            String imageKey = cacheKey.substring(0, index);
+            Set<String> keys = cachedThumbnails.get(imageKey);
+            if (keys != null && keys.remove(cacheKey) && keys.isEmpty()) {
+                // A thumbnail cached meanwhile may be missed, which is harmless since the thumbnail keys include the
+                // image version and date.
+                cachedThumbnails.remove(imageKey, keys);
+            }
+        }
+
+        @Override
+        public void cacheEntryModified(CacheEntryEvent<byte[]> event)
+        {
+            // Nothing to do.
+        }
+    }
+
+    /**
+     * Creates the daemon threads scaling the images.
+     */
+    private static class ScalingThreadFactory implements ThreadFactory
+    {
+        /**
+         * Used to number the threads.
+         */
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "XWiki image scaling thread " + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
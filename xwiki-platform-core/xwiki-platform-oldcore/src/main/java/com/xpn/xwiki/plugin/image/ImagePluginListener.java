@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.image;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.AbstractAttachmentEvent;
+import com.xpn.xwiki.internal.event.AttachmentAddedEvent;
+import com.xpn.xwiki.internal.event.AttachmentDeletedEvent;
+import com.xpn.xwiki.internal.event.AttachmentUpdatedEvent;
+
+/**
+ * Maintains the thumbnails cached by the {@link ImagePlugin}: the thumbnails of the modified or deleted images are
+ * dropped and the configured thumbnails of the new images are computed in the background.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+class ImagePluginListener implements EventListener
+{
+    /**
+     * The logging tool.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImagePluginListener.class);
+
+    /**
+     * The events to match.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event> asList(new AttachmentAddedEvent(),
+        new AttachmentUpdatedEvent(), new AttachmentDeletedEvent());
+
+    /**
+     * The plugin maintaining the thumbnails.
+     */
+    private final ImagePlugin plugin;
+
+    /**
+     * @param plugin the plugin maintaining the thumbnails
+     */
+    ImagePluginListener(ImagePlugin plugin)
+    {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "imageplugin";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return EVENTS;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        XWikiContext context = (XWikiContext) data;
+        String filename = ((AbstractAttachmentEvent) event).getName();
+
+        try {
+            if (event instanceof AttachmentAddedEvent) {
+                XWikiAttachment attachment = document.getAttachment(filename);
+                if (attachment != null) {
+                    this.plugin.pregenerateThumbnails(attachment, context);
+                }
+            } else {
+                this.plugin.removeThumbnails(new XWikiAttachment(document, filename), context);
+                if (event instanceof AttachmentUpdatedEvent) {
+                    XWikiAttachment attachment = document.getAttachment(filename);
+                    if (attachment != null) {
+                        this.plugin.pregenerateThumbnails(attachment, context);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to update the thumbnails of the image [{}] in document [{}]", new Object[] {filename,
+                document.getDocumentReference(), e});
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.comparator.LastModifiedFileComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the thumbnails computed by the {@link ImagePlugin} on disk so that they survive restarts and memory pressure.
+ * The thumbnails of an attachment are grouped in a directory named after the wiki and the attachment identifier, each
+ * thumbnail file being named after the attachment version and the transformation parameters. This allows dropping
+ * all the thumbnails of an attachment when it is modified or deleted. The total size of the thumbnails is bounded: the
+ * least recently used thumbnails are dropped when it is exceeded.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+class ThumbnailDiskCache
+{
+    /**
+     * Logging helper object.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailDiskCache.class);
+
+    /**
+     * The encoding used to build safe file names.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The suffix of the files being written, which are renamed once complete so that a thumbnail is never read
+     * partially written.
+     */
+    private static final String TEMP_SUFFIX = "~tmp";
+
+    /**
+     * The directory where the thumbnails are stored.
+     */
+    private final File directory;
+
+    /**
+     * The maximum total size of the thumbnails, in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The current total size of the thumbnails, in bytes.
+     */
+    private final AtomicLong size;
+
+    /**
+     * Creates a new disk cache.
+     *
+     * @param directory the directory where the thumbnails are stored
+     * @param maxSize the maximum total size of the thumbnails, in bytes
+     */
+    ThumbnailDiskCache(File directory, long maxSize)
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.size = new AtomicLong(directory.isDirectory() ? FileUtils.sizeOfDirectory(directory) : 0);
+    }
+
+    /**
+     * @param wiki the wiki of the attachment
+     * @param attachmentId the identifier of the attachment
+     * @param key the identifier of the thumbnail for this attachment
+     * @return the thumbnail data, {@code null} if it is not cached
+     */
+    byte[] get(String wiki, long attachmentId, String key)
+    {
+        File file = getFile(wiki, attachmentId, key);
+        if (file.isFile()) {
+            try {
+                byte[] data = FileUtils.readFileToByteArray(file);
+                // The modification date tells which thumbnails are least recently used.
+                file.setLastModified(System.currentTimeMillis());
+                return data;
+            } catch (IOException e) {
+                LOG.warn("Failed to read the cached thumbnail [{}].", file, e);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param wiki the wiki of the attachment
+     * @param attachmentId the identifier of the attachment
+     * @param key the identifier of the thumbnail for this attachment
+     * @param data the thumbnail data
+     */
+    void set(String wiki, long attachmentId, String key, byte[] data)
+    {
+        File file = getFile(wiki, attachmentId, key);
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX + Thread.currentThread().getId());
+        try {
+            FileUtils.writeByteArrayToFile(tempFile, data);
+            long previousLength = file.length();
+            if (tempFile.renameTo(file)) {
+                if (this.size.addAndGet(data.length - previousLength) > this.maxSize) {
+                    prune();
+                }
+            } else {
+                // Another thread may have stored the same thumbnail in the meantime.
+                FileUtils.deleteQuietly(tempFile);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to cache the thumbnail [{}].", file, e);
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * Drops all the thumbnails of an attachment.
+     *
+     * @param wiki the wiki of the attachment
+     * @param attachmentId the identifier of the attachment
+     */
+    void remove(String wiki, long attachmentId)
+    {
+        File attachmentDirectory = getAttachmentDirectory(wiki, attachmentId);
+        if (attachmentDirectory.isDirectory()) {
+            long length = FileUtils.sizeOfDirectory(attachmentDirectory);
+            if (FileUtils.deleteQuietly(attachmentDirectory)) {
+                this.size.addAndGet(-length);
+            }
+        }
+    }
+
+    /**
+     * @return the current total size of the thumbnails, in bytes
+     */
+    long getSize()
+    {
+        return this.size.get();
+    }
+
+    /**
+     * Drops the least recently used thumbnails until the total size goes down to three quarters of the maximum size,
+     * so that the thumbnails are not listed again on each new thumbnail.
+     */
+    private synchronized void prune()
+    {
+        long targetSize = this.maxSize / 4 * 3;
+        if (this.size.get() <= this.maxSize) {
+            // Already pruned by another thread.
+            return;
+        }
+
+        List<File> files = new ArrayList<File>();
+        for (File file : FileUtils.listFiles(this.directory, null, true)) {
+            // The files being written are left alone.
+            if (!file.getName().contains(TEMP_SUFFIX)) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
+
+        for (File file : files) {
+            if (this.size.get() <= targetSize) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                this.size.addAndGet(-length);
+                // Drop the directory of the attachment once its last thumbnail is gone.
+                file.getParentFile().delete();
+            }
+        }
+    }
+
+    /**
+     * @param wiki the wiki of the attachment
+     * @param attachmentId the identifier of the attachment
+     * @return the directory holding the thumbnails of the attachment
+     */
+    private File getAttachmentDirectory(String wiki, long attachmentId)
+    {
+        return new File(new File(this.directory, encode(wiki)), String.valueOf(attachmentId));
+    }
+
+    /**
+     * @param wiki the wiki of the attachment
+     * @param attachmentId the identifier of the attachment
+     * @param key the identifier of the thumbnail for this attachment
+     * @return the file holding the thumbnail
+     */
+    private File getFile(String wiki, long attachmentId, String key)
+    {
+        return new File(getAttachmentDirectory(wiki, attachmentId), encode(key));
+    }
+
+    /**
+     * @param name a name
+     * @return the name, safe to be used as a file name
+     */
+    private String encode(String name)
+    {
+        try {
+            // Dots are encoded as well since the name could otherwise be "..".
+            return URLEncoder.encode(name, ENCODING).replace(".", "%2E");
+        } catch (UnsupportedEncodingException e) {
+            // Should never happen, UTF-8 is always supported.
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -56,11 +56,42 @@
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiLDAPConnection.class);
 
+    /**
+     * The default maximum number of idle connections kept in {@link XWikiLDAPConnectionPool} for the same server and
+     * credentials.
+     */
+    private static final String DEFAULT_POOL_SIZE = "10";
+
+    /**
+     * The default time in seconds after which an idle pooled connection is closed.
+     */
+    private static final String DEFAULT_POOL_TIMEOUT = "60";
+
     /**
      * The LDAP connection.
      */
     private LDAPConnection connection;
 
+    /**
+     * The key of the connection in {@link XWikiLDAPConnectionPool}, null if the connection is not pooled.
+     */
+    private String poolKey;
+
+    /**
+     * The DN the connection must be bound with to be put back in the pool.
+     */
+    private String poolBindDN;
+
+    /**
+     * The maximum number of idle connections with the same key in the pool.
+     */
+    private int poolSize;
+
+    /**
+     * The DN the connection is currently bound with, null if the last bind failed.
+     */
+    private String boundDN;
+
     /**
      * @return the {@link LDAPConnection}.
      */
@@ -90,8 +121,28 @@ public boolean open(String ldapUserName, String password, XWikiContext context)
         String bindDN = config.getLDAPBindDN(ldapUserName, password, context);
         String bindPassword = config.getLDAPBindPassword(ldapUserName, password, context);
 
+        boolean ssl = "1".equals(config.getLDAPParam("ldap_ssl", "0", context));
+
+        // Only the connections bound with a static DN (not depending on the user) can be shared
+        this.poolSize = Integer.parseInt(config.getLDAPParam("ldap_pool_size", DEFAULT_POOL_SIZE, context));
+        if (this.poolSize > 0 && bindDN.equals(config.getLDAPBindDN(context))
+            && bindPassword.equals(config.getLDAPBindPassword(context))) {
+            this.poolKey = XWikiLDAPConnectionPool.getKey(ldapHost, ldapPort, ssl, bindDN, bindPassword);
+            this.poolBindDN = bindDN;
+
+            long maxIdleTime =
+                Long.parseLong(config.getLDAPParam("ldap_pool_timeout", DEFAULT_POOL_TIMEOUT, context)) * 1000L;
+            LDAPConnection pooledConnection = XWikiLDAPConnectionPool.getInstance().borrow(this.poolKey, maxIdleTime);
+            if (pooledConnection != null) {
+                this.connection = pooledConnection;
+                this.boundDN = bindDN;
+
+                return true;
+            }
+        }
+
         boolean bind;
-        if ("1".equals(config.getLDAPParam("ldap_ssl", "0", context))) {
+        if (ssl) {
             String keyStore = config.getLDAPParam("ldap_ssl.keystore", "", context);
 
             LOGGER.debug("Connecting to LDAP using SSL");
@@ -161,7 +212,9 @@ public boolean open(String ldapHost, int ldapPort, String loginDN, String passwo
             LDAPConstraints constraints = this.connection.getConstraints();
             constraints.setTimeLimit(1000);
             constraints.setReferralFollowing(true);
-            constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, context));
+            // Don't keep a reference to the request context in the connections which outlive it in the pool
+            constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, this.poolKey != null
+                ? null : context));
             this.connection.setConstraints(constraints);
 
             // bind
@@ -202,22 +255,40 @@ public void bind(String loginDN, String password) throws UnsupportedEncodingExce
     {
         LOGGER.debug("Binding to LDAP server with credentials login=[{}]", loginDN);
 
+        // A failed bind leaves the connection anonymous
+        this.boundDN = null;
+
         // authenticate to the server
         this.connection.bind(LDAPConnection.LDAP_V3, loginDN, password.getBytes("UTF8"));
+
+        this.boundDN = loginDN;
     }
 
     /**
      * Close LDAP connection.
+     * <p>
+     * A connection bound with a static DN is put back in {@link XWikiLDAPConnectionPool} instead of being closed, as
+     * long as it is still bound with this DN.
      */
     public void close()
     {
-        try {
-            if (this.connection != null) {
+        if (this.connection == null) {
+            return;
+        }
+
+        if (this.poolKey != null && this.poolBindDN.equals(this.boundDN) && this.connection.isConnected()
+            && XWikiLDAPConnectionPool.getInstance().release(this.poolKey, this.connection, this.poolSize)) {
+            LOGGER.debug("LDAP connection put back in the pool");
+        } else {
+            try {
                 this.connection.disconnect();
+            } catch (LDAPException e) {
+                LOGGER.debug("LDAP close failed.", e);
             }
-        } catch (LDAPException e) {
-            LOGGER.debug("LDAP close failed.", e);
         }
+
+        this.connection = null;
+        this.boundDN = null;
     }
 
     /**
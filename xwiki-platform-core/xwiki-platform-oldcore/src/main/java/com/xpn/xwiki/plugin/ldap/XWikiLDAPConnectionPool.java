@@ -0,0 +1,232 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+/**
+ * Keep the LDAP connections bound with the configured (static) bind DN open between authentications, so that the
+ * users logging in at the same time don't each pay for a new connection and a new bind.
+ * <p>
+ * The idle connections are grouped by server and bind credentials and the most recently released one is reused first,
+ * the others being closed when they stayed idle for too long.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public final class XWikiLDAPConnectionPool
+{
+    /**
+     * Logging tool.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiLDAPConnectionPool.class);
+
+    /**
+     * Unique instance of {@link XWikiLDAPConnectionPool}.
+     */
+    private static XWikiLDAPConnectionPool instance = new XWikiLDAPConnectionPool();
+
+    /**
+     * The idle connections, the most recently released first, indexed by key.
+     */
+    private final Map<String, LinkedList<IdleConnection>> idleConnections =
+        new HashMap<String, LinkedList<IdleConnection>>();
+
+    /**
+     * An idle connection.
+     */
+    private static final class IdleConnection
+    {
+        /**
+         * The connection.
+         */
+        private final LDAPConnection connection;
+
+        /**
+         * The date when the connection was released, in milliseconds.
+         */
+        private final long releaseDate = System.currentTimeMillis();
+
+        /**
+         * @param connection the connection
+         */
+        private IdleConnection(LDAPConnection connection)
+        {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Use {@link #getInstance()}.
+     */
+    private XWikiLDAPConnectionPool()
+    {
+    }
+
+    /**
+     * @return unique instance of {@link XWikiLDAPConnectionPool}.
+     */
+    public static XWikiLDAPConnectionPool getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * @param host the host of the LDAP server
+     * @param port the port of the LDAP server
+     * @param ssl true if the connection uses SSL
+     * @param bindDN the DN the connection is bound with
+     * @param bindPassword the password the connection is bound with
+     * @return the key of the pooled connections
+     */
+    public static String getKey(String host, int port, boolean ssl, String bindDN, String bindPassword)
+    {
+        // Don't keep the password itself in memory, it's only needed to tell the credentials apart
+        return host + ':' + port + ':' + ssl + ':' + bindDN + ':' + bindPassword.hashCode();
+    }
+
+    /**
+     * Take an idle connection from the pool.
+     * 
+     * @param key the key of the connection, see {@link #getKey(String, int, boolean, String, String)}
+     * @param maxIdleTime the time in milliseconds after which an idle connection is closed instead of being reused
+     * @return an open connection bound with the credentials of the key, null if there's none
+     */
+    public LDAPConnection borrow(String key, long maxIdleTime)
+    {
+        LDAPConnection connection = null;
+        List<LDAPConnection> expiredConnections = new ArrayList<LDAPConnection>();
+
+        long limit = System.currentTimeMillis() - maxIdleTime;
+        synchronized (this.idleConnections) {
+            LinkedList<IdleConnection> connections = this.idleConnections.get(key);
+            if (connections != null) {
+                while (connection == null && !connections.isEmpty()) {
+                    IdleConnection idleConnection = connections.removeFirst();
+                    if (idleConnection.releaseDate >= limit && idleConnection.connection.isConnected()) {
+                        connection = idleConnection.connection;
+                    } else {
+                        expiredConnections.add(idleConnection.connection);
+                    }
+                }
+
+                // The least recently released connections are the first to expire
+                for (Iterator<IdleConnection> it = connections.descendingIterator(); it.hasNext();) {
+                    IdleConnection idleConnection = it.next();
+                    if (idleConnection.releaseDate >= limit) {
+                        break;
+                    }
+                    it.remove();
+                    expiredConnections.add(idleConnection.connection);
+                }
+            }
+        }
+
+        disconnect(expiredConnections);
+
+        LOGGER.debug("Borrowed pooled LDAP connection [{}] for [{}]", connection, key);
+
+        return connection;
+    }
+
+    /**
+     * Put back a connection in the pool.
+     * 
+     * @param key the key of the connection, see {@link #getKey(String, int, boolean, String, String)}
+     * @param connection an open connection bound with the credentials of the key
+     * @param maxIdle the maximum number of idle connections with the same key
+     * @return true if the connection was put in the pool, false if it should be closed
+     */
+    public boolean release(String key, LDAPConnection connection, int maxIdle)
+    {
+        synchronized (this.idleConnections) {
+            LinkedList<IdleConnection> connections = this.idleConnections.get(key);
+            if (connections == null) {
+                connections = new LinkedList<IdleConnection>();
+                this.idleConnections.put(key, connections);
+            }
+
+            if (connections.size() < maxIdle) {
+                connections.addFirst(new IdleConnection(connection));
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param key the key of the connections, see {@link #getKey(String, int, boolean, String, String)}
+     * @return the number of idle connections with the provided key
+     */
+    public int getIdleCount(String key)
+    {
+        synchronized (this.idleConnections) {
+            LinkedList<IdleConnection> connections = this.idleConnections.get(key);
+
+            return connections != null ? connections.size() : 0;
+        }
+    }
+
+    /**
+     * Close all the idle connections, for example after the LDAP configuration changed.
+     */
+    public void clear()
+    {
+        List<LDAPConnection> connections = new ArrayList<LDAPConnection>();
+
+        synchronized (this.idleConnections) {
+            for (LinkedList<IdleConnection> idleConnectionList : this.idleConnections.values()) {
+                for (IdleConnection idleConnection : idleConnectionList) {
+                    connections.add(idleConnection.connection);
+                }
+            }
+            this.idleConnections.clear();
+        }
+
+        disconnect(connections);
+    }
+
+    /**
+     * @param connections the connections to close
+     */
+    private void disconnect(List<LDAPConnection> connections)
+    {
+        for (LDAPConnection connection : connections) {
+            try {
+                connection.disconnect();
+            } catch (LDAPException e) {
+                LOGGER.debug("LDAP close failed.", e);
+            }
+        }
+    }
+}
@@ -24,10 +24,14 @@
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.Cache;
@@ -936,6 +940,14 @@ public void syncUser(XWikiDocument userProfile, List<XWikiLDAPSearchAttribute> s
                 LOGGER.debug("New XWiki user created: [{}]", userProfile.getDocumentReference());
 
             } else {
+                if (isSkipUnchanged(context)
+                    && getAttributesHash(searchAttributeList, ldapDn, ldapUid, context).equals(
+                        new LDAPProfileXClass(context).getHash(userProfile))) {
+                    LOGGER.debug("LDAP attributes located at [{}] did not change since the last synchronization",
+                        ldapDn);
+
+                    return;
+                }
 
                 LOGGER.debug("Updating existing user with LDAP attribues located at [{}]", ldapDn);
 
@@ -962,6 +974,22 @@ public void syncGroupsMembership(String xwikiUserName, String userDN, Map<String
     {
         LOGGER.debug("Updating group membership for the user [{}]", xwikiUserName);
 
+        // The mapped XWiki groups the user should belong to (the members of the LDAP groups are cached)
+        Map<String, Boolean> ldapMembership = new TreeMap<String, Boolean>();
+        for (Map.Entry<String, Set<String>> entry : groupMappings.entrySet()) {
+            ldapMembership.put(entry.getKey(), isMemberOfGroups(userDN, entry.getValue(), context));
+        }
+
+        // Skip the XWiki groups lookup when the LDAP membership did not change since the last synchronization
+        String groupsHash = DigestUtils.md5Hex(userDN.toLowerCase() + ldapMembership);
+        LDAPProfileXClass ldapXClass = new LDAPProfileXClass(context);
+        XWikiDocument userProfile = context.getWiki().getDocument(xwikiUserName, context);
+        if (isSkipUnchanged(context) && groupsHash.equals(ldapXClass.getGroupsHash(userProfile))) {
+            LOGGER.debug("LDAP groups membership of [{}] did not change since the last synchronization", userDN);
+
+            return;
+        }
+
         Collection<String> xwikiUserGroupList =
             context.getWiki().getGroupService(context).getAllGroupsNamesForMember(xwikiUserName, 0, 0, context);
 
@@ -973,22 +1001,217 @@ public void syncGroupsMembership(String xwikiUserName, String userDN, Map<String
         }
 
         // go through mapped groups to locate the user
-        for (Map.Entry<String, Set<String>> entry : groupMappings.entrySet()) {
+        boolean groupsSynchronized = true;
+        for (Map.Entry<String, Boolean> entry : ldapMembership.entrySet()) {
             String xwikiGrouNamep = entry.getKey();
-            Set<String> groupDNSet = entry.getValue();
 
             if (xwikiUserGroupList.contains(xwikiGrouNamep)) {
-                if (!this.isMemberOfGroups(userDN, groupDNSet, context)) {
-                    removeUserFromXWikiGroup(xwikiUserName, xwikiGrouNamep, context);
+                if (!entry.getValue()) {
+                    groupsSynchronized &= removeUserFromXWikiGroup(xwikiUserName, xwikiGrouNamep, context);
                 }
             } else {
-                if (this.isMemberOfGroups(userDN, groupDNSet, context)) {
-                    addUserToXWikiGroup(xwikiUserName, xwikiGrouNamep, context);
+                if (entry.getValue()) {
+                    groupsSynchronized &= addUserToXWikiGroup(xwikiUserName, xwikiGrouNamep, context);
+                }
+            }
+        }
+
+        // Don't remember the membership when a group could not be updated so that it's retried next time
+        if (!groupsSynchronized) {
+            LOGGER.warn("Failed to synchronize some XWiki groups of the user [{}], they will be synchronized again"
+                + " on next login", xwikiUserName);
+        } else if (!userProfile.isNew() && ldapXClass.updateGroupsHash(userProfile, groupsHash)) {
+            context.getWiki().saveDocument(userProfile, "Synchronized user groups membership with LDAP server", true,
+                context);
+        }
+    }
+
+    /**
+     * Synchronize the XWiki membership of all the LDAP users of the current wiki (the users having a LDAP profile)
+     * with their LDAP membership. The members of the LDAP groups are refreshed from the LDAP server and each XWiki
+     * group is saved at most once.
+     * 
+     * @param groupMappings the mapping between XWiki groups names and LDAP groups names.
+     * @param context the XWiki context.
+     * @throws XWikiException error when searching the LDAP users.
+     * @since 4.2M3
+     */
+    public void syncGroupsMembership(Map<String, Set<String>> groupMappings, XWikiContext context)
+        throws XWikiException
+    {
+        refreshGroupsMembers(groupMappings, context);
+
+        Map<String, String> userDNs = new LDAPProfileXClass(context).searchDns();
+
+        LOGGER.debug("Synchronizing groups membership of [{}] LDAP users", userDNs.size());
+
+        for (Map.Entry<String, Set<String>> entry : groupMappings.entrySet()) {
+            try {
+                syncGroupMembers(entry.getKey(), entry.getValue(), userDNs, context);
+            } catch (Exception e) {
+                LOGGER.error("Failed to synchronize the members of the group [{}]", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Get the members of the mapped LDAP groups from the LDAP server and update the group cache with them.
+     * 
+     * @param groupMappings the mapping between XWiki groups names and LDAP groups names.
+     * @param context the XWiki context.
+     */
+    private void refreshGroupsMembers(Map<String, Set<String>> groupMappings, XWikiContext context)
+    {
+        Set<String> groupDNs = new HashSet<String>();
+        for (Set<String> groupDNSet : groupMappings.values()) {
+            groupDNs.addAll(groupDNSet);
+        }
+
+        try {
+            Cache<Map<String, String>> cache = getGroupCache(getGroupCacheConfiguration(context), context);
+
+            for (String groupDN : groupDNs) {
+                Map<String, String> members = new HashMap<String, String>();
+                boolean isGroup = getGroupMembers(groupDN, members, new ArrayList<String>(), context);
+
+                synchronized (cache) {
+                    if (isGroup || !members.isEmpty()) {
+                        cache.set(groupDN, members);
+                    } else {
+                        cache.remove(groupDN);
+                    }
                 }
             }
+        } catch (CacheException e) {
+            LOGGER.error("Unknown error with cache", e);
         }
     }
 
+    /**
+     * Add the LDAP users to an XWiki group and remove them from it according to their LDAP membership.
+     * 
+     * @param xwikiGroupName the name of the XWiki group.
+     * @param groupDNSet the LDAP groups mapped to the XWiki group.
+     * @param userDNs the LDAP DN of the users to synchronize, indexed by user profile full name.
+     * @param context the XWiki context.
+     * @throws XWikiException error when saving the group or the updated users.
+     */
+    private void syncGroupMembers(String xwikiGroupName, Set<String> groupDNSet, Map<String, String> userDNs,
+        XWikiContext context) throws XWikiException
+    {
+        BaseClass groupClass = context.getWiki().getGroupClass(context);
+
+        XWikiDocument groupDoc = context.getWiki().getDocument(xwikiGroupName, context);
+
+        Set<String> added = new TreeSet<String>();
+        Set<String> removed = new TreeSet<String>();
+
+        synchronized (groupDoc) {
+            Set<String> xwikiMembers = new HashSet<String>();
+            List<BaseObject> memberObjects = groupDoc.getXObjects(groupClass.getDocumentReference());
+            if (memberObjects != null) {
+                for (BaseObject memberObject : memberObjects) {
+                    if (memberObject != null) {
+                        xwikiMembers.add(memberObject.getStringValue(XWIKI_GROUP_MEMBERFIELD));
+                    }
+                }
+            }
+
+            for (Map.Entry<String, String> user : userDNs.entrySet()) {
+                String xwikiUserName = user.getKey();
+                boolean isMember = isMemberOfGroups(user.getValue(), groupDNSet, context);
+
+                if (isMember && !xwikiMembers.contains(xwikiUserName)) {
+                    BaseObject memberObject = groupDoc.newXObject(groupClass.getDocumentReference(), context);
+                    memberObject.setStringValue(XWIKI_GROUP_MEMBERFIELD, xwikiUserName);
+                    added.add(xwikiUserName);
+                } else if (!isMember && xwikiMembers.contains(xwikiUserName)) {
+                    groupDoc.removeXObject(groupDoc.getXObject(groupClass.getDocumentReference(),
+                        XWIKI_GROUP_MEMBERFIELD, xwikiUserName));
+                    removed.add(xwikiUserName);
+                }
+            }
+
+            if (!added.isEmpty() || !removed.isEmpty()) {
+                LOGGER.debug("Adding users [{}] to and removing users [{}] from xwiki group [{}]", new Object[] {
+                added, removed, xwikiGroupName});
+
+                // If the document is new, set its content
+                if (groupDoc.isNew()) {
+                    groupDoc.setSyntax(Syntax.XWIKI_2_0);
+                    groupDoc.setContent("{{include document='XWiki.XWikiGroupSheet' /}}");
+                }
+
+                context.getWiki().saveDocument(groupDoc, "Synchronized group membership with LDAP server", true,
+                    context);
+            }
+        }
+
+        resetGroupsHash(added, context);
+        resetGroupsHash(removed, context);
+    }
+
+    /**
+     * Forget the LDAP groups membership the users were last synchronized with, so that their next login synchronizes
+     * their groups membership again instead of skipping it.
+     * 
+     * @param xwikiUserNames the names of the users whose XWiki groups were modified.
+     * @param context the XWiki context.
+     * @throws XWikiException error when saving a user profile.
+     */
+    private void resetGroupsHash(Set<String> xwikiUserNames, XWikiContext context) throws XWikiException
+    {
+        LDAPProfileXClass ldapXClass = new LDAPProfileXClass(context);
+
+        for (String xwikiUserName : xwikiUserNames) {
+            XWikiDocument userProfile = context.getWiki().getDocument(xwikiUserName, context);
+
+            if (ldapXClass.getGroupsHash(userProfile) != null) {
+                ldapXClass.updateGroupsHash(userProfile, "");
+                context.getWiki().saveDocument(userProfile, "Reset LDAP groups membership hash", true, context);
+            }
+        }
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return true if the synchronization of the user profiles and groups membership should be skipped when the LDAP
+     *         attributes and groups membership did not change since the last synchronization.
+     * @since 4.2M3
+     */
+    protected boolean isSkipUnchanged(XWikiContext context)
+    {
+        return "1".equals(XWikiLDAPConfig.getInstance().getLDAPParam("ldap_update_skipunchanged", "1", context));
+    }
+
+    /**
+     * Compute a hash of the LDAP attributes of a user so that the synchronization of the user profile can be skipped
+     * when they did not change.
+     * 
+     * @param searchAttributes the attributes of the LDAP user.
+     * @param ldapDN the LDAP DN of the user.
+     * @param ldapUid the LDAP unique id of the user.
+     * @param context the XWiki context.
+     * @return the hash of the attributes, which also depends on the attributes mapping.
+     * @since 4.2M3
+     */
+    protected String getAttributesHash(List<XWikiLDAPSearchAttribute> searchAttributes, String ldapDN,
+        String ldapUid, XWikiContext context)
+    {
+        // The order of the attributes and of the values is not significant
+        Set<String> values = new TreeSet<String>();
+        if (searchAttributes != null) {
+            for (XWikiLDAPSearchAttribute searchAttribute : searchAttributes) {
+                values.add(searchAttribute.name.toLowerCase() + '=' + searchAttribute.value);
+            }
+        }
+
+        String mapping = XWikiLDAPConfig.getInstance().getLDAPParam("ldap_fields_mapping", "", context);
+
+        return DigestUtils.md5Hex(mapping + '\n' + ldapDN.toLowerCase() + '\n' + ldapUid.toLowerCase() + '\n'
+            + values);
+    }
+
     /**
      * @param context the XWiki context.
      * @return the LDAP user attributes names.
@@ -1053,7 +1276,8 @@ protected void createUserFromLDAP(XWikiDocument userProfile, List<XWikiLDAPSearc
         XWikiDocument createdUserProfile = context.getWiki().getDocument(userProfile.getDocumentReference(), context);
         LDAPProfileXClass ldapXClass = new LDAPProfileXClass(context);
 
-        if (ldapXClass.updateLDAPObject(createdUserProfile, ldapDN, ldapUid)) {
+        if (ldapXClass.updateLDAPObject(createdUserProfile, ldapDN, ldapUid,
+            getAttributesHash(searchAttributes, ldapDN, ldapUid, context))) {
             context.getWiki().saveDocument(createdUserProfile, "Created user profile from LDAP server", context);
         }
     }
@@ -1106,7 +1330,9 @@ protected void updateUserFromLDAP(XWikiDocument userProfile, List<XWikiLDAPSearc
 
         // Update ldap profile object
         LDAPProfileXClass ldaXClass = new LDAPProfileXClass(context);
-        needsUpdate |= ldaXClass.updateLDAPObject(userProfile, ldapDN, ldapUid);
+        needsUpdate |=
+            ldaXClass.updateLDAPObject(userProfile, ldapDN, ldapUid,
+                getAttributesHash(searchAttributes, ldapDN, ldapUid, context));
 
         if (needsUpdate) {
             context.getWiki().saveDocument(userProfile, "Synchronized user profile with LDAP server", true, context);
@@ -1119,9 +1345,10 @@ protected void updateUserFromLDAP(XWikiDocument userProfile, List<XWikiLDAPSearc
      * @param xwikiUserName the full name of the user.
      * @param groupName the name of the group.
      * @param context the XWiki context.
+     * @return true if the user has been added to the group, false if it failed
      */
     // TODO move this methods in a toolkit for all platform.
-    protected void addUserToXWikiGroup(String xwikiUserName, String groupName, XWikiContext context)
+    protected boolean addUserToXWikiGroup(String xwikiUserName, String groupName, XWikiContext context)
     {
         try {
             LOGGER.debug("Adding user [{}] to xwiki group [{}]", xwikiUserName, groupName);
@@ -1151,7 +1378,11 @@ protected void addUserToXWikiGroup(String xwikiUserName, String groupName, XWiki
             LOGGER.debug("Finished adding user [{}] to xwiki group [{}]", xwikiUserName, groupName);
         } catch (Exception e) {
             LOGGER.error("Failed to add a user [{}] to a group [{}]", new Object[] {xwikiUserName, groupName, e});
+
+            return false;
         }
+
+        return true;
     }
 
     /**
@@ -1160,9 +1391,10 @@ protected void addUserToXWikiGroup(String xwikiUserName, String groupName, XWiki
      * @param xwikiUserName the full name of the user.
      * @param groupName the name of the group.
      * @param context the XWiki context.
+     * @return true if the user has been removed from the group, false if it failed
      */
     // TODO move this methods in a toolkit for all platform.
-    protected void removeUserFromXWikiGroup(String xwikiUserName, String groupName, XWikiContext context)
+    protected boolean removeUserFromXWikiGroup(String xwikiUserName, String groupName, XWikiContext context)
     {
         try {
             BaseClass groupClass = context.getWiki().getGroupClass(context);
@@ -1181,7 +1413,11 @@ protected void removeUserFromXWikiGroup(String xwikiUserName, String groupName,
             }
         } catch (Exception e) {
             LOGGER.error("Failed to remove a user from a group " + xwikiUserName + " group: " + groupName, e);
+
+            return false;
         }
+
+        return true;
     }
 
     /**
@@ -30,22 +30,35 @@
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import net.sf.json.JSONObject;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.lang3.StringUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
@@ -53,8 +66,12 @@
 import org.dom4j.dom.DOMElement;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.SAXReader;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.observation.ObservationManager;
 import org.xwiki.query.QueryException;
@@ -68,6 +85,8 @@
 import com.xpn.xwiki.internal.event.XARImportingEvent;
 import com.xpn.xwiki.internal.xml.XMLWriter;
 import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.store.XWikiCacheStoreInterface;
+import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.web.Utils;
 
 public class Package
@@ -84,6 +103,12 @@
 
     public static final String DefaultPluginName = "package";
 
+    /**
+     * The default number of documents saved in the same transaction when installing a package loaded with
+     * {@link #Import(File, XWikiContext)}.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(Package.class);
 
     private String name = "My package";
@@ -110,6 +135,31 @@
 
     private List<DocumentFilter> documentFilters = new ArrayList<DocumentFilter>();
 
+    /**
+     * The file the documents are read from during the installation when the package has been loaded with
+     * {@link #Import(File, XWikiContext)}, null when the documents are loaded in memory.
+     */
+    private File packageFile;
+
+    /**
+     * True if {@link #packageFile} has been created by this package and should be deleted after the installation.
+     */
+    private boolean temporaryPackageFile;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * The documents saved in the batch being installed with their original document, to send the saved notifications
+     * once the batch is committed. Null when no batch is being installed.
+     */
+    private List<XWikiDocument[]> batchNotifications;
+
+    /**
+     * The documents for which the listeners have already been notified that they are about to be saved, with the
+     * original document sent in that notification. Used to not notify them again when a batch is replayed.
+     */
+    private Map<XWikiDocument, XWikiDocument> notifiedDocuments = new IdentityHashMap<XWikiDocument, XWikiDocument>();
+
     public String getName()
     {
         return this.name;
@@ -222,6 +272,26 @@ public void setWithVersions(boolean withVersions)
         this.withVersions = withVersions;
     }
 
+    /**
+     * @return the number of documents saved in the same transaction when installing a package loaded with
+     *         {@link #Import(File, XWikiContext)}
+     * @since 4.2M3
+     */
+    public int getBatchSize()
+    {
+        return this.batchSize;
+    }
+
+    /**
+     * @param batchSize the number of documents saved in the same transaction when installing a package loaded with
+     *            {@link #Import(File, XWikiContext)}, which is also the maximum number of documents kept in memory
+     * @since 4.2M3
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
     public void addDocumentFilter(Object filter) throws PackageException
     {
         if (filter instanceof DocumentFilter) {
@@ -414,6 +484,8 @@ public String Import(InputStream file, XWikiContext context) throws IOException,
         ArchiveEntry entry;
         Document description = null;
 
+        releasePackageFile();
+
         try {
             zis = new ZipArchiveInputStream(file, XAR_FILENAME_ENCODING, false);
 
@@ -482,6 +554,164 @@ public String Import(InputStream file, XWikiContext context) throws IOException,
         return "";
     }
 
+    /**
+     * Load the descriptor of a package stored in a file, without loading its documents in memory. The documents are
+     * read from the file when calling {@link #install(XWikiContext)}, and saved by batches of {@link #getBatchSize()}
+     * documents, which allows installing very large packages with a bounded amount of memory. The file should thus
+     * not be modified or deleted before the installation.
+     * <p>
+     * Since the documents are not read, {@link #getFiles()} lists the documents declared in the package descriptor,
+     * with empty documents. Their action can be modified before the installation as usual.
+     * 
+     * @param file a zipped package file
+     * @param context current XWikiContext
+     * @return an empty string, useless.
+     * @throws IOException while reading the ZipFile
+     * @throws XWikiException when package content is broken
+     * @since 4.2M3
+     */
+    public String Import(File file, XWikiContext context) throws IOException, XWikiException
+    {
+        releasePackageFile();
+
+        ZipFile zipFile = new ZipFile(file, XAR_FILENAME_ENCODING, false);
+        try {
+            ZipArchiveEntry descriptor = zipFile.getEntry(DefaultPackageFileName);
+            if (descriptor == null) {
+                throw new PackageException(XWikiException.ERROR_XWIKI_UNKNOWN, "Could not find the package definition");
+            }
+
+            InputStream is = zipFile.getInputStream(descriptor);
+            try {
+                readDescriptor(is, context);
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        } finally {
+            ZipFile.closeQuietly(zipFile);
+        }
+
+        this.packageFile = file;
+
+        return "";
+    }
+
+    /**
+     * Copy the passed package in a temporary file and load it with {@link #Import(File, XWikiContext)}. The temporary
+     * file is deleted after the installation.
+     * 
+     * @param file an InputStream of a zipped package file
+     * @param context current XWikiContext
+     * @return an empty string, useless.
+     * @throws IOException while reading the ZipFile
+     * @throws XWikiException when package content is broken
+     * @since 4.2M3
+     */
+    public String ImportStreaming(InputStream file, XWikiContext context) throws IOException, XWikiException
+    {
+        File dir = new File(Utils.getComponent(Environment.class).getTemporaryDirectory(), "packages");
+        dir.mkdirs();
+        File tmpFile = File.createTempFile("import", ".xar", dir);
+        tmpFile.deleteOnExit();
+
+        try {
+            FileUtils.copyInputStreamToFile(file, tmpFile);
+            Import(tmpFile, context);
+            this.temporaryPackageFile = true;
+        } finally {
+            if (!this.temporaryPackageFile) {
+                tmpFile.delete();
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     * Forget the package file loaded with {@link #Import(File, XWikiContext)}, and delete it if it has been created by
+     * this package. This is done automatically after the installation.
+     * 
+     * @since 4.2M3
+     */
+    public void releasePackageFile()
+    {
+        if (this.packageFile != null && this.temporaryPackageFile) {
+            this.packageFile.delete();
+        }
+
+        this.packageFile = null;
+        this.temporaryPackageFile = false;
+    }
+
+    /**
+     * Read the package descriptor with a StAX parser, creating an empty document for each declared file.
+     * 
+     * @param xml the package.xml content
+     * @param context current XWikiContext
+     * @throws PackageException when the descriptor is not valid
+     */
+    private void readDescriptor(InputStream xml, XWikiContext context) throws PackageException
+    {
+        this.files = new ArrayList<DocumentInfo>();
+        this.customMappingFiles = new ArrayList<DocumentInfo>();
+        this.classFiles = new ArrayList<DocumentInfo>();
+
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            XMLStreamReader reader = factory.createXMLStreamReader(xml);
+            try {
+                boolean infos = false;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String elementName = reader.getLocalName();
+                        if (elementName.equals("infos")) {
+                            infos = true;
+                        } else if (elementName.equals("file")) {
+                            String defaultAction = reader.getAttributeValue(null, "defaultAction");
+                            String language = reader.getAttributeValue(null, "language");
+                            XWikiDocument doc = new XWikiDocument();
+                            doc.setFullName(reader.getElementText().trim(), context);
+                            doc.setLanguage(language != null ? language : "");
+                            DocumentInfo docInfo = new DocumentInfo(doc);
+                            docInfo.setAction(defaultAction != null ? Integer.parseInt(defaultAction)
+                                : DocumentInfo.ACTION_NOT_DEFINED);
+                            this.files.add(docInfo);
+                        } else if (infos) {
+                            readInfo(elementName, reader.getElementText());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("infos")) {
+                        infos = false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new PackageException(XWikiException.ERROR_XWIKI_UNKNOWN, "Error when reading the XML", e);
+        }
+    }
+
+    private void readInfo(String infoName, String value)
+    {
+        if (infoName.equals("name")) {
+            this.name = value;
+        } else if (infoName.equals("description")) {
+            this.description = value;
+        } else if (infoName.equals("licence")) {
+            this.licence = value;
+        } else if (infoName.equals("author")) {
+            this.authorName = value;
+        } else if (infoName.equals("version")) {
+            this.version = value;
+        } else if (infoName.equals("backupPack")) {
+            this.backupPack = Boolean.parseBoolean(value);
+        } else if (infoName.equals("preserveVersion")) {
+            this.preserveVersion = Boolean.parseBoolean(value);
+        }
+    }
+
     private boolean documentExistInPackageFile(String docName, String language, Document xml)
     {
         Element docFiles = xml.getRootElement();
@@ -602,19 +832,23 @@ public int install(XWikiContext context) throws XWikiException
         om.notify(new XARImportingEvent(), null, context);
 
         try {
-            // Start by installing all documents having a class definition so that their
-            // definitions are available when installing documents using them.
-            for (DocumentInfo classFile : this.classFiles) {
-                if (installDocument(classFile, isAdmin, backup, context) == DocumentInfo.INSTALL_ERROR) {
-                    status = DocumentInfo.INSTALL_ERROR;
+            if (this.packageFile != null) {
+                status = installFromPackageFile(isAdmin, backup, context);
+            } else {
+                // Start by installing all documents having a class definition so that their
+                // definitions are available when installing documents using them.
+                for (DocumentInfo classFile : this.classFiles) {
+                    if (installDocument(classFile, isAdmin, backup, context) == DocumentInfo.INSTALL_ERROR) {
+                        status = DocumentInfo.INSTALL_ERROR;
+                    }
                 }
-            }
 
-            // Install the remaining documents (without class definitions).
-            for (DocumentInfo docInfo : this.files) {
-                if (!this.classFiles.contains(docInfo)) {
-                    if (installDocument(docInfo, isAdmin, backup, context) == DocumentInfo.INSTALL_ERROR) {
-                        status = DocumentInfo.INSTALL_ERROR;
+                // Install the remaining documents (without class definitions).
+                for (DocumentInfo docInfo : this.files) {
+                    if (!this.classFiles.contains(docInfo)) {
+                        if (installDocument(docInfo, isAdmin, backup, context) == DocumentInfo.INSTALL_ERROR) {
+                            status = DocumentInfo.INSTALL_ERROR;
+                        }
                     }
                 }
             }
@@ -624,11 +858,228 @@ public int install(XWikiContext context) throws XWikiException
             // FIXME: should be able to pass some sort of source here, the name of the attachment or the list of
             // imported documents. But for the moment it's fine
             om.notify(new XARImportedEvent(), null, context);
+
+            if (this.temporaryPackageFile) {
+                releasePackageFile();
+            }
         }
 
         return status;
     }
 
+    /**
+     * Install the documents of a package loaded with {@link #Import(File, XWikiContext)}. The documents are read from
+     * the package file one at a time and saved by batches sharing the same transaction, so that at most
+     * {@link #getBatchSize()} documents are in memory. If a batch fails it is rolled back and its documents are read
+     * again from the package file and saved one by one, so that a single broken document does not prevent the others
+     * from being installed.
+     * <p>
+     * Like the in memory installation the documents having a class definition are installed before the documents
+     * using them. Each entry is parsed once and installed in the order of the package, except the documents having
+     * objects of a class defined by a document of the package which has not been read yet: those are read again and
+     * installed after all the other entries.
+     * 
+     * @param isAdmin true if the current user has admin rights
+     * @param backup true if the package should be installed as a backup pack
+     * @param context the XWiki context
+     * @return the installation status
+     * @throws XWikiException when failing to read the package file
+     */
+    private int installFromPackageFile(boolean isAdmin, boolean backup, XWikiContext context) throws XWikiException
+    {
+        if (this.preserveVersion) {
+            // See installDocument(), no need to parse the archives which won't be imported
+            this.withVersions = false;
+        }
+
+        // The documents of the package which have not been read yet and could define a class
+        Set<String> unreadDocuments = new HashSet<String>();
+        for (DocumentInfo docInfo : this.files) {
+            if (StringUtils.isEmpty(docInfo.getLanguage())) {
+                unreadDocuments.add(docInfo.getFullName());
+            }
+        }
+
+        ZipFile zipFile = null;
+        try {
+            zipFile = new ZipFile(this.packageFile, XAR_FILENAME_ENCODING, false);
+
+            PackageFileInstaller installer = new PackageFileInstaller(zipFile, isAdmin, backup);
+            PackageFileBatch classBatch = new PackageFileBatch();
+            PackageFileBatch documentBatch = new PackageFileBatch();
+            List<ZipArchiveEntry> deferredEntries = new ArrayList<ZipArchiveEntry>();
+
+            for (Enumeration<ZipArchiveEntry> entries = zipFile.getEntries(); entries.hasMoreElements();) {
+                ZipArchiveEntry entry = entries.nextElement();
+                if (entry.isDirectory() || entry.getName().indexOf("META-INF") != -1
+                    || entry.getName().equals(DefaultPackageFileName)) {
+                    continue;
+                }
+
+                DocumentInfo docInfo = installer.read(entry, context);
+                if (docInfo == null) {
+                    continue;
+                }
+
+                XWikiDocument doc = docInfo.getDoc();
+                if (StringUtils.isEmpty(doc.getLanguage())) {
+                    unreadDocuments.remove(doc.getFullName());
+                }
+
+                if (doc.getXClass().getFieldList().size() > 0) {
+                    installer.add(classBatch, entry, docInfo, context);
+                } else if (usesUnreadClass(doc, unreadDocuments)) {
+                    // Forget the document until all the classes have been installed
+                    deferredEntries.add(entry);
+                } else {
+                    // Don't mix the classes with the documents using them in the same batch
+                    installer.install(classBatch, context);
+                    installer.add(documentBatch, entry, docInfo, context);
+                }
+            }
+            installer.install(classBatch, context);
+
+            for (ZipArchiveEntry entry : deferredEntries) {
+                DocumentInfo docInfo = installer.read(entry, context);
+                if (docInfo != null) {
+                    installer.add(documentBatch, entry, docInfo, context);
+                }
+            }
+            installer.install(documentBatch, context);
+
+            installer.logThroughput();
+
+            return installer.getStatus();
+        } catch (IOException e) {
+            throw new PackageException(XWikiException.ERROR_XWIKI_UNKNOWN, "Failed to read package file ["
+                + this.packageFile + "]", e);
+        } finally {
+            ZipFile.closeQuietly(zipFile);
+        }
+    }
+
+    /**
+     * @param doc a document read from the package file
+     * @param unreadDocuments the documents of the package which have not been read yet
+     * @return true if the passed document has objects of a class defined by a document which has not been read yet
+     */
+    private boolean usesUnreadClass(XWikiDocument doc, Set<String> unreadDocuments)
+    {
+        if (!unreadDocuments.isEmpty()) {
+            EntityReferenceSerializer<String> serializer =
+                Utils.getComponent(EntityReferenceSerializer.TYPE_STRING, "local");
+            for (DocumentReference classReference : doc.getXObjects().keySet()) {
+                if (unreadDocuments.contains(serializer.serialize(classReference))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Read a document from the package file.
+     * 
+     * @return the document to install, or null if the document should be ignored
+     */
+    private DocumentInfo readDocument(ZipFile zipFile, ZipArchiveEntry entry, Map<String, DocumentInfo> declaredFiles,
+        XWikiContext context) throws IOException, XWikiException
+    {
+        XWikiDocument doc;
+        InputStream is = zipFile.getInputStream(entry);
+        try {
+            doc = readFromXML(is);
+        } catch (Throwable ex) {
+            LOGGER.warn("Failed to parse document [" + entry.getName()
+                + "] from XML during import, thus it will not be installed. " + "The error was: " + ex.getMessage());
+            // It will be listed in the "failed documents" section after the import.
+            addToErrors(entry.getName().replaceAll("/", "."), context);
+
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        DocumentInfo declaredFile = declaredFiles.get(doc.getFullName() + ":" + doc.getLanguage());
+        if (declaredFile == null) {
+            LOGGER.warn("document " + doc.getDocumentReference() + " does not exist in package definition."
+                + " It will not be installed.");
+            // It will be listed in the "skipped documents" section after the import.
+            addToSkipped(doc.getFullName(), context);
+
+            return null;
+        }
+
+        try {
+            filter(doc, context);
+        } catch (ExcludeDocumentException e) {
+            LOGGER.info("Skip the document '" + doc.getDocumentReference() + "'");
+
+            return null;
+        }
+
+        if (!context.getWiki().checkAccess("edit", doc, context)) {
+            return null;
+        }
+
+        BaseClass bclass = doc.getXClass();
+        if (bclass.getCustomMapping() != null && context.getWiki().getStore().injectCustomMapping(bclass, context)) {
+            context.getWiki().getStore().injectUpdatedCustomMappings(context);
+        }
+
+        DocumentInfo docInfo = new DocumentInfo(doc);
+        docInfo.setAction(declaredFile.getAction());
+
+        return docInfo;
+    }
+
+    /**
+     * Save a document like {@link XWiki#saveDocument(XWikiDocument, String, XWikiContext)} but, when installing a
+     * batch, send the saved notification only once the batch is committed and, when replaying a batch, don't notify
+     * again the listeners already told that the document is about to be saved.
+     */
+    private void saveDocument(XWikiDocument doc, String comment, XWikiContext context) throws XWikiException
+    {
+        if (this.batchNotifications == null && this.notifiedDocuments.isEmpty()) {
+            context.getWiki().saveDocument(doc, comment, context);
+
+            return;
+        }
+
+        String database = context.getDatabase();
+        try {
+            // Save the document in its wiki like XWiki#saveDocument
+            context.setDatabase(doc.getDocumentReference().getWikiReference().getName());
+
+            doc.setComment(StringUtils.defaultString(comment));
+            doc.setMinorEdit(false);
+
+            XWikiDocument originalDocument = this.notifiedDocuments.get(doc);
+            if (originalDocument == null) {
+                originalDocument = context.getWiki().notifyDocumentSaving(doc, context);
+                this.notifiedDocuments.put(doc, originalDocument);
+            }
+
+            context.getWiki().getStore().saveXWikiDoc(doc, context);
+
+            if (this.batchNotifications != null) {
+                this.batchNotifications.add(new XWikiDocument[] {doc, originalDocument});
+            } else {
+                context.getWiki().notifyDocumentSaved(doc, originalDocument, context);
+            }
+        } finally {
+            context.setDatabase(database);
+        }
+    }
+
+    private void truncate(List<String> list, int size)
+    {
+        while (list.size() > size) {
+            list.remove(list.size() - 1);
+        }
+    }
+
     /**
      * Indicate of the user has amin rights on the farm, i.e. that he has admin rights on the main wiki.
      * 
@@ -756,7 +1207,7 @@ private int installDocument(DocumentInfo doc, boolean isAdmin, boolean backup, X
                 }
 
                 String saveMessage = context.getMessageTool().get("core.importer.saveDocumentComment");
-                context.getWiki().saveDocument(doc.getDoc(), saveMessage, context);
+                saveDocument(doc.getDoc(), saveMessage, context);
                 doc.getDoc().saveAllAttachments(false, true, context);
                 addToInstalled(doc.getFullName() + ":" + doc.getLanguage(), context);
 
@@ -1346,4 +1797,229 @@ public JSONObject toJSON(XWikiContext wikiContext)
 
         return jsonObject;
     }
+
+    /**
+     * The documents read from a package file to install in the same transaction, with the entries they have been
+     * read from.
+     */
+    private static class PackageFileBatch
+    {
+        private final List<ZipArchiveEntry> entries = new ArrayList<ZipArchiveEntry>();
+
+        private final List<DocumentInfo> documents = new ArrayList<DocumentInfo>();
+    }
+
+    /**
+     * Install the documents of a package file by batches, see {@link Package#installFromPackageFile}.
+     */
+    private class PackageFileInstaller
+    {
+        private final ZipFile zipFile;
+
+        private final Map<String, DocumentInfo> declaredFiles = new HashMap<String, DocumentInfo>();
+
+        private final boolean isAdmin;
+
+        private final boolean backup;
+
+        private final long start = System.currentTimeMillis();
+
+        private int status = DocumentInfo.INSTALL_OK;
+
+        private int count;
+
+        private long bytes;
+
+        PackageFileInstaller(ZipFile zipFile, boolean isAdmin, boolean backup)
+        {
+            this.zipFile = zipFile;
+            this.isAdmin = isAdmin;
+            this.backup = backup;
+
+            for (DocumentInfo docInfo : files) {
+                this.declaredFiles.put(docInfo.getFullName() + ":" + docInfo.getLanguage(), docInfo);
+            }
+        }
+
+        /**
+         * @return the installation status
+         */
+        int getStatus()
+        {
+            return this.status;
+        }
+
+        /**
+         * @return the document to install, or null if the document should be ignored
+         */
+        DocumentInfo read(ZipArchiveEntry entry, XWikiContext context) throws IOException, XWikiException
+        {
+            return readDocument(this.zipFile, entry, this.declaredFiles, context);
+        }
+
+        /**
+         * Add a document to a batch, and install the batch when it is full.
+         */
+        void add(PackageFileBatch batch, ZipArchiveEntry entry, DocumentInfo docInfo, XWikiContext context)
+            throws IOException, XWikiException
+        {
+            batch.entries.add(entry);
+            batch.documents.add(docInfo);
+
+            if (batch.documents.size() >= batchSize) {
+                install(batch, context);
+            }
+        }
+
+        /**
+         * Install the documents of a batch and empty it.
+         */
+        void install(PackageFileBatch batch, XWikiContext context) throws IOException, XWikiException
+        {
+            if (batch.documents.isEmpty()) {
+                return;
+            }
+
+            this.status = Math.max(this.status, installBatch(batch, context));
+            this.count += batch.documents.size();
+            for (ZipArchiveEntry entry : batch.entries) {
+                this.bytes += Math.max(0, entry.getSize());
+            }
+
+            batch.entries.clear();
+            batch.documents.clear();
+
+            logThroughput();
+        }
+
+        void logThroughput()
+        {
+            long time = Math.max(1, System.currentTimeMillis() - this.start);
+
+            LOGGER.info("Installed [{}] documents ([{}] KB) in [{}] ms: [{}] documents/s, [{}] KB/s", new Object[] {
+                this.count, this.bytes / 1024, time, this.count * 1000L / time, this.bytes * 1000L / 1024 / time});
+        }
+
+        /**
+         * Install a batch of documents in a single transaction.
+         * 
+         * @return the installation status
+         */
+        private int installBatch(PackageFileBatch batch, XWikiContext context) throws IOException, XWikiException
+        {
+            XWikiHibernateStore store = context.getWiki().getHibernateStore();
+
+            List<DocumentInfo> documents = batch.documents;
+
+            // Don't mess with a transaction started by someone else
+            if (store != null && documents.size() > 1 && store.getSession(context) == null) {
+                if (installTransaction(documents, store, context)) {
+                    return DocumentInfo.INSTALL_OK;
+                }
+
+                // The rolled back documents have been modified by the installation, start again from the package
+                documents = new ArrayList<DocumentInfo>(batch.entries.size());
+                for (int i = 0; i < batch.entries.size(); ++i) {
+                    DocumentInfo docInfo = read(batch.entries.get(i), context);
+                    if (docInfo != null) {
+                        documents.add(docInfo);
+
+                        // Don't notify again the listeners already told that the document is about to be saved
+                        XWikiDocument originalDocument = notifiedDocuments.remove(batch.documents.get(i).getDoc());
+                        if (originalDocument != null) {
+                            notifiedDocuments.put(docInfo.getDoc(), originalDocument);
+                        }
+                    }
+                }
+            }
+
+            int result = DocumentInfo.INSTALL_OK;
+            try {
+                for (DocumentInfo docInfo : documents) {
+                    if (installDocument(docInfo, this.isAdmin, this.backup, context) == DocumentInfo.INSTALL_ERROR) {
+                        result = DocumentInfo.INSTALL_ERROR;
+                    }
+                }
+            } finally {
+                notifiedDocuments.clear();
+            }
+
+            return result;
+        }
+
+        /**
+         * Install documents in a single transaction, rolled back if any of them fails.
+         * 
+         * @return true if the transaction has been committed
+         */
+        private boolean installTransaction(List<DocumentInfo> documents, XWikiHibernateStore store,
+            XWikiContext context) throws XWikiException
+        {
+            // Remember the reports state to be able to forget about the batch if it has to be replayed
+            int installedCount = getInstalled(context).size();
+            int skippedCount = getSkipped(context).size();
+            int errorsCount = getErrors(context).size();
+
+            // The saved notifications are sent only once the batch is committed
+            List<XWikiDocument[]> notifications = new ArrayList<XWikiDocument[]>(documents.size());
+            batchNotifications = notifications;
+
+            boolean commit = false;
+            boolean bTransaction = store.beginTransaction(context);
+            try {
+                int result = DocumentInfo.INSTALL_OK;
+                for (DocumentInfo docInfo : documents) {
+                    result = installDocument(docInfo, this.isAdmin, this.backup, context);
+                    if (result == DocumentInfo.INSTALL_ERROR) {
+                        break;
+                    }
+
+                    // Don't keep the entities of this document in the session: the same document (or the same
+                    // objects) can be saved again in the batch and Hibernate would fail with a
+                    // NonUniqueObjectException
+                    Session session = store.getSession(context);
+                    if (session != null) {
+                        session.flush();
+                        session.clear();
+                    }
+                }
+                commit = result != DocumentInfo.INSTALL_ERROR;
+            } catch (Exception e) {
+                LOGGER.debug("Failed to install batch", e);
+            } finally {
+                batchNotifications = null;
+
+                if (bTransaction) {
+                    try {
+                        store.endTransaction(context, commit);
+                    } catch (Exception e) {
+                        LOGGER.debug("Failed to commit batch", e);
+                        commit = false;
+                    }
+                }
+            }
+
+            if (commit) {
+                notifiedDocuments.clear();
+                for (XWikiDocument[] notification : notifications) {
+                    context.getWiki().notifyDocumentSaved(notification[0], notification[1], context);
+                }
+
+                return true;
+            }
+
+            LOGGER.warn("Failed to install a batch of [{}] documents, installing them one by one", documents.size());
+
+            truncate(getInstalled(context), installedCount);
+            truncate(getSkipped(context), skippedCount);
+            truncate(getErrors(context), errorsCount);
+
+            // The cache may contain documents which have been rolled back
+            if (context.getWiki().getStore() instanceof XWikiCacheStoreInterface) {
+                ((XWikiCacheStoreInterface) context.getWiki().getStore()).flushCache();
+            }
+
+            return false;
+        }
+    }
 }
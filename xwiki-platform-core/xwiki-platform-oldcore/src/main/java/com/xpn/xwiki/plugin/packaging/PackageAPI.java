@@ -280,6 +280,42 @@ public String Import(InputStream file) throws IOException, XWikiException
         return this.plugin.Import(file, getXWikiContext());
     }
 
+    /**
+     * Load the descriptor of a package from an InputStream without loading its documents in memory. The documents are
+     * read and saved by batches when calling {@link #install()}, which is better suited for large packages.
+     *
+     * @param file an InputStream of a zipped package file
+     * @return an empty string, useless.
+     * @throws IOException while reading the ZipFile
+     * @throws XWikiException when package content is broken
+     * @since 4.2M3
+     */
+    public String ImportStreaming(InputStream file) throws IOException, XWikiException
+    {
+        return this.plugin.ImportStreaming(file, getXWikiContext());
+    }
+
+    /**
+     * Release the resources held by a package loaded with {@link #ImportStreaming(InputStream)} which is not going to
+     * be installed.
+     *
+     * @since 4.2M3
+     */
+    public void releasePackageFile()
+    {
+        this.plugin.releasePackageFile();
+    }
+
+    /**
+     * @param batchSize the number of documents saved in the same transaction when installing a package loaded with
+     *            {@link #ImportStreaming(InputStream)}
+     * @since 4.2M3
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.plugin.setBatchSize(batchSize);
+    }
+
     public int testInstall()
     {
         return this.plugin.testInstall(false, getXWikiContext());
@@ -111,11 +111,7 @@ public void configure(Properties props) throws HibernateException
             String jdbcDriverClass = props.getProperty(Environment.DRIVER);
             dbcpProperties.put("driverClassName", jdbcDriverClass);
 
-            String jdbcUrl = System.getProperty(Environment.URL);
-            if (jdbcUrl == null) {
-                jdbcUrl = props.getProperty(Environment.URL);
-            }
-            dbcpProperties.put("url", jdbcUrl);
+            dbcpProperties.put("url", getURL(props));
 
             // Username / password. Only put username and password if they're not null. This allows
             // external authentication support (OS authenticated). It'll thus work if the hibernate
@@ -217,6 +213,21 @@ public void configure(Properties props) throws HibernateException
         LOGGER.debug("Configure DBCPConnectionProvider complete");
     }
 
+    /**
+     * @param props the Hibernate properties
+     * @return the JDBC URL of the database to connect to, the {@code hibernate.connection.url} system property taking
+     *         precedence over the configuration
+     */
+    protected String getURL(Properties props)
+    {
+        String jdbcUrl = System.getProperty(Environment.URL);
+        if (jdbcUrl == null) {
+            jdbcUrl = props.getProperty(Environment.URL);
+        }
+
+        return jdbcUrl;
+    }
+
     @Override
     public Connection getConnection() throws SQLException
     {
@@ -0,0 +1,412 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A connection provider sending read-only transactions to a set of replica databases and everything else to the
+ * primary database. Each database gets its own DBCP pool, see {@link DBCPConnectionProvider} for the supported pool
+ * properties.
+ * </p>
+ * <p>
+ * To use this connection provider set:<br>
+ * <code>hibernate.connection.provider_class&nbsp;com.xpn.xwiki.store.ReplicaRoutingConnectionProvider</code>
+ * </p>
+ *
+ * <pre>
+ * Supported Hibernate properties (in addition to the {@link DBCPConnectionProvider} ones):
+ *   hibernate.connection.replicas                 comma separated list of replica JDBC URLs
+ *   hibernate.connection.replicas.username        replicas user name (default: same as the primary)
+ *   hibernate.connection.replicas.password        replicas password (default: same as the primary)
+ *   hibernate.connection.replicas.lagQuery        query returning the replication lag of a replica in seconds
+ *   hibernate.connection.replicas.maxLag          maximum accepted replication lag in seconds (default: 5)
+ *   hibernate.connection.replicas.checkInterval   delay in milliseconds between two replica checks (default: 10000)
+ *   hibernate.connection.replicas.stickiness      delay in milliseconds during which reads following a write are
+ *                                                 sent to the primary (default: 5000)
+ * </pre>
+ * <p>
+ * A connection is taken from a replica only when {@link #setReadOnly(boolean)} has been called on the current thread,
+ * which {@link XWikiHibernateBaseStore} does for read-only executions. A replica which cannot be reached or which lags
+ * more than the configured maximum is ignored until its next check, and the primary is used when no replica is
+ * available.
+ * </p>
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class ReplicaRoutingConnectionProvider implements ConnectionProvider
+{
+    /**
+     * The prefix of the replica related properties.
+     */
+    public static final String PREFIX = "hibernate.connection.replicas";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRoutingConnectionProvider.class);
+
+    private static final String DEFAULT_READONLY = "hibernate.dbcp.defaultReadOnly";
+
+    private DBCPConnectionProvider primary;
+
+    private List<Replica> replicas = new ArrayList<Replica>();
+
+    /**
+     * Used to spread the read connections over the available replicas.
+     */
+    private AtomicInteger nextReplica = new AtomicInteger();
+
+    /**
+     * Remember which provider each connection comes from, to give it back to the right pool.
+     */
+    private Map<Connection, ConnectionProvider> providers = Collections
+        .synchronizedMap(new IdentityHashMap<Connection, ConnectionProvider>());
+
+    /**
+     * The last write date for each routing key, used to send reads following a write to the primary.
+     */
+    private Map<String, Long> lastWrites = new ConcurrentHashMap<String, Long>();
+
+    private ThreadLocal<Boolean> readOnly = new ThreadLocal<Boolean>();
+
+    private String lagQuery;
+
+    private long maxLag;
+
+    private long checkInterval;
+
+    private long stickiness;
+
+    /**
+     * A replica database and its state.
+     */
+    private final class Replica
+    {
+        private final String url;
+
+        private final DBCPConnectionProvider provider;
+
+        private volatile boolean available = true;
+
+        private volatile long lastCheck;
+
+        Replica(String url, DBCPConnectionProvider provider)
+        {
+            this.url = url;
+            this.provider = provider;
+        }
+
+        boolean isAvailable()
+        {
+            if (System.currentTimeMillis() - this.lastCheck > checkInterval) {
+                check();
+            }
+
+            return this.available;
+        }
+
+        synchronized void check()
+        {
+            if (System.currentTimeMillis() - this.lastCheck <= checkInterval) {
+                // Already checked by another thread
+                return;
+            }
+
+            boolean ok;
+            Connection connection = null;
+            try {
+                connection = this.provider.getConnection();
+                ok = lagQuery == null || getLag(connection) <= maxLag;
+            } catch (SQLException e) {
+                LOGGER.warn("Replica [{}] is not reachable: {}", this.url, e.getMessage());
+                ok = false;
+            } finally {
+                closeQuietly(this.provider, connection);
+            }
+
+            if (ok != this.available) {
+                LOGGER.info("Replica [{}] is now {}", this.url, ok ? "available" : "unavailable");
+            }
+            this.available = ok;
+            this.lastCheck = System.currentTimeMillis();
+        }
+
+        void disable()
+        {
+            this.available = false;
+            this.lastCheck = System.currentTimeMillis();
+        }
+
+        private long getLag(Connection connection) throws SQLException
+        {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet result = statement.executeQuery(lagQuery);
+                long lag = result.next() ? result.getLong(1) : 0;
+                if (lag > maxLag) {
+                    LOGGER.warn("Replica [{}] is lagging by {} seconds", this.url, lag);
+                }
+
+                return lag;
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * A DBCP pool which ignores the {@code hibernate.connection.url} system property since it's about the primary
+     * database.
+     */
+    private static class ReplicaConnectionProvider extends DBCPConnectionProvider
+    {
+        @Override
+        protected String getURL(Properties props)
+        {
+            return props.getProperty(Environment.URL);
+        }
+    }
+
+    @Override
+    public void configure(Properties props) throws HibernateException
+    {
+        LOGGER.debug("Configure ReplicaRoutingConnectionProvider");
+
+        this.lagQuery = StringUtils.trimToNull(props.getProperty(PREFIX + ".lagQuery"));
+        this.maxLag = getLong(props, ".maxLag", 5);
+        this.checkInterval = getLong(props, ".checkInterval", 10000);
+        this.stickiness = getLong(props, ".stickiness", 5000);
+
+        this.primary = new DBCPConnectionProvider();
+        this.primary.configure(props);
+
+        for (String url : StringUtils.split(props.getProperty(PREFIX, ""), ',')) {
+            url = url.trim();
+            if (url.length() > 0) {
+                Properties replicaProps = new Properties();
+                replicaProps.putAll(props);
+                replicaProps.setProperty(Environment.URL, url);
+                copyProperty(props, replicaProps, ".username", Environment.USER);
+                copyProperty(props, replicaProps, ".password", Environment.PASS);
+                // Protect against writes accidentally sent to a replica
+                replicaProps.setProperty(DEFAULT_READONLY, String.valueOf(Boolean.TRUE));
+
+                DBCPConnectionProvider provider = new ReplicaConnectionProvider();
+                try {
+                    provider.configure(replicaProps);
+                    this.replicas.add(new Replica(url, provider));
+                } catch (HibernateException e) {
+                    // Don't prevent XWiki from starting because of a replica, the primary can do the job
+                    LOGGER.error("Failed to configure replica [" + url + "], it will be ignored", e);
+                }
+            }
+        }
+
+        LOGGER.debug("Configure ReplicaRoutingConnectionProvider complete with [{}] replicas", this.replicas.size());
+    }
+
+    /**
+     * Indicate if the next connections taken by the current thread are going to be used only for reading and can thus
+     * come from a replica.
+     *
+     * @param readOnly true if the connections can come from a replica
+     */
+    public void setReadOnly(boolean readOnly)
+    {
+        if (readOnly) {
+            this.readOnly.set(Boolean.TRUE);
+        } else {
+            this.readOnly.remove();
+        }
+    }
+
+    /**
+     * @return true if there is at least one replica configured
+     */
+    public boolean hasReplicas()
+    {
+        return !this.replicas.isEmpty();
+    }
+
+    /**
+     * Remember that the passed key (usually identifying a user session) just wrote to the primary.
+     *
+     * @param key the routing key
+     */
+    public void markWrite(String key)
+    {
+        if (key != null && this.stickiness > 0) {
+            this.lastWrites.put(key, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @param key the routing key
+     * @return true if the passed key wrote to the primary recently enough for its reads to be sent to the primary so
+     *         that they see their own writes whatever the replication lag
+     */
+    public boolean isSticky(String key)
+    {
+        if (key == null) {
+            return false;
+        }
+
+        Long lastWrite = this.lastWrites.get(key);
+        if (lastWrite == null) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() - lastWrite > this.stickiness) {
+            this.lastWrites.remove(key);
+            purgeLastWrites();
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get rid of expired write dates so that the map does not grow with the number of sessions.
+     */
+    private void purgeLastWrites()
+    {
+        long now = System.currentTimeMillis();
+        for (Iterator<Long> it = this.lastWrites.values().iterator(); it.hasNext();) {
+            if (now - it.next() > this.stickiness) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException
+    {
+        if (this.readOnly.get() == Boolean.TRUE && !this.replicas.isEmpty()) {
+            int start = Math.abs(this.nextReplica.getAndIncrement() % this.replicas.size());
+            for (int i = 0; i < this.replicas.size(); ++i) {
+                Replica replica = this.replicas.get((start + i) % this.replicas.size());
+                if (replica.isAvailable()) {
+                    try {
+                        return getConnection(replica.provider);
+                    } catch (SQLException e) {
+                        LOGGER.warn("Failed to get a connection from replica [{}], disabling it until next check: {}",
+                            replica.url, e.getMessage());
+                        replica.disable();
+                    }
+                }
+            }
+
+            LOGGER.debug("No replica available, falling back on the primary database");
+        }
+
+        return getConnection(this.primary);
+    }
+
+    private Connection getConnection(ConnectionProvider provider) throws SQLException
+    {
+        Connection connection = provider.getConnection();
+        this.providers.put(connection, provider);
+
+        return connection;
+    }
+
+    @Override
+    public void closeConnection(Connection conn) throws SQLException
+    {
+        ConnectionProvider provider = this.providers.remove(conn);
+        if (provider != null) {
+            provider.closeConnection(conn);
+        } else {
+            conn.close();
+        }
+    }
+
+    @Override
+    public void close() throws HibernateException
+    {
+        LOGGER.debug("Close ReplicaRoutingConnectionProvider");
+
+        for (Replica replica : this.replicas) {
+            try {
+                replica.provider.close();
+            } catch (HibernateException e) {
+                LOGGER.warn("Failed to close replica [" + replica.url + "]", e);
+            }
+        }
+        this.replicas.clear();
+
+        if (this.primary != null) {
+            this.primary.close();
+            this.primary = null;
+        }
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease()
+    {
+        return false;
+    }
+
+    private long getLong(Properties props, String suffix, long defaultValue)
+    {
+        String value = StringUtils.trimToNull(props.getProperty(PREFIX + suffix));
+
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    private void copyProperty(Properties source, Properties target, String suffix, String targetKey)
+    {
+        String value = source.getProperty(PREFIX + suffix);
+        if (value != null) {
+            target.setProperty(targetKey, value);
+        }
+    }
+
+    private static void closeQuietly(ConnectionProvider provider, Connection connection)
+    {
+        if (connection != null) {
+            try {
+                provider.closeConnection(connection);
+            } catch (SQLException e) {
+                // Nothing more we can do
+            }
+        }
+    }
+}
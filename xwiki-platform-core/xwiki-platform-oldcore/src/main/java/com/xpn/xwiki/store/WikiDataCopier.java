@@ -0,0 +1,209 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.doc.XWikiLink;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeContent;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeInfo;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.DBStringListProperty;
+import com.xpn.xwiki.objects.DateProperty;
+import com.xpn.xwiki.objects.DoubleProperty;
+import com.xpn.xwiki.objects.FloatProperty;
+import com.xpn.xwiki.objects.IntegerProperty;
+import com.xpn.xwiki.objects.LargeStringProperty;
+import com.xpn.xwiki.objects.LongProperty;
+import com.xpn.xwiki.objects.StringListProperty;
+import com.xpn.xwiki.objects.StringProperty;
+
+/**
+ * Copy the documents of a wiki, with their objects, attachments and history, into another wiki stored in the same
+ * database server, table by table, using {@code INSERT ... SELECT} statements.
+ * <p>
+ * The identifiers of the documents, objects, properties and attachments are computed from references which don't
+ * contain the wiki name, so the rows can be copied as they are. The tables copied are the ones of the documents, their
+ * history, links, attachments, objects and properties, of the custom mapped classes and of their collections. The
+ * locks, the recycle bins, the statistics and the database version are not copied.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class WikiDataCopier
+{
+    /** Logging helper object. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WikiDataCopier.class);
+
+    /** The mapped classes holding the data of the documents. */
+    private static final Set<String> DATA_ENTITIES = new HashSet<String>(Arrays.asList(
+        XWikiDocument.class.getName(), XWikiRCSNodeInfo.class.getName(), XWikiRCSNodeContent.class.getName(),
+        XWikiLink.class.getName(), XWikiAttachment.class.getName(), XWikiAttachmentContent.class.getName(),
+        XWikiAttachmentArchive.class.getName(), BaseObject.class.getName(), BaseProperty.class.getName(),
+        IntegerProperty.class.getName(), LongProperty.class.getName(), FloatProperty.class.getName(),
+        DoubleProperty.class.getName(), StringProperty.class.getName(), DateProperty.class.getName(),
+        LargeStringProperty.class.getName(), StringListProperty.class.getName(),
+        DBStringListProperty.class.getName()));
+
+    /** The tables to copy, a table always come after the tables it references. */
+    private final Map<String, Table> tables = new LinkedHashMap<String, Table>();
+
+    /** Used to quote the table and column names. */
+    private final Dialect dialect;
+
+    /**
+     * @param configuration the Hibernate configuration containing the mapping
+     * @param dialect the dialect of the database
+     */
+    public WikiDataCopier(Configuration configuration, Dialect dialect)
+    {
+        this.dialect = dialect;
+
+        for (Iterator< ? > it = configuration.getClassMappings(); it.hasNext();) {
+            addTable((PersistentClass) it.next());
+        }
+
+        for (Iterator< ? > it = configuration.getCollectionMappings(); it.hasNext();) {
+            org.hibernate.mapping.Collection collection = (org.hibernate.mapping.Collection) it.next();
+            if (isDataEntity(collection.getOwner())) {
+                addTable(collection.getCollectionTable());
+            }
+        }
+    }
+
+    /**
+     * @param persistentClass the mapped class
+     */
+    private void addTable(PersistentClass persistentClass)
+    {
+        // Joined subclasses tables reference the table of their super class
+        if (persistentClass.getSuperclass() != null) {
+            addTable(persistentClass.getSuperclass());
+        }
+
+        if (isDataEntity(persistentClass)) {
+            addTable(persistentClass.getTable());
+        }
+    }
+
+    /**
+     * @param table the table to copy
+     */
+    private void addTable(Table table)
+    {
+        if (!this.tables.containsKey(table.getName())) {
+            this.tables.put(table.getName(), table);
+        }
+    }
+
+    /**
+     * @param persistentClass the mapped class
+     * @return true if the entity holds data related to the documents
+     */
+    private boolean isDataEntity(PersistentClass persistentClass)
+    {
+        // Custom mapped classes are named after the XClass (e.g. XWiki.XWikiPreferences) and have no Java class
+        return DATA_ENTITIES.contains(persistentClass.getEntityName()) || !persistentClass.hasPojoRepresentation();
+    }
+
+    /**
+     * @return the tables to copy
+     */
+    public Collection<Table> getTables()
+    {
+        return this.tables.values();
+    }
+
+    /**
+     * Copy the data. The target tables are expected to be empty.
+     * 
+     * @param connection the connection to use, the caller is in charge of the transaction
+     * @param sourceSchema the escaped name of the database/schema to copy from
+     * @param targetSchema the escaped name of the database/schema to copy to
+     * @return the number of rows copied
+     * @throws SQLException when failing to copy a table
+     */
+    public int copy(Connection connection, String sourceSchema, String targetSchema) throws SQLException
+    {
+        int rows = 0;
+
+        Statement statement = connection.createStatement();
+        try {
+            for (Table table : getTables()) {
+                String sql = getCopyStatement(table, sourceSchema, targetSchema);
+                LOGGER.debug("Executing [{}]", sql);
+                rows += statement.executeUpdate(sql);
+            }
+        } finally {
+            statement.close();
+        }
+
+        return rows;
+    }
+
+    /**
+     * @param table the table to copy
+     * @param sourceSchema the escaped name of the database/schema to copy from
+     * @param targetSchema the escaped name of the database/schema to copy to
+     * @return the SQL statement copying the table
+     */
+    private String getCopyStatement(Table table, String sourceSchema, String targetSchema)
+    {
+        // List the columns explicitly since their order can be different in two schemas updated at different times
+        StringBuilder columns = new StringBuilder();
+        for (Iterator< ? > it = table.getColumnIterator(); it.hasNext();) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(((Column) it.next()).getQuotedName(this.dialect));
+        }
+
+        String tableName = table.getQuotedName(this.dialect);
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(targetSchema).append('.').append(tableName);
+        sql.append(" (").append(columns).append(") SELECT ").append(columns);
+        sql.append(" FROM ").append(sourceSchema).append('.').append(tableName);
+
+        return sql.toString();
+    }
+}
@@ -31,8 +31,12 @@
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.WeightedEvictionConfiguration;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.ObservationManager;
@@ -45,6 +49,8 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.XWikiLink;
 import com.xpn.xwiki.doc.XWikiLock;
+import com.xpn.xwiki.internal.cache.OffHeapDocumentCache;
+import com.xpn.xwiki.internal.cache.XWikiDocumentWeigher;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.web.Utils;
 
@@ -58,6 +64,50 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiCacheStore.class);
 
+    /**
+     * Moves the documents evicted from the page cache to the off-heap cache.
+     * 
+     * @version $Id$
+     */
+    private class OffHeapCacheListener implements CacheEntryListener<XWikiDocument>
+    {
+        @Override
+        public void cacheEntryAdded(CacheEntryEvent<XWikiDocument> event)
+        {
+            // Nothing to do.
+        }
+
+        @Override
+        public void cacheEntryRemoved(CacheEntryEvent<XWikiDocument> event)
+        {
+            // The documents explicitly removed are outdated, only the evicted ones are worth keeping.
+            if (invalidating.get() != null) {
+                return;
+            }
+
+            XWikiDocument doc = event.getEntry().getValue();
+            if (doc == null || doc.isNew()) {
+                return;
+            }
+            // Taken before serializing the document, so that it's not stored if it's modified or deleted meanwhile.
+            String key = doc.getKey();
+            long generation = offHeapCache.getGeneration(key);
+            // The documents read back from the off-heap cache are still there, no need to serialize them again.
+            if (!offHeapCache.contains(key)) {
+                XWikiContext context = Utils.getContext();
+                if (context != null) {
+                    offHeapCache.set(doc, generation, context);
+                }
+            }
+        }
+
+        @Override
+        public void cacheEntryModified(CacheEntryEvent<XWikiDocument> event)
+        {
+            // Nothing to do.
+        }
+    }
+
     private XWikiStoreInterface store;
 
     private Cache<XWikiDocument> cache;
@@ -68,6 +118,24 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
 
     private int pageExistCacheCapacity = 10000;
 
+    /**
+     * The maximum total size of the cached documents, in bytes, 0 if the cache is only bounded by the number of
+     * documents.
+     */
+    private long cacheMaxWeight;
+
+    /**
+     * The second level of the document cache, keeping the documents evicted from the page cache out of the heap, null
+     * if it's disabled.
+     */
+    private OffHeapDocumentCache offHeapCache;
+
+    /**
+     * Set while the current thread explicitly removes documents from the page cache, so that they are not moved to the
+     * off-heap cache.
+     */
+    private final ThreadLocal<Boolean> invalidating = new ThreadLocal<Boolean>();
+
     /**
      * Used to know if a received event is a local or remote one.
      */
@@ -112,6 +180,13 @@ public synchronized void initCache(XWikiContext context) throws XWikiException
                 }
             } catch (Exception e) {
             }
+            try {
+                String maxWeight = context.getWiki().Param("xwiki.store.cache.maxweight");
+                if (maxWeight != null) {
+                    this.cacheMaxWeight = Long.parseLong(maxWeight);
+                }
+            } catch (Exception e) {
+            }
             try {
                 String capacity = context.getWiki().Param("xwiki.store.cache.pageexistcapacity");
                 if (capacity != null) {
@@ -119,6 +194,19 @@ public synchronized void initCache(XWikiContext context) throws XWikiException
                 }
             } catch (Exception e) {
             }
+            try {
+                String offHeapMaxSize = context.getWiki().Param("xwiki.store.cache.offheap.maxsize");
+                if (offHeapMaxSize != null && this.offHeapCache == null) {
+                    long maxSize = Long.parseLong(offHeapMaxSize);
+                    if (maxSize > 0) {
+                        this.offHeapCache = new OffHeapDocumentCache(maxSize);
+                        // Reported along with the statistics of the page cache.
+                        Utils.getComponent(CacheManager.class).registerStatistics("xwiki.store.pagecache.offheap",
+                            this.offHeapCache.getStatistics());
+                    }
+                }
+            } catch (Exception e) {
+            }
             initCache(this.cacheCapacity, this.pageExistCacheCapacity, context);
         }
     }
@@ -131,11 +219,22 @@ public void initCache(int capacity, int pageExistCacheCapacity, XWikiContext con
         try {
             CacheConfiguration cacheConfiguration = new CacheConfiguration();
             cacheConfiguration.setConfigurationId("xwiki.store.pagecache");
-            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            LRUEvictionConfiguration lru;
+            if (this.cacheMaxWeight > 0) {
+                WeightedEvictionConfiguration weighted = new WeightedEvictionConfiguration();
+                weighted.setMaxWeight(this.cacheMaxWeight);
+                weighted.setWeigher(new XWikiDocumentWeigher());
+                lru = weighted;
+            } else {
+                lru = new LRUEvictionConfiguration();
+            }
             lru.setMaxEntries(capacity);
             cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
 
             Cache<XWikiDocument> pageCache = cacheFactory.newCache(cacheConfiguration);
+            if (this.offHeapCache != null) {
+                pageCache.addCacheEntryListener(new OffHeapCacheListener());
+            }
             setCache(pageCache);
 
             cacheConfiguration = new CacheConfiguration();
@@ -181,7 +280,7 @@ public void saveXWikiDoc(XWikiDocument doc, XWikiContext context, boolean bTrans
 
         // We need to flush so that caches
         // on the cluster are informed about the change
-        getCache().remove(key);
+        removeFromCache(key);
         getPageExistCache().remove(key);
 
         /*
@@ -196,10 +295,19 @@ public void saveXWikiDoc(XWikiDocument doc, XWikiContext context, boolean bTrans
     public void flushCache()
     {
         if (this.cache != null) {
-            this.cache.dispose();
+            this.invalidating.set(Boolean.TRUE);
+            try {
+                this.cache.dispose();
+            } finally {
+                this.invalidating.remove();
+            }
             this.cache = null;
         }
 
+        if (this.offHeapCache != null) {
+            this.offHeapCache.removeAll();
+        }
+
         if (this.pageExistCache != null) {
             this.pageExistCache.dispose();
             this.pageExistCache = null;
@@ -219,7 +327,7 @@ public void onEvent(Event event, Object source, Object data)
                 String key = doc.getKey();
 
                 if (getCache() != null) {
-                    getCache().remove(key);
+                    removeFromCache(key);
                 }
                 if (getPageExistCache() != null) {
                     getPageExistCache().remove(key);
@@ -279,6 +387,13 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
 
         XWikiDocument cachedoc = getCache().get(key);
 
+        if (cachedoc == null && this.offHeapCache != null) {
+            cachedoc = loadFromOffHeapCache(doc, context);
+            if (cachedoc != null) {
+                getCache().set(key, cachedoc);
+            }
+        }
+
         if (cachedoc != null) {
             doc = cachedoc;
             doc.setFromCache(true);
@@ -303,6 +418,54 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
         return doc;
     }
 
+    /**
+     * @param doc the document to get
+     * @param context the XWiki context
+     * @return the document read back from the off-heap cache, null if it's not there
+     */
+    private XWikiDocument loadFromOffHeapCache(XWikiDocument doc, XWikiContext context)
+    {
+        String database = context.getDatabase();
+        XWikiDocument cachedoc;
+        try {
+            // The references stored in the XML are relative to the wiki of the document.
+            context.setDatabase(doc.getDatabase());
+            cachedoc = this.offHeapCache.get(doc);
+        } finally {
+            context.setDatabase(database);
+        }
+
+        if (cachedoc != null) {
+            cachedoc.setStore(this.store);
+            cachedoc.setNew(false);
+            cachedoc.setMostRecent(true);
+            cachedoc.setOriginalDocument(cachedoc.clone());
+
+            LOGGER.debug("Cache: got doc {} from off-heap cache", doc.getKey());
+        }
+
+        return cachedoc;
+    }
+
+    /**
+     * Remove an outdated document from the page cache and from the off-heap cache.
+     * 
+     * @param key the key of the document
+     */
+    private void removeFromCache(String key)
+    {
+        this.invalidating.set(Boolean.TRUE);
+        try {
+            getCache().remove(key);
+        } finally {
+            this.invalidating.remove();
+        }
+
+        if (this.offHeapCache != null) {
+            this.offHeapCache.remove(key);
+        }
+    }
+
     @Override
     public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWikiException
     {
@@ -313,7 +476,7 @@ public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWiki
         // Make sure cache is initialized
         initCache(context);
 
-        getCache().remove(key);
+        removeFromCache(key);
         getPageExistCache().remove(key);
         getPageExistCache().set(key, new Boolean(false));
     }
@@ -643,6 +806,16 @@ public Cache<XWikiDocument> getCache()
         return this.cache;
     }
 
+    /**
+     * @return the second level of the document cache, keeping the documents evicted from the page cache out of the
+     *         heap, null if it's disabled
+     * @since 4.2M3
+     */
+    public OffHeapDocumentCache getOffHeapCache()
+    {
+        return this.offHeapCache;
+    }
+
     public void setCache(Cache<XWikiDocument> cache)
     {
         this.cache = cache;
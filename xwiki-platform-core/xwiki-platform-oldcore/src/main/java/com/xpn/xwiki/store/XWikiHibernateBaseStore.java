@@ -24,11 +24,14 @@
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.servlet.http.HttpSession;
 
 import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
@@ -91,6 +94,11 @@ public class XWikiHibernateBaseStore implements Initializable
      */
     private static String currentDatabaseKey = "hibcurrentdatabase";
 
+    /**
+     * Key in XWikiContext for access to the independent sessions opened during the request.
+     */
+    private static String independentSessionsKey = "hibindependentsessions";
+
     private DatabaseProduct databaseProduct = DatabaseProduct.UNKNOWN;
 
     /**
@@ -616,49 +624,8 @@ public void setDatabase(Session session, XWikiContext context) throws XWikiExcep
     {
         try {
             if (isVirtual(context)) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Switch database to: [" + context.getDatabase() + "]");
-                }
-
                 if (context.getDatabase() != null) {
-                    String schemaName = getSchemaFromWikiName(context);
-                    String escapedSchemaName = escapeSchema(schemaName, context);
-
-                    DatabaseProduct databaseProduct = getDatabaseProductName(context);
-                    if (DatabaseProduct.ORACLE == databaseProduct) {
-                        Statement stmt = null;
-                        try {
-                            stmt = session.connection().createStatement();
-                            stmt.execute("alter session set current_schema = " + escapedSchemaName);
-                        } finally {
-                            try {
-                                if (stmt != null) {
-                                    stmt.close();
-                                }
-                            } catch (Exception e) {
-                            }
-                        }
-                    } else if (DatabaseProduct.DERBY == databaseProduct || DatabaseProduct.HSQLDB == databaseProduct
-                        || DatabaseProduct.DB2 == databaseProduct) {
-                        Statement stmt = null;
-                        try {
-                            stmt = session.connection().createStatement();
-                            stmt.execute("SET SCHEMA " + escapedSchemaName);
-                        } finally {
-                            try {
-                                if (stmt != null) {
-                                    stmt.close();
-                                }
-                            } catch (Exception e) {
-                            }
-                        }
-                    } else {
-                        String catalog = session.connection().getCatalog();
-                        catalog = (catalog == null) ? null : catalog.replace('_', '-');
-                        if (!schemaName.equals(catalog)) {
-                            session.connection().setCatalog(schemaName);
-                        }
-                    }
+                    switchDatabase(session, context);
                     setCurrentDatabase(context, context.getDatabase());
                 }
             }
@@ -673,6 +640,59 @@ public void setDatabase(Session session, XWikiContext context) throws XWikiExcep
         }
     }
 
+    /**
+     * Switch the connection of the passed session to the database of the current wiki.
+     * 
+     * @param session the session to switch
+     * @param context the XWiki context, used to get the current wiki
+     * @throws Exception if the switch fails
+     */
+    private void switchDatabase(Session session, XWikiContext context) throws Exception
+    {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Switch database to: [" + context.getDatabase() + "]");
+        }
+
+        String schemaName = getSchemaFromWikiName(context);
+        String escapedSchemaName = escapeSchema(schemaName, context);
+
+        DatabaseProduct databaseProduct = getDatabaseProductName(context);
+        if (DatabaseProduct.ORACLE == databaseProduct) {
+            Statement stmt = null;
+            try {
+                stmt = session.connection().createStatement();
+                stmt.execute("alter session set current_schema = " + escapedSchemaName);
+            } finally {
+                try {
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                } catch (Exception e) {
+                }
+            }
+        } else if (DatabaseProduct.DERBY == databaseProduct || DatabaseProduct.HSQLDB == databaseProduct
+            || DatabaseProduct.DB2 == databaseProduct) {
+            Statement stmt = null;
+            try {
+                stmt = session.connection().createStatement();
+                stmt.execute("SET SCHEMA " + escapedSchemaName);
+            } finally {
+                try {
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                } catch (Exception e) {
+                }
+            }
+        } else {
+            String catalog = session.connection().getCatalog();
+            catalog = (catalog == null) ? null : catalog.replace('_', '-');
+            if (!schemaName.equals(catalog)) {
+                session.connection().setCatalog(schemaName);
+            }
+        }
+    }
+
     /**
      * Escape schema name depending of the database engine.
      * 
@@ -815,6 +835,93 @@ public boolean beginTransaction(SessionFactory sfactory, XWikiContext context)
         return true;
     }
 
+    /**
+     * Open a new read-only session, independent from the one stored in the context and already switched to the
+     * database of the current wiki. This is useful to keep reading from the database (for example to scroll through a
+     * large result) while the context session is opened and closed by other store operations. The session must be
+     * released with {@link #closeIndependentSession(Session, XWikiContext)}; any session still opened when
+     * {@link #cleanUp(XWikiContext)} is called is closed then.
+     * 
+     * @param context the current XWikiContext
+     * @return the new session, with a started transaction
+     * @throws XWikiException if the session cannot be opened or switched to the current wiki database
+     * @since 4.2M3
+     */
+    public Session openIndependentSession(XWikiContext context) throws XWikiException
+    {
+        checkHibernate(context);
+
+        ReplicaRoutingConnectionProvider router = getReplicaRouter();
+        boolean routeToReplica = router != null && !router.isSticky(getRoutingKey(context));
+
+        Session session = getSessionFactory().openSession();
+        try {
+            if (routeToReplica) {
+                router.setReadOnly(true);
+            }
+            try {
+                session.beginTransaction();
+            } finally {
+                if (routeToReplica) {
+                    router.setReadOnly(false);
+                }
+            }
+
+            if (isVirtual(context) && context.getDatabase() != null) {
+                switchDatabase(session, context);
+            }
+        } catch (Exception e) {
+            session.close();
+            Object[] args = {context.getDatabase()};
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SWITCH_DATABASE,
+                "Exception while opening an independent session on database {0}", e, args);
+        }
+
+        getIndependentSessions(context).add(session);
+
+        return session;
+    }
+
+    /**
+     * Rollback and close a session opened with {@link #openIndependentSession(XWikiContext)}.
+     * 
+     * @param session the session to close
+     * @param context the current XWikiContext
+     * @since 4.2M3
+     */
+    public void closeIndependentSession(Session session, XWikiContext context)
+    {
+        getIndependentSessions(context).remove(session);
+
+        if (session.isOpen()) {
+            try {
+                Transaction transaction = session.getTransaction();
+                if (transaction != null && transaction.isActive()) {
+                    transaction.rollback();
+                }
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * @param context the current XWikiContext
+     * @return the independent sessions opened during the current request
+     */
+    private List<Session> getIndependentSessions(XWikiContext context)
+    {
+        @SuppressWarnings("unchecked")
+        List<Session> sessions = (List<Session>) context.get(independentSessionsKey);
+        if (sessions == null) {
+            sessions = new CopyOnWriteArrayList<Session>();
+            context.put(independentSessionsKey, sessions);
+        }
+
+        return sessions;
+    }
+
     /**
      * Adding a connection to the Monitor module
      * 
@@ -915,6 +1022,10 @@ public void endTransaction(XWikiContext context, boolean commit)
                 }
                 if (commit) {
                     transaction.commit();
+
+                    // Every committing path (execute, saveXWikiDoc, deleteXWikiDoc...) goes through here: make sure
+                    // the next reads of the session see the write even if the replicas are lagging
+                    markWrite(context);
                 } else {
                     transaction.rollback();
                 }
@@ -1023,6 +1134,14 @@ public void cleanUp(XWikiContext context)
             }
         } catch (HibernateException e) {
         }
+
+        for (Session session : getIndependentSessions(context)) {
+            LOGGER.warn("Cleanup of independent session was needed: " + session);
+            try {
+                closeIndependentSession(session, context);
+            } catch (HibernateException e) {
+            }
+        }
     }
 
     public SessionFactory getSessionFactory()
@@ -1199,7 +1318,21 @@ public <T> T execute(XWikiContext context, boolean doCommit, HibernateCallback<T
             }
 
             checkHibernate(context);
-            bTransaction = beginTransaction(context);
+
+            // Read-only executions starting their own transaction can be served by a replica, unless the session
+            // wrote recently and might not see its own changes there yet
+            ReplicaRoutingConnectionProvider router = getReplicaRouter();
+            boolean routeToReplica = !doCommit && router != null && !router.isSticky(getRoutingKey(context));
+            if (routeToReplica) {
+                router.setReadOnly(true);
+            }
+            try {
+                bTransaction = beginTransaction(context);
+            } finally {
+                if (routeToReplica) {
+                    router.setReadOnly(false);
+                }
+            }
 
             if (context.getDatabase() != null && !context.getDatabase().equals(getCurrentDatabase(context))) {
                 setDatabase(getSession(context), context);
@@ -1322,6 +1455,54 @@ public <T> T executeWrite(XWikiContext context, HibernateCallback<T> cb) throws
         return execute(context, true, cb);
     }
 
+    /**
+     * Remember that the current session wrote to the primary database so that its next reads are not sent to a
+     * replica.
+     *
+     * @param context XWikiContext
+     */
+    private void markWrite(XWikiContext context)
+    {
+        ReplicaRoutingConnectionProvider router = getReplicaRouter();
+        if (router != null) {
+            router.markWrite(getRoutingKey(context));
+        }
+    }
+
+    /**
+     * @return the connection provider routing read-only transactions to replicas, null if no replica is configured
+     */
+    ReplicaRoutingConnectionProvider getReplicaRouter()
+    {
+        SessionFactory factory = getSessionFactory();
+        if (factory instanceof SessionFactoryImpl) {
+            ConnectionProvider provider = ((SessionFactoryImpl) factory).getConnectionProvider();
+            if (provider instanceof ReplicaRoutingConnectionProvider
+                && ((ReplicaRoutingConnectionProvider) provider).hasReplicas()) {
+                return (ReplicaRoutingConnectionProvider) provider;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param context XWikiContext
+     * @return the key identifying the current user session for read-your-writes routing, i.e. the HTTP session
+     *         identifier if any or the current user
+     */
+    private String getRoutingKey(XWikiContext context)
+    {
+        if (context.getRequest() != null && context.getRequest().getHttpServletRequest() != null) {
+            HttpSession httpSession = context.getRequest().getHttpServletRequest().getSession(false);
+            if (httpSession != null) {
+                return httpSession.getId();
+            }
+        }
+
+        return context.getUser();
+    }
+
     /**
      * @param context XWikiContext
      * @return current hibernate database name
@@ -30,6 +30,7 @@
 
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +60,13 @@ public class XWikiHibernateVersioningStore extends XWikiHibernateBaseStore imple
     /** Logger. */
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiHibernateVersioningStore.class);
 
+    /**
+     * Reading a version requiring to apply more than this number of times the configured number of versions between two
+     * full versions marks the version to be stored as a full version when the archive is next saved, see
+     * {@link #loadXWikiDoc(XWikiDocument, String, XWikiContext)}.
+     */
+    private static final int MAX_CHAIN_FACTOR = 2;
+
     /** Needed for computing the archive cache key. */
     @Inject
     private EntityReferenceSerializer<String> referenceSerializer;
@@ -215,6 +223,16 @@ public XWikiDocument loadXWikiDoc(XWikiDocument basedoc, String sversion, XWikiC
 
         doc.setDatabase(basedoc.getDatabase());
         doc.setStore(basedoc.getStore());
+
+        // Archives created with a bigger (or no) interval between full versions, or from which versions have been
+        // removed, can contain long chains of patches. The versions read from such a chain are stored as full versions
+        // when the document is next saved (see updateXWikiDocArchive), so that the old archives are fixed
+        // incrementally, as they are used, without writing anything when reading.
+        int nodesPerFull = XWikiDocumentArchive.getNodesPerFull(context);
+        if (nodesPerFull > 0 && archive.getDiffChainLength(version) > nodesPerFull * MAX_CHAIN_FACTOR) {
+            archive.addVersionToSnapshot(version);
+        }
+
         return doc;
     }
 
@@ -243,7 +261,15 @@ public void updateXWikiDocArchive(XWikiDocument doc, boolean bTransaction, XWiki
         throws XWikiException
     {
         try {
-            XWikiDocumentArchive archiveDoc = getXWikiDocumentArchive(doc, context);
+            XWikiDocumentArchive archiveDoc = doc.getDocumentArchive();
+            if (archiveDoc == null) {
+                // Only the most recent versions are needed to append a new version, there's no need to load the whole
+                // history. The partial archive is not attached to the document.
+                archiveDoc = loadXWikiDocArchiveTail(doc, context);
+            } else {
+                // Store the versions found in long chains of patches when reading the history, along with the new one
+                archiveDoc.snapshotVersions(context);
+            }
             archiveDoc.updateArchive(doc, doc.getAuthor(), doc.getDate(), doc.getComment(), doc.getRCSVersion(),
                 context);
             doc.setRCSVersion(archiveDoc.getLatestVersion());
@@ -256,6 +282,48 @@ public void updateXWikiDocArchive(XWikiDocument doc, boolean bTransaction, XWiki
         }
     }
 
+    /**
+     * Load an archive containing only the most recent versions of a document, enough to append a new version.
+     * 
+     * @param doc the document
+     * @param context the XWiki context
+     * @return the partial archive
+     * @throws XWikiException if any error
+     */
+    private XWikiDocumentArchive loadXWikiDocArchiveTail(XWikiDocument doc, XWikiContext context)
+        throws XWikiException
+    {
+        // The latest version and the versions which may be part of its chain of patches
+        final int size = Math.max(XWikiDocumentArchive.getNodesPerFull(context), 1);
+        final long id = doc.getId();
+
+        String db = context.getDatabase();
+        try {
+            if (doc.getDatabase() != null) {
+                context.setDatabase(doc.getDatabase());
+            }
+
+            List<XWikiRCSNodeInfo> nodes = executeRead(context, new HibernateCallback<List<XWikiRCSNodeInfo>>()
+            {
+                @SuppressWarnings("unchecked")
+                @Override
+                public List<XWikiRCSNodeInfo> doInHibernate(Session session) throws HibernateException
+                {
+                    return session.createCriteria(XWikiRCSNodeInfo.class)
+                        .add(Restrictions.eq("id.docId", Long.valueOf(id))).addOrder(Order.desc("id.version1"))
+                        .addOrder(Order.desc("id.version2")).setMaxResults(size).list();
+                }
+            });
+
+            XWikiDocumentArchive archiveDoc = new XWikiDocumentArchive(id);
+            archiveDoc.setNodes(nodes);
+
+            return archiveDoc;
+        } finally {
+            context.setDatabase(db);
+        }
+    }
+
     /**
      * @param context the XWiki context
      * @param id {@link XWikiRCSNodeContent#getId()}
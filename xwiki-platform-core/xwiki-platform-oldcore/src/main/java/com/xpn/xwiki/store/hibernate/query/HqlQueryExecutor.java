@@ -21,12 +21,17 @@
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
@@ -36,6 +41,10 @@
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryExecutor;
+import org.xwiki.query.QueryResultIterator;
+import org.xwiki.query.StreamingQueryExecutor;
+import org.xwiki.query.internal.FilteredQueryResultIterator;
+import org.xwiki.query.internal.ListQueryResultIterator;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -54,14 +63,30 @@
 @Component
 @Named("hql")
 @Singleton
-public class HqlQueryExecutor implements QueryExecutor, Initializable
+public class HqlQueryExecutor implements QueryExecutor, StreamingQueryExecutor, Initializable
 {
+    /**
+     * Number of rows fetched at once from the database when streaming results. It's also the number of rows after
+     * which the session is cleared, so that loaded entities don't pile up in memory.
+     * <p>
+     * MySQL Connector/J ignores a positive fetch size and reads the whole result in memory unless the
+     * {@code useCursorFetch=true} connection property is set. The {@link Integer#MIN_VALUE} fetch size which makes it
+     * stream row by row is not used since it forbids any other statement on the connection while the results are
+     * read, including the lazy loading of the returned entities.
+     */
+    private static final int STREAM_FETCH_SIZE = 100;
+
     /**
      * Session factory needed for register named queries mapping.
      */
     @Inject
     private HibernateSessionFactory sessionFactory;
 
+    /**
+     * Statements of the named queries, indexed by query name.
+     */
+    private Map<String, String> namedQueryStatements = new ConcurrentHashMap<String, String>();
+
     /**
      * Path to hibernate mapping with named queries. Configured via component manager.
      */
@@ -121,6 +146,168 @@ public List<T> doInHibernate(Session session)
         }
     }
 
+    @Override
+    public <T> QueryResultIterator<T> stream(Query query) throws QueryException
+    {
+        // Filters needing the whole result list can't be applied on streamed rows
+        if (!FilteredQueryResultIterator.isStreamable(query.getFilters())) {
+            return new ListQueryResultIterator<T>(this.<T>execute(query));
+        }
+
+        XWikiContext context = getContext();
+        String olddatabase = context.getDatabase();
+        try {
+            if (query.getWiki() != null) {
+                context.setDatabase(query.getWiki());
+            }
+
+            XWikiHibernateStore store = getStore();
+            // Use a dedicated session since the context one is closed at the end of each store operation
+            Session session = store.openIndependentSession(context);
+            try {
+                org.hibernate.Query hquery = createHibernateQuery(session, query);
+                populateParameters(hquery, query);
+                hquery.setFetchSize(STREAM_FETCH_SIZE);
+                hquery.setReadOnly(true);
+
+                QueryResultIterator<T> results =
+                    new ScrollableQueryResultIterator<T>(hquery.scroll(ScrollMode.FORWARD_ONLY), session, store,
+                        context);
+                if (query.getFilters() != null && !query.getFilters().isEmpty()) {
+                    results = new FilteredQueryResultIterator<T>(results, query.getFilters());
+                }
+
+                return results;
+            } catch (RuntimeException e) {
+                store.closeIndependentSession(session, context);
+                throw e;
+            }
+        } catch (Exception e) {
+            throw new QueryException("Exception while streaming query", query, e);
+        } finally {
+            context.setDatabase(olddatabase);
+        }
+    }
+
+    /**
+     * Iterate over Hibernate scrollable results and release the session once done.
+     *
+     * @param <T> the type of the results
+     */
+    private static class ScrollableQueryResultIterator<T> implements QueryResultIterator<T>
+    {
+        /**
+         * The scrolled results.
+         */
+        private final ScrollableResults results;
+
+        /**
+         * The session the results are scrolled from.
+         */
+        private final Session session;
+
+        /**
+         * The store which opened the session.
+         */
+        private final XWikiHibernateStore store;
+
+        /**
+         * The context the session was opened for.
+         */
+        private final XWikiContext context;
+
+        /**
+         * Number of rows returned so far.
+         */
+        private int count;
+
+        /**
+         * Whether the current position of the scrollable results has already been returned.
+         */
+        private boolean consumed = true;
+
+        /**
+         * Whether the last call to {@link ScrollableResults#next()} found a row.
+         */
+        private boolean hasRow;
+
+        /**
+         * Whether the session has been released.
+         */
+        private boolean closed;
+
+        /**
+         * @param results the scrolled results
+         * @param session the session the results are scrolled from
+         * @param store the store which opened the session
+         * @param context the context the session was opened for
+         */
+        ScrollableQueryResultIterator(ScrollableResults results, Session session, XWikiHibernateStore store,
+            XWikiContext context)
+        {
+            this.results = results;
+            this.session = session;
+            this.store = store;
+            this.context = context;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (this.closed) {
+                return false;
+            }
+
+            if (this.consumed) {
+                // Don't keep the entities of the already returned rows in the session
+                if (this.count > 0 && this.count % STREAM_FETCH_SIZE == 0) {
+                    this.session.clear();
+                }
+                this.hasRow = this.results.next();
+                this.consumed = false;
+                if (!this.hasRow) {
+                    close();
+                }
+            }
+
+            return this.hasRow;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            this.count++;
+            this.consumed = true;
+            Object[] row = this.results.get();
+
+            return (T) (row.length == 1 ? row[0] : row);
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("Query results can't be removed");
+        }
+
+        @Override
+        public void close()
+        {
+            if (!this.closed) {
+                this.closed = true;
+                try {
+                    this.results.close();
+                } finally {
+                    this.store.closeIndependentSession(this.session, this.context);
+                }
+            }
+        }
+    }
+
     /**
      * Append the required select clause to HQL short query statements. Short statements are the only way for users
      * without programming rights to perform queries. Such statements can be for example:
@@ -163,24 +350,39 @@ protected org.hibernate.Query createHibernateQuery(Session session, Query query)
                 }
             }
             hquery = session.createQuery(statement);
-        } else {
+        } else if (query.getFilters() == null || query.getFilters().isEmpty()) {
             hquery = session.getNamedQuery(query.getStatement());
-            if (query.getFilters() != null && !query.getFilters().isEmpty()) {
-                // Since we can't modify the hibernate query statement at this point we need to create a new one to
-                // apply the query filter. This comes with a performance cost, we could fix it by handling named queries
-                // ourselves and not delegate them to hibernate. This way we would always get a statement that we can
-                // transform before the execution.
-                statement = hquery.getQueryString();
-                for (QueryFilter filter : query.getFilters()) {
-                    statement = filter.filterStatement(statement, Query.HQL);
-                }
-                hquery = session.createQuery(statement);
+        } else {
+            // Since we can't modify the hibernate query statement once it's created we need to create a new one from
+            // the named query statement to apply the query filters. The named query statements are remembered so that
+            // the named query is not created for nothing, and the compiled form of the filtered statement is cached by
+            // hibernate's query plan cache.
+            statement = getNamedQueryStatement(session, query.getStatement());
+            for (QueryFilter filter : query.getFilters()) {
+                statement = filter.filterStatement(statement, Query.HQL);
             }
+            hquery = session.createQuery(statement);
         }
 
         return hquery;
     }
 
+    /**
+     * @param session hibernate session
+     * @param queryName the name of the query
+     * @return the statement of the named query
+     */
+    private String getNamedQueryStatement(Session session, String queryName)
+    {
+        String statement = this.namedQueryStatements.get(queryName);
+        if (statement == null) {
+            statement = session.getNamedQuery(queryName).getQueryString();
+            this.namedQueryStatements.put(queryName, statement);
+        }
+
+        return statement;
+    }
+
     /**
      * @param hquery query to populate parameters
      * @param query query from to populate.
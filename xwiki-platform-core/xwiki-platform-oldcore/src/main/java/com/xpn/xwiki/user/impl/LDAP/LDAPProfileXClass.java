@@ -51,6 +51,26 @@
 
     public static final String LDAP_XFIELDPN_UID = "LDAP user unique identifier";
 
+    /**
+     * @since 4.2M3
+     */
+    public static final String LDAP_XFIELD_HASH = "hash";
+
+    /**
+     * @since 4.2M3
+     */
+    public static final String LDAP_XFIELDPN_HASH = "LDAP attributes hash";
+
+    /**
+     * @since 4.2M3
+     */
+    public static final String LDAP_XFIELD_GROUPSHASH = "groupshash";
+
+    /**
+     * @since 4.2M3
+     */
+    public static final String LDAP_XFIELDPN_GROUPSHASH = "LDAP groups membership hash";
+
     /**
      * The XWiki space where users are stored.
      */
@@ -75,6 +95,8 @@ public LDAPProfileXClass(XWikiContext context) throws XWikiException
 
         boolean needsUpdate = this.ldapClass.addTextField(LDAP_XFIELD_DN, LDAP_XFIELDPN_DN, 80);
         needsUpdate |= this.ldapClass.addTextField(LDAP_XFIELD_UID, LDAP_XFIELDPN_UID, 80);
+        needsUpdate |= this.ldapClass.addTextField(LDAP_XFIELD_HASH, LDAP_XFIELDPN_HASH, 32);
+        needsUpdate |= this.ldapClass.addTextField(LDAP_XFIELD_GROUPSHASH, LDAP_XFIELDPN_GROUPSHASH, 32);
 
         if (needsUpdate) {
             context.getWiki().saveDocument(ldapClassDoc, "Update LDAP user profile class", context);
@@ -125,6 +147,72 @@ public String getUid(BaseObject ldapObject)
         return uid.length() == 0 ? null : uid;
     }
 
+    /**
+     * @param userDocument the user profile page.
+     * @return the hash of the LDAP attributes the user profile was last synchronized with, null if there's none.
+     * @since 4.2M3
+     */
+    public String getHash(XWikiDocument userDocument)
+    {
+        return getStringValue(userDocument, LDAP_XFIELD_HASH);
+    }
+
+    /**
+     * @param userDocument the user profile page.
+     * @return the hash of the LDAP groups membership the user was last synchronized with, null if there's none.
+     * @since 4.2M3
+     */
+    public String getGroupsHash(XWikiDocument userDocument)
+    {
+        return getStringValue(userDocument, LDAP_XFIELD_GROUPSHASH);
+    }
+
+    /**
+     * Remember the LDAP groups membership the user was synchronized with, so that the synchronization can be skipped
+     * until it changes.
+     * 
+     * @param userDocument the user profile page to update.
+     * @param groupsHash the hash of the LDAP groups membership.
+     * @return true if modifications has been made to provided user profile, false otherwise.
+     * @since 4.2M3
+     */
+    public boolean updateGroupsHash(XWikiDocument userDocument, String groupsHash)
+    {
+        return updateStringValue(userDocument, LDAP_XFIELD_GROUPSHASH, groupsHash);
+    }
+
+    /**
+     * @param userDocument the user profile page.
+     * @param fieldName the name of the field of the LDAP profile object.
+     * @return the value of the field, null if it can't find any or if it's empty.
+     */
+    private String getStringValue(XWikiDocument userDocument, String fieldName)
+    {
+        BaseObject ldapObject = userDocument.getObject(this.ldapClass.getName());
+
+        String value = ldapObject == null ? null : ldapObject.getStringValue(fieldName);
+
+        return value == null || value.length() == 0 ? null : value;
+    }
+
+    /**
+     * @param userDocument the user profile page to update.
+     * @param fieldName the name of the field of the LDAP profile object.
+     * @param value the value to store.
+     * @return true if modifications has been made to provided user profile, false otherwise.
+     */
+    private boolean updateStringValue(XWikiDocument userDocument, String fieldName, String value)
+    {
+        if (value.equals(getStringValue(userDocument, fieldName))) {
+            return false;
+        }
+
+        BaseObject ldapObject = userDocument.getObject(this.ldapClass.getName(), true, this.context);
+        ldapObject.setStringValue(fieldName, value);
+
+        return true;
+    }
+
     /**
      * Update or create LDAP profile of an existing user profile with provided LDAP user informations.
      * 
@@ -180,6 +268,26 @@ public boolean updateLDAPObject(XWikiDocument userDocument, String dn, String ui
         return needsUpdate;
     }
 
+    /**
+     * Update LDAP profile object with provided LDAP user informations and the hash of the LDAP attributes they come
+     * from.
+     * 
+     * @param userDocument the user profile page to update.
+     * @param dn the dn to store in the LDAP profile.
+     * @param uid the uid to store in the LDAP profile.
+     * @param hash the hash of the LDAP attributes the user profile is synchronized with.
+     * @return true if modifications has been made to provided user profile, false otherwise.
+     * @since 4.2M3
+     */
+    public boolean updateLDAPObject(XWikiDocument userDocument, String dn, String uid, String hash)
+    {
+        boolean needsUpdate = updateLDAPObject(userDocument, dn, uid);
+
+        needsUpdate |= updateStringValue(userDocument, LDAP_XFIELD_HASH, hash);
+
+        return needsUpdate;
+    }
+
     /**
      * Search the XWiki storage for a existing user profile with provided LDAP user uid stored.
      * <p>
@@ -222,6 +330,34 @@ public XWikiDocument searchDocumentByUid(String uid)
         return doc;
     }
 
+    /**
+     * Search the XWiki storage for all the user profiles with a LDAP DN stored.
+     * 
+     * @return the LDAP DN of the users, indexed by user profile full name.
+     * @throws XWikiException error when searching the user profiles.
+     * @since 4.2M3
+     */
+    public Map<String, String> searchDns() throws XWikiException
+    {
+        String hql =
+            "select doc.fullName, prop.value from XWikiDocument as doc, BaseObject as obj, StringProperty as prop"
+                + " where doc.fullName=obj.name and obj.className=? and obj.id=prop.id.id and prop.name=?";
+
+        List<Object[]> results =
+            this.context.getWiki().getStore()
+                .search(hql, 0, 0, Arrays.asList(this.ldapClass.getName(), LDAP_XFIELD_DN), this.context);
+
+        Map<String, String> dns = new HashMap<String, String>();
+        for (Object[] result : results) {
+            String dn = (String) result[1];
+            if (dn != null && dn.length() > 0) {
+                dns.put((String) result[0], dn);
+            }
+        }
+
+        return dns;
+    }
+
     /**
      * Search the LDAP user DN stored in an existing user profile with provided LDAP user uid stored.
      * <p>
@@ -21,13 +21,26 @@
 
 import java.io.UnsupportedEncodingException;
 import java.security.Principal;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.securityfilter.realm.SimplePrincipal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.ApplicationStoppedEvent;
+import org.xwiki.observation.event.Event;
 
 import com.novell.ldap.LDAPException;
 import com.xpn.xwiki.XWikiContext;
@@ -38,6 +51,7 @@
 import com.xpn.xwiki.plugin.ldap.XWikiLDAPSearchAttribute;
 import com.xpn.xwiki.plugin.ldap.XWikiLDAPUtils;
 import com.xpn.xwiki.user.impl.xwiki.XWikiAuthServiceImpl;
+import com.xpn.xwiki.web.Utils;
 
 /**
  * This class provides an authentication method that validates a user trough LDAP against a directory. It gives LDAP
@@ -69,6 +83,28 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiLDAPAuthServiceImpl.class);
 
+    /**
+     * The xwiki.cfg property holding the interval in seconds between two synchronizations of the groups membership of
+     * all the LDAP users.
+     */
+    private static final String GROUP_SYNC_INTERVAL = "xwiki.authentication.ldap.group_sync_interval";
+
+    /**
+     * The wikis where LDAP users logged in, whose groups membership is periodically synchronized.
+     */
+    private final Set<String> groupSyncWikis = new CopyOnWriteArraySet<String>();
+
+    /**
+     * Run the periodic synchronization of the groups membership, created on first LDAP login when the synchronization
+     * is enabled and shut down when it's disabled or when the application stops.
+     */
+    private ScheduledExecutorService groupSyncExecutor;
+
+    /**
+     * Indicate if the listener stopping the periodic synchronization of the groups membership has been registered.
+     */
+    private boolean groupSyncStopListenerRegistered;
+
     @Override
     public Principal authenticate(String login, String password, XWikiContext context) throws XWikiException
     {
@@ -278,13 +314,7 @@ protected Principal ldapAuthenticateInContext(String ldapUid, String validXWikiU
         XWikiLDAPConfig config = XWikiLDAPConfig.getInstance();
 
         XWikiLDAPConnection connector = new XWikiLDAPConnection();
-        XWikiLDAPUtils ldapUtils = new XWikiLDAPUtils(connector);
-
-        ldapUtils.setUidAttributeName(config.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UID, LDAP_DEFAULT_UID, context));
-        ldapUtils.setGroupClasses(config.getGroupClasses(context));
-        ldapUtils.setGroupMemberFields(config.getGroupMemberFields(context));
-        ldapUtils.setBaseDN(config.getLDAPParam("ldap_base_DN", "", context));
-        ldapUtils.setUserSearchFormatString(config.getLDAPParam("ldap_user_search_fmt", "({0}={1})", context));
+        XWikiLDAPUtils ldapUtils = createLDAPUtils(connector, context);
 
         // ////////////////////////////////////////////////////////////////////
         // 1. check if ldap authentication is off => authenticate against db
@@ -307,134 +337,167 @@ protected Principal ldapAuthenticateInContext(String ldapUid, String validXWikiU
                 "Bind to LDAP server failed.");
         }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 3. find XWiki user profile page
-        // ////////////////////////////////////////////////////////////////////
+        try {
+            // ////////////////////////////////////////////////////////////////////
+            // 3. find XWiki user profile page
+            // ////////////////////////////////////////////////////////////////////
 
-        XWikiDocument userProfile = ldapUtils.getUserProfileByUid(validXWikiUserName, ldapUid, context);
+            XWikiDocument userProfile = ldapUtils.getUserProfileByUid(validXWikiUserName, ldapUid, context);
 
-        // ////////////////////////////////////////////////////////////////////
-        // 4. if group param, verify group membership (& get DN)
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 4. if group param, verify group membership (& get DN)
+            // ////////////////////////////////////////////////////////////////////
 
-        String ldapDn = null;
-        String filterGroupDN = config.getLDAPParam("ldap_user_group", "", context);
+            String ldapDn = null;
+            String filterGroupDN = config.getLDAPParam("ldap_user_group", "", context);
 
-        if (filterGroupDN.length() > 0) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Checking if the user belongs to the user group: " + filterGroupDN);
-            }
+            if (filterGroupDN.length() > 0) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Checking if the user belongs to the user group: " + filterGroupDN);
+                }
 
-            ldapDn = ldapUtils.isUidInGroup(ldapUid, filterGroupDN, context);
+                ldapDn = ldapUtils.isUidInGroup(ldapUid, filterGroupDN, context);
 
-            if (ldapDn == null) {
-                throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
-                    "LDAP user {0} does not belong to LDAP group {1}.", null, new Object[] {ldapUid, filterGroupDN});
+                if (ldapDn == null) {
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
+                        "LDAP user {0} does not belong to LDAP group {1}.", null,
+                        new Object[] {ldapUid, filterGroupDN});
+                }
             }
-        }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 5. if exclude group param, verify group membership
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 5. if exclude group param, verify group membership
+            // ////////////////////////////////////////////////////////////////////
 
-        String excludeGroupDN = config.getLDAPParam("ldap_exclude_group", "", context);
+            String excludeGroupDN = config.getLDAPParam("ldap_exclude_group", "", context);
 
-        if (excludeGroupDN.length() > 0) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Checking if the user does not belongs to the exclude group: " + excludeGroupDN);
-            }
+            if (excludeGroupDN.length() > 0) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Checking if the user does not belongs to the exclude group: " + excludeGroupDN);
+                }
 
-            if (ldapUtils.isUidInGroup(ldapUid, excludeGroupDN, context) != null) {
-                throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
-                    "LDAP user {0} should not belong to LDAP group {1}.", null, new Object[] {ldapUid, filterGroupDN});
+                if (ldapUtils.isUidInGroup(ldapUid, excludeGroupDN, context) != null) {
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
+                        "LDAP user {0} should not belong to LDAP group {1}.", null,
+                        new Object[] {ldapUid, filterGroupDN});
+                }
             }
-        }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 6. if no dn search for user
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 6. if no dn search for user
+            // ////////////////////////////////////////////////////////////////////
 
-        List<XWikiLDAPSearchAttribute> searchAttributes = null;
+            List<XWikiLDAPSearchAttribute> searchAttributes = null;
 
-        // if we still don't have a dn, search for it. Also get the attributes, we might need
-        // them
-        if (ldapDn == null) {
-            searchAttributes = ldapUtils.searchUserAttributesByUid(ldapUid, ldapUtils.getAttributeNameTable(context));
+            // if we still don't have a dn, search for it. Also get the attributes, we might need
+            // them
+            if (ldapDn == null) {
+                searchAttributes =
+                    ldapUtils.searchUserAttributesByUid(ldapUid, ldapUtils.getAttributeNameTable(context));
 
-            if (searchAttributes != null) {
-                for (XWikiLDAPSearchAttribute searchAttribute : searchAttributes) {
-                    if ("dn".equals(searchAttribute.name)) {
-                        ldapDn = searchAttribute.value;
+                if (searchAttributes != null) {
+                    for (XWikiLDAPSearchAttribute searchAttribute : searchAttributes) {
+                        if ("dn".equals(searchAttribute.name)) {
+                            ldapDn = searchAttribute.value;
 
-                        break;
+                            break;
+                        }
                     }
                 }
             }
-        }
-
-        if (ldapDn == null) {
-            throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
-                "Can't find LDAP user DN for [" + ldapUid + "]");
-        }
-
-        // ////////////////////////////////////////////////////////////////////
-        // 7. apply validate_password property or if user used for LDAP connection is not the one
-        // authenticated try to bind
-        // ////////////////////////////////////////////////////////////////////
-
-        if ("1".equals(config.getLDAPParam("ldap_validate_password", "0", context))) {
-            String passwordField = config.getLDAPParam("ldap_password_field", "userPassword", context);
-            if (!connector.checkPassword(ldapDn, password, passwordField)) {
-                LOGGER.debug("Password comparison failed, are you really sure you need validate_password ?"
-                    + " If you don't enable it, it does not mean user credentials are not validated."
-                    + " The goal of this property is to bypass standard LDAP bind"
-                    + " which is usually bad unless you really know what you do.");
 
+            if (ldapDn == null) {
                 throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
-                    "LDAP authentication failed:" + " could not validate the password: wrong password for " + ldapDn);
+                    "Can't find LDAP user DN for [" + ldapUid + "]");
             }
-        } else {
-            String bindDNFormat = config.getLDAPBindDN(context);
-            String bindDN = config.getLDAPBindDN(ldapUid, password, context);
 
-            if (bindDNFormat.equals(bindDN)) {
-                // Validate user credentials
-                connector.bind(ldapDn, password);
+            // ////////////////////////////////////////////////////////////////////
+            // 7. apply validate_password property or if user used for LDAP connection is not the one
+            // authenticated try to bind
+            // ////////////////////////////////////////////////////////////////////
+
+            if ("1".equals(config.getLDAPParam("ldap_validate_password", "0", context))) {
+                String passwordField = config.getLDAPParam("ldap_password_field", "userPassword", context);
+                if (!connector.checkPassword(ldapDn, password, passwordField)) {
+                    LOGGER.debug("Password comparison failed, are you really sure you need validate_password ?"
+                        + " If you don't enable it, it does not mean user credentials are not validated."
+                        + " The goal of this property is to bypass standard LDAP bind"
+                        + " which is usually bad unless you really know what you do.");
+
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
+                        "LDAP authentication failed:" + " could not validate the password: wrong password for "
+                            + ldapDn);
+                }
+            } else {
+                String bindDNFormat = config.getLDAPBindDN(context);
+                String bindDN = config.getLDAPBindDN(ldapUid, password, context);
 
-                // Rebind admin user
-                connector.bind(bindDN, config.getLDAPBindPassword(ldapUid, password, context));
+                if (bindDNFormat.equals(bindDN)) {
+                    // Validate user credentials
+                    connector.bind(ldapDn, password);
 
+                    // Rebind admin user
+                    connector.bind(bindDN, config.getLDAPBindPassword(ldapUid, password, context));
+
+                }
             }
-        }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 8. sync user
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 8. sync user
+            // ////////////////////////////////////////////////////////////////////
 
-        boolean isNewUser = userProfile.isNew();
+            boolean isNewUser = userProfile.isNew();
 
-        syncUser(userProfile, searchAttributes, ldapDn, ldapUid, ldapUtils, context);
+            syncUser(userProfile, searchAttributes, ldapDn, ldapUid, ldapUtils, context);
 
-        // from now on we can enter the application
-        if (local) {
-            principal = new SimplePrincipal(userProfile.getFullName());
-        } else {
-            principal = new SimplePrincipal(context.getDatabase() + ":" + userProfile.getFullName());
-        }
+            // from now on we can enter the application
+            if (local) {
+                principal = new SimplePrincipal(userProfile.getFullName());
+            } else {
+                principal = new SimplePrincipal(context.getDatabase() + ":" + userProfile.getFullName());
+            }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 9. sync groups membership
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 9. sync groups membership
+            // ////////////////////////////////////////////////////////////////////
 
-        try {
-            syncGroupsMembership(userProfile.getFullName(), ldapDn, isNewUser, ldapUtils, context);
-        } catch (XWikiException e) {
-            LOGGER.error("Failed to synchronise user's groups membership", e);
+            try {
+                syncGroupsMembership(userProfile.getFullName(), ldapDn, isNewUser, ldapUtils, context);
+            } catch (XWikiException e) {
+                LOGGER.error("Failed to synchronise user's groups membership", e);
+            }
+
+            scheduleGroupsMembershipSync(context);
+        } finally {
+            connector.close();
         }
 
         return principal;
     }
 
+    /**
+     * Create the LDAP communication tool configured for the current wiki.
+     * 
+     * @param connector the LDAP connection used by the tool.
+     * @param context the XWiki context.
+     * @return the LDAP communication tool.
+     * @since 4.2M3
+     */
+    protected XWikiLDAPUtils createLDAPUtils(XWikiLDAPConnection connector, XWikiContext context)
+    {
+        XWikiLDAPConfig config = XWikiLDAPConfig.getInstance();
+
+        XWikiLDAPUtils ldapUtils = new XWikiLDAPUtils(connector);
+
+        ldapUtils.setUidAttributeName(config.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UID, LDAP_DEFAULT_UID, context));
+        ldapUtils.setGroupClasses(config.getGroupClasses(context));
+        ldapUtils.setGroupMemberFields(config.getGroupMemberFields(context));
+        ldapUtils.setBaseDN(config.getLDAPParam("ldap_base_DN", "", context));
+        ldapUtils.setUserSearchFormatString(config.getLDAPParam("ldap_user_search_fmt", "({0}={1})", context));
+
+        return ldapUtils;
+    }
+
     /**
      * Update or create XWiki user base on LDAP.
      * 
@@ -497,4 +560,205 @@ protected void syncGroupsMembership(String xwikiUserName, String userDN, Map<Str
         ldapUtils.syncGroupsMembership(xwikiUserName, userDN, groupMappings, context);
     }
 
+    /**
+     * Register the current wiki for the periodic synchronization of the groups membership of all the LDAP users, and
+     * start the synchronization when it's enabled in xwiki.cfg.
+     * 
+     * @param context the XWiki context.
+     */
+    private void scheduleGroupsMembershipSync(XWikiContext context)
+    {
+        long interval = context.getWiki().ParamAsLong(GROUP_SYNC_INTERVAL, 0);
+        if (interval <= 0) {
+            return;
+        }
+
+        this.groupSyncWikis.add(context.getDatabase());
+
+        synchronized (this) {
+            if (this.groupSyncExecutor == null) {
+                this.groupSyncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable, "LDAP groups synchronization");
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+
+                if (!this.groupSyncStopListenerRegistered) {
+                    registerGroupsMembershipSyncStopListener();
+                    this.groupSyncStopListenerRegistered = true;
+                }
+
+                scheduleGroupsMembershipSync(this.groupSyncExecutor, interval);
+            }
+        }
+    }
+
+    /**
+     * Schedule the next synchronization of the groups membership, or stop the synchronization when it has been
+     * disabled.
+     * 
+     * @param executor the executor running the synchronization.
+     * @param interval the interval in seconds before the next synchronization, 0 to stop the synchronization.
+     */
+    private synchronized void scheduleGroupsMembershipSync(final ScheduledExecutorService executor,
+        final long interval)
+    {
+        if (executor != this.groupSyncExecutor) {
+            // The synchronization has been stopped
+            return;
+        }
+
+        if (interval <= 0) {
+            LOGGER.debug("Stopping the periodic LDAP groups synchronization");
+
+            stopGroupsMembershipSync();
+
+            return;
+        }
+
+        executor.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // The interval is read again on each run so that it can be changed without restarting
+                scheduleGroupsMembershipSync(executor, syncGroupsMembership(interval));
+            }
+        }, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the periodic synchronization of the groups membership. It's started again on next LDAP login if it's still
+     * enabled.
+     */
+    private synchronized void stopGroupsMembershipSync()
+    {
+        if (this.groupSyncExecutor != null) {
+            this.groupSyncExecutor.shutdownNow();
+            this.groupSyncExecutor = null;
+        }
+    }
+
+    /**
+     * Stop the periodic synchronization of the groups membership when the application stops.
+     */
+    private void registerGroupsMembershipSyncStopListener()
+    {
+        Utils.getComponent(ObservationManager.class).addListener(new EventListener()
+        {
+            @Override
+            public String getName()
+            {
+                return "LDAPGroupsSynchronizationStopListener@" + Integer.toHexString(hashCode());
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return Collections.<Event> singletonList(new ApplicationStoppedEvent());
+            }
+
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                stopGroupsMembershipSync();
+            }
+        });
+    }
+
+    /**
+     * Synchronize the groups membership of all the LDAP users of the registered wikis, in a background thread.
+     * 
+     * @param interval the current interval in seconds between two synchronizations.
+     * @return the interval in seconds before the next synchronization, as currently configured in xwiki.cfg
+     */
+    private long syncGroupsMembership(long interval)
+    {
+        long nextInterval = interval;
+
+        ExecutionContextManager executionContextManager = Utils.getComponent(ExecutionContextManager.class);
+        Execution execution = Utils.getComponent(Execution.class);
+
+        try {
+            // The stub XWiki context is injected by XWikiStubContextInitializer
+            executionContextManager.initialize(new ExecutionContext());
+
+            XWikiContext context =
+                (XWikiContext) execution.getContext().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+
+            nextInterval = context.getWiki().ParamAsLong(GROUP_SYNC_INTERVAL, 0);
+            if (nextInterval <= 0) {
+                return nextInterval;
+            }
+
+            for (String wiki : this.groupSyncWikis) {
+                context.setDatabase(wiki);
+
+                try {
+                    syncGroupsMembership(context);
+                } catch (Exception e) {
+                    LOGGER.error("Failed to synchronize the LDAP groups membership of wiki [" + wiki + "]", e);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Failed to synchronize the LDAP groups membership", e);
+        } finally {
+            execution.removeContext();
+        }
+
+        return nextInterval;
+    }
+
+    /**
+     * Synchronize the XWiki membership of all the LDAP users of the current wiki with their LDAP membership.
+     * <p>
+     * The LDAP server is queried with the bind DN of the configuration, the synchronization is skipped when the bind DN
+     * depends on the credentials of the user logging in.
+     * 
+     * @param context the XWiki context.
+     * @throws XWikiException error when synchronizing the groups membership.
+     * @since 4.2M3
+     */
+    protected void syncGroupsMembership(XWikiContext context) throws XWikiException
+    {
+        XWikiLDAPConfig config = XWikiLDAPConfig.getInstance();
+
+        if (!config.isLDAPEnabled(context)
+            || config.getLDAPParam("ldap_mode_group_sync", "always", context).equalsIgnoreCase("create")) {
+            return;
+        }
+
+        Map<String, Set<String>> groupMappings = config.getGroupMappings(context);
+        if (groupMappings.isEmpty()) {
+            return;
+        }
+
+        String bindDN = config.getLDAPBindDN(context);
+        if (!bindDN.equals(config.getLDAPBindDN("", "", context))
+            || !config.getLDAPBindPassword(context).equals(config.getLDAPBindPassword("", "", context))) {
+            LOGGER.debug("Skipping the LDAP groups synchronization of wiki [{}]: the bind DN depends on the user",
+                context.getDatabase());
+
+            return;
+        }
+
+        XWikiLDAPConnection connector = new XWikiLDAPConnection();
+        if (!connector.open("", "", context)) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
+                "Bind to LDAP server failed.");
+        }
+
+        try {
+            createLDAPUtils(connector, context).syncGroupsMembership(groupMappings, context);
+        } finally {
+            connector.close();
+        }
+    }
+
 }
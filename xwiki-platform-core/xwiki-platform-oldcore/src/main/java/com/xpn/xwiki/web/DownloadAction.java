@@ -19,6 +19,8 @@
  */
 package com.xpn.xwiki.web;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.IllegalCharsetNameException;
@@ -36,6 +38,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.plugin.XWikiPluginManager;
 import com.xpn.xwiki.util.Util;
@@ -59,6 +62,23 @@ public class DownloadAction extends XWikiAction
     /** The format of a valid range header. */
     private static final Pattern RANGE_HEADER_PATTERN = Pattern.compile("bytes=([0-9]+)?-([0-9]+)?");
 
+    /** The name of the HTTP Header holding the entity tag of the content. */
+    private static final String ETAG_HEADER_NAME = "ETag";
+
+    /** The name of the HTTP Header that makes a range request conditional. */
+    private static final String IF_RANGE_HEADER_NAME = "If-Range";
+
+    /** The name of the HTTP Header holding the entity tags known by the client. */
+    private static final String IF_NONE_MATCH_HEADER_NAME = "If-None-Match";
+
+    /**
+     * The request attribute set by Tomcat when it can send a file directly from the disk to the socket.
+     */
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+
+    /** The prefix of the request attributes used to ask Tomcat to send a file. */
+    private static final String SENDFILE_ATTRIBUTE_PREFIX = "org.apache.tomcat.sendfile.";
+
     @Override
     public String render(XWikiContext context) throws XWikiException
     {
@@ -89,27 +109,130 @@ public String render(XWikiContext context) throws XWikiException
         XWikiPluginManager plugins = context.getWiki().getPluginManager();
         attachment = plugins.downloadAttachment(attachment, context);
 
-        long lastModifiedOnClient = request.getDateHeader("If-Modified-Since");
-        long lastModifiedOnServer = attachment.getDate().getTime();
-        if (lastModifiedOnClient != -1 && lastModifiedOnClient >= lastModifiedOnServer) {
+        String etag = getETag(attachment, request);
+        if (isNotModified(attachment, etag, request)) {
+            response.setHeader(ETAG_HEADER_NAME, etag);
             response.setStatus(XWikiResponse.SC_NOT_MODIFIED);
             return null;
         }
 
         // Sending the content of the attachment
-        if (request.getHeader(RANGE_HEADER_NAME) != null) {
+        if (request.getHeader(RANGE_HEADER_NAME) != null && isRangeApplicable(attachment, etag, request)) {
             try {
-                if (sendPartialContent(attachment, request, response, context)) {
+                if (sendPartialContent(attachment, etag, request, response, context)) {
                     return null;
                 }
             } catch (IOException ex) {
                 // Broken response...
             }
         }
-        sendContent(attachment, request, response, filename, context);
+        sendContent(attachment, etag, request, response, filename, context);
         return null;
     }
 
+    /**
+     * Compute a strong entity tag for the attachment content. The attachment identifier, version and date change
+     * whenever the content changes, and the query string is included since plugins can transform the content based on
+     * request parameters (e.g. image resizing).
+     * 
+     * @param attachment the attachment being downloaded
+     * @param request the current client request
+     * @return the entity tag, including the quotes
+     */
+    private static String getETag(XWikiAttachment attachment, XWikiRequest request)
+    {
+        StringBuilder etag = new StringBuilder();
+        etag.append('"');
+        etag.append(Long.toHexString(attachment.getId()));
+        etag.append('-').append(attachment.getVersion());
+        etag.append('-').append(Long.toHexString(attachment.getDate().getTime()));
+        String queryString = request.getQueryString();
+        if (StringUtils.isNotEmpty(queryString)) {
+            etag.append('-').append(Integer.toHexString(queryString.hashCode()));
+        }
+        etag.append('"');
+
+        return etag.toString();
+    }
+
+    /**
+     * Check the conditional headers of the request. As required by RFC 2616, {@code If-None-Match} takes precedence
+     * over {@code If-Modified-Since}.
+     * 
+     * @param attachment the attachment being downloaded
+     * @param etag the entity tag of the attachment content
+     * @param request the current client request
+     * @return true if the client already has the current version of the content
+     */
+    private static boolean isNotModified(XWikiAttachment attachment, String etag, XWikiRequest request)
+    {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER_NAME);
+        if (ifNoneMatch != null) {
+            return "*".equals(ifNoneMatch.trim()) || ifNoneMatch.contains(etag);
+        }
+
+        long lastModifiedOnClient = request.getDateHeader("If-Modified-Since");
+        long lastModifiedOnServer = attachment.getDate().getTime();
+
+        return lastModifiedOnClient != -1 && lastModifiedOnClient >= lastModifiedOnServer;
+    }
+
+    /**
+     * Check the {@code If-Range} header, which asks to send the whole content instead of the requested range when the
+     * content changed.
+     * 
+     * @param attachment the attachment being downloaded
+     * @param etag the entity tag of the attachment content
+     * @param request the current client request
+     * @return true if the range can be sent
+     */
+    private static boolean isRangeApplicable(XWikiAttachment attachment, String etag, XWikiRequest request)
+    {
+        String ifRange = request.getHeader(IF_RANGE_HEADER_NAME);
+        if (ifRange == null) {
+            return true;
+        }
+
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag.equals(ifRange.trim());
+        }
+
+        try {
+            // HTTP dates don't have milliseconds
+            return request.getDateHeader(IF_RANGE_HEADER_NAME) / 1000 >= attachment.getDate().getTime() / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param attachment the attachment being downloaded
+     * @param context the current request context
+     * @return the local file holding the attachment content when the attachment store provides one, null otherwise
+     * @throws XWikiException if the attachment content cannot be retrieved
+     */
+    private static File getContentFile(XWikiAttachment attachment, XWikiContext context) throws XWikiException
+    {
+        // Make sure the content is loaded
+        attachment.getContentSize(context);
+        XWikiAttachmentContent content = attachment.getAttachment_content();
+
+        return content != null ? content.getContentFile() : null;
+    }
+
+    /**
+     * @param attachment the attachment being downloaded
+     * @param file the local file holding the attachment content, if any
+     * @param context the current request context
+     * @return the size of the attachment content, which can be bigger than 2GB when it's stored in a file
+     * @throws XWikiException if the attachment content cannot be retrieved
+     */
+    private static long getContentSize(XWikiAttachment attachment, File file, XWikiContext context)
+        throws XWikiException
+    {
+        return file != null ? file.length() : attachment.getContentSize(context);
+    }
+
     /**
      * Respond to a range request, either with the requested bytes, or with a {@code 416 REQUESTED RANGE NOT
      * SATISFIABLE} response if the requested byte range falls outside the length of the attachment. If the range
@@ -117,6 +240,7 @@ public String render(XWikiContext context) throws XWikiException
      * action handler ignore the Range header and treat this as a normal (full) download request.
      * 
      * @param attachment the attachment to get content from
+     * @param etag the entity tag of the attachment content
      * @param request the current client request
      * @param response the response to write to.
      * @param context the current request context
@@ -126,6 +250,7 @@ public String render(XWikiContext context) throws XWikiException
      * @throws IOException if the response cannot be written
      */
     private static boolean sendPartialContent(final XWikiAttachment attachment,
+        final String etag,
         final XWikiRequest request,
         final XWikiResponse response,
         final XWikiContext context)
@@ -134,23 +259,25 @@ private static boolean sendPartialContent(final XWikiAttachment attachment,
         String range = request.getHeader(RANGE_HEADER_NAME);
         Matcher m = RANGE_HEADER_PATTERN.matcher(range);
         if (m.matches()) {
+            File file = getContentFile(attachment, context);
+            long size = getContentSize(attachment, file, context);
             String startStr = m.group(1);
             String endStr = m.group(2);
             Long start = NumberUtils.createLong(startStr);
             Long end = NumberUtils.createLong(endStr);
             if (start == null && end != null && end > 0) {
                 // Tail request, output the last <end> bytes
-                start = Math.max(attachment.getContentSize(context) - end, 0L);
-                end = attachment.getContentSize(context) - 1L;
+                start = Math.max(size - end, 0L);
+                end = size - 1L;
             }
             if (!isValidRange(start, end)) {
                 return false;
             }
             if (end == null) {
-                end = attachment.getContentSize(context) - 1L;
+                end = size - 1L;
             }
-            end = Math.min(end, attachment.getContentSize(context) - 1L);
-            writeByteRange(attachment, start, end, request, response, context);
+            end = Math.min(end, size - 1L);
+            writeByteRange(attachment, file, size, start, end, etag, request, response, context);
             return true;
         }
         return false;
@@ -161,41 +288,103 @@ private static boolean sendPartialContent(final XWikiAttachment attachment,
      * limits.
      * 
      * @param attachment the attachment to get content from
+     * @param file the local file holding the attachment content, null if there is none
+     * @param size the size of the attachment content
      * @param start the first byte to write
      * @param end the last byte to write
+     * @param etag the entity tag of the attachment content
      * @param request the current client request
      * @param response the response to write to.
      * @param context the current request context
      * @throws XWikiException if the attachment content cannot be retrieved
      * @throws IOException if the response cannot be written
      */
-    private static void writeByteRange(final XWikiAttachment attachment, Long start, Long end,
+    private static void writeByteRange(final XWikiAttachment attachment, File file, long size, Long start, Long end,
+        final String etag,
         final XWikiRequest request,
         final XWikiResponse response,
         final XWikiContext context)
         throws XWikiException, IOException
     {
-        if (start >= 0 && start < attachment.getContentSize(context)) {
-            InputStream data = attachment.getContentInputStream(context);
-            data = new BoundedInputStream(data, end + 1);
-            data.skip(start);
-            setCommonHeaders(attachment, request, response, context);
+        if (start >= 0 && start < size) {
+            setCommonHeaders(attachment, etag, request, response, context);
             response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-            if ((end - start + 1L) < Integer.MAX_VALUE) {
-                response.setContentLength((int) (end - start + 1));
-            }
-            response.setHeader("Content-Range", "bytes " + start + "-" + end + SEPARATOR
-                + attachment.getContentSize(context));
-            IOUtils.copyLarge(data, response.getOutputStream());
+            setContentLength(end - start + 1L, response);
+            response.setHeader("Content-Range", "bytes " + start + "-" + end + SEPARATOR + size);
+            writeContent(attachment, file, start, end, request, response, context);
         } else {
             response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
         }
     }
 
+    /**
+     * Write a part of the attachment content to the response. When the content is stored in a local file and the
+     * servlet container supports sending files directly (Tomcat sendfile), the file is left to the container, which is
+     * the only case where the content does not go through the heap. Otherwise the content is copied through a heap
+     * buffer to the servlet output stream, starting with a seek to the beginning of the range when it's read from a
+     * local file instead of reading and skipping all the bytes before it.
+     * 
+     * @param attachment the attachment to get content from
+     * @param file the local file holding the attachment content, null if there is none
+     * @param start the first byte to write
+     * @param end the last byte to write
+     * @param request the current client request
+     * @param response the response to write to.
+     * @param context the current request context
+     * @throws XWikiException if the attachment content cannot be retrieved
+     * @throws IOException if the response cannot be written
+     */
+    private static void writeContent(XWikiAttachment attachment, File file, long start, long end,
+        XWikiRequest request, XWikiResponse response, XWikiContext context) throws XWikiException, IOException
+    {
+        if (file != null) {
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+                request.setAttribute(SENDFILE_ATTRIBUTE_PREFIX + "filename", file.getAbsolutePath());
+                request.setAttribute(SENDFILE_ATTRIBUTE_PREFIX + "start", Long.valueOf(start));
+                // The end is exclusive
+                request.setAttribute(SENDFILE_ATTRIBUTE_PREFIX + "end", Long.valueOf(end + 1));
+            } else {
+                FileInputStream stream = new FileInputStream(file);
+                try {
+                    // The servlet output stream is not a channel so transferTo would copy through a buffer too
+                    stream.getChannel().position(start);
+                    IOUtils.copyLarge(new BoundedInputStream(stream, end - start + 1), response.getOutputStream());
+                } finally {
+                    IOUtils.closeQuietly(stream);
+                }
+            }
+        } else {
+            InputStream data = attachment.getContentInputStream(context);
+            try {
+                data = new BoundedInputStream(data, end + 1);
+                data.skip(start);
+                IOUtils.copyLarge(data, response.getOutputStream());
+            } finally {
+                IOUtils.closeQuietly(data);
+            }
+        }
+    }
+
+    /**
+     * Set the length of the response, including for contents bigger than 2GB.
+     * 
+     * @param length the length of the content to send
+     * @param response the response to write to.
+     */
+    private static void setContentLength(long length, XWikiResponse response)
+    {
+        if (length < Integer.MAX_VALUE) {
+            response.setContentLength((int) length);
+        } else {
+            response.setHeader("Content-Length", String.valueOf(length));
+        }
+    }
+
     /**
      * Send the attachment content in the response.
      * 
      * @param attachment the attachment to get content from
+     * @param etag the entity tag of the attachment content
      * @param request the current client request
      * @param response the response to write to.
      * @param filename the filename to show in the message in case an exception needs to be thrown
@@ -203,6 +392,7 @@ private static void writeByteRange(final XWikiAttachment attachment, Long start,
      * @throws XWikiException if something goes wrong
      */
     private static void sendContent(final XWikiAttachment attachment,
+        final String etag,
         final XWikiRequest request,
         final XWikiResponse response,
         final String filename,
@@ -211,10 +401,19 @@ private static void sendContent(final XWikiAttachment attachment,
     {
         InputStream stream = null;
         try {
-            setCommonHeaders(attachment, request, response, context);
-            response.setContentLength(attachment.getContentSize(context));
-            stream = attachment.getContentInputStream(context);
-            IOUtils.copy(stream, response.getOutputStream());
+            setCommonHeaders(attachment, etag, request, response, context);
+            File file = getContentFile(attachment, context);
+            if (file != null) {
+                long size = file.length();
+                setContentLength(size, response);
+                if (size > 0) {
+                    writeContent(attachment, file, 0, size - 1, request, response, context);
+                }
+            } else {
+                response.setContentLength(attachment.getContentSize(context));
+                stream = attachment.getContentInputStream(context);
+                IOUtils.copy(stream, response.getOutputStream());
+            }
         } catch (XWikiException e) {
             Object[] args = {filename};
             throw new XWikiException(XWikiException.MODULE_XWIKI_APP,
@@ -255,11 +454,13 @@ private static String getFileName(final String path, final String action)
      * Set the response HTTP headers common to both partial (Range) and full responses.
      * 
      * @param attachment the attachment to get content from
+     * @param etag the entity tag of the attachment content
      * @param request the current client request
      * @param response the response to write to.
      * @param context the current request context
      */
     private static void setCommonHeaders(final XWikiAttachment attachment,
+        final String etag,
         final XWikiRequest request,
         final XWikiResponse response,
         final XWikiContext context)
@@ -291,6 +492,7 @@ private static void setCommonHeaders(final XWikiAttachment attachment,
         response.addHeader("Content-disposition", dispType + "; filename*=utf-8''" + ofilename);
 
         response.setDateHeader("Last-Modified", attachment.getDate().getTime());
+        response.setHeader(ETAG_HEADER_NAME, etag);
         // Advertise that downloads can be resumed
         response.setHeader("Accept-Ranges", "bytes");
     }
@@ -19,18 +19,29 @@
  */
 package com.xpn.xwiki.web;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.export.html.HtmlPackager;
+import com.xpn.xwiki.internal.export.ExportJobManager;
+import com.xpn.xwiki.internal.export.ExportJobStatus;
+import com.xpn.xwiki.internal.export.ExportTask;
 import com.xpn.xwiki.internal.export.OfficeExporter;
 import com.xpn.xwiki.internal.export.OfficeExporterURLFactory;
 import com.xpn.xwiki.pdf.api.PdfExport;
@@ -42,6 +53,10 @@
 
 /**
  * Exports in XAR, PDF, RTF or HTML formats.
+ * <p>
+ * With {@code async=true} the export is queued to run in the background (see {@link ExportJobManager}) and its status
+ * is sent as JSON. The status is then available with {@code job=<id>} and the result with
+ * {@code job=<id>&download=true}.
  * 
  * @version $Id$
  */
@@ -55,11 +70,12 @@ public String render(XWikiContext context) throws XWikiException
         try {
             XWikiRequest request = context.getRequest();
             String format = request.get("format");
+            String job = request.get("job");
 
-            if ((format == null) || (format.equals("xar"))) {
-                defaultPage = exportXAR(context);
-            } else if (format.equals("html")) {
-                defaultPage = exportHTML(context);
+            if (job != null) {
+                defaultPage = handleJob(job, context);
+            } else if ("true".equals(request.get("async")) && canExportInBackground(format, context)) {
+                defaultPage = submitJob(format, context);
             } else {
                 defaultPage = export(format, context);
             }
@@ -71,6 +87,166 @@ public String render(XWikiContext context) throws XWikiException
         return defaultPage;
     }
 
+    /**
+     * Export the current document (or the requested pages) in the given format to the response.
+     * 
+     * @param format the export format
+     * @param context the XWiki context
+     * @return the template to render, null if the export was written to the response
+     * @throws XWikiException error when exporting
+     * @throws IOException error when writing the export
+     */
+    private String export(String format, XWikiContext context) throws XWikiException, IOException
+    {
+        String defaultPage;
+
+        if ((format == null) || (format.equals("xar"))) {
+            defaultPage = exportXAR(context);
+        } else if (format.equals("html")) {
+            defaultPage = exportHTML(context);
+        } else {
+            defaultPage = exportOffice(format, context);
+        }
+
+        return defaultPage;
+    }
+
+    /**
+     * @param format the export format
+     * @param context the XWiki context
+     * @return true if the export produces a file, false if it renders a template (missing rights or parameters)
+     * @throws XWikiException error when checking the rights of the current user
+     */
+    private boolean canExportInBackground(String format, XWikiContext context) throws XWikiException
+    {
+        if ((format == null) || (format.equals("xar"))) {
+            return context.getRequest().get("name") != null
+                && context.getWiki().getRightService().hasAdminRights(context);
+        }
+
+        return true;
+    }
+
+    /**
+     * Queue the export so that it runs in the background and send its status, or a 503 status code if the current
+     * user has too many unfinished exports or if the queue is full.
+     * 
+     * @param format the export format
+     * @param context the XWiki context
+     * @return always null
+     * @throws IOException error when writing the response
+     * @since 4.2M3
+     */
+    private String submitJob(final String format, XWikiContext context) throws IOException
+    {
+        ExportJobStatus job =
+            Utils.getComponent(ExportJobManager.class).submit(format != null ? format : "xar", new ExportTask()
+            {
+                @Override
+                public void export(XWikiContext jobContext) throws XWikiException, IOException
+                {
+                    ExportAction.this.export(format, jobContext);
+                }
+            }, context);
+
+        if (job == null) {
+            JSONObject json = new JSONObject();
+            json.put("error", "Too many exports are running, please try again later");
+            sendJSON(json, HttpServletResponse.SC_SERVICE_UNAVAILABLE, context);
+        } else {
+            sendJobStatus(job, HttpServletResponse.SC_ACCEPTED, context);
+        }
+
+        return null;
+    }
+
+    /**
+     * Send the status of an export running in the background, or its result when {@code download=true} is requested.
+     * Only the user who asked for the export can access it.
+     * 
+     * @param id the identifier of the export
+     * @param context the XWiki context
+     * @return always null
+     * @throws IOException error when writing the response
+     * @since 4.2M3
+     */
+    private String handleJob(String id, XWikiContext context) throws IOException
+    {
+        ExportJobStatus job = Utils.getComponent(ExportJobManager.class).getJobStatus(id);
+        XWikiResponse response = context.getResponse();
+
+        if (job == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        } else if (!StringUtils.equals(job.getUser(), context.getUser())) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+        } else if (!"true".equals(context.getRequest().get("download"))) {
+            sendJobStatus(job, HttpServletResponse.SC_OK, context);
+        } else if (job.getState() != ExportJobStatus.State.DONE) {
+            sendJobStatus(job, HttpServletResponse.SC_CONFLICT, context);
+        } else {
+            File file = job.getFile();
+            if (job.getContentType() != null) {
+                response.setContentType(job.getContentType());
+            }
+            if (job.getContentDisposition() != null) {
+                response.addHeader("Content-disposition", job.getContentDisposition());
+            }
+            // The exported file can be bigger than 2GB
+            response.setHeader("Content-Length", String.valueOf(file.length()));
+
+            InputStream stream = new FileInputStream(file);
+            try {
+                IOUtils.copy(stream, response.getOutputStream());
+            } finally {
+                IOUtils.closeQuietly(stream);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param job an export running in the background
+     * @param status the HTTP status code to send
+     * @param context the XWiki context
+     * @throws IOException error when writing the response
+     */
+    private void sendJobStatus(ExportJobStatus job, int status, XWikiContext context) throws IOException
+    {
+        JSONObject json = new JSONObject();
+        json.put("id", job.getId());
+        json.put("format", job.getFormat());
+        json.put("document", job.getDocument());
+        json.put("state", job.getState().name());
+        json.put("submitDate", job.getSubmitDate().getTime());
+        if (job.getStartDate() != null) {
+            json.put("startDate", job.getStartDate().getTime());
+        }
+        if (job.getEndDate() != null) {
+            json.put("endDate", job.getEndDate().getTime());
+        }
+        if (job.getError() != null) {
+            json.put("error", String.valueOf(job.getError().getMessage()));
+        }
+
+        sendJSON(json, status, context);
+    }
+
+    /**
+     * @param json the JSON object to send
+     * @param status the HTTP status code to send
+     * @param context the XWiki context
+     * @throws IOException error when writing the response
+     */
+    private void sendJSON(JSONObject json, int status, XWikiContext context) throws IOException
+    {
+        XWikiResponse response = context.getResponse();
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding(context.getWiki().getEncoding());
+        response.getWriter().print(json.toString());
+    }
+
     /**
      * Create ZIP archive containing wiki pages rendered in HTML, attached files and used skins.
      * 
@@ -172,7 +348,7 @@ private String exportHTML(XWikiContext context) throws XWikiException, IOExcepti
         return null;
     }
 
-    private String export(String format, XWikiContext context) throws XWikiException, IOException
+    private String exportOffice(String format, XWikiContext context) throws XWikiException, IOException
     {
         // We currently use the PDF export infrastructure but we have to redesign the export code.
         XWikiURLFactory urlFactory = new OfficeExporterURLFactory();
@@ -67,16 +67,18 @@ public String render(XWikiContext context) throws XWikiException
                 response.setContentType("text/xml");
                 response.setCharacterEncoding(encoding);
                 XWikiAttachment packFile = doc.getAttachment(name);
-                importer.Import(packFile.getContentInputStream(context));
+                importer.ImportStreaming(packFile.getContentInputStream(context));
+                importer.releasePackageFile();
                 String xml = importer.toXml();
                 byte[] result = xml.getBytes(encoding);
                 response.setContentLength(result.length);
                 response.getOutputStream().write(result);
                 return null;
             } else if ("import".equals(action)) {
-                // Do the actual import
+                // Do the actual import, reading the documents from the package only when installing them so that large
+                // packages don't have to fit in memory
                 XWikiAttachment packFile = doc.getAttachment(name);
-                importer.Import(packFile.getContentInputStream(context));
+                importer.ImportStreaming(packFile.getContentInputStream(context));
                 String all = request.get("all");
                 if (!"1".equals(all)) {
                     if (pages != null) {
@@ -139,6 +141,7 @@ public String render(XWikiContext context) throws XWikiException
                         return "admin";
                     }
                 }
+                importer.releasePackageFile();
             }
         } catch (Exception e) {
             throw new XWikiException(XWikiException.MODULE_XWIKI_APP, XWikiException.ERROR_XWIKI_APP_EXPORT,
@@ -20,6 +20,7 @@
 package com.xpn.xwiki.web;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Date;
@@ -331,15 +332,27 @@ public boolean renderFileFromAttachment(String filename, XWikiDocument doc, XWik
             XWikiResponse response = context.getResponse();
             String mimetype = xwiki.getEngineContext().getMimeType(filename.toLowerCase());
             if (isCssMimeType(mimetype) || isJavascriptMimeType(mimetype)) {
-                byte[] data = attachment.getContent(context);
+                // The whole text has to be evaluated, but there's no need to hold its raw bytes too.
                 // Always force UTF-8, as this is the assumed encoding for text files.
-                data = context.getWiki().parseContent(new String(data, ENCODING), context).getBytes(ENCODING);
+                InputStream stream = attachment.getContentInputStream(context);
+                String rawContent;
+                try {
+                    rawContent = IOUtils.toString(stream, ENCODING);
+                } finally {
+                    IOUtils.closeQuietly(stream);
+                }
+                byte[] data = context.getWiki().parseContent(rawContent, context).getBytes(ENCODING);
                 response.setCharacterEncoding(ENCODING);
                 setupHeaders(response, mimetype, attachment.getDate(), data.length);
                 response.getOutputStream().write(data);
             } else {
                 setupHeaders(response, mimetype, attachment.getDate(), attachment.getContentSize(context));
-                IOUtils.copy(attachment.getContentInputStream(context), response.getOutputStream());
+                InputStream stream = attachment.getContentInputStream(context);
+                try {
+                    IOUtils.copyLarge(stream, response.getOutputStream());
+                } finally {
+                    IOUtils.closeQuietly(stream);
+                }
             }
             return true;
         } else {
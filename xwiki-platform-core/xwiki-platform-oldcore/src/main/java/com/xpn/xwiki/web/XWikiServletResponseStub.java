@@ -51,6 +51,18 @@ public void write(int b) throws IOException
         {
             outputStream.write(b);
         }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            outputStream.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            outputStream.flush();
+        }
     };
 
     public void setOutpuStream(OutputStream outputStream)
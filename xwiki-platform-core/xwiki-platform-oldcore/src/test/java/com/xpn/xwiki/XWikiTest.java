@@ -27,6 +27,7 @@
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -51,6 +52,9 @@
 import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.StringProperty;
 import com.xpn.xwiki.objects.classes.PropertyClass;
+import com.xpn.xwiki.store.VoidAttachmentVersioningStore;
+import com.xpn.xwiki.store.XWikiAttachmentStoreInterface;
+import com.xpn.xwiki.store.XWikiHibernateAttachmentStore;
 import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.store.XWikiHibernateVersioningStore;
 import com.xpn.xwiki.store.XWikiStoreInterface;
@@ -336,6 +340,150 @@ public void testSaveDocumentSendsObservationEvents() throws Exception
         this.xwiki.saveDocument(document, getContext());
     }
 
+    /**
+     * Verify that the save notifications sent for the code saving documents directly with the store are sent in the
+     * wiki of the document, like with the saveDocument API.
+     */
+    public void testNotifyDocumentSavedInDocumentWiki() throws Exception
+    {
+        Mock mockListener = mock(EventListener.class);
+        mockListener.stubs().method("getName").will(returnValue("testlistener"));
+        DocumentReference ref = new DocumentReference("otherwiki", "Some", "Document");
+        mockListener.expects(once()).method("getEvents")
+            .will(returnValue(Arrays.asList(new DocumentCreatedEvent(ref), new DocumentCreatingEvent(ref))));
+
+        ObservationManager om = getComponentManager().getInstance(ObservationManager.class);
+        om.addListener((EventListener) mockListener.proxy());
+
+        final List<String> wikis = new ArrayList<String>();
+        mockListener.expects(exactly(2)).method("onEvent").will(new CustomStub("Records the current wiki")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                wikis.add(((XWikiContext) invocation.parameterValues.get(2)).getDatabase());
+                return null;
+            }
+        });
+
+        getContext().setDatabase("xwikitest");
+        XWikiDocument document = new XWikiDocument(ref);
+
+        XWikiDocument originalDocument = this.xwiki.notifyDocumentSaving(document, getContext());
+        this.xwiki.notifyDocumentSaved(document, originalDocument, getContext());
+
+        assertTrue(originalDocument.isNew());
+        assertEquals(Arrays.asList("otherwiki", "otherwiki"), wikis);
+        assertEquals("xwikitest", getContext().getDatabase());
+    }
+
+    /**
+     * Verify that a template wiki copied in bulk sends a creation notification for each copied document and
+     * translation, from the new wiki.
+     */
+    public void testCopyTemplateWikiInBulk() throws Exception
+    {
+        setHibernateAttachmentStores();
+
+        this.mockXWikiStore.expects(once()).method("copyWikiData")
+            .with(eq("template"), eq("newwiki"), isA(XWikiContext.class)).will(returnValue(1));
+        final List<String> searchWikis = new ArrayList<String>();
+        this.mockXWikiStore.expects(once()).method("search")
+            .with(eq("select doc.fullName, doc.language from XWikiDocument as doc"), eq(0), eq(0),
+                isA(XWikiContext.class)).will(new CustomStub("Lists the copied documents")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    searchWikis.add(((XWikiContext) invocation.parameterValues.get(3)).getDatabase());
+                    return Arrays.asList(new Object[] {"Space.Page", ""}, new Object[] {"Space.Page", "fr"});
+                }
+            });
+
+        Mock mockListener = mock(EventListener.class);
+        mockListener.stubs().method("getName").will(returnValue("testlistener"));
+        DocumentReference reference = new DocumentReference("newwiki", "Space", "Page");
+        mockListener.expects(once()).method("getEvents")
+            .will(returnValue(Arrays.asList(new DocumentCreatedEvent(reference))));
+
+        ObservationManager om = getComponentManager().getInstance(ObservationManager.class);
+        om.addListener((EventListener) mockListener.proxy());
+
+        final List<String> notifications = new ArrayList<String>();
+        mockListener.expects(exactly(2)).method("onEvent").with(isA(DocumentCreatedEvent.class),
+            isA(XWikiDocument.class), isA(XWikiContext.class)).will(new CustomStub("Records the notifications")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                XWikiDocument document = (XWikiDocument) invocation.parameterValues.get(1);
+                notifications.add(document.getDocumentReference() + ":" + document.getLanguage() + ":"
+                    + document.getOriginalDocument().isNew() + ":"
+                    + ((XWikiContext) invocation.parameterValues.get(2)).getDatabase());
+                return null;
+            }
+        });
+
+        getContext().setDatabase("xwikitest");
+
+        assertEquals(1, this.xwiki.copyTemplateWiki("template", "newwiki", getContext()));
+
+        assertEquals(Arrays.asList("newwiki"), searchWikis);
+        assertEquals(Arrays.asList("newwiki:Space.Page::true:newwiki", "newwiki:Space.Page:fr:true:newwiki"),
+            notifications);
+        assertEquals("xwikitest", getContext().getDatabase());
+    }
+
+    /**
+     * Verify that a template wiki which can't be copied in bulk is copied document by document.
+     */
+    public void testCopyTemplateWikiFallsBackOnDocumentCopy() throws Exception
+    {
+        setHibernateAttachmentStores();
+
+        this.mockXWikiStore.expects(once()).method("copyWikiData")
+            .with(eq("template"), eq("newwiki"), isA(XWikiContext.class)).will(returnValue(-1));
+        expectDocumentByDocumentCopy("template");
+
+        assertEquals(0, this.xwiki.copyTemplateWiki("template", "newwiki", getContext()));
+    }
+
+    /**
+     * Verify that the bulk copy is not used when it's disabled in the configuration.
+     */
+    public void testCopyTemplateWikiWithBulkCopyDisabled() throws Exception
+    {
+        setHibernateAttachmentStores();
+        this.xwiki.getConfig().setProperty("xwiki.store.hibernate.bulkcopy", "0");
+
+        this.mockXWikiStore.expects(never()).method("copyWikiData");
+        expectDocumentByDocumentCopy("template");
+
+        assertEquals(0, this.xwiki.copyTemplateWiki("template", "newwiki", getContext()));
+    }
+
+    private void setHibernateAttachmentStores()
+    {
+        Mock mockAttachmentStore = mock(XWikiHibernateAttachmentStore.class);
+        this.xwiki.setAttachmentStore((XWikiAttachmentStoreInterface) mockAttachmentStore.proxy());
+        this.xwiki.setAttachmentVersioningStore(new VoidAttachmentVersioningStore());
+    }
+
+    private void expectDocumentByDocumentCopy(final String sourceWiki)
+    {
+        this.mockXWikiStore.expects(once()).method("search")
+            .with(eq("select distinct doc.fullName from XWikiDocument as doc"), eq(0), eq(0),
+                isA(XWikiContext.class)).will(new CustomStub("Lists the documents to copy")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    assertEquals(sourceWiki, ((XWikiContext) invocation.parameterValues.get(3)).getDatabase());
+                    return Collections.emptyList();
+                }
+            });
+    }
+
     /**
      * We only verify here that the deleteDocument API calls the Observation component.
      */
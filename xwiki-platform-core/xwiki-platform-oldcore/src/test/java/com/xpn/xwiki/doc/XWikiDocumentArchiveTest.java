@@ -19,8 +19,11 @@
  */
 package com.xpn.xwiki.doc;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
 import org.jmock.Mock;
 import org.suigeneris.jrcs.rcs.Version;
 import org.xwiki.model.reference.DocumentReference;
@@ -29,6 +32,7 @@
 import com.xpn.xwiki.XWikiConfig;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeInfo;
 import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
 import com.xpn.xwiki.user.api.XWikiRightService;
 
@@ -326,6 +330,124 @@ public void testVerifyDiffAndFullRevisionAlgorithm() throws Exception
         assertFalse(archive.getNode(new Version(6, 1)).isDiff());
     }
 
+    public void testAppendToPartialArchive() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        String author = "XWiki.some author";
+
+        for (int i = 1; i <= 10; ++i) {
+            addRevisionToHistory(archive, doc, "content " + i + ".1", author, i + ".1");
+        }
+
+        XWikiDocumentArchive fullArchive = new XWikiDocumentArchive(doc.getId());
+        fullArchive.setArchive(archive.getArchive(context));
+
+        // Only keep the latest version and the versions which can be part of its chain of patches
+        XWikiDocumentArchive partialArchive = new XWikiDocumentArchive(doc.getId());
+        partialArchive.setArchive(archive.getArchive(context));
+        List<XWikiRCSNodeInfo> tail = new ArrayList<XWikiRCSNodeInfo>(partialArchive.getNodes()).subList(0, 5);
+        partialArchive.setNodes(new ArrayList<XWikiRCSNodeInfo>(tail));
+
+        for (int i = 11; i <= 13; ++i) {
+            addRevisionToHistory(fullArchive, doc, "content " + i + ".1", author, i + ".1");
+            addRevisionToHistory(partialArchive, doc, "content " + i + ".1", author, i + ".1");
+            assertEquals(fullArchive.getLatestVersion(), partialArchive.getLatestVersion());
+            for (XWikiRCSNodeInfo node : partialArchive.getNodes()) {
+                assertEquals(fullArchive.getNode(node.getVersion()).isDiff(), node.isDiff());
+            }
+        }
+
+        // 10.1 is kept as a full version since 6.1 to 9.1 are patches
+        assertFalse(fullArchive.getNode(new Version(10, 1)).isDiff());
+        assertTrue(fullArchive.getNode(new Version(11, 1)).isDiff());
+    }
+
+    public void testLoadVersionsInAnyOrder() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        String author = "XWiki.some author";
+
+        for (int i = 1; i <= 12; ++i) {
+            addRevisionToHistory(archive, doc, "content\n" + i + ".1", author, i + ".1");
+        }
+
+        // Reconstructed versions are reused to get older versions
+        for (int i : new int[] {3, 4, 2, 9, 8, 1, 3, 12}) {
+            assertEquals("content\n" + i + ".1", archive.loadDocument(new Version(i, 1), context).getContent());
+        }
+    }
+
+    public void testSnapshotVersion() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        String author = "XWiki.some author";
+
+        for (int i = 1; i <= 4; ++i) {
+            addRevisionToHistory(archive, doc, "content " + i + ".1", author, i + ".1");
+        }
+
+        assertEquals(3, archive.getDiffChainLength(new Version(1, 1)));
+        assertEquals(0, archive.getDiffChainLength(new Version(4, 1)));
+
+        archive.getUpdatedNodeContents().clear();
+        archive.snapshotVersion(new Version(2, 1), context);
+
+        assertFalse(archive.getNode(new Version(2, 1)).isDiff());
+        assertEquals(1, archive.getUpdatedNodeContents().size());
+        assertEquals(1, archive.getDiffChainLength(new Version(1, 1)));
+        assertEquals(0, archive.getDiffChainLength(new Version(2, 1)));
+        for (int i = 1; i <= 4; ++i) {
+            assertEquals("content " + i + ".1", archive.loadDocument(new Version(i, 1), context).getContent());
+        }
+    }
+
+    public void testSnapshotMarkedVersions() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        String author = "XWiki.some author";
+
+        for (int i = 1; i <= 4; ++i) {
+            addRevisionToHistory(archive, doc, "content " + i + ".1", author, i + ".1");
+        }
+
+        // Marking a version doesn't modify the archive
+        archive.getUpdatedNodeContents().clear();
+        archive.addVersionToSnapshot(new Version(2, 1));
+        assertTrue(archive.getNode(new Version(2, 1)).isDiff());
+        assertTrue(archive.getUpdatedNodeContents().isEmpty());
+
+        archive.snapshotVersions(context);
+
+        assertFalse(archive.getNode(new Version(2, 1)).isDiff());
+        assertEquals(1, archive.getUpdatedNodeContents().size());
+
+        // The marked versions are only stored once
+        archive.getUpdatedNodeContents().clear();
+        archive.snapshotVersions(context);
+        assertTrue(archive.getUpdatedNodeContents().isEmpty());
+    }
+
+    public void testLoadLargeVersionsInAnyOrder() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        String author = "XWiki.some author";
+
+        // Versions too large to all be kept in memory
+        String largeContent = StringUtils.repeat("large line\n", 40000);
+        for (int i = 1; i <= 6; ++i) {
+            addRevisionToHistory(archive, doc, largeContent + i + ".1", author, i + ".1");
+        }
+
+        for (int i : new int[] {3, 1, 2, 5, 4, 1, 6}) {
+            assertEquals(largeContent + i + ".1", archive.loadDocument(new Version(i, 1), context).getContent());
+        }
+    }
+
     private void addRevisionToHistory(XWikiDocumentArchive archive, XWikiDocument document, String content,
         String author, String comment) throws XWikiException
     {
@@ -0,0 +1,208 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for {@link OffHeapDocumentCache}.
+ * 
+ * @version $Id$
+ */
+public class OffHeapDocumentCacheTest extends AbstractBridgedComponentTestCase
+{
+    private OffHeapDocumentCache cache;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(xwiki);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(xwiki).getEncoding();
+                will(returnValue("UTF-8"));
+            }
+        });
+
+        this.cache = new OffHeapDocumentCache(4 * OffHeapDocumentCache.BLOCK_SIZE);
+    }
+
+    @Test
+    public void testSetAndGetDocument()
+    {
+        XWikiDocument document = new XWikiDocument(new DocumentReference("xwiki", "Space", "Page"));
+        document.setTitle("title");
+        document.setContent("content");
+
+        Assert.assertNull(this.cache.get(document));
+        Assert.assertTrue(this.cache.set(document, getContext()));
+
+        XWikiDocument storedDocument = this.cache.get(document);
+        Assert.assertNotSame(document, storedDocument);
+        Assert.assertEquals(document.getDocumentReference(), storedDocument.getDocumentReference());
+        Assert.assertEquals("title", storedDocument.getTitle());
+        Assert.assertEquals("content", storedDocument.getContent());
+        Assert.assertEquals(1, this.cache.getStatistics().getLoadCount());
+        Assert.assertEquals(1, this.cache.getStatistics().getHitCount());
+        Assert.assertEquals(1, this.cache.getStatistics().getMissCount());
+    }
+
+    @Test
+    public void testSetAndGetData()
+    {
+        byte[] data = new byte[OffHeapDocumentCache.BLOCK_SIZE + 1];
+        data[0] = 1;
+        data[data.length - 1] = 2;
+
+        Assert.assertTrue(this.cache.setData("key", data));
+
+        Assert.assertArrayEquals(data, this.cache.getData("key"));
+        Assert.assertEquals(2 * OffHeapDocumentCache.BLOCK_SIZE, this.cache.getUsedSize());
+        Assert.assertEquals(1, this.cache.getStatistics().getSize());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed()
+    {
+        this.cache.setData("key1", new byte[] {1});
+        this.cache.setData("key2", new byte[OffHeapDocumentCache.BLOCK_SIZE]);
+        this.cache.setData("key3", new byte[] {3});
+        this.cache.getData("key1");
+
+        this.cache.setData("key4", new byte[3 * OffHeapDocumentCache.BLOCK_SIZE]);
+
+        Assert.assertArrayEquals(new byte[] {1}, this.cache.getData("key1"));
+        Assert.assertNull(this.cache.getData("key2"));
+        Assert.assertNull(this.cache.getData("key3"));
+        Assert.assertNotNull(this.cache.getData("key4"));
+        Assert.assertEquals(2, this.cache.getStatistics().getEvictionCount());
+        Assert.assertEquals(4 * OffHeapDocumentCache.BLOCK_SIZE, this.cache.getUsedSize());
+    }
+
+    @Test
+    public void testTooLarge()
+    {
+        Assert.assertFalse(this.cache.setData("key", new byte[5 * OffHeapDocumentCache.BLOCK_SIZE]));
+        Assert.assertNull(this.cache.getData("key"));
+    }
+
+    @Test
+    public void testRemove()
+    {
+        this.cache.setData("key1", new byte[] {1});
+        this.cache.setData("key2", new byte[] {2});
+
+        this.cache.remove("key1");
+
+        Assert.assertFalse(this.cache.contains("key1"));
+        Assert.assertArrayEquals(new byte[] {2}, this.cache.getData("key2"));
+        Assert.assertEquals(OffHeapDocumentCache.BLOCK_SIZE, this.cache.getUsedSize());
+
+        this.cache.removeAll();
+
+        Assert.assertFalse(this.cache.contains("key2"));
+        Assert.assertEquals(0, this.cache.getUsedSize());
+    }
+
+    @Test
+    public void testDocumentRemovedWhileBeingSerializedIsNotStored() throws Exception
+    {
+        final CountDownLatch serializing = new CountDownLatch(1);
+        final CountDownLatch removed = new CountDownLatch(1);
+        final XWikiDocument document = new XWikiDocument(new DocumentReference("xwiki", "Space", "Page"))
+        {
+            @Override
+            public void toXML(OutputStream out, boolean bWithObjects, boolean bWithRendering,
+                boolean bWithAttachmentContent, boolean bWithVersions, XWikiContext context) throws XWikiException,
+                IOException
+            {
+                serializing.countDown();
+                try {
+                    removed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.toXML(out, bWithObjects, bWithRendering, bWithAttachmentContent, bWithVersions, context);
+            }
+        };
+        final long generation = this.cache.getGeneration(document.getKey());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> set = executor.submit(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call()
+                {
+                    return OffHeapDocumentCacheTest.this.cache.set(document, generation, getContext());
+                }
+            });
+
+            Assert.assertTrue(serializing.await(10, TimeUnit.SECONDS));
+            // The document is modified or deleted while the evicted version is being serialized.
+            this.cache.remove(document.getKey());
+            removed.countDown();
+
+            Assert.assertFalse(set.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertFalse(this.cache.contains(document.getKey()));
+        Assert.assertNull(this.cache.get(document));
+
+        // The next versions of the document can be stored.
+        Assert.assertTrue(this.cache.set(document, getContext()));
+        Assert.assertTrue(this.cache.contains(document.getKey()));
+    }
+
+    @Test
+    public void testSetDataWithOutdatedGeneration()
+    {
+        long generation = this.cache.getGeneration("key");
+        this.cache.remove("key");
+
+        Assert.assertFalse(this.cache.setData("key", new byte[] {1}, generation));
+        Assert.assertNull(this.cache.getData("key"));
+        Assert.assertTrue(this.cache.setData("key", new byte[] {1}, this.cache.getGeneration("key")));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for {@link XWikiDocumentWeigher}.
+ * 
+ * @version $Id$
+ */
+public class XWikiDocumentWeigherTest extends AbstractBridgedComponentTestCase
+{
+    private XWikiDocumentWeigher weigher = new XWikiDocumentWeigher();
+
+    @Test
+    public void testWeighGrowsWithTheDocument() throws Exception
+    {
+        XWikiDocument document = new XWikiDocument(new DocumentReference("wiki", "space", "page"));
+
+        long emptyWeight = this.weigher.weigh("key", document);
+        Assert.assertTrue(emptyWeight > 0);
+
+        document.setContent("content");
+        long contentWeight = this.weigher.weigh("key", document);
+        Assert.assertTrue(contentWeight > emptyWeight);
+
+        BaseObject object = new BaseObject();
+        object.setXClassReference(new DocumentReference("wiki", "space", "class"));
+        object.setStringValue("property", "value");
+        document.addXObject(object);
+        long objectWeight = this.weigher.weigh("key", document);
+        Assert.assertTrue(objectWeight > contentWeight);
+
+        document.getAttachmentList().add(new XWikiAttachment(document, "file.txt"));
+        Assert.assertTrue(this.weigher.weigh("key", document) > objectWeight);
+    }
+
+    @Test
+    public void testWeighLargeContent() throws Exception
+    {
+        XWikiDocument document = new XWikiDocument(new DocumentReference("wiki", "space", "page"));
+        document.setContent(new String(new char[1000000]));
+
+        Assert.assertTrue(this.weigher.weigh("key", document) >= 2000000);
+    }
+}
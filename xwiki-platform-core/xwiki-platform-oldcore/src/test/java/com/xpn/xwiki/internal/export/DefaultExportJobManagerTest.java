@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Expectations;
+import org.jmock.States;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.test.MockConfigurationSource;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for {@link DefaultExportJobManager}.
+ *
+ * @version $Id$
+ */
+public class DefaultExportJobManagerTest extends AbstractBridgedComponentTestCase
+{
+    private ExportJobManager manager;
+
+    private Synchroniser synchroniser = new Synchroniser();
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        // The exports run in other threads
+        getMockery().setThreadingPolicy(this.synchroniser);
+
+        final ExecutionContextManager mockExecutionContextManager =
+            registerMockComponent(ExecutionContextManager.class);
+        getMockery().checking(new Expectations()
+        {{
+            allowing(mockExecutionContextManager).initialize(with(any(ExecutionContext.class)));
+        }});
+
+        MockConfigurationSource configuration =
+            getComponentManager().getInstance(ConfigurationSource.class, "xwikiproperties");
+        configuration.setProperty("export.async.threads", 1);
+        configuration.setProperty("export.async.maxJobsPerUser", 1);
+
+        getContext().setUser("XWiki.user");
+
+        this.manager = getComponentManager().getInstance(ExportJobManager.class);
+    }
+
+    private void waitForJob(ExportJobStatus job) throws InterruptedException
+    {
+        for (int i = 0; i < 100 && !job.isDone(); ++i) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testExport() throws Exception
+    {
+        ExportJobStatus job = this.manager.submit("pdf", new ExportTask()
+        {
+            @Override
+            public void export(XWikiContext context) throws XWikiException, IOException
+            {
+                context.getResponse().setContentType("application/pdf");
+                context.getResponse().addHeader("Content-disposition", "inline; filename=Space_Page.pdf");
+                context.getResponse().getOutputStream().write("content".getBytes());
+            }
+        }, getContext());
+
+        Assert.assertNotNull(job);
+        Assert.assertSame(job, this.manager.getJobStatus(job.getId()));
+        Assert.assertEquals("XWiki.user", job.getUser());
+
+        waitForJob(job);
+
+        Assert.assertEquals(ExportJobStatus.State.DONE, job.getState());
+        Assert.assertEquals("application/pdf", job.getContentType());
+        Assert.assertEquals("inline; filename=Space_Page.pdf", job.getContentDisposition());
+        File file = job.getFile();
+        Assert.assertEquals("content", FileUtils.readFileToString(file));
+
+        this.manager.remove(job.getId());
+
+        Assert.assertNull(this.manager.getJobStatus(job.getId()));
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testStoreIsCleanedUpAfterExport() throws Exception
+    {
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(xwiki);
+        final XWikiStoreInterface store = getMockery().mock(XWikiStoreInterface.class);
+        final States storeState = getMockery().states("store").startsAs("used");
+        getMockery().checking(new Expectations()
+        {{
+            allowing(xwiki).getStore();
+            will(returnValue(store));
+            oneOf(store).cleanUp(with(any(XWikiContext.class)));
+            then(storeState.is("cleaned"));
+        }});
+
+        ExportJobStatus job = this.manager.submit("pdf", new ExportTask()
+        {
+            @Override
+            public void export(XWikiContext context) throws XWikiException, IOException
+            {
+                context.getResponse().getOutputStream().write("content".getBytes());
+            }
+        }, getContext());
+
+        this.synchroniser.waitUntil(storeState.is("cleaned"), 5000);
+
+        Assert.assertEquals(ExportJobStatus.State.DONE, job.getState());
+    }
+
+    @Test
+    public void testFailedExport() throws Exception
+    {
+        ExportJobStatus job = this.manager.submit("pdf", new ExportTask()
+        {
+            @Override
+            public void export(XWikiContext context) throws XWikiException, IOException
+            {
+                context.getResponse().getOutputStream().write("partial".getBytes());
+                throw new IOException("failure");
+            }
+        }, getContext());
+
+        waitForJob(job);
+
+        Assert.assertEquals(ExportJobStatus.State.FAILED, job.getState());
+        Assert.assertEquals("failure", job.getError().getMessage());
+        Assert.assertNull(job.getFile());
+    }
+
+    @Test
+    public void testMaxJobsPerUser() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ExportTask blockingTask = new ExportTask()
+        {
+            @Override
+            public void export(XWikiContext context) throws XWikiException, IOException
+            {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+        };
+
+        ExportJobStatus job = this.manager.submit("xar", blockingTask, getContext());
+        Assert.assertNotNull(job);
+        Assert.assertNull(this.manager.submit("xar", blockingTask, getContext()));
+
+        // Other users are not limited by the exports of the current user
+        getContext().setUser("XWiki.otheruser");
+        ExportJobStatus otherJob = this.manager.submit("xar", blockingTask, getContext());
+        Assert.assertNotNull(otherJob);
+
+        latch.countDown();
+        waitForJob(job);
+        waitForJob(otherJob);
+
+        Assert.assertEquals(ExportJobStatus.State.DONE, job.getState());
+        getContext().setUser("XWiki.user");
+        Assert.assertNotNull(this.manager.submit("xar", blockingTask, getContext()));
+    }
+}
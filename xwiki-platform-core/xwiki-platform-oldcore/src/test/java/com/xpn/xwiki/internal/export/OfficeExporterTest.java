@@ -0,0 +1,156 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.officeimporter.openoffice.OpenOfficeConverter;
+import org.xwiki.officeimporter.openoffice.OpenOfficeManager;
+import org.xwiki.officeimporter.openoffice.OpenOfficeManager.ManagerState;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.pdf.api.PdfExport.ExportType;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.web.XWikiServletRequestStub;
+
+/**
+ * Unit tests for {@link OfficeExporter}.
+ * 
+ * @version $Id$
+ */
+public class OfficeExporterTest extends AbstractBridgedComponentTestCase
+{
+    private OpenOfficeManager openOfficeManager;
+
+    /**
+     * The HTML given to the office converter.
+     */
+    private String convertedHTML;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(xwiki);
+        final XWikiServletRequestStub request = getMockery().mock(XWikiServletRequestStub.class);
+        getContext().setRequest(request);
+        final DocumentAccessBridge documentAccessBridge = registerMockComponent(DocumentAccessBridge.class);
+        final Environment environment = registerMockComponent(Environment.class);
+        this.openOfficeManager = registerMockComponent(OpenOfficeManager.class);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(xwiki).getEncoding();
+                will(returnValue("UTF-8"));
+                allowing(xwiki).parseTemplate("pdf.css", getContext());
+                will(returnValue("h1 { font-size: 18pt; }"));
+                allowing(request).getParameter("pdftemplate");
+                will(returnValue(null));
+                allowing(documentAccessBridge).getCurrentDocumentReference();
+                will(returnValue(new DocumentReference("xwiki", "Space", "Page")));
+                allowing(documentAccessBridge).getProperty(with(any(DocumentReference.class)),
+                    with(any(DocumentReference.class)), with(any(String.class)));
+                will(returnValue(null));
+                allowing(environment).getResource(with(any(String.class)));
+                will(returnValue(null));
+            }
+        });
+    }
+
+    @Test
+    public void testGetExportType()
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(openOfficeManager).getState();
+                will(returnValue(ManagerState.CONNECTED));
+                oneOf(openOfficeManager).getState();
+                will(returnValue(ManagerState.NOT_CONNECTED));
+            }
+        });
+
+        OfficeExporter exporter = new OfficeExporter();
+
+        ExportType type = exporter.getExportType("odt");
+        Assert.assertEquals("odt", type.getExtension());
+        Assert.assertEquals("application/vnd.oasis.opendocument.text", type.getMimeType());
+
+        Assert.assertNull(exporter.getExportType("odt"));
+    }
+
+    @Test
+    public void testExportHtml() throws Exception
+    {
+        final OpenOfficeConverter converter = getMockery().mock(OpenOfficeConverter.class);
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(openOfficeManager).getConverter();
+                will(returnValue(converter));
+                oneOf(converter).convert(with(any(Map.class)), with("export_input.html"), with("export_output.odt"));
+                will(new CustomAction("Converts the HTML")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        Map< ? , ? > inputStreams = (Map< ? , ? >) invocation.getParameter(0);
+                        convertedHTML =
+                            IOUtils.toString((InputStream) inputStreams.get("export_input.html"), "UTF-8");
+
+                        return Collections.singletonMap("export_output.odt", "office document".getBytes("UTF-8"));
+                    }
+                });
+            }
+        });
+        getContext().put("pdfexport-file-mapping", new HashMap<String, File>());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new OfficeExporter().exportHtml("<html><head><title>Title</title></head><body id=\"body\">"
+            + "<h1 id=\"HSection\">First</h1><h1 id=\"HSection\">Second</h1></body></html>", out, new ExportType(
+            "application/vnd.oasis.opendocument.text", "odt"), getContext());
+
+        Assert.assertEquals("office document", out.toString("UTF-8"));
+
+        // The XHTML is cleaned up, styled and converted to HTML by the office export XSLT.
+        Assert.assertFalse(this.convertedHTML.startsWith("<?xml"));
+        Assert.assertTrue(this.convertedHTML.contains("id=\"HSection\""));
+        Assert.assertTrue(this.convertedHTML.contains("id=\"HSection0\""));
+        Assert.assertTrue(this.convertedHTML.contains("font-size: 18pt"));
+        Assert.assertFalse(this.convertedHTML.contains("id=\"body\""));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.velocity.VelocityContext;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.velocity.VelocityEngine;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.web.XWikiEngineContext;
+
+/**
+ * Measures the time needed to render the {@code view.vm} template of the skin when its source is got from
+ * {@link DefaultTemplateSourceCache}, compared to loading it each time (the cache being flushed before each
+ * rendering). The template is rendered with a plain Velocity engine: the templates it includes are not rendered.
+ * <p>
+ * The benchmark is skipped unless the {@code xwiki.template.benchmark} system property is {@code true}. The
+ * {@code xwiki.template.benchmark.iterations} system property is the number of renderings of each measure,
+ * {@code 10000} by default. The {@code xwiki.template.benchmark.template} system property is the path of the
+ * rendered template, by default the {@code view.vm} template of the xwiki-platform-web module.
+ * 
+ * @version $Id$
+ */
+public class DefaultTemplateSourceCacheBenchmarkTest extends AbstractBridgedComponentTestCase
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultTemplateSourceCacheBenchmarkTest.class);
+
+    private static final String PROPERTY_PREFIX = "xwiki.template.benchmark";
+
+    private static final String TEMPLATE_PATH = "/templates/view.vm";
+
+    private TemplateSourceCache cache;
+
+    private VelocityEngine velocityEngine;
+
+    private int iterations;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        Assume.assumeTrue(Boolean.getBoolean(PROPERTY_PREFIX));
+
+        this.iterations = Integer.getInteger(PROPERTY_PREFIX + ".iterations", 10000);
+
+        final File file =
+            new File(System.getProperty(PROPERTY_PREFIX + ".template",
+                "../xwiki-platform-web/src/main/webapp/templates/view.vm"));
+        Assume.assumeTrue(file.isFile());
+        String content = FileUtils.readFileToString(file, "UTF-8");
+
+        XWikiDocument skinDocument = new XWikiDocument(new DocumentReference("xwiki", "XWiki", "Skin"));
+        skinDocument.setNew(false);
+        XWikiAttachment attachment = new XWikiAttachment(skinDocument, "view.vm");
+        attachment.setContent(content.getBytes("UTF-8"));
+        skinDocument.getAttachmentList().add(attachment);
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(xwiki);
+        final XWikiEngineContext engineContext = getMockery().mock(XWikiEngineContext.class);
+        final XWikiDocument skin = skinDocument;
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(xwiki).getDocument(skin.getDocumentReference(), getContext());
+                will(returnValue(skin));
+                allowing(xwiki).getEngineContext();
+                will(returnValue(engineContext));
+                allowing(engineContext).getRealPath(TEMPLATE_PATH);
+                will(returnValue(file.getAbsolutePath()));
+                allowing(xwiki).getResourceContent(TEMPLATE_PATH);
+                will(new CustomAction("read the template file")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        return FileUtils.readFileToString(file, "UTF-8");
+                    }
+                });
+            }
+        });
+
+        this.cache = getComponentManager().getInstance(TemplateSourceCache.class);
+
+        this.velocityEngine = getComponentManager().getInstance(VelocityEngine.class);
+        this.velocityEngine.initialize(new Properties());
+    }
+
+    @Test
+    public void benchmarkDocumentTemplate() throws Exception
+    {
+        // Warm up the JIT.
+        measureDocumentTemplate(false);
+        measureDocumentTemplate(true);
+
+        report("Skin document template", measureDocumentTemplate(false), measureDocumentTemplate(true));
+    }
+
+    @Test
+    public void benchmarkFileTemplate() throws Exception
+    {
+        // Warm up the JIT.
+        measureFileTemplate(false);
+        measureFileTemplate(true);
+
+        report("File template", measureFileTemplate(false), measureFileTemplate(true));
+    }
+
+    /**
+     * @param cached false to flush the cache before each call
+     * @return the duration of the measure in nanoseconds
+     */
+    private long measureDocumentTemplate(boolean cached) throws Exception
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < this.iterations; ++i) {
+            if (!cached) {
+                this.cache.flush();
+            }
+            render(this.cache.getDocumentTemplate("XWiki.Skin", "view.vm", getContext()));
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @param cached false to flush the cache before each call
+     * @return the duration of the measure in nanoseconds
+     */
+    private long measureFileTemplate(boolean cached) throws Exception
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < this.iterations; ++i) {
+            if (!cached) {
+                this.cache.flush();
+            }
+            render(this.cache.getFileTemplate(TEMPLATE_PATH, getContext()));
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private void render(String source) throws Exception
+    {
+        this.velocityEngine.evaluate(new VelocityContext(), new StringWriter(), TEMPLATE_PATH, source);
+    }
+
+    private void report(String name, long uncached, long cached)
+    {
+        LOGGER.info("{}: {} renderings, uncached {} ms ({} renderings/s), cached {} ms ({} renderings/s)",
+            new Object[] {name, this.iterations, TimeUnit.NANOSECONDS.toMillis(uncached),
+            this.iterations * 1000000000L / Math.max(1, uncached), TimeUnit.NANOSECONDS.toMillis(cached),
+            this.iterations * 1000000000L / Math.max(1, cached)});
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.web.XWikiEngineContext;
+
+/**
+ * Unit tests for {@link DefaultTemplateSourceCache}.
+ * 
+ * @version $Id$
+ */
+public class DefaultTemplateSourceCacheTest extends AbstractBridgedComponentTestCase
+{
+    private XWiki mockXWiki;
+
+    private TemplateSourceCache cache;
+
+    private XWikiDocument skinDocument;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        this.mockXWiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(this.mockXWiki);
+
+        this.skinDocument = new XWikiDocument(new DocumentReference("xwiki", "XWiki", "Skin"));
+        this.skinDocument.setNew(false);
+        XWikiAttachment attachment = new XWikiAttachment(this.skinDocument, "template.vm");
+        attachment.setContent("attachment template".getBytes());
+        this.skinDocument.getAttachmentList().add(attachment);
+
+        this.cache = getComponentManager().getInstance(TemplateSourceCache.class);
+    }
+
+    @Test
+    public void testDocumentTemplateIsCached() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {{
+            oneOf(mockXWiki).getDocument(skinDocument.getDocumentReference(), getContext());
+            will(returnValue(skinDocument));
+        }});
+
+        Assert.assertEquals("attachment template", this.cache.getDocumentTemplate("XWiki.Skin", "template.vm",
+            getContext()));
+        Assert.assertEquals("attachment template", this.cache.getDocumentTemplate("XWiki.Skin", "template.vm",
+            getContext()));
+    }
+
+    @Test
+    public void testMissingDocumentTemplateIsCached() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {{
+            oneOf(mockXWiki).getDocument(skinDocument.getDocumentReference(), getContext());
+            will(returnValue(skinDocument));
+        }});
+
+        Assert.assertNull(this.cache.getDocumentTemplate("XWiki.Skin", "missing.vm", getContext()));
+        Assert.assertNull(this.cache.getDocumentTemplate("XWiki.Skin", "missing.vm", getContext()));
+    }
+
+    @Test
+    public void testDocumentTemplateIsInvalidatedWhenSkinIsModified() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {{
+            exactly(2).of(mockXWiki).getDocument(skinDocument.getDocumentReference(), getContext());
+            will(returnValue(skinDocument));
+        }});
+
+        Assert.assertEquals("attachment template", this.cache.getDocumentTemplate("XWiki.Skin", "template.vm",
+            getContext()));
+
+        this.skinDocument.getAttachment("template.vm").setContent("modified template".getBytes());
+        ObservationManager observationManager = getComponentManager().getInstance(ObservationManager.class);
+        observationManager.notify(new DocumentUpdatedEvent(this.skinDocument.getDocumentReference()),
+            this.skinDocument, getContext());
+
+        Assert.assertEquals("modified template", this.cache.getDocumentTemplate("XWiki.Skin", "template.vm",
+            getContext()));
+    }
+
+    @Test
+    public void testFileTemplateIsReloadedWhenModified() throws Exception
+    {
+        final File file = File.createTempFile("template", ".vm");
+        file.deleteOnExit();
+        FileUtils.writeStringToFile(file, "file template");
+        file.setLastModified(10000);
+
+        final XWikiEngineContext mockEngineContext = getMockery().mock(XWikiEngineContext.class);
+        getMockery().checking(new Expectations()
+        {{
+            allowing(mockXWiki).getEngineContext();
+            will(returnValue(mockEngineContext));
+            allowing(mockEngineContext).getRealPath("/templates/template.vm");
+            will(returnValue(file.getAbsolutePath()));
+            oneOf(mockXWiki).getResourceContent("/templates/template.vm");
+            will(returnValue("file template"));
+            oneOf(mockXWiki).getResourceContent("/templates/template.vm");
+            will(returnValue("modified file template"));
+        }});
+
+        Assert.assertEquals("file template", this.cache.getFileTemplate("/templates/template.vm", getContext()));
+        Assert.assertEquals("file template", this.cache.getFileTemplate("/templates/template.vm", getContext()));
+
+        file.setLastModified(20000);
+
+        Assert.assertEquals("modified file template",
+            this.cache.getFileTemplate("/templates/template.vm", getContext()));
+    }
+}
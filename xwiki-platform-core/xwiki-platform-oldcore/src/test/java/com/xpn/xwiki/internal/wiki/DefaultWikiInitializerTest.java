@@ -0,0 +1,436 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.wiki;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.plugin.XWikiPluginManager;
+import com.xpn.xwiki.render.XWikiRenderingEngine;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for {@link DefaultWikiInitializer}.
+ *
+ * @version $Id$
+ */
+public class DefaultWikiInitializerTest extends AbstractBridgedComponentTestCase
+{
+    private XWiki mockXWiki;
+
+    private volatile XWikiPluginManager mockPluginManager;
+
+    private XWikiRenderingEngine mockRenderingEngine;
+
+    private WikiInitializer initializer;
+
+    private Map<DocumentReference, XWikiDocument> documents = new ConcurrentHashMap<DocumentReference, XWikiDocument>();
+
+    private volatile long timeout = 300;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        // Some tests initialize wikis from several threads
+        getMockery().setThreadingPolicy(new Synchroniser());
+
+        this.mockXWiki = getMockery().mock(XWiki.class);
+        this.mockPluginManager = getMockery().mock(XWikiPluginManager.class);
+        this.mockRenderingEngine = getMockery().mock(XWikiRenderingEngine.class);
+        getContext().setWiki(this.mockXWiki);
+
+        getMockery().checking(new Expectations()
+        {{
+            allowing(mockXWiki).getVersion();
+            will(returnValue("4.2"));
+            allowing(mockXWiki).Param("xwiki.init.classes.skipunchanged", "1");
+            will(returnValue("1"));
+            allowing(mockXWiki).Param("xwiki.preferences.redirect", "0");
+            will(returnValue("0"));
+            allowing(mockXWiki).ParamAsLong("xwiki.init.wikis.timeout", 300L);
+            will(new CustomAction("Returns the timeout")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    return timeout;
+                }
+            });
+            allowing(mockXWiki).getPluginManager();
+            will(new CustomAction("Returns the plugin manager")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    return mockPluginManager;
+                }
+            });
+            allowing(mockXWiki).getRenderingEngine();
+            will(returnValue(mockRenderingEngine));
+            allowing(mockXWiki).getDocument(with(any(DocumentReference.class)), with(any(XWikiContext.class)));
+            will(new CustomAction("Loads a document")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    DocumentReference reference = (DocumentReference) invocation.getParameter(0);
+                    XWikiDocument document = documents.get(reference);
+
+                    return document != null ? document : new XWikiDocument(reference);
+                }
+            });
+            allowing(mockXWiki).saveDocument(with(any(XWikiDocument.class)), with(any(String.class)),
+                with(any(Boolean.class)), with(any(XWikiContext.class)));
+            will(new CustomAction("Saves a document")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    XWikiDocument document = (XWikiDocument) invocation.getParameter(0);
+                    document.setNew(false);
+                    documents.put(document.getDocumentReference(), document);
+
+                    return null;
+                }
+            });
+        }});
+
+        this.initializer = getComponentManager().getInstance(WikiInitializer.class);
+    }
+
+    private XWikiDocument getMarkerDocument(String wiki)
+    {
+        return this.documents.get(new DocumentReference(wiki, DefaultWikiInitializer.MARKER_SPACE,
+            DefaultWikiInitializer.MARKER_PAGE));
+    }
+
+    /**
+     * Replace the mock plugin manager, to block the initialization in a test since the mocks are synchronized.
+     */
+    private void usePluginManager(XWikiPluginManager pluginManager)
+    {
+        this.mockPluginManager = pluginManager;
+    }
+
+    @Test
+    public void testInitializeOnce() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {{
+            oneOf(mockXWiki).initializeMandatoryClasses(getContext());
+            oneOf(mockPluginManager).virtualInit(getContext());
+            oneOf(mockRenderingEngine).virtualInit(getContext());
+        }});
+
+        Assert.assertNull(this.initializer.getStatus("wiki"));
+
+        this.initializer.initialize("wiki", false, true, getContext());
+        this.initializer.initialize("wiki", false, true, getContext());
+
+        WikiInitializationStatus status = this.initializer.getStatus("wiki");
+        Assert.assertEquals(WikiInitializationStatus.State.READY, status.getState());
+        Assert.assertFalse(status.isClassesSkipped());
+        Assert.assertNotNull(status.getEndDate());
+        Assert.assertEquals(1, this.initializer.getStatuses().size());
+
+        // The context is restored
+        Assert.assertEquals("xwiki", getContext().getDatabase());
+    }
+
+    @Test
+    public void testClassesAreCheckedOncePerVersion() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {{
+            oneOf(mockXWiki).initializeMandatoryClasses(getContext());
+            exactly(2).of(mockPluginManager).virtualInit(getContext());
+            exactly(2).of(mockRenderingEngine).virtualInit(getContext());
+        }});
+
+        this.initializer.initialize("wiki", false, true, getContext());
+        this.initializer.reset();
+        this.initializer.initialize("wiki", false, true, getContext());
+
+        Assert.assertTrue(this.initializer.getStatus("wiki").isClassesSkipped());
+
+        // The marker is stored in the wiki
+        XWikiDocument marker = getMarkerDocument("wiki");
+        Assert.assertTrue(marker.isHidden());
+        Assert.assertTrue(marker.getContent().startsWith("4.2-"));
+        Assert.assertTrue(marker.getContent().endsWith("-wiki"));
+    }
+
+    @Test
+    public void testClassesAreCheckedWhenOnlyTheVersionWasRemembered() throws Exception
+    {
+        XWikiDocument marker = new XWikiDocument(new DocumentReference("wiki", DefaultWikiInitializer.MARKER_SPACE,
+            DefaultWikiInitializer.MARKER_PAGE));
+        marker.setContent("4.2");
+        marker.setNew(false);
+        this.documents.put(marker.getDocumentReference(), marker);
+
+        getMockery().checking(new Expectations()
+        {{
+            oneOf(mockXWiki).initializeMandatoryClasses(getContext());
+            oneOf(mockPluginManager).virtualInit(getContext());
+            oneOf(mockRenderingEngine).virtualInit(getContext());
+        }});
+
+        this.initializer.initialize("wiki", false, true, getContext());
+
+        Assert.assertFalse(this.initializer.getStatus("wiki").isClassesSkipped());
+    }
+
+    @Test
+    public void testMarkerCopiedFromAnotherWikiIsIgnored() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {{
+            exactly(2).of(mockXWiki).initializeMandatoryClasses(with(any(XWikiContext.class)));
+            exactly(2).of(mockPluginManager).virtualInit(with(any(XWikiContext.class)));
+            exactly(2).of(mockRenderingEngine).virtualInit(with(any(XWikiContext.class)));
+        }});
+
+        this.initializer.initialize("template", false, true, getContext());
+
+        // Copy the template wiki
+        XWikiDocument marker = getMarkerDocument("template").duplicate(new DocumentReference("wiki",
+            DefaultWikiInitializer.MARKER_SPACE, DefaultWikiInitializer.MARKER_PAGE));
+        marker.setNew(false);
+        this.documents.put(marker.getDocumentReference(), marker);
+
+        this.initializer.initialize("wiki", false, true, getContext());
+
+        Assert.assertFalse(this.initializer.getStatus("wiki").isClassesSkipped());
+    }
+
+    @Test
+    public void testDeletedWikiIsFullyInitializedAgain() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {{
+            exactly(2).of(mockXWiki).initializeMandatoryClasses(getContext());
+            exactly(2).of(mockPluginManager).virtualInit(getContext());
+            exactly(2).of(mockRenderingEngine).virtualInit(getContext());
+        }});
+
+        this.initializer.initialize("wiki", false, true, getContext());
+
+        // The marker is deleted with the wiki
+        this.documents.clear();
+        this.initializer.reset("wiki");
+        Assert.assertNull(this.initializer.getStatus("wiki"));
+
+        this.initializer.initialize("wiki", false, true, getContext());
+    }
+
+    @Test
+    public void testForce() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {{
+            oneOf(mockXWiki).initializeMandatoryClasses(getContext());
+            exactly(2).of(mockPluginManager).virtualInit(getContext());
+            exactly(2).of(mockRenderingEngine).virtualInit(getContext());
+        }});
+
+        this.initializer.initialize("wiki", false, true, getContext());
+        this.initializer.initialize("wiki", true, true, getContext());
+    }
+
+    @Test
+    public void testWithoutClasses() throws Exception
+    {
+        this.initializer.initialize("wiki", false, false, getContext());
+
+        Assert.assertEquals(WikiInitializationStatus.State.READY, this.initializer.getStatus("wiki").getState());
+    }
+
+    /**
+     * A plugin manager blocking the initialization of the wikis until it's released.
+     */
+    private static class BlockingPluginManager extends XWikiPluginManager
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final CountDownLatch released = new CountDownLatch(1);
+
+        final AtomicInteger initializations = new AtomicInteger();
+
+        @Override
+        public void virtualInit(XWikiContext context)
+        {
+            this.initializations.incrementAndGet();
+            this.started.countDown();
+            try {
+                this.released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Initialize a wiki in a new thread, with its own context.
+     */
+    private Thread initializeInThread(final String wiki, final List<Throwable> errors)
+    {
+        final XWikiContext context = (XWikiContext) getContext().clone();
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    initializer.initialize(wiki, false, true, context);
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        });
+        thread.start();
+
+        return thread;
+    }
+
+    private void allowInitialization()
+    {
+        getMockery().checking(new Expectations()
+        {{
+            allowing(mockXWiki).initializeMandatoryClasses(with(any(XWikiContext.class)));
+            allowing(mockRenderingEngine).virtualInit(with(any(XWikiContext.class)));
+        }});
+    }
+
+    @Test
+    public void testConcurrentAccessWaitsForInitialization() throws Exception
+    {
+        BlockingPluginManager pluginManager = new BlockingPluginManager();
+        usePluginManager(pluginManager);
+        allowInitialization();
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread first = initializeInThread("wiki", errors);
+        Assert.assertTrue(pluginManager.started.await(10, TimeUnit.SECONDS));
+
+        Thread second = initializeInThread("wiki", errors);
+        second.join(500);
+        // The second access waits for the wiki to be ready
+        Assert.assertTrue(second.isAlive());
+        Assert.assertEquals(WikiInitializationStatus.State.INITIALIZING,
+            this.initializer.getStatus("wiki").getState());
+
+        pluginManager.released.countDown();
+        first.join(10000);
+        second.join(10000);
+
+        Assert.assertFalse(first.isAlive());
+        Assert.assertFalse(second.isAlive());
+        Assert.assertEquals(Collections.emptyList(), errors);
+        Assert.assertEquals(1, pluginManager.initializations.get());
+        Assert.assertEquals(WikiInitializationStatus.State.READY, this.initializer.getStatus("wiki").getState());
+    }
+
+    @Test
+    public void testWaitTimesOut() throws Exception
+    {
+        this.timeout = 1;
+
+        BlockingPluginManager pluginManager = new BlockingPluginManager();
+        usePluginManager(pluginManager);
+        allowInitialization();
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread first = initializeInThread("wiki", errors);
+        Assert.assertTrue(pluginManager.started.await(10, TimeUnit.SECONDS));
+
+        Thread second = initializeInThread("wiki", errors);
+        second.join(5000);
+
+        // The second access gave up waiting while the wiki is still being initialized
+        Assert.assertFalse(second.isAlive());
+        Assert.assertEquals(WikiInitializationStatus.State.INITIALIZING,
+            this.initializer.getStatus("wiki").getState());
+
+        pluginManager.released.countDown();
+        first.join(10000);
+
+        Assert.assertEquals(Collections.emptyList(), errors);
+        Assert.assertEquals(1, pluginManager.initializations.get());
+    }
+
+    @Test
+    public void testThreadsWaitingForEachOtherDoNotDeadlock() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(2);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        // The initialization of each wiki accesses the other wiki
+        usePluginManager(new XWikiPluginManager()
+        {
+            @Override
+            public void virtualInit(XWikiContext context)
+            {
+                String otherWiki = "wiki1".equals(context.getDatabase()) ? "wiki2" : "wiki1";
+                started.countDown();
+                try {
+                    started.await(10, TimeUnit.SECONDS);
+                    initializer.initialize(otherWiki, false, true, context);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (XWikiException e) {
+                    errors.add(e);
+                }
+            }
+        });
+        allowInitialization();
+
+        Thread first = initializeInThread("wiki1", errors);
+        Thread second = initializeInThread("wiki2", errors);
+        first.join(10000);
+        second.join(10000);
+
+        Assert.assertFalse(first.isAlive());
+        Assert.assertFalse(second.isAlive());
+        Assert.assertEquals(Collections.emptyList(), errors);
+        Assert.assertEquals(WikiInitializationStatus.State.READY, this.initializer.getStatus("wiki1").getState());
+        Assert.assertEquals(WikiInitializationStatus.State.READY, this.initializer.getStatus("wiki2").getState());
+    }
+}
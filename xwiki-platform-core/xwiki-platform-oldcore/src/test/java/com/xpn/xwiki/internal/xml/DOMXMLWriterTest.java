@@ -19,12 +19,20 @@
  */
 package com.xpn.xwiki.internal.xml;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
 
+import org.apache.commons.codec.binary.Base64;
 import org.dom4j.Document;
+import org.dom4j.Element;
 import org.dom4j.dom.DOMDocument;
 import org.dom4j.dom.DOMElement;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 /**
@@ -60,4 +68,79 @@ public void writeVersusWriteOpen() throws IOException
         writer.close();
         Assert.assertNull(doc.getRootElement().element("d"));
     }
+
+    private Element writeBase64(InputStream stream) throws IOException
+    {
+        Document doc = new DOMDocument();
+        DOMXMLWriter writer = new DOMXMLWriter(doc);
+        DOMElement element = new DOMElement("content");
+        writer.writeBase64(element, stream);
+        writer.close();
+
+        return doc.getRootElement();
+    }
+
+    @Test
+    public void writeBase64() throws IOException
+    {
+        Random random = new Random(42);
+        // Around the size of the chunks encoded at once
+        for (int size : new int[] {0, 1, 2, 3, 4, 3 * 8192 - 1, 3 * 8192, 3 * 8192 + 1, 100000}) {
+            byte[] content = new byte[size];
+            random.nextBytes(content);
+
+            Assert.assertEquals(String.valueOf(size), new String(Base64.encodeBase64(content), "US-ASCII"),
+                writeBase64(new ByteArrayInputStream(content)).getText());
+        }
+    }
+
+    /**
+     * Verify that the content is not buffered while being encoded: apart from the Base64 text added to the document
+     * (8 bytes for each 3 bytes of content), only a small constant amount of memory is allocated.
+     */
+    @Test
+    public void writeBase64WithBoundedHeap() throws IOException
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(hotspotBean.isThreadAllocatedMemorySupported()
+            && hotspotBean.isThreadAllocatedMemoryEnabled());
+
+        final long size = 16 * 1024 * 1024;
+        InputStream stream = new InputStream()
+        {
+            private long position;
+
+            @Override
+            public int read()
+            {
+                return this.position < size ? (int) (this.position++ & 0xff) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len)
+            {
+                if (this.position >= size) {
+                    return -1;
+                }
+                int length = (int) Math.min(len, size - this.position);
+                for (int i = 0; i < length; ++i) {
+                    b[off + i] = (byte) this.position++;
+                }
+
+                return length;
+            }
+        };
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = hotspotBean.getThreadAllocatedBytes(threadId);
+        Element element = writeBase64(stream);
+        allocated = hotspotBean.getThreadAllocatedBytes(threadId) - allocated;
+
+        // Buffering the content and its encoded bytes before creating the text would allocate more than 5 times the
+        // size of the content
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 4 * size);
+        Assert.assertEquals((size + 2) / 3 * 4, element.getText().length());
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.pdf.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.jmock.Expectations;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.pdf.api.PdfExport.ExportType;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.web.XWikiServletRequestStub;
+
+/**
+ * Measures the time and the heap needed to export large multipage documents to PDF.
+ * <p>
+ * The benchmark is skipped unless the {@code xwiki.pdf.benchmark} system property is {@code true}. The
+ * {@code xwiki.pdf.benchmark.pages} system property is the comma separated list of the number of pages of the
+ * exported documents, {@code 10,100,300} by default.
+ * 
+ * @version $Id$
+ */
+public class PdfExportImplBenchmarkTest extends AbstractBridgedComponentTestCase
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PdfExportImplBenchmarkTest.class);
+
+    private static final String PROPERTY_PREFIX = "xwiki.pdf.benchmark";
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        Assume.assumeTrue(Boolean.getBoolean(PROPERTY_PREFIX));
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(xwiki);
+        final XWikiServletRequestStub request = getMockery().mock(XWikiServletRequestStub.class);
+        getContext().setRequest(request);
+        final DocumentAccessBridge documentAccessBridge = registerMockComponent(DocumentAccessBridge.class);
+        final Environment environment = registerMockComponent(Environment.class);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(xwiki).getEncoding();
+                will(returnValue("UTF-8"));
+                allowing(xwiki).parseTemplate("pdf.css", getContext());
+                will(returnValue("h1 { font-size: 18pt; } td { border: 1px solid black; }"));
+                allowing(request).getParameter("pdftemplate");
+                will(returnValue(null));
+                allowing(documentAccessBridge).getCurrentDocumentReference();
+                will(returnValue(new DocumentReference("xwiki", "Space", "Page")));
+                allowing(documentAccessBridge).getProperty(with(any(DocumentReference.class)),
+                    with(any(DocumentReference.class)), with(any(String.class)));
+                will(returnValue(null));
+                allowing(environment).getResource(with(any(String.class)));
+                will(returnValue(null));
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkExport() throws Exception
+    {
+        PdfExportImpl export = new PdfExportImpl();
+
+        // Warm up the JIT and the compiled XSLT.
+        export.exportHtml(generateHTML(5), new NullOutputStream(), ExportType.PDF, getContext());
+
+        for (String pages : System.getProperty(PROPERTY_PREFIX + ".pages", "10,100,300").split(",")) {
+            String html = generateHTML(Integer.parseInt(pages.trim()));
+
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+
+            CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+            long start = System.nanoTime();
+            export.exportHtml(html, out, ExportType.PDF, getContext());
+            long duration = System.nanoTime() - start;
+
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                }
+            }
+
+            LOGGER.info(String.format("%s pages (%d KB of HTML): %d KB of PDF in %d ms, peak heap %d MB",
+                pages.trim(), html.length() / 1024, out.getByteCount() / 1024,
+                TimeUnit.NANOSECONDS.toMillis(duration), peakHeap / (1024 * 1024)));
+        }
+    }
+
+    /**
+     * @param pages the approximate number of pages of the exported document
+     * @return the HTML of a document with headings, paragraphs, lists and tables, as produced by pdf.vm
+     */
+    private String generateHTML(int pages)
+    {
+        StringBuilder html = new StringBuilder("<html><head><title>Benchmark</title></head><body>");
+        for (int page = 0; page < pages; ++page) {
+            // Duplicate identifiers, as when several documents are exported together.
+            html.append("<h1 id=\"HSection\">Section ").append(page).append("</h1>");
+            for (int paragraph = 0; paragraph < 5; ++paragraph) {
+                html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor ");
+                html.append("incididunt ut labore et dolore magna aliqua. <strong>Ut enim</strong> ad minim veniam, ");
+                html.append("quis nostrud <em>exercitation</em> ullamco laboris nisi ut aliquip ex ea commodo.</p>");
+            }
+            html.append("<ul>");
+            for (int item = 0; item < 5; ++item) {
+                html.append("<li>Item ").append(item).append("</li>");
+            }
+            html.append("</ul><table>");
+            for (int row = 0; row < 10; ++row) {
+                html.append("<tr>");
+                for (int column = 0; column < 4; ++column) {
+                    html.append("<td>Cell ").append(row).append('.').append(column).append("</td>");
+                }
+                html.append("</tr>");
+            }
+            html.append("</table>");
+        }
+
+        return html.append("</body></html>").toString();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.pdf.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.transform.Templates;
+
+import org.apache.velocity.VelocityContext;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.jmock.Expectations;
+import org.jmock.States;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.velocity.VelocityEngine;
+import org.xwiki.velocity.VelocityManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.pdf.api.PdfExport.ExportType;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.web.XWikiServletRequestStub;
+
+/**
+ * Unit tests for {@link PdfExportImpl}.
+ * 
+ * @version $Id$
+ */
+public class PdfExportImplTest extends AbstractBridgedComponentTestCase
+{
+    private static final String XSLT = "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" "
+        + "version=\"1.0\"><xsl:template match=\"/\"><result>%s</result></xsl:template></xsl:stylesheet>";
+
+    private static final DocumentReference CURRENT_DOCUMENT = new DocumentReference("xwiki", "Space", "Page");
+
+    private static final DocumentReference PDF_CLASS = new DocumentReference("xwiki", "XWiki", "PDFClass");
+
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * The XHTML document exported by {@link PdfExportImpl#exportHtml(String, OutputStream, ExportType, XWikiContext)},
+     * after it has been cleaned up and styled.
+     */
+    private org.dom4j.Document exportedXHTML;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(xwiki);
+        final XWikiServletRequestStub request = getMockery().mock(XWikiServletRequestStub.class);
+        getContext().setRequest(request);
+        this.documentAccessBridge = registerMockComponent(DocumentAccessBridge.class);
+        final Environment environment = registerMockComponent(Environment.class);
+        final VelocityManager velocityManager = registerMockComponent(VelocityManager.class);
+        final VelocityEngine velocityEngine = getMockery().mock(VelocityEngine.class);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(xwiki).getEncoding();
+                will(returnValue("UTF-8"));
+                allowing(xwiki).parseTemplate("pdf.css", getContext());
+                will(returnValue("h1 { font-size: 18pt; }"));
+                allowing(request).getParameter("pdftemplate");
+                will(returnValue(null));
+                allowing(documentAccessBridge).getCurrentDocumentReference();
+                will(returnValue(CURRENT_DOCUMENT));
+                allowing(environment).getResource(with(any(String.class)));
+                will(returnValue(null));
+
+                // The PDFTemplate properties are used as is.
+                allowing(velocityManager).getVelocityEngine();
+                will(returnValue(velocityEngine));
+                allowing(velocityManager).getVelocityContext();
+                will(returnValue(new VelocityContext()));
+                allowing(velocityEngine).startedUsingMacroNamespace(with(any(String.class)));
+                allowing(velocityEngine).stoppedUsingMacroNamespace(with(any(String.class)));
+                allowing(velocityEngine).evaluate(with(any(VelocityContext.class)), with(any(Writer.class)),
+                    with(any(String.class)), with(any(String.class)));
+                will(new CustomAction("Writes the evaluated content as is")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        ((Writer) invocation.getParameter(1)).write((String) invocation.getParameter(3));
+                        return true;
+                    }
+                });
+            }
+        });
+    }
+
+    private void setNoPDFTemplate()
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(documentAccessBridge).getProperty(with(any(DocumentReference.class)),
+                    with(any(DocumentReference.class)), with(any(String.class)));
+                will(returnValue(null));
+            }
+        });
+    }
+
+    private PdfExportImpl newCapturingExport()
+    {
+        return new PdfExportImpl()
+        {
+            @Override
+            protected void exportXHTML(org.dom4j.Document xhtml, OutputStream out, ExportType type,
+                XWikiContext context) throws XWikiException
+            {
+                exportedXHTML = xhtml;
+                super.exportXHTML(xhtml, out, type, context);
+            }
+        };
+    }
+
+    private void collectIds(Element element, List<String> ids)
+    {
+        String id = element.attributeValue("id");
+        if (id != null) {
+            ids.add(id);
+        }
+        for (Object child : element.elements()) {
+            collectIds((Element) child, ids);
+        }
+    }
+
+    private Element findElement(Element element, String name)
+    {
+        if (name.equals(element.getName())) {
+            return element;
+        }
+        for (Object child : element.elements()) {
+            Element found = findElement((Element) child, name);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        return null;
+    }
+
+    @Test
+    public void testExportToPDF() throws Exception
+    {
+        setNoPDFTemplate();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        newCapturingExport().exportHtml(
+            "<html><head><title>Title</title></head><body><h1>Heading</h1><p>Some <strong>content</strong></p>"
+                + "<table><tr><td>Cell</td></tr></table></body></html>", out, ExportType.PDF, getContext());
+
+        Assert.assertTrue(new String(out.toByteArray(), 0, 5, "ISO-8859-1").startsWith("%PDF-"));
+
+        // The style sheet is inlined before the XHTML is converted.
+        Element heading = findElement(this.exportedXHTML.getRootElement(), "h1");
+        Assert.assertNotNull(heading);
+        Assert.assertTrue(heading.attributeValue("style").contains("font-size: 18pt"));
+    }
+
+    @Test
+    public void testDuplicateIdsAreRenamed() throws Exception
+    {
+        setNoPDFTemplate();
+
+        newCapturingExport().exportHtml(
+            "<html><head><title>Title</title></head><body><h1 id=\"HSection\">First</h1><p id=\"p\">Text</p>"
+                + "<h1 id=\"HSection\">Second</h1><h1 id=\"HSection\">Third</h1><p id=\"HSection0\">Text</p>"
+                + "</body></html>", new ByteArrayOutputStream(), ExportType.PDF, getContext());
+
+        List<String> ids = new ArrayList<String>();
+        collectIds(this.exportedXHTML.getRootElement(), ids);
+        Assert.assertEquals(Arrays.asList("HSection", "p", "HSection0", "HSection1", "HSection00"), ids);
+    }
+
+    @Test
+    public void testPDFTemplateOverrideChangesTheXsltTemplates() throws Exception
+    {
+        final String first = String.format(XSLT, "first");
+        final String second = String.format(XSLT, "second");
+        final States template = getMockery().states("template").startsAs("first");
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(documentAccessBridge).getProperty(CURRENT_DOCUMENT, PDF_CLASS, "xhtmlxsl");
+                when(template.is("first"));
+                will(returnValue(first));
+                allowing(documentAccessBridge).getProperty(CURRENT_DOCUMENT, PDF_CLASS, "xhtmlxsl");
+                when(template.is("second"));
+                will(returnValue(second));
+                allowing(documentAccessBridge).getProperty(CURRENT_DOCUMENT, PDF_CLASS, "xhtmlxsl");
+                when(template.is("none"));
+                will(returnValue(null));
+            }
+        });
+
+        PdfExportImpl export = new PdfExportImpl();
+        org.dom4j.Document document = DocumentHelper.parseText("<html/>");
+
+        Templates firstTemplates = export.getXsltTemplates("xhtmlxsl", "xhtml2fo.xsl", getContext());
+        Assert.assertSame(firstTemplates, export.getXsltTemplates("xhtmlxsl", "xhtml2fo.xsl", getContext()));
+        Assert.assertTrue(export.applyXSLT(document, firstTemplates).contains("<result>first</result>"));
+
+        // The PDFTemplate is modified.
+        template.become("second");
+        Templates secondTemplates = export.getXsltTemplates("xhtmlxsl", "xhtml2fo.xsl", getContext());
+        Assert.assertNotSame(firstTemplates, secondTemplates);
+        Assert.assertTrue(export.applyXSLT(document, secondTemplates).contains("<result>second</result>"));
+
+        // The override is removed.
+        template.become("none");
+        Templates defaultTemplates = export.getXsltTemplates("xhtmlxsl", "xhtml2fo.xsl", getContext());
+        Assert.assertNotSame(firstTemplates, defaultTemplates);
+        Assert.assertNotSame(secondTemplates, defaultTemplates);
+
+        // The first version is restored.
+        template.become("first");
+        Assert.assertSame(firstTemplates, export.getXsltTemplates("xhtmlxsl", "xhtml2fo.xsl", getContext()));
+    }
+}
@@ -19,13 +19,40 @@
  */
 package com.xpn.xwiki.plugin.image;
 
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.jmock.Mock;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
+import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.component.descriptor.DefaultComponentDescriptor;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.AttachmentAddedEvent;
+import com.xpn.xwiki.internal.event.AttachmentDeletedEvent;
 import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
+import com.xpn.xwiki.web.XWikiEngineContext;
+import com.xpn.xwiki.web.XWikiRequest;
 
 /**
  * Unit tests for the {@link com.xpn.xwiki.plugin.image.ImagePlugin} class.
@@ -34,22 +61,142 @@
  */
 public class ImagePluginTest extends AbstractBridgedXWikiComponentTestCase
 {
+    /**
+     * Scales the images to blank images, counting the scaled images and optionally waiting before scaling them.
+     */
+    private static class TestImageProcessor implements ImageProcessor
+    {
+        private final AtomicInteger scaledImages = new AtomicInteger();
+
+        private final CountDownLatch scaling = new CountDownLatch(1);
+
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        @Override
+        public Image readImage(InputStream inputStream) throws IOException
+        {
+            IOUtils.toByteArray(inputStream);
+            return new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        }
+
+        @Override
+        public void writeImage(RenderedImage image, String mimeType, float quality, OutputStream out)
+            throws IOException
+        {
+            out.write((image.getWidth() + "x" + image.getHeight()).getBytes("UTF-8"));
+        }
+
+        @Override
+        public RenderedImage scaleImage(Image image, int width, int height)
+        {
+            this.scaledImages.incrementAndGet();
+            this.scaling.countDown();
+            try {
+                this.release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+
+        @Override
+        public boolean isMimeTypeSupported(String mimeType)
+        {
+            return "image/png".equals(mimeType);
+        }
+    }
+
     private ImagePlugin plugin;
 
+    private TestImageProcessor imageProcessor;
+
+    private Map<String, byte[]> cachedThumbnails;
+
+    private Mock mockRequest;
+
+    private XWikiDocument document;
+
     @Override
     protected void setUp() throws Exception
     {
         super.setUp();
 
+        this.imageProcessor = new TestImageProcessor();
+        DefaultComponentDescriptor<ImageProcessor> descriptor = new DefaultComponentDescriptor<ImageProcessor>();
+        descriptor.setRole(ImageProcessor.class);
+        getComponentManager().registerComponent(descriptor, this.imageProcessor);
+
         Mock mockXWiki = mock(XWiki.class);
-        mockXWiki.stubs().method("Param").will(returnValue("10"));
+        mockXWiki.stubs().method("Param").will(returnValue(null));
+        mockXWiki.stubs().method("Param").with(eq("xwiki.plugin.image.pregenerate")).will(returnValue("50x0"));
+        mockXWiki.stubs().method("ParamAsLong").will(new CustomStub("Returns the default value")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                return invocation.parameterValues.get(1);
+            }
+        });
+
+        // The memory cache is backed by a map, to look at the cached thumbnails.
+        this.cachedThumbnails = new ConcurrentHashMap<String, byte[]>();
+        Mock mockCache = mock(Cache.class);
+        mockCache.stubs().method("addCacheEntryListener");
+        mockCache.stubs().method("get").will(new CustomStub("Implements Cache.get")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                return cachedThumbnails.get(invocation.parameterValues.get(0));
+            }
+        });
+        mockCache.stubs().method("set").will(new CustomStub("Implements Cache.set")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                cachedThumbnails.put((String) invocation.parameterValues.get(0),
+                    (byte[]) invocation.parameterValues.get(1));
+                return null;
+            }
+        });
+        mockCache.stubs().method("remove").will(new CustomStub("Implements Cache.remove")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                cachedThumbnails.remove(invocation.parameterValues.get(0));
+                return null;
+            }
+        });
         Mock mockCacheFactory = mock(CacheFactory.class);
-        mockCacheFactory.expects(once()).method("newCache");
+        mockCacheFactory.expects(once()).method("newCache").will(returnValue(mockCache.proxy()));
         mockXWiki.stubs().method("getLocalCacheFactory").will(returnValue(mockCacheFactory.proxy()));
         getContext().setWiki((XWiki) mockXWiki.proxy());
+
+        Mock mockEngineContext = mock(XWikiEngineContext.class);
+        mockEngineContext.stubs().method("getMimeType").will(returnValue("image/png"));
+        getContext().setEngineContext((XWikiEngineContext) mockEngineContext.proxy());
+
+        this.mockRequest = mock(XWikiRequest.class);
+        this.mockRequest.stubs().method("getParameter").will(returnValue(null));
+        this.mockRequest.stubs().method("getParameter").with(eq("width")).will(returnValue("50"));
+        getContext().setRequest((XWikiRequest) this.mockRequest.proxy());
+
+        this.document = new XWikiDocument(new DocumentReference("xwiki", "Space", "Page"));
+
         this.plugin = new ImagePlugin("image", ImagePlugin.class.getName(), getContext());
     }
 
+    @Override
+    protected void tearDown() throws Exception
+    {
+        Environment environment = getComponentManager().getInstance(Environment.class);
+        FileUtils.deleteDirectory(new File(environment.getPermanentDirectory(), "cache/thumbnails"));
+
+        super.tearDown();
+    }
+
     public void testDownloadAttachmentWithUnsupportedFileType()
     {
         Mock attachmentMock = mock(XWikiAttachment.class);
@@ -57,4 +204,103 @@ public void testDownloadAttachmentWithUnsupportedFileType()
         XWikiAttachment attachment = (XWikiAttachment) attachmentMock.proxy();
         assertSame(attachment, plugin.downloadAttachment(attachment, new XWikiContext()));
     }
+
+    public void testThumbnailIsCachedInMemoryAndOnDisk() throws Exception
+    {
+        XWikiAttachment image = attachImage(new Date(1000));
+
+        assertThumbnail(this.plugin.downloadAttachment(image, getContext()));
+        assertEquals(1, this.imageProcessor.scaledImages.get());
+        assertEquals(1, this.cachedThumbnails.size());
+
+        // Served from memory.
+        assertThumbnail(this.plugin.downloadAttachment(image, getContext()));
+        assertEquals(1, this.imageProcessor.scaledImages.get());
+
+        // Served from disk, and put back in memory.
+        this.cachedThumbnails.clear();
+        assertThumbnail(this.plugin.downloadAttachment(image, getContext()));
+        assertEquals(1, this.imageProcessor.scaledImages.get());
+        assertEquals(1, this.cachedThumbnails.size());
+    }
+
+    public void testConcurrentRequestsShareTheComputation() throws Exception
+    {
+        final XWikiAttachment image = attachImage(new Date(1000));
+        this.imageProcessor.release = new CountDownLatch(1);
+
+        final XWikiAttachment[] thumbnails = new XWikiAttachment[2];
+        Thread first = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                thumbnails[0] = plugin.downloadAttachment(image, getContext());
+            }
+        };
+        Thread second = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                thumbnails[1] = plugin.downloadAttachment(image, getContext());
+            }
+        };
+        first.start();
+        assertTrue(this.imageProcessor.scaling.await(10, TimeUnit.SECONDS));
+        second.start();
+        // Wait for both requests to wait for the thumbnail.
+        long timeout = System.currentTimeMillis() + 10000;
+        while ((first.getState() != Thread.State.TIMED_WAITING || second.getState() != Thread.State.TIMED_WAITING)
+            && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+
+        this.imageProcessor.release.countDown();
+        first.join(10000);
+        second.join(10000);
+
+        assertEquals(1, this.imageProcessor.scaledImages.get());
+        assertThumbnail(thumbnails[0]);
+        assertThumbnail(thumbnails[1]);
+    }
+
+    public void testListenerPregeneratesAndDropsThumbnails() throws Exception
+    {
+        ImagePluginListener listener = new ImagePluginListener(this.plugin);
+        XWikiAttachment image = attachImage(new Date(1000));
+
+        // The pre-generated thumbnail is shared with the request.
+        listener.onEvent(new AttachmentAddedEvent("xwiki:Space.Page", "image.png"), this.document, getContext());
+        assertThumbnail(this.plugin.downloadAttachment(image, getContext()));
+        assertEquals(1, this.imageProcessor.scaledImages.get());
+        assertEquals(1, this.cachedThumbnails.size());
+
+        // The thumbnails of a deleted image are dropped from memory and from disk.
+        this.document.getAttachmentList().remove(image);
+        listener.onEvent(new AttachmentDeletedEvent("xwiki:Space.Page", "image.png"), this.document, getContext());
+        assertTrue(this.cachedThumbnails.isEmpty());
+        assertThumbnail(this.plugin.downloadAttachment(image, getContext()));
+        assertEquals(2, this.imageProcessor.scaledImages.get());
+
+        // An image uploaded again has the same version but not the same thumbnails.
+        XWikiAttachment newImage = attachImage(new Date(2000));
+        assertEquals(image.getVersion(), newImage.getVersion());
+        assertThumbnail(this.plugin.downloadAttachment(newImage, getContext()));
+        assertEquals(3, this.imageProcessor.scaledImages.get());
+    }
+
+    private XWikiAttachment attachImage(Date date) throws Exception
+    {
+        XWikiAttachment image = new XWikiAttachment(this.document, "image.png");
+        image.setDate(date);
+        image.setContent(new byte[] {1, 2, 3});
+        this.document.getAttachmentList().add(image);
+        return image;
+    }
+
+    private void assertThumbnail(XWikiAttachment thumbnail) throws Exception
+    {
+        assertEquals("50x50", IOUtils.toString(thumbnail.getContentInputStream(getContext()), "UTF-8"));
+    }
 }
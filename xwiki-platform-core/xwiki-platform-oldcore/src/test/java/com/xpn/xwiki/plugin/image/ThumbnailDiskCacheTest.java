@@ -0,0 +1,128 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.image;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ThumbnailDiskCache}.
+ *
+ * @version $Id$
+ */
+public class ThumbnailDiskCacheTest
+{
+    private File directory;
+
+    private ThumbnailDiskCache cache;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.directory = new File(System.getProperty("java.io.tmpdir"), "test-thumbnail-cache");
+        this.cache = new ThumbnailDiskCache(this.directory, 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.directory);
+    }
+
+    @Test
+    public void testSetAndGet()
+    {
+        Assert.assertNull(this.cache.get("xwiki", 42, "1.1;100;-1;false;-1.0"));
+
+        this.cache.set("xwiki", 42, "1.1;100;-1;false;-1.0", new byte[] {1, 2, 3});
+
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, this.cache.get("xwiki", 42, "1.1;100;-1;false;-1.0"));
+        Assert.assertNull(this.cache.get("xwiki", 42, "1.2;100;-1;false;-1.0"));
+        Assert.assertNull(this.cache.get("otherwiki", 42, "1.1;100;-1;false;-1.0"));
+    }
+
+    @Test
+    public void testSurvivesNewInstance()
+    {
+        this.cache.set("xwiki", 42, "1.1;100;-1;false;-1.0", new byte[0]);
+
+        Assert.assertArrayEquals(new byte[0],
+            new ThumbnailDiskCache(this.directory, 1000).get("xwiki", 42, "1.1;100;-1;false;-1.0"));
+    }
+
+    @Test
+    public void testRemove()
+    {
+        this.cache.set("xwiki", 42, "1.1;100;-1;false;-1.0", new byte[] {1});
+        this.cache.set("xwiki", 42, "1.2;100;-1;false;-1.0", new byte[] {2});
+        this.cache.set("xwiki", 43, "1.1;100;-1;false;-1.0", new byte[] {3});
+
+        this.cache.remove("xwiki", 42);
+
+        Assert.assertNull(this.cache.get("xwiki", 42, "1.1;100;-1;false;-1.0"));
+        Assert.assertNull(this.cache.get("xwiki", 42, "1.2;100;-1;false;-1.0"));
+        Assert.assertArrayEquals(new byte[] {3}, this.cache.get("xwiki", 43, "1.1;100;-1;false;-1.0"));
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception
+    {
+        this.cache.set("xwiki", 41, "1.1;100;-1;false;-1.0", new byte[400]);
+        this.cache.set("xwiki", 42, "1.1;100;-1;false;-1.0", new byte[400]);
+        Assert.assertEquals(800, this.cache.getSize());
+
+        // Make the first thumbnail the most recently used.
+        new File(new File(new File(this.directory, "xwiki"), "42"), "1%2E1%3B100%3B-1%3Bfalse%3B-1%2E0")
+            .setLastModified(System.currentTimeMillis() - 10000);
+        this.cache.get("xwiki", 41, "1.1;100;-1;false;-1.0");
+
+        this.cache.set("xwiki", 43, "1.1;100;-1;false;-1.0", new byte[300]);
+
+        Assert.assertEquals(700, this.cache.getSize());
+        Assert.assertNotNull(this.cache.get("xwiki", 41, "1.1;100;-1;false;-1.0"));
+        Assert.assertNull(this.cache.get("xwiki", 42, "1.1;100;-1;false;-1.0"));
+        Assert.assertNotNull(this.cache.get("xwiki", 43, "1.1;100;-1;false;-1.0"));
+        Assert.assertEquals(700, new ThumbnailDiskCache(this.directory, 1000).getSize());
+    }
+
+    @Test
+    public void testRemoveUpdatesSize()
+    {
+        this.cache.set("xwiki", 42, "1.1;100;-1;false;-1.0", new byte[100]);
+        this.cache.set("xwiki", 42, "1.2;100;-1;false;-1.0", new byte[200]);
+
+        this.cache.remove("xwiki", 42);
+
+        Assert.assertEquals(0, this.cache.getSize());
+    }
+
+    @Test
+    public void testUnsafeWikiName()
+    {
+        this.cache.set("../..", 42, "1.1;100;-1;false;-1.0", new byte[] {1});
+
+        Assert.assertTrue(new File(this.directory, "%2E%2E%2F%2E%2E").isDirectory());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.novell.ldap.LDAPConnection;
+
+/**
+ * Test {@link XWikiLDAPConnectionPool}.
+ * 
+ * @version $Id$
+ */
+public class XWikiLDAPConnectionPoolTest
+{
+    private static final String KEY = XWikiLDAPConnectionPool.getKey("localhost", 389, false, "cn=admin", "secret");
+
+    /**
+     * A connection which is not connected to any server.
+     */
+    private static class TestConnection extends LDAPConnection
+    {
+        private boolean connected = true;
+
+        @Override
+        public boolean isConnected()
+        {
+            return this.connected;
+        }
+
+        @Override
+        public void disconnect()
+        {
+            this.connected = false;
+        }
+    }
+
+    private XWikiLDAPConnectionPool pool = XWikiLDAPConnectionPool.getInstance();
+
+    @After
+    public void tearDown()
+    {
+        this.pool.clear();
+    }
+
+    @Test
+    public void testGetKey()
+    {
+        Assert.assertFalse(KEY.equals(XWikiLDAPConnectionPool.getKey("localhost", 389, false, "cn=admin", "other")));
+        Assert.assertFalse(KEY.equals(XWikiLDAPConnectionPool.getKey("localhost", 389, true, "cn=admin", "secret")));
+        Assert.assertFalse(KEY.contains("secret"));
+    }
+
+    @Test
+    public void testBorrowMostRecentlyReleased()
+    {
+        TestConnection first = new TestConnection();
+        TestConnection second = new TestConnection();
+
+        Assert.assertNull(this.pool.borrow(KEY, 60000));
+
+        Assert.assertTrue(this.pool.release(KEY, first, 10));
+        Assert.assertTrue(this.pool.release(KEY, second, 10));
+        Assert.assertEquals(2, this.pool.getIdleCount(KEY));
+
+        Assert.assertSame(second, this.pool.borrow(KEY, 60000));
+        Assert.assertSame(first, this.pool.borrow(KEY, 60000));
+        Assert.assertNull(this.pool.borrow(KEY, 60000));
+        Assert.assertEquals(0, this.pool.getIdleCount(KEY));
+    }
+
+    @Test
+    public void testReleaseWhenFull()
+    {
+        Assert.assertTrue(this.pool.release(KEY, new TestConnection(), 1));
+        Assert.assertFalse(this.pool.release(KEY, new TestConnection(), 1));
+        Assert.assertEquals(1, this.pool.getIdleCount(KEY));
+    }
+
+    @Test
+    public void testBorrowWithOtherKey()
+    {
+        this.pool.release(KEY, new TestConnection(), 10);
+
+        Assert.assertNull(this.pool.borrow(XWikiLDAPConnectionPool.getKey("localhost", 389, false, "cn=other",
+            "secret"), 60000));
+        Assert.assertEquals(1, this.pool.getIdleCount(KEY));
+    }
+
+    @Test
+    public void testBorrowSkipsDisconnected()
+    {
+        TestConnection connected = new TestConnection();
+        TestConnection disconnected = new TestConnection();
+
+        this.pool.release(KEY, connected, 10);
+        this.pool.release(KEY, disconnected, 10);
+        disconnected.disconnect();
+
+        Assert.assertSame(connected, this.pool.borrow(KEY, 60000));
+    }
+
+    @Test
+    public void testBorrowClosesExpired() throws InterruptedException
+    {
+        TestConnection connection = new TestConnection();
+
+        this.pool.release(KEY, connection, 10);
+        Thread.sleep(20);
+
+        Assert.assertNull(this.pool.borrow(KEY, 10));
+        Assert.assertFalse(connection.isConnected());
+        Assert.assertEquals(0, this.pool.getIdleCount(KEY));
+    }
+
+    @Test
+    public void testClear()
+    {
+        TestConnection connection = new TestConnection();
+
+        this.pool.release(KEY, connection, 10);
+        this.pool.clear();
+
+        Assert.assertFalse(connection.isConnected());
+        Assert.assertEquals(0, this.pool.getIdleCount(KEY));
+    }
+}
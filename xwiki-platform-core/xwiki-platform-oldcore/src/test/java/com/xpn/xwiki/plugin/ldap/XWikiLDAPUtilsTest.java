@@ -0,0 +1,486 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.novell.ldap.LDAPConnection;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+import com.xpn.xwiki.user.impl.LDAP.LDAPProfileXClass;
+
+/**
+ * Test the groups membership synchronization of {@link XWikiLDAPUtils}.
+ * 
+ * @version $Id$
+ */
+public class XWikiLDAPUtilsTest extends AbstractBridgedComponentTestCase
+{
+    private static final String USER = "XWiki.User";
+
+    private static final String USER_DN = "cn=User,ou=people,o=sevenSeas";
+
+    private static final String OTHER_USER = "XWiki.OtherUser";
+
+    private static final String OTHER_USER_DN = "cn=OtherUser,ou=people,o=sevenSeas";
+
+    private static final String EDITORS = "XWiki.Editors";
+
+    private static final String EDITORS_DN = "cn=Editors,ou=groups,o=sevenSeas";
+
+    private static final String READERS = "XWiki.Readers";
+
+    private static final String READERS_DN = "cn=Readers,ou=groups,o=sevenSeas";
+
+    private static final String GROUPS_COMMENT = "Synchronized user groups membership with LDAP server";
+
+    private static final String GROUP_COMMENT = "Synchronized group membership with LDAP server";
+
+    private static final String GROUPS_HASH_COMMENT = "Reset LDAP groups membership hash";
+
+    private XWiki mockXWiki;
+
+    private XWikiStoreInterface mockStore;
+
+    private XWikiGroupService mockGroupService;
+
+    private XWikiLDAPUtils ldapUtils;
+
+    private BaseClass groupClass;
+
+    private Map<String, XWikiDocument> documents = new HashMap<String, XWikiDocument>();
+
+    /**
+     * The members of the groups of the stubbed LDAP server, indexed by group DN.
+     */
+    private Map<String, Map<String, String>> ldapGroups = new HashMap<String, Map<String, String>>();
+
+    /**
+     * The content of the LDAP groups cache.
+     */
+    private Map<String, Map<String, String>> cachedGroups = new HashMap<String, Map<String, String>>();
+
+    private Map<String, Set<String>> groupMappings = new HashMap<String, Set<String>>();
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        this.mockXWiki = getMockery().mock(XWiki.class);
+        this.mockStore = getMockery().mock(XWikiStoreInterface.class);
+        this.mockGroupService = getMockery().mock(XWikiGroupService.class);
+        final Cache<Map<String, String>> mockCache = getMockery().mock(Cache.class);
+        getContext().setWiki(this.mockXWiki);
+
+        final CacheManager mockCacheManager = registerMockComponent(CacheManager.class);
+        final XWikiLDAPConnection mockConnection = getMockery().mock(XWikiLDAPConnection.class);
+        final LDAPConnection mockLDAPConnection = getMockery().mock(LDAPConnection.class);
+
+        this.groupClass = new BaseClass();
+        this.groupClass.setDocumentReference(new DocumentReference(getContext().getDatabase(), "XWiki", "XWikiGroups"));
+        this.groupClass.addTextField("member", "Member", 30);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockConnection).getConnection();
+                will(returnValue(mockLDAPConnection));
+                allowing(mockLDAPConnection).getHost();
+                will(returnValue("localhost"));
+                allowing(mockLDAPConnection).getPort();
+                will(returnValue(389));
+
+                allowing(mockCacheManager).createNewCache(with(any(CacheConfiguration.class)));
+                will(returnValue(mockCache));
+                allowing(mockCache).get(with(any(String.class)));
+                will(new CustomAction("get the cached group")
+                {
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        return XWikiLDAPUtilsTest.this.cachedGroups.get(invocation.getParameter(0));
+                    }
+                });
+                allowing(mockCache).set(with(any(String.class)), with(any(Map.class)));
+                will(new CustomAction("cache the group")
+                {
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        return XWikiLDAPUtilsTest.this.cachedGroups.put((String) invocation.getParameter(0),
+                            (Map<String, String>) invocation.getParameter(1));
+                    }
+                });
+                allowing(mockCache).remove(with(any(String.class)));
+                will(new CustomAction("remove the cached group")
+                {
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        return XWikiLDAPUtilsTest.this.cachedGroups.remove(invocation.getParameter(0));
+                    }
+                });
+                allowing(mockCache).dispose();
+
+                allowing(XWikiLDAPUtilsTest.this.mockXWiki).getXWikiPreference(with(any(String.class)),
+                    with(any(XWikiContext.class)));
+                will(returnValue(""));
+                allowing(XWikiLDAPUtilsTest.this.mockXWiki).Param(with(any(String.class)));
+                will(returnValue(null));
+                allowing(XWikiLDAPUtilsTest.this.mockXWiki).getXWikiPreferenceAsInt(with(any(String.class)),
+                    with(any(XWikiContext.class)));
+                will(returnValue(21600));
+
+                allowing(XWikiLDAPUtilsTest.this.mockXWiki).getDocument(with(any(String.class)),
+                    with(any(XWikiContext.class)));
+                will(new CustomAction("return the document from the test wiki")
+                {
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        return getDocument((String) invocation.getParameter(0));
+                    }
+                });
+                allowing(XWikiLDAPUtilsTest.this.mockXWiki).getXClass(with(any(DocumentReference.class)),
+                    with(any(XWikiContext.class)));
+                will(returnValue(null));
+                allowing(XWikiLDAPUtilsTest.this.mockXWiki).getGroupClass(with(any(XWikiContext.class)));
+                will(returnValue(XWikiLDAPUtilsTest.this.groupClass));
+                allowing(XWikiLDAPUtilsTest.this.mockXWiki).getGroupService(with(any(XWikiContext.class)));
+                will(returnValue(XWikiLDAPUtilsTest.this.mockGroupService));
+                allowing(XWikiLDAPUtilsTest.this.mockXWiki).getStore();
+                will(returnValue(XWikiLDAPUtilsTest.this.mockStore));
+
+                // Saving the LDAP profile class
+                allowing(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(
+                    with(same(getDocument(LDAPProfileXClass.LDAP_XCLASS))), with(any(String.class)),
+                    with(any(XWikiContext.class)));
+            }
+        });
+
+        // Resolve the groups members with the stubbed LDAP server groups instead of searching the LDAP server
+        this.ldapUtils = new XWikiLDAPUtils(mockConnection)
+        {
+            @Override
+            public boolean getGroupMembers(String groupDN, Map<String, String> memberMap, List<String> subgroups,
+                XWikiContext context)
+            {
+                Map<String, String> members = XWikiLDAPUtilsTest.this.ldapGroups.get(groupDN);
+                if (members == null) {
+                    return false;
+                }
+
+                memberMap.putAll(members);
+
+                return true;
+            }
+        };
+
+        this.groupMappings.put(EDITORS, Collections.singleton(EDITORS_DN));
+        this.groupMappings.put(READERS, Collections.singleton(READERS_DN));
+
+        this.ldapGroups.put(EDITORS_DN, new HashMap<String, String>());
+        this.ldapGroups.put(READERS_DN, new HashMap<String, String>());
+
+        addLDAPProfile(USER, USER_DN);
+        addLDAPProfile(OTHER_USER, OTHER_USER_DN);
+    }
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        XWikiLDAPUtils.resetGroupCache();
+
+        super.tearDown();
+    }
+
+    private XWikiDocument getDocument(String fullName)
+    {
+        XWikiDocument document = this.documents.get(fullName);
+
+        if (document == null) {
+            int index = fullName.indexOf('.');
+            document =
+                new XWikiDocument(new DocumentReference(getContext().getDatabase(), fullName.substring(0, index),
+                    fullName.substring(index + 1)));
+            this.documents.put(fullName, document);
+        }
+
+        return document;
+    }
+
+    private void addLDAPProfile(String xwikiUserName, String userDN) throws XWikiException
+    {
+        XWikiDocument userProfile = getDocument(xwikiUserName);
+        userProfile.setNew(false);
+
+        new LDAPProfileXClass(getContext()).updateLDAPObject(userProfile, userDN, userDN.substring(3,
+            userDN.indexOf(',')));
+    }
+
+    private void addLDAPMember(String groupDN, String userDN)
+    {
+        this.ldapGroups.get(groupDN).put(userDN.toLowerCase(), userDN.substring(3, userDN.indexOf(',')).toLowerCase());
+    }
+
+    private void addXWikiMember(String xwikiGroupName, String xwikiUserName) throws XWikiException
+    {
+        BaseObject memberObject =
+            getDocument(xwikiGroupName).newXObject(this.groupClass.getDocumentReference(), getContext());
+        memberObject.setStringValue("member", xwikiUserName);
+    }
+
+    private Set<String> getXWikiMembers(String xwikiGroupName)
+    {
+        Set<String> members = new HashSet<String>();
+
+        List<BaseObject> memberObjects =
+            getDocument(xwikiGroupName).getXObjects(this.groupClass.getDocumentReference());
+        if (memberObjects != null) {
+            for (BaseObject memberObject : memberObjects) {
+                if (memberObject != null) {
+                    members.add(memberObject.getStringValue("member"));
+                }
+            }
+        }
+
+        return members;
+    }
+
+    private String getGroupsHash(String xwikiUserName) throws XWikiException
+    {
+        return new LDAPProfileXClass(getContext()).getGroupsHash(getDocument(xwikiUserName));
+    }
+
+    @Test
+    public void testSyncGroupsMembershipIsSkippedWhenLDAPMembershipDidNotChange() throws Exception
+    {
+        addLDAPMember(EDITORS_DN, USER_DN);
+        addXWikiMember(EDITORS, USER);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                // The XWiki groups are only looked up for the first and last synchronizations
+                exactly(2).of(XWikiLDAPUtilsTest.this.mockGroupService).getAllGroupsNamesForMember(USER, 0, 0,
+                    getContext());
+                will(returnValue(Arrays.asList(EDITORS)));
+
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(EDITORS), getContext());
+
+                exactly(2).of(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(USER), GROUPS_COMMENT, true,
+                    getContext());
+            }
+        });
+
+        this.ldapUtils.syncGroupsMembership(USER, USER_DN, this.groupMappings, getContext());
+
+        String groupsHash = getGroupsHash(USER);
+        Assert.assertNotNull(groupsHash);
+
+        // Nothing changed in LDAP
+        this.ldapUtils.syncGroupsMembership(USER, USER_DN, this.groupMappings, getContext());
+
+        Assert.assertEquals(groupsHash, getGroupsHash(USER));
+
+        // The user is removed from the LDAP group and the group cache expires
+        this.ldapGroups.get(EDITORS_DN).clear();
+        this.cachedGroups.clear();
+
+        this.ldapUtils.syncGroupsMembership(USER, USER_DN, this.groupMappings, getContext());
+
+        Assert.assertTrue(getXWikiMembers(EDITORS).isEmpty());
+        Assert.assertFalse(groupsHash.equals(getGroupsHash(USER)));
+    }
+
+    @Test
+    public void testSyncGroupsMembershipUpdatesGroups() throws Exception
+    {
+        addLDAPMember(EDITORS_DN, USER_DN);
+        addXWikiMember(READERS, USER);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(XWikiLDAPUtilsTest.this.mockGroupService).getAllGroupsNamesForMember(USER, 0, 0, getContext());
+                will(returnValue(Arrays.asList(READERS)));
+
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(EDITORS), getContext());
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(READERS), getContext());
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(USER), GROUPS_COMMENT, true,
+                    getContext());
+            }
+        });
+
+        this.ldapUtils.syncGroupsMembership(USER, USER_DN, this.groupMappings, getContext());
+
+        Assert.assertEquals(Collections.singleton(USER), getXWikiMembers(EDITORS));
+        Assert.assertTrue(getXWikiMembers(READERS).isEmpty());
+        Assert.assertNotNull(getGroupsHash(USER));
+    }
+
+    @Test
+    public void testSyncGroupsMembershipIsRetriedWhenAGroupUpdateFailed() throws Exception
+    {
+        addLDAPMember(EDITORS_DN, USER_DN);
+        addXWikiMember(READERS, USER);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(XWikiLDAPUtilsTest.this.mockGroupService).getAllGroupsNamesForMember(USER, 0, 0, getContext());
+                will(returnValue(Arrays.asList(READERS)));
+                oneOf(XWikiLDAPUtilsTest.this.mockGroupService).getAllGroupsNamesForMember(USER, 0, 0, getContext());
+                will(returnValue(Collections.emptyList()));
+
+                exactly(2).of(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(EDITORS), getContext());
+                will(throwException(new XWikiException()));
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(READERS), getContext());
+
+                never(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(USER), GROUPS_COMMENT, true,
+                    getContext());
+            }
+        });
+
+        this.ldapUtils.syncGroupsMembership(USER, USER_DN, this.groupMappings, getContext());
+
+        Assert.assertNull(getGroupsHash(USER));
+
+        // The user is still not an XWiki editor so the synchronization is not skipped
+        this.ldapUtils.syncGroupsMembership(USER, USER_DN, this.groupMappings, getContext());
+
+        Assert.assertNull(getGroupsHash(USER));
+    }
+
+    @Test
+    public void testSyncGroupsMembershipOfAllUsers() throws Exception
+    {
+        addLDAPMember(EDITORS_DN, USER_DN);
+        addLDAPMember(READERS_DN, USER_DN);
+        addLDAPMember(READERS_DN, OTHER_USER_DN);
+        addXWikiMember(EDITORS, OTHER_USER);
+        addXWikiMember(READERS, USER);
+
+        final List<Object[]> userDNs = new ArrayList<Object[]>();
+        userDNs.add(new Object[] {USER, USER_DN});
+        userDNs.add(new Object[] {OTHER_USER, OTHER_USER_DN});
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(XWikiLDAPUtilsTest.this.mockStore).search(with(any(String.class)), with(0), with(0),
+                    with(any(List.class)), with(same(getContext())));
+                will(returnValue(userDNs));
+
+                // Each group is saved once and only if it changed
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(EDITORS), GROUP_COMMENT, true,
+                    getContext());
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(READERS), GROUP_COMMENT, true,
+                    getContext());
+            }
+        });
+
+        // Outdated group cache
+        this.cachedGroups.put(EDITORS_DN, Collections.<String, String> emptyMap());
+
+        this.ldapUtils.syncGroupsMembership(this.groupMappings, getContext());
+
+        Assert.assertEquals(this.ldapGroups, this.cachedGroups);
+        Assert.assertEquals(Collections.singleton(USER), getXWikiMembers(EDITORS));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(USER, OTHER_USER)), getXWikiMembers(READERS));
+    }
+
+    @Test
+    public void testLoginSyncIsNotSkippedAfterAGroupSyncRemovedTheUser() throws Exception
+    {
+        addLDAPMember(EDITORS_DN, USER_DN);
+        addXWikiMember(EDITORS, USER);
+
+        final List<Object[]> userDNs = new ArrayList<Object[]>();
+        userDNs.add(new Object[] {USER, USER_DN});
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(XWikiLDAPUtilsTest.this.mockGroupService).getAllGroupsNamesForMember(USER, 0, 0, getContext());
+                will(returnValue(Arrays.asList(EDITORS)));
+                oneOf(XWikiLDAPUtilsTest.this.mockGroupService).getAllGroupsNamesForMember(USER, 0, 0, getContext());
+                will(returnValue(Collections.emptyList()));
+
+                oneOf(XWikiLDAPUtilsTest.this.mockStore).search(with(any(String.class)), with(0), with(0),
+                    with(any(List.class)), with(same(getContext())));
+                will(returnValue(userDNs));
+
+                exactly(2).of(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(USER), GROUPS_COMMENT, true,
+                    getContext());
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(EDITORS), GROUP_COMMENT, true,
+                    getContext());
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(USER), GROUPS_HASH_COMMENT, true,
+                    getContext());
+                oneOf(XWikiLDAPUtilsTest.this.mockXWiki).saveDocument(getDocument(EDITORS), getContext());
+            }
+        });
+
+        // Login
+        this.ldapUtils.syncGroupsMembership(USER, USER_DN, this.groupMappings, getContext());
+
+        String groupsHash = getGroupsHash(USER);
+        Assert.assertNotNull(groupsHash);
+
+        // The user is removed from the LDAP group and the background synchronization removes it from the XWiki group
+        this.ldapGroups.get(EDITORS_DN).clear();
+
+        this.ldapUtils.syncGroupsMembership(this.groupMappings, getContext());
+
+        Assert.assertTrue(getXWikiMembers(EDITORS).isEmpty());
+        Assert.assertNull(getGroupsHash(USER));
+
+        // The user is added back to the LDAP group before the next background synchronization
+        addLDAPMember(EDITORS_DN, USER_DN);
+        this.cachedGroups.clear();
+
+        // Login
+        this.ldapUtils.syncGroupsMembership(USER, USER_DN, this.groupMappings, getContext());
+
+        Assert.assertEquals(Collections.singleton(USER), getXWikiMembers(EDITORS));
+        Assert.assertEquals(groupsHash, getGroupsHash(USER));
+    }
+}
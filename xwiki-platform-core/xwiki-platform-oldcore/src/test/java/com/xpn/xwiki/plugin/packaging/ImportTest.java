@@ -20,22 +20,38 @@
 
 package com.xpn.xwiki.plugin.packaging;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.FileUtils;
+import org.hibernate.Session;
 import org.jmock.Mock;
 import org.jmock.core.Invocation;
 import org.jmock.core.stub.CustomStub;
 import org.jmock.core.stub.VoidStub;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentCreatingEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.DocumentUpdatingEvent;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiConfig;
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.store.XWikiHibernateRecycleBinStore;
 import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.store.XWikiHibernateVersioningStore;
@@ -207,6 +223,55 @@ public void testImportDocument() throws Exception
         assertNotSame(foundDocument, foundTranslationDocument);
     }
 
+    /**
+     * Test the import of a package read from a file when installing it.
+     * 
+     * @throws Exception
+     */
+    public void testImportDocumentFromFile() throws Exception
+    {
+        this.mockXWikiStore.stubs().method("getSession").will(returnValue(null));
+        this.mockXWikiStore.expects(once()).method("beginTransaction").will(returnValue(true));
+        this.mockXWikiStore.expects(once()).method("endTransaction").with(same(getContext()), eq(true));
+
+        XWikiDocument doc1 = new XWikiDocument(new DocumentReference("Test", "Test", "DocImport1"));
+        doc1.setDefaultLanguage("en");
+        XWikiDocument doc2 = new XWikiDocument(new DocumentReference("Test", "Test", "DocImport2"));
+        doc2.setDefaultLanguage("en");
+        XWikiDocument doc3 = new XWikiDocument(new DocumentReference("Test", "Test", "DocImport3"));
+        doc3.setDefaultLanguage("en");
+
+        File file = File.createTempFile("import", ".xar");
+        try {
+            FileUtils.writeByteArrayToFile(file,
+                this.createZipFile(new XWikiDocument[] {doc1, doc2, doc3}, new String[] {"UTF-8", "UTF-8", "UTF-8"}));
+
+            this.pack = new Package();
+            this.pack.Import(file, getContext());
+
+            // The documents are listed from the package descriptor
+            assertEquals(3, this.pack.getFiles().size());
+            for (DocumentInfo docInfo : this.pack.getFiles()) {
+                if (docInfo.getFullName().equals("Test.DocImport3")) {
+                    docInfo.setAction(DocumentInfo.ACTION_SKIP);
+                }
+            }
+
+            this.pack.install(getContext());
+        } finally {
+            file.delete();
+        }
+
+        assertFalse(this.xwiki.getDocument(new DocumentReference("Test", "Test", "DocImport1"), getContext())
+            .isNew());
+        assertFalse(this.xwiki.getDocument(new DocumentReference("Test", "Test", "DocImport2"), getContext())
+            .isNew());
+        assertTrue(this.xwiki.getDocument(new DocumentReference("Test", "Test", "DocImport3"), getContext())
+            .isNew());
+        assertEquals(2, this.pack.getInstalled(getContext()).size());
+        assertEquals(1, this.pack.getSkipped(getContext()).size());
+    }
+
     /**
      * Test the regular document import with non-ascii document title.
      * 
@@ -416,4 +481,241 @@ public void testImportTranslationsOverwrite() throws Exception
         assertFalse(translationDoc.isNew());
     }
 
+    /**
+     * Test the import of a package file containing the same document twice in the same batch: the session must not
+     * keep the entities of the first one and the saved notifications must be sent only once the batch is committed.
+     * 
+     * @throws Exception
+     */
+    public void testImportSameDocumentTwiceInBatch() throws Exception
+    {
+        final Mock mockSession = mock(Session.class);
+        mockSession.expects(exactly(2)).method("flush");
+        mockSession.expects(exactly(2)).method("clear");
+
+        final boolean[] inTransaction = new boolean[1];
+        this.mockXWikiStore.stubs().method("getSession").will(new CustomStub("Implements getSession")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                return inTransaction[0] ? mockSession.proxy() : null;
+            }
+        });
+        this.mockXWikiStore.expects(once()).method("beginTransaction").will(new CustomStub("Implements beginTransaction")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                inTransaction[0] = true;
+                return true;
+            }
+        });
+        this.mockXWikiStore.expects(once()).method("endTransaction").with(same(getContext()), eq(true))
+            .will(new CustomStub("Implements endTransaction")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    inTransaction[0] = false;
+                    return null;
+                }
+            });
+
+        final DocumentReference reference = new DocumentReference("Test", "Test", "DocImportTwice");
+        final List<String> events = new ArrayList<String>();
+        ObservationManager om = getComponentManager().getInstance(ObservationManager.class);
+        om.addListener(new EventListener()
+        {
+            @Override
+            public String getName()
+            {
+                return "testImportSameDocumentTwiceInBatch";
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return Arrays.<Event> asList(new DocumentCreatingEvent(reference), new DocumentCreatedEvent(
+                    reference), new DocumentUpdatingEvent(reference), new DocumentUpdatedEvent(reference));
+            }
+
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                events.add(event.getClass().getSimpleName() + (inTransaction[0] ? " in transaction" : ""));
+            }
+        });
+
+        XWikiDocument doc1 = new XWikiDocument(reference);
+        doc1.setDefaultLanguage("en");
+        doc1.setContent("first");
+        XWikiDocument doc2 = new XWikiDocument(reference);
+        doc2.setDefaultLanguage("en");
+        doc2.setContent("second");
+
+        File file = File.createTempFile("import", ".xar");
+        try {
+            // The same document is stored in two entries of the package
+            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+            try {
+                zos.putNextEntry(new ZipEntry("package.xml"));
+                zos.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<package><infos><name>Twice</name></infos>"
+                    + "<files><file defaultAction=\"0\" language=\"\">Test.DocImportTwice</file></files></package>")
+                    .getBytes("UTF-8"));
+                zos.putNextEntry(new ZipEntry("Test/DocImportTwice"));
+                zos.write(doc1.toXML(false, false, false, false, getContext()).getBytes("UTF-8"));
+                zos.putNextEntry(new ZipEntry("Test/DocImportTwice.copy"));
+                zos.write(doc2.toXML(false, false, false, false, getContext()).getBytes("UTF-8"));
+            } finally {
+                zos.close();
+            }
+
+            this.pack = new Package();
+            this.pack.Import(file, getContext());
+            this.pack.install(getContext());
+        } finally {
+            file.delete();
+        }
+
+        assertEquals("second", this.xwiki.getDocument(reference, getContext()).getContent());
+        assertEquals(2, this.pack.getInstalled(getContext()).size());
+        assertEquals(0, this.pack.getErrors(getContext()).size());
+        assertEquals(Arrays.asList("DocumentCreatingEvent in transaction", "DocumentUpdatingEvent in transaction",
+            "DocumentCreatedEvent", "DocumentUpdatedEvent"), events);
+    }
+
+    /**
+     * Test that the documents read from a package file are installed after the classes they use, even when the
+     * classes come after them in the package.
+     * 
+     * @throws Exception
+     */
+    public void testImportDocumentFromFileInstallsClassesFirst() throws Exception
+    {
+        this.mockXWikiStore.stubs().method("getSession").will(returnValue(null));
+        this.mockXWikiStore.stubs().method("beginTransaction").will(returnValue(true));
+        this.mockXWikiStore.stubs().method("endTransaction");
+
+        List<String> events = new ArrayList<String>();
+        recordEvents("testImportDocumentFromFileInstallsClassesFirst", events, new ArrayList<Object>(),
+            new DocumentCreatingEvent());
+
+        DocumentReference classReference = new DocumentReference("Test", "Test", "DocImportClass");
+        XWikiDocument classDoc = new XWikiDocument(classReference);
+        classDoc.setDefaultLanguage("en");
+        classDoc.getXClass().addTextField("text", "Text", 30);
+        XWikiDocument objectDoc = new XWikiDocument(new DocumentReference("Test", "Test", "DocImportObject"));
+        objectDoc.setDefaultLanguage("en");
+        BaseObject object = new BaseObject();
+        object.setXClassReference(classReference);
+        objectDoc.addXObject(object);
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "DocImportPlain"));
+        doc.setDefaultLanguage("en");
+
+        File file = File.createTempFile("import", ".xar");
+        try {
+            FileUtils.writeByteArrayToFile(file, this.createZipFile(new XWikiDocument[] {objectDoc, doc, classDoc},
+                new String[] {"UTF-8", "UTF-8", "UTF-8"}));
+
+            this.pack = new Package();
+            this.pack.Import(file, getContext());
+            this.pack.install(getContext());
+        } finally {
+            file.delete();
+        }
+
+        assertEquals(Arrays.asList("DocumentCreatingEvent Test.DocImportClass",
+            "DocumentCreatingEvent Test.DocImportPlain", "DocumentCreatingEvent Test.DocImportObject"), events);
+        assertEquals(3, this.pack.getInstalled(getContext()).size());
+    }
+
+    /**
+     * Test that a batch which failed to be committed is installed again from the package file, with documents which
+     * have not been modified by the rolled back installation, and without notifying again that they are about to be
+     * saved.
+     * 
+     * @throws Exception
+     */
+    public void testImportDocumentFromFileReplaysFailedBatch() throws Exception
+    {
+        this.mockXWikiStore.stubs().method("getSession").will(returnValue(null));
+        this.mockXWikiStore.expects(once()).method("beginTransaction").will(returnValue(true));
+        this.mockXWikiStore.expects(once()).method("endTransaction").with(same(getContext()), eq(true))
+            .will(new CustomStub("Implements a failed endTransaction")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    // Roll back the saved documents
+                    docs.clear();
+                    throw new XWikiException();
+                }
+            });
+
+        List<String> events = new ArrayList<String>();
+        List<Object> sources = new ArrayList<Object>();
+        recordEvents("testImportDocumentFromFileReplaysFailedBatch", events, sources, new DocumentCreatingEvent(),
+            new DocumentCreatedEvent());
+
+        XWikiDocument doc1 = new XWikiDocument(new DocumentReference("Test", "Test", "DocImport1"));
+        doc1.setDefaultLanguage("en");
+        XWikiDocument doc2 = new XWikiDocument(new DocumentReference("Test", "Test", "DocImport2"));
+        doc2.setDefaultLanguage("en");
+
+        File file = File.createTempFile("import", ".xar");
+        try {
+            FileUtils.writeByteArrayToFile(file,
+                this.createZipFile(new XWikiDocument[] {doc1, doc2}, new String[] {"UTF-8", "UTF-8"}));
+
+            this.pack = new Package();
+            this.pack.Import(file, getContext());
+            this.pack.install(getContext());
+        } finally {
+            file.delete();
+        }
+
+        assertFalse(this.xwiki.getDocument(new DocumentReference("Test", "Test", "DocImport1"), getContext())
+            .isNew());
+        assertFalse(this.xwiki.getDocument(new DocumentReference("Test", "Test", "DocImport2"), getContext())
+            .isNew());
+        assertEquals(2, this.pack.getInstalled(getContext()).size());
+        assertEquals(0, this.pack.getErrors(getContext()).size());
+
+        assertEquals(Arrays.asList("DocumentCreatingEvent Test.DocImport1", "DocumentCreatingEvent Test.DocImport2",
+            "DocumentCreatedEvent Test.DocImport1", "DocumentCreatedEvent Test.DocImport2"), events);
+        // The documents saved again have been read again from the package file
+        assertNotSame(sources.get(0), sources.get(2));
+        assertNotSame(sources.get(1), sources.get(3));
+    }
+
+    /**
+     * Record the document events sent during the installation.
+     */
+    private void recordEvents(final String name, final List<String> events, final List<Object> sources,
+        final Event... listenedEvents) throws Exception
+    {
+        ObservationManager om = getComponentManager().getInstance(ObservationManager.class);
+        om.addListener(new EventListener()
+        {
+            @Override
+            public String getName()
+            {
+                return name;
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return Arrays.asList(listenedEvents);
+            }
+
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                events.add(event.getClass().getSimpleName() + " " + ((XWikiDocument) source).getFullName());
+                sources.add(source);
+            }
+        });
+    }
 }
@@ -0,0 +1,199 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.hibernate.cfg.Environment;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ReplicaRoutingConnectionProvider}, using two embedded HSQLDB databases.
+ *
+ * @version $Id$
+ */
+public class ReplicaRoutingConnectionProviderTest
+{
+    private static final String PRIMARY_URL = "jdbc:hsqldb:mem:primary";
+
+    private static final String REPLICA_URL = "jdbc:hsqldb:mem:replica";
+
+    private ReplicaRoutingConnectionProvider provider;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+
+        initDatabase(PRIMARY_URL, "primary", 0);
+        initDatabase(REPLICA_URL, "replica", 0);
+
+        this.provider = new ReplicaRoutingConnectionProvider();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.provider.close();
+    }
+
+    private void initDatabase(String url, String name, int lag) throws SQLException
+    {
+        Connection connection = DriverManager.getConnection(url, "sa", "");
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE IF EXISTS dbname");
+            statement.execute("CREATE TABLE dbname (name VARCHAR(255), lag INTEGER)");
+            statement.execute("INSERT INTO dbname VALUES ('" + name + "', " + lag + ")");
+            statement.close();
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private Properties getProperties()
+    {
+        Properties props = new Properties();
+        props.setProperty(Environment.DRIVER, "org.hsqldb.jdbcDriver");
+        props.setProperty(Environment.URL, PRIMARY_URL);
+        props.setProperty(Environment.USER, "sa");
+        props.setProperty(Environment.PASS, "");
+        props.setProperty(ReplicaRoutingConnectionProvider.PREFIX, REPLICA_URL);
+        props.setProperty(ReplicaRoutingConnectionProvider.PREFIX + ".checkInterval", "0");
+
+        return props;
+    }
+
+    private String getDatabaseName() throws SQLException
+    {
+        Connection connection = this.provider.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet result = statement.executeQuery("SELECT name FROM dbname");
+            result.next();
+            String name = result.getString(1);
+            statement.close();
+
+            return name;
+        } finally {
+            this.provider.closeConnection(connection);
+        }
+    }
+
+    private String getReadOnlyDatabaseName() throws SQLException
+    {
+        this.provider.setReadOnly(true);
+        try {
+            return getDatabaseName();
+        } finally {
+            this.provider.setReadOnly(false);
+        }
+    }
+
+    @Test
+    public void testRouting() throws Exception
+    {
+        this.provider.configure(getProperties());
+
+        Assert.assertTrue(this.provider.hasReplicas());
+        Assert.assertEquals("primary", getDatabaseName());
+        Assert.assertEquals("replica", getReadOnlyDatabaseName());
+        // The flag is reset
+        Assert.assertEquals("primary", getDatabaseName());
+    }
+
+    @Test
+    public void testNoReplica() throws Exception
+    {
+        Properties props = getProperties();
+        props.remove(ReplicaRoutingConnectionProvider.PREFIX);
+        this.provider.configure(props);
+
+        Assert.assertFalse(this.provider.hasReplicas());
+        Assert.assertEquals("primary", getReadOnlyDatabaseName());
+    }
+
+    @Test
+    public void testFallbackWhenReplicaIsLagging() throws Exception
+    {
+        Properties props = getProperties();
+        props.setProperty(ReplicaRoutingConnectionProvider.PREFIX + ".lagQuery", "SELECT lag FROM dbname");
+        props.setProperty(ReplicaRoutingConnectionProvider.PREFIX + ".maxLag", "5");
+        this.provider.configure(props);
+
+        Assert.assertEquals("replica", getReadOnlyDatabaseName());
+
+        initDatabase(REPLICA_URL, "replica", 10);
+        Assert.assertEquals("primary", getReadOnlyDatabaseName());
+
+        initDatabase(REPLICA_URL, "replica", 2);
+        Assert.assertEquals("replica", getReadOnlyDatabaseName());
+    }
+
+    @Test
+    public void testReplicaIsReadOnly() throws Exception
+    {
+        this.provider.configure(getProperties());
+
+        this.provider.setReadOnly(true);
+        Connection connection = this.provider.getConnection();
+        this.provider.setReadOnly(false);
+        try {
+            Assert.assertTrue(connection.isReadOnly());
+        } finally {
+            this.provider.closeConnection(connection);
+        }
+    }
+
+    @Test
+    public void testStickiness() throws Exception
+    {
+        Properties props = getProperties();
+        props.setProperty(ReplicaRoutingConnectionProvider.PREFIX + ".stickiness", "60000");
+        this.provider.configure(props);
+
+        Assert.assertFalse(this.provider.isSticky("session"));
+        this.provider.markWrite("session");
+        Assert.assertTrue(this.provider.isSticky("session"));
+        Assert.assertFalse(this.provider.isSticky("othersession"));
+        Assert.assertFalse(this.provider.isSticky(null));
+    }
+
+    @Test
+    public void testStickinessExpires() throws Exception
+    {
+        Properties props = getProperties();
+        props.setProperty(ReplicaRoutingConnectionProvider.PREFIX + ".stickiness", "1");
+        this.provider.configure(props);
+
+        this.provider.markWrite("session");
+        Thread.sleep(10);
+        Assert.assertFalse(this.provider.isSticky("session"));
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.EntityMode;
+import org.hibernate.ReplicationMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.HSQLDialect;
+import org.hibernate.mapping.Table;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.doc.XWikiLink;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeContent;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeInfo;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.DBStringListProperty;
+import com.xpn.xwiki.objects.DateProperty;
+import com.xpn.xwiki.objects.IntegerProperty;
+import com.xpn.xwiki.objects.LargeStringProperty;
+import com.xpn.xwiki.objects.StringProperty;
+
+/**
+ * Unit tests for {@link WikiDataCopier}, using an embedded HSQLDB database with one schema per wiki.
+ *
+ * @version $Id$
+ */
+public class WikiDataCopierTest
+{
+    private static final String SOURCE = "SOURCE";
+
+    private static final String TARGET = "TARGET";
+
+    /** Filled entity by entity, the way the store saves the documents. */
+    private static final String REFERENCE = "REFERENCE";
+
+    /** The comments class is custom mapped in xwiki.hbm.xml. */
+    private static final String COMMENTS_ENTITY = "XWiki.XWikiComments";
+
+    /**
+     * The entities saved by the stores when saving a document, in the order they are saved. The content of the
+     * history nodes is stored in the table of the nodes and is saved after them.
+     */
+    private static final List<String> DOCUMENT_ENTITIES = Arrays.asList(XWikiDocument.class.getName(),
+        XWikiRCSNodeInfo.class.getName(), XWikiRCSNodeContent.class.getName(), XWikiLink.class.getName(),
+        XWikiAttachment.class.getName(), XWikiAttachmentContent.class.getName(),
+        XWikiAttachmentArchive.class.getName(), BaseObject.class.getName(), BaseProperty.class.getName(),
+        COMMENTS_ENTITY);
+
+    private Connection connection;
+
+    private Configuration configuration;
+
+    private Dialect dialect;
+
+    private WikiDataCopier copier;
+
+    private Set<String> copiedTables = new HashSet<String>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+
+        this.configuration = new Configuration();
+        this.configuration.setProperty(Environment.DIALECT, HSQLDialect.class.getName());
+        this.configuration.addResource("xwiki.hbm.xml");
+
+        this.dialect = new HSQLDialect();
+        this.copier = new WikiDataCopier(this.configuration, this.dialect);
+        for (Table table : this.copier.getTables()) {
+            this.copiedTables.add(table.getName().toUpperCase());
+        }
+
+        this.connection = DriverManager.getConnection("jdbc:hsqldb:mem:wikidatacopier", "sa", "");
+
+        String[] script = this.configuration.generateSchemaCreationScript(this.dialect);
+        createSchema(SOURCE, script);
+        createSchema(TARGET, script);
+        createSchema(REFERENCE, script);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        Statement statement = this.connection.createStatement();
+        statement.execute("DROP SCHEMA " + SOURCE + " CASCADE");
+        statement.execute("DROP SCHEMA " + TARGET + " CASCADE");
+        statement.execute("DROP SCHEMA " + REFERENCE + " CASCADE");
+        statement.close();
+        this.connection.close();
+    }
+
+    private void createSchema(String schema, String[] script) throws SQLException
+    {
+        Statement statement = this.connection.createStatement();
+        try {
+            statement.execute("CREATE SCHEMA " + schema);
+            statement.execute("SET SCHEMA " + schema);
+            for (String sql : script) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Insert a row in the passed table, using the same value for all the columns of the same type so that the foreign
+     * keys are satisfied.
+     */
+    private void insertRow(String schema, String tableName) throws SQLException
+    {
+        List<Integer> types = new ArrayList<Integer>();
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+
+        ResultSet result = this.connection.getMetaData().getColumns(null, schema, tableName, null);
+        try {
+            while (result.next()) {
+                if (columns.length() > 0) {
+                    columns.append(", ");
+                    values.append(", ");
+                }
+                columns.append(result.getString("COLUMN_NAME"));
+                values.append('?');
+                types.add(result.getInt("DATA_TYPE"));
+            }
+        } finally {
+            result.close();
+        }
+
+        PreparedStatement statement =
+            this.connection.prepareStatement("INSERT INTO " + schema + '.' + tableName + " (" + columns + ") VALUES ("
+                + values + ')');
+        try {
+            for (int i = 0; i < types.size(); ++i) {
+                setValue(statement, i + 1, types.get(i));
+            }
+            statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void setValue(PreparedStatement statement, int index, int type) throws SQLException
+    {
+        switch (type) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.CLOB:
+                statement.setString(index, "a");
+                break;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                statement.setBytes(index, new byte[] {1});
+                break;
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                statement.setTimestamp(index, new java.sql.Timestamp(0));
+                break;
+            case Types.BOOLEAN:
+            case Types.BIT:
+                statement.setBoolean(index, true);
+                break;
+            default:
+                statement.setInt(index, 1);
+        }
+    }
+
+    private int countRows(String schema, String tableName) throws SQLException
+    {
+        Statement statement = this.connection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM " + schema + '.' + tableName);
+            result.next();
+
+            return result.getInt(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return the rows of the table, as strings, sorted since the order of the rows depends on the way they have been
+     *         inserted
+     */
+    private List<String> getRows(String schema, String tableName) throws SQLException
+    {
+        List<String> rows = new ArrayList<String>();
+
+        Statement statement = this.connection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery("SELECT * FROM " + schema + '.' + tableName);
+            int columnCount = result.getMetaData().getColumnCount();
+            while (result.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columnCount; ++i) {
+                    row.append(result.getMetaData().getColumnName(i)).append('=');
+                    row.append(toString(result.getObject(i))).append(';');
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            statement.close();
+        }
+
+        Collections.sort(rows);
+
+        return rows;
+    }
+
+    private String toString(Object value) throws SQLException
+    {
+        if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+            return Arrays.toString(blob.getBytes(1, (int) blob.length()));
+        } else if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+            return clob.getSubString(1, (int) clob.length());
+        } else if (value instanceof byte[]) {
+            return Arrays.toString((byte[]) value);
+        }
+
+        return String.valueOf(value);
+    }
+
+    private Map<String, Object> entity(Object... properties)
+    {
+        Map<String, Object> entity = new HashMap<String, Object>();
+        for (int i = 0; i < properties.length; i += 2) {
+            entity.put((String) properties[i], properties[i + 1]);
+        }
+
+        return entity;
+    }
+
+    /**
+     * Save a document with a translation, history, a link, an attachment, an object with several types of properties
+     * and a custom mapped object.
+     */
+    private void saveDocument(Session session)
+    {
+        Date date = new Date(1000);
+        for (String language : new String[] {"", "fr"}) {
+            session.save(XWikiDocument.class.getName(), entity("id", (long) language.length() + 1, "fullName",
+                "Space.Page", "name", "Page", "title", "Title " + language, "language", language, "defaultLanguage",
+                "en", "translation", language.length() > 0 ? 1 : 0, "date", date, "contentUpdateDate", date,
+                "creationDate", date, "author", "XWiki.Author", "contentAuthor", "XWiki.Author", "creator",
+                "XWiki.Creator", "web", "Space", "space", "Space", "content", "Content " + language, "version", "1.1",
+                "customClass", "", "parent", "Space.WebHome", "xWikiClassXML", null, "elements", 3,
+                "defaultTemplate", "", "validationScript", "", "comment", "", "minorEdit1", false, "syntaxId",
+                "xwiki/2.1", "hidden", false));
+        }
+
+        Map<String, Object> nodeId = entity("docId", 1L, "version1", 1, "version2", 1);
+        session.save(XWikiRCSNodeInfo.class.getName(), entity("id", nodeId, "date", date, "comment", "",
+            "author", "XWiki.Author"));
+        session.flush();
+        session.update(XWikiRCSNodeContent.class.getName(), entity("id", new HashMap<String, Object>(nodeId),
+            "patch", entity("diff", false, "content", "<xwikidoc></xwikidoc>")));
+
+        session.save(XWikiLink.class.getName(), entity("docId", 1L, "link", "Space.Other", "fullName",
+            "Space.Page"));
+
+        session.save(XWikiAttachment.class.getName(), entity("id", 10L, "docId", 1L, "filename", "file.txt",
+            "filesize", 3, "date", date, "author", "XWiki.Author", "version", "1.1", "comment", ""));
+        session.save(XWikiAttachmentContent.class.getName(), entity("id", 10L, "content", new byte[] {1, 2, 3}));
+        session.save(XWikiAttachmentArchive.class.getName(), entity("id", 10L, "archive", new byte[] {4, 5}));
+
+        session.save(BaseObject.class.getName(), entity("id", 20L, "number", 0, "name", "Space.Page", "className",
+            "Space.Class", "guid", "guid"));
+        session.save(StringProperty.class.getName(), entity("id", 20L, "name", "string", "classType",
+            StringProperty.class.getName(), "value", "value"));
+        session.save(IntegerProperty.class.getName(), entity("id", 20L, "name", "integer", "classType",
+            IntegerProperty.class.getName(), "value", 42));
+        session.save(DateProperty.class.getName(), entity("id", 20L, "name", "date", "classType",
+            DateProperty.class.getName(), "value", date));
+        session.save(LargeStringProperty.class.getName(), entity("id", 20L, "name", "textarea", "classType",
+            LargeStringProperty.class.getName(), "value", "text"));
+        session.save(DBStringListProperty.class.getName(), entity("id", 20L, "name", "list", "classType",
+            DBStringListProperty.class.getName(), "list", new ArrayList<String>(Arrays.asList("a", "b"))));
+
+        session.save(BaseObject.class.getName(), entity("id", 30L, "number", 0, "name", "Space.Page", "className",
+            COMMENTS_ENTITY, "guid", "guid2"));
+        session.save(COMMENTS_ENTITY, entity("id", 30L, "author", "XWiki.Author", "comment", "comment", "date",
+            date));
+
+        session.flush();
+    }
+
+    /**
+     * Copy the entities of the documents one by one through the Hibernate mapping, as the stores do when the
+     * documents are copied one by one. The entities are handled as maps so that no XWiki component is needed.
+     */
+    @SuppressWarnings("unchecked")
+    private void copyEntityByEntity(SessionFactory sessionFactory, String sourceSchema, String targetSchema)
+        throws SQLException
+    {
+        List<String> entityNames = new ArrayList<String>();
+        List<Object> entities = new ArrayList<Object>();
+
+        setSchema(sourceSchema);
+        Session source = sessionFactory.openSession(this.connection);
+        try {
+            for (String entityName : DOCUMENT_ENTITIES) {
+                for (Object entity : source.createQuery("from " + entityName).list()) {
+                    // Duplicate the entity, with its collections, like a document copied in another wiki
+                    Map<String, Object> copy = new HashMap<String, Object>();
+                    for (Map.Entry<String, Object> property : ((Map<String, Object>) entity).entrySet()) {
+                        Object value = property.getValue();
+                        copy.put(property.getKey(), value instanceof List ? new ArrayList<Object>((List< ? >) value)
+                            : value);
+                    }
+                    entityNames.add(entityName);
+                    entities.add(copy);
+                }
+            }
+        } finally {
+            source.close();
+        }
+
+        setSchema(targetSchema);
+        Session target = sessionFactory.openSession(this.connection);
+        try {
+            for (int i = 0; i < entities.size(); ++i) {
+                target.replicate(entityNames.get(i), entities.get(i), ReplicationMode.OVERWRITE);
+                // Flushed one by one since the history node content updates the row inserted for the history node
+                target.flush();
+            }
+        } finally {
+            target.close();
+        }
+    }
+
+    private void setSchema(String schema) throws SQLException
+    {
+        Statement statement = this.connection.createStatement();
+        try {
+            statement.execute("SET SCHEMA " + schema);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private List<String> getTableNames(String schema) throws SQLException
+    {
+        List<String> tableNames = new ArrayList<String>();
+
+        ResultSet result = this.connection.getMetaData().getTables(null, schema, null, new String[] {"TABLE"});
+        try {
+            while (result.next()) {
+                tableNames.add(result.getString("TABLE_NAME"));
+            }
+        } finally {
+            result.close();
+        }
+
+        return tableNames;
+    }
+
+    @Test
+    public void testCopiedTables()
+    {
+        Assert.assertTrue(this.copiedTables.contains("XWIKIDOC"));
+        Assert.assertTrue(this.copiedTables.contains("XWIKIRCS"));
+        Assert.assertTrue(this.copiedTables.contains("XWIKIOBJECTS"));
+        Assert.assertTrue(this.copiedTables.contains("XWIKIPROPERTIES"));
+        Assert.assertTrue(this.copiedTables.contains("XWIKISTRINGS"));
+        Assert.assertTrue(this.copiedTables.contains("XWIKILISTITEMS"));
+        Assert.assertTrue(this.copiedTables.contains("XWIKIATTACHMENT"));
+        Assert.assertTrue(this.copiedTables.contains("XWIKIATTACHMENT_CONTENT"));
+        Assert.assertTrue(this.copiedTables.contains("XWIKIATTACHMENT_ARCHIVE"));
+
+        Assert.assertFalse(this.copiedTables.contains("XWIKILOCK"));
+        Assert.assertFalse(this.copiedTables.contains("XWIKIRECYCLEBIN"));
+        Assert.assertFalse(this.copiedTables.contains("XWIKIATTRECYCLEBIN"));
+    }
+
+    @Test
+    public void testCopy() throws Exception
+    {
+        // Tables are listed in an order compatible with the foreign keys
+        for (Table table : this.copier.getTables()) {
+            insertRow(SOURCE, table.getName().toUpperCase());
+        }
+        insertRow(SOURCE, "XWIKILOCK");
+        insertRow(SOURCE, "XWIKIRECYCLEBIN");
+
+        int rows = this.copier.copy(this.connection, SOURCE, TARGET);
+
+        Assert.assertEquals(this.copiedTables.size(), rows);
+        for (String tableName : getTableNames(SOURCE)) {
+            Assert.assertEquals(tableName, this.copiedTables.contains(tableName) ? 1 : 0, countRows(TARGET, tableName));
+        }
+    }
+
+    /**
+     * Compare the bulk copy with a copy of the same documents saved entity by entity.
+     */
+    @Test
+    public void testCopyIsSameAsEntityByEntityCopy() throws Exception
+    {
+        this.configuration.setProperty(Environment.DEFAULT_ENTITY_MODE, EntityMode.MAP.toString());
+        SessionFactory sessionFactory = this.configuration.buildSessionFactory();
+        try {
+            setSchema(SOURCE);
+            Session session = sessionFactory.openSession(this.connection);
+            try {
+                saveDocument(session);
+            } finally {
+                session.close();
+            }
+            // Not copied
+            insertRow(SOURCE, "XWIKILOCK");
+            insertRow(SOURCE, "XWIKIRECYCLEBIN");
+
+            this.copier.copy(this.connection, SOURCE, TARGET);
+            copyEntityByEntity(sessionFactory, SOURCE, REFERENCE);
+        } finally {
+            sessionFactory.close();
+        }
+
+        Set<String> filledTables = new HashSet<String>();
+        for (String tableName : getTableNames(SOURCE)) {
+            List<String> rows = getRows(REFERENCE, tableName);
+            Assert.assertEquals(tableName, rows, getRows(TARGET, tableName));
+            if (!rows.isEmpty()) {
+                filledTables.add(tableName);
+            }
+        }
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("XWIKIDOC", "XWIKIRCS", "XWIKILINKS",
+            "XWIKIATTACHMENT", "XWIKIATTACHMENT_CONTENT", "XWIKIATTACHMENT_ARCHIVE", "XWIKIOBJECTS",
+            "XWIKIPROPERTIES", "XWIKISTRINGS", "XWIKIINTEGERS", "XWIKIDATES", "XWIKILARGESTRINGS", "XWIKILISTS",
+            "XWIKILISTITEMS", "XWIKICOMMENTS")), filledTables);
+    }
+
+    @Test
+    public void testCopyEmptyWiki() throws Exception
+    {
+        Assert.assertEquals(0, this.copier.copy(this.connection, SOURCE, TARGET));
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jmock.Expectations;
+import org.jmock.States;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.util.AbstractCache;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for the off-heap second level of {@link XWikiCacheStore}.
+ * 
+ * @version $Id$
+ */
+public class XWikiCacheStoreTest extends AbstractBridgedComponentTestCase
+{
+    /**
+     * A cache backed by a map, evicting the least recently used entries beyond its capacity.
+     */
+    static class TestCache<T> extends AbstractCache<T>
+    {
+        private final int capacity;
+
+        private final Map<String, T> entries = new LinkedHashMap<String, T>(16, 0.75f, true);
+
+        TestCache(int capacity)
+        {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void set(String key, T value)
+        {
+            this.entries.put(key, value);
+            Iterator<Map.Entry<String, T>> iterator = this.entries.entrySet().iterator();
+            while (this.entries.size() > this.capacity) {
+                Map.Entry<String, T> eldest = iterator.next();
+                iterator.remove();
+                sendEntryRemovedEvent(getEvent(eldest.getKey(), eldest.getValue()));
+            }
+        }
+
+        @Override
+        public T get(String key)
+        {
+            return this.entries.get(key);
+        }
+
+        @Override
+        public void remove(String key)
+        {
+            T value = this.entries.remove(key);
+            if (value != null) {
+                sendEntryRemovedEvent(getEvent(key, value));
+            }
+        }
+
+        @Override
+        public void removeAll()
+        {
+            for (Map.Entry<String, T> entry : new ArrayList<Map.Entry<String, T>>(this.entries.entrySet())) {
+                remove(entry.getKey());
+            }
+        }
+
+        @Override
+        public void dispose()
+        {
+            removeAll();
+            super.dispose();
+        }
+
+        private CacheEntryEvent<T> getEvent(final String key, final T value)
+        {
+            final CacheEntry<T> entry = new CacheEntry<T>()
+            {
+                @Override
+                public Cache<T> getCache()
+                {
+                    return TestCache.this;
+                }
+
+                @Override
+                public String getKey()
+                {
+                    return key;
+                }
+
+                @Override
+                public T getValue()
+                {
+                    return value;
+                }
+            };
+
+            return new CacheEntryEvent<T>()
+            {
+                @Override
+                public CacheEntry<T> getEntry()
+                {
+                    return entry;
+                }
+
+                @Override
+                public Cache<T> getCache()
+                {
+                    return TestCache.this;
+                }
+            };
+        }
+    }
+
+    private XWikiStoreInterface store;
+
+    private final States observation = getMockery().states("observation").startsAs("local");
+
+    private XWikiCacheStore cacheStore;
+
+    private CacheStatistics offHeapStatistics;
+
+    /**
+     * The keys of the documents loaded from the underlying store, in the order they were loaded.
+     */
+    private final List<String> loadedKeys = new ArrayList<String>();
+
+    private final DocumentReference first = new DocumentReference("xwiki", "Space", "First");
+
+    private final DocumentReference second = new DocumentReference("xwiki", "Space", "Second");
+
+    private final DocumentReference third = new DocumentReference("xwiki", "Space", "Third");
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(xwiki);
+        this.store = getMockery().mock(XWikiStoreInterface.class);
+        final RemoteObservationManagerContext remoteObservationManagerContext =
+            registerMockComponent(RemoteObservationManagerContext.class);
+        final ObservationManager observationManager = registerMockComponent(ObservationManager.class);
+        final CacheManager cacheManager = registerMockComponent(CacheManager.class);
+
+        final CacheFactory cacheFactory = new CacheFactory()
+        {
+            @Override
+            public <T> Cache<T> newCache(CacheConfiguration config)
+            {
+                LRUEvictionConfiguration lru =
+                    (LRUEvictionConfiguration) config.get(LRUEvictionConfiguration.CONFIGURATIONID);
+                return new TestCache<T>(lru.getMaxEntries());
+            }
+        };
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(xwiki).getEncoding();
+                will(returnValue("UTF-8"));
+                allowing(xwiki).getCacheFactory();
+                will(returnValue(cacheFactory));
+                // Only 2 documents are kept in the heap.
+                allowing(xwiki).Param("xwiki.store.cache.capacity");
+                will(returnValue("2"));
+                allowing(xwiki).Param("xwiki.store.cache.offheap.maxsize");
+                will(returnValue("1048576"));
+                allowing(xwiki).Param(with(any(String.class)));
+                will(returnValue(null));
+
+                allowing(remoteObservationManagerContext).isRemoteState();
+                when(observation.is("local"));
+                will(returnValue(false));
+                allowing(remoteObservationManagerContext).isRemoteState();
+                when(observation.is("remote"));
+                will(returnValue(true));
+                oneOf(observationManager).addListener(with(any(EventListener.class)));
+
+                oneOf(cacheManager).registerStatistics(with("xwiki.store.pagecache.offheap"),
+                    with(any(CacheStatistics.class)));
+                will(new CustomAction("Captures the off-heap statistics")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        offHeapStatistics = (CacheStatistics) invocation.getParameter(1);
+                        return null;
+                    }
+                });
+
+                allowing(store).loadXWikiDoc(with(any(XWikiDocument.class)), with(any(XWikiContext.class)));
+                will(new CustomAction("Loads the document from the database")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        XWikiDocument document = (XWikiDocument) invocation.getParameter(0);
+                        loadedKeys.add(document.getKey());
+
+                        XWikiDocument storedDocument = new XWikiDocument(document.getDocumentReference());
+                        storedDocument.setContent("content of " + document.getDocumentReference().getName());
+                        storedDocument.setNew(false);
+
+                        return storedDocument;
+                    }
+                });
+            }
+        });
+
+        this.cacheStore = new XWikiCacheStore(this.store, getContext());
+    }
+
+    private XWikiDocument load(DocumentReference reference) throws Exception
+    {
+        return this.cacheStore.loadXWikiDoc(new XWikiDocument(reference), getContext());
+    }
+
+    private int getLoadCount(DocumentReference reference)
+    {
+        return Collections.frequency(this.loadedKeys, new XWikiDocument(reference).getKey());
+    }
+
+    @Test
+    public void testOffHeapStatisticsAreRegistered()
+    {
+        Assert.assertNotNull(this.offHeapStatistics);
+        Assert.assertEquals(0, this.offHeapStatistics.getSize());
+    }
+
+    @Test
+    public void testEvictedDocumentIsStoredOffHeap() throws Exception
+    {
+        XWikiDocument firstDocument = load(this.first);
+        load(this.second);
+        Assert.assertEquals(0, this.offHeapStatistics.getSize());
+
+        // Evicts the first document from the heap.
+        load(this.third);
+
+        Assert.assertEquals(1, this.offHeapStatistics.getSize());
+
+        XWikiDocument restoredDocument = load(this.first);
+
+        Assert.assertEquals(1, getLoadCount(this.first));
+        Assert.assertEquals(1, this.offHeapStatistics.getHitCount());
+        Assert.assertNotSame(firstDocument, restoredDocument);
+        Assert.assertEquals(this.first, restoredDocument.getDocumentReference());
+        Assert.assertEquals("content of First", restoredDocument.getContent());
+        Assert.assertFalse(restoredDocument.isNew());
+        Assert.assertTrue(restoredDocument.isFromCache());
+        Assert.assertSame(this.store, restoredDocument.getStore());
+
+        // The original document is used to detect the changes made to the document when it's saved.
+        XWikiDocument originalDocument = restoredDocument.getOriginalDocument();
+        Assert.assertNotNull(originalDocument);
+        Assert.assertNotSame(restoredDocument, originalDocument);
+        Assert.assertEquals("content of First", originalDocument.getContent());
+        Assert.assertFalse(originalDocument.isNew());
+
+        // The first document is back in the heap, and the second one, evicted to make room for it, is stored off-heap.
+        load(this.first);
+        Assert.assertEquals(1, getLoadCount(this.first));
+        Assert.assertEquals(1, this.offHeapStatistics.getHitCount());
+        Assert.assertEquals(2, this.offHeapStatistics.getSize());
+    }
+
+    @Test
+    public void testSaveInvalidatesBothLevels() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                exactly(2).of(store).saveXWikiDoc(with(any(XWikiDocument.class)), with(any(XWikiContext.class)),
+                    with(true));
+            }
+        });
+
+        load(this.first);
+        load(this.second);
+        load(this.third);
+
+        // Stored off-heap.
+        this.cacheStore.saveXWikiDoc(new XWikiDocument(this.first), getContext());
+        // Stored in the heap, it's not moved off-heap when removed from the heap.
+        this.cacheStore.saveXWikiDoc(new XWikiDocument(this.third), getContext());
+
+        Assert.assertEquals(0, this.offHeapStatistics.getSize());
+
+        load(this.first);
+        load(this.third);
+
+        Assert.assertEquals(2, getLoadCount(this.first));
+        Assert.assertEquals(2, getLoadCount(this.third));
+    }
+
+    @Test
+    public void testDeleteInvalidatesBothLevels() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                exactly(2).of(store).deleteXWikiDoc(with(any(XWikiDocument.class)), with(any(XWikiContext.class)));
+            }
+        });
+
+        load(this.first);
+        load(this.second);
+        load(this.third);
+
+        this.cacheStore.deleteXWikiDoc(new XWikiDocument(this.first), getContext());
+        this.cacheStore.deleteXWikiDoc(new XWikiDocument(this.third), getContext());
+
+        Assert.assertEquals(0, this.offHeapStatistics.getSize());
+
+        load(this.first);
+        load(this.third);
+
+        Assert.assertEquals(2, getLoadCount(this.first));
+        Assert.assertEquals(2, getLoadCount(this.third));
+    }
+
+    @Test
+    public void testRemoteEventsInvalidateBothLevels() throws Exception
+    {
+        load(this.first);
+        load(this.second);
+        load(this.third);
+
+        // The local events are ignored since the document is already invalidated when it's saved or deleted.
+        this.cacheStore.onEvent(new DocumentUpdatedEvent(this.first), new XWikiDocument(this.first), getContext());
+        Assert.assertEquals(1, this.offHeapStatistics.getSize());
+
+        this.observation.become("remote");
+        // Stored off-heap.
+        this.cacheStore.onEvent(new DocumentUpdatedEvent(this.first), new XWikiDocument(this.first), getContext());
+        // Stored in the heap.
+        this.cacheStore.onEvent(new DocumentDeletedEvent(this.third), new XWikiDocument(this.third), getContext());
+
+        Assert.assertEquals(0, this.offHeapStatistics.getSize());
+
+        load(this.first);
+        load(this.third);
+
+        Assert.assertEquals(2, getLoadCount(this.first));
+        Assert.assertEquals(2, getLoadCount(this.third));
+    }
+
+    @Test
+    public void testFlushCacheInvalidatesBothLevels() throws Exception
+    {
+        load(this.first);
+        load(this.second);
+        load(this.third);
+
+        this.cacheStore.flushCache();
+
+        // The documents removed from the heap when it's flushed are not moved off-heap.
+        Assert.assertEquals(0, this.offHeapStatistics.getSize());
+
+        load(this.first);
+        load(this.third);
+
+        Assert.assertEquals(2, getLoadCount(this.first));
+        Assert.assertEquals(2, getLoadCount(this.third));
+    }
+}
@@ -26,6 +26,7 @@
 import org.junit.Assert;
 
 import java.sql.SQLException;
+import java.util.Properties;
 
 /**
  * Unit tests for the {@link XWikiHibernateStore} class.
@@ -91,4 +92,53 @@ public void testEndTransactionWhenSQLBatchUpdateExceptionThrown() throws Excepti
                 + "SQL next exception = [java.sql.SQLException: nextexception2]]", e.getMessage());
         }
     }
+
+    @org.junit.Test
+    public void testCommitMakesNextReadsUsePrimary() throws Exception
+    {
+        final ReplicaRoutingConnectionProvider router = new ReplicaRoutingConnectionProvider();
+        Properties props = new Properties();
+        props.setProperty(org.hibernate.cfg.Environment.DRIVER, "org.hsqldb.jdbcDriver");
+        props.setProperty(org.hibernate.cfg.Environment.URL, "jdbc:hsqldb:mem:primary");
+        props.setProperty(org.hibernate.cfg.Environment.USER, "sa");
+        props.setProperty(org.hibernate.cfg.Environment.PASS, "");
+        props.setProperty(ReplicaRoutingConnectionProvider.PREFIX, "jdbc:hsqldb:mem:replica");
+        props.setProperty(ReplicaRoutingConnectionProvider.PREFIX + ".checkInterval", "0");
+        props.setProperty(ReplicaRoutingConnectionProvider.PREFIX + ".stickiness", "60000");
+        router.configure(props);
+
+        XWikiHibernateStore store = new XWikiHibernateStore("whatever")
+        {
+            @Override
+            ReplicaRoutingConnectionProvider getReplicaRouter()
+            {
+                return router;
+            }
+        };
+
+        final Transaction saveTransaction = getMockery().mock(Transaction.class, "save");
+        final Transaction loadTransaction = getMockery().mock(Transaction.class, "load");
+        getMockery().checking(new Expectations() {{
+            oneOf(saveTransaction).commit();
+            oneOf(loadTransaction).rollback();
+        }});
+
+        try {
+            getContext().setUser("XWiki.Reader");
+            store.setTransaction(loadTransaction, getContext());
+            store.endTransaction(getContext(), false);
+            Assert.assertFalse(router.isSticky("XWiki.Reader"));
+
+            // What saveXWikiDoc and deleteXWikiDoc do when they are done
+            getContext().setUser("XWiki.Writer");
+            store.setTransaction(saveTransaction, getContext());
+            store.endTransaction(getContext(), true);
+
+            // The following reads of the same user are not routed to a possibly lagging replica
+            Assert.assertTrue(router.isSticky("XWiki.Writer"));
+            Assert.assertFalse(router.isSticky("XWiki.Reader"));
+        } finally {
+            router.close();
+        }
+    }
 }
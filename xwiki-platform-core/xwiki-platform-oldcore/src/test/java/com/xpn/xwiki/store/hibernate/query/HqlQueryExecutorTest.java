@@ -19,14 +19,38 @@
  */
 package com.xpn.xwiki.store.hibernate.query;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.hibernate.cfg.Configuration;
 import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryFilter;
+import org.xwiki.query.QueryResultIterator;
+import org.xwiki.query.internal.DefaultQuery;
 import org.xwiki.test.AbstractMockingComponentTestCase;
 import org.xwiki.test.annotation.MockingRequirement;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests for {@link HqlQueryExecutor}
@@ -38,17 +62,175 @@ public class HqlQueryExecutorTest extends AbstractMockingComponentTestCase {
     @MockingRequirement
     private HqlQueryExecutor executor;
 
+    private static final String STATEMENT = "select doc.fullName from XWikiDocument doc";
+
     HibernateSessionFactory sessionFactory;
 
+    private XWikiContext context;
+
+    private XWikiHibernateStore store;
+
+    private Session session;
+
     @Override
     public void configure() throws Exception
     {
+        getMockery().setImposteriser(ClassImposteriser.INSTANCE);
+
         sessionFactory = getComponentManager().getInstance(HibernateSessionFactory.class);
+        final Execution execution = getComponentManager().getInstance(Execution.class);
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        store = getMockery().mock(XWikiHibernateStore.class);
+        session = getMockery().mock(Session.class);
+
+        context = new XWikiContext();
+        context.setDatabase("xwiki");
+        context.setWiki(xwiki);
+        final ExecutionContext executionContext = new ExecutionContext();
+        executionContext.setProperty("xwikicontext", context);
 
         getMockery().checking(new Expectations() {{
             allowing(sessionFactory).getConfiguration();
             will(returnValue(new Configuration()));
+            allowing(execution).getContext();
+            will(returnValue(executionContext));
+            allowing(xwiki).getHibernateStore();
+            will(returnValue(store));
+        }});
+    }
+
+    private List<Object> consume(QueryResultIterator<Object> iterator)
+    {
+        List<Object> results = new ArrayList<Object>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        return results;
+    }
+
+    /**
+     * Expect the query to be scrolled from an independent session returning the passed rows.
+     */
+    private ScrollableResults expectScroll(final Object... rows)
+    {
+        final org.hibernate.Query hquery = getMockery().mock(org.hibernate.Query.class);
+        final ScrollableResults results = getMockery().mock(ScrollableResults.class);
+        final Sequence sequence = getMockery().sequence("rows");
+
+        getMockery().checking(new Expectations() {{
+            oneOf(store).openIndependentSession(context);
+            will(returnValue(session));
+            oneOf(session).createQuery(STATEMENT);
+            will(returnValue(hquery));
+            // A positive fetch size: streaming row by row on MySQL would forbid lazy loading while iterating
+            oneOf(hquery).setFetchSize(100);
+            will(returnValue(hquery));
+            oneOf(hquery).setReadOnly(true);
+            will(returnValue(hquery));
+            oneOf(hquery).scroll(ScrollMode.FORWARD_ONLY);
+            will(returnValue(results));
+            for (Object row : rows) {
+                oneOf(results).next();
+                inSequence(sequence);
+                will(returnValue(true));
+                oneOf(results).get();
+                inSequence(sequence);
+                will(returnValue(new Object[] {row}));
+            }
+        }});
+
+        return results;
+    }
+
+    @Test
+    public void streamScrollsTheResults() throws Exception
+    {
+        final ScrollableResults results = expectScroll("Main.WebHome", "Main.Other");
+
+        getMockery().checking(new Expectations() {{
+            oneOf(results).next();
+            will(returnValue(false));
+            // The session is released as soon as the last row is read
+            oneOf(results).close();
+            oneOf(store).closeIndependentSession(session, context);
         }});
+
+        QueryResultIterator<Object> iterator = executor.stream(new DefaultQuery(STATEMENT, Query.HQL, executor));
+
+        assertEquals(Arrays.<Object>asList("Main.WebHome", "Main.Other"), consume(iterator));
+        assertFalse(iterator.hasNext());
+
+        // Closing an exhausted iterator does nothing
+        iterator.close();
+    }
+
+    @Test
+    public void closeReleasesTheSession() throws Exception
+    {
+        final ScrollableResults results = expectScroll("Main.WebHome");
+
+        getMockery().checking(new Expectations() {{
+            oneOf(results).close();
+            oneOf(store).closeIndependentSession(session, context);
+        }});
+
+        QueryResultIterator<Object> iterator = executor.stream(new DefaultQuery(STATEMENT, Query.HQL, executor));
+
+        assertTrue(iterator.hasNext());
+        assertEquals("Main.WebHome", iterator.next());
+
+        iterator.close();
+        iterator.close();
+
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void streamWithFilterNeedingAllTheResults() throws Exception
+    {
+        final org.hibernate.Query hquery = getMockery().mock(org.hibernate.Query.class);
+
+        // Sorting can't be done one row at a time
+        QueryFilter sortFilter = new QueryFilter()
+        {
+            @Override
+            public String filterStatement(String statement, String language)
+            {
+                return statement;
+            }
+
+            @Override
+            public List filterResults(List results)
+            {
+                List sorted = new ArrayList(results);
+                Collections.sort(sorted);
+
+                return sorted;
+            }
+        };
+
+        getMockery().checking(new Expectations() {{
+            oneOf(store).executeRead(with(same(context)), with(true), with(any(HibernateCallback.class)));
+            will(new CustomAction("execute the query")
+            {
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    return ((HibernateCallback< ? >) invocation.getParameter(2)).doInHibernate(session);
+                }
+            });
+            oneOf(session).createQuery(STATEMENT);
+            will(returnValue(hquery));
+            oneOf(hquery).list();
+            will(returnValue(Arrays.asList("Main.WebHome", "Blog.Other", "Main.Other")));
+        }});
+
+        Query query = new DefaultQuery(STATEMENT, Query.HQL, executor);
+        query.addFilter(sortFilter);
+
+        assertEquals(Arrays.<Object>asList("Blog.Other", "Main.Other", "Main.WebHome"),
+            consume(executor.<Object>stream(query)));
     }
 
     @Test
@@ -0,0 +1,318 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.web;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.plugin.XWikiPluginManager;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Measures the time needed by {@link DownloadAction} to send a big attachment, when its content is held in memory
+ * compared to when it's stored in a local file, for full downloads and for byte range requests, along with the memory
+ * allocated by the downloading thread (when the JVM supports measuring it) and the garbage collections which happened
+ * during the measure. The results are logged.
+ * <p>
+ * The benchmark is skipped unless the {@code xwiki.download.benchmark} system property is {@code true}. The
+ * {@code xwiki.download.benchmark.iterations} system property is the number of downloads done by each measure,
+ * {@code 100} by default, and {@code xwiki.download.benchmark.size} is the size of the attachment in megabytes,
+ * {@code 16} by default.
+ * 
+ * @version $Id$
+ */
+public class DownloadActionBenchmarkTest extends AbstractBridgedComponentTestCase
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadActionBenchmarkTest.class);
+
+    private static final String PROPERTY_PREFIX = "xwiki.download.benchmark";
+
+    private static final String MEMORY_ATTACHMENT = "memory.bin";
+
+    private static final String FILE_ATTACHMENT = "file.bin";
+
+    /** The range requested by the partial downloads: the last kilobyte of the attachment. */
+    private static final String TAIL_RANGE = "bytes=-1024";
+
+    private DownloadAction action = new DownloadAction();
+
+    private int iterations;
+
+    private long size;
+
+    /** The URI of the attachment currently downloaded. */
+    private String uri;
+
+    /** The Range header of the current request, if any. */
+    private String range;
+
+    /** Counts the bytes written to the response. */
+    private CountingOutputStream out = new CountingOutputStream();
+
+    /**
+     * The result of a measure.
+     */
+    private static class Measure
+    {
+        /** The duration of the measure in nanoseconds. */
+        private long duration;
+
+        /** The bytes allocated by the current thread during the measure, -1 if it can't be measured. */
+        private long allocated;
+
+        /** The number of garbage collections during the measure. */
+        private long collections;
+
+        /** The time spent in garbage collections during the measure, in milliseconds. */
+        private long collectionTime;
+    }
+
+    /**
+     * Output stream that only counts the bytes written.
+     */
+    private static class CountingOutputStream extends ServletOutputStream
+    {
+        private long count;
+
+        @Override
+        public void write(int b)
+        {
+            ++this.count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            this.count += len;
+        }
+    }
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        Assume.assumeTrue(Boolean.getBoolean(PROPERTY_PREFIX));
+
+        this.iterations = Integer.getInteger(PROPERTY_PREFIX + ".iterations", 100);
+        this.size = Integer.getInteger(PROPERTY_PREFIX + ".size", 16) * 1024L * 1024L;
+
+        byte[] content = new byte[(int) this.size];
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) i;
+        }
+
+        final File file = File.createTempFile("download", ".bin");
+        file.deleteOnExit();
+        FileUtils.writeByteArrayToFile(file, content);
+
+        XWikiDocument document = new XWikiDocument(new DocumentReference("wiki", "space", "page"));
+        getContext().setDoc(document);
+        Date date = new Date();
+
+        XWikiAttachment memoryAttachment = new XWikiAttachment(document, MEMORY_ATTACHMENT);
+        memoryAttachment.setContent(content);
+        memoryAttachment.setDate(date);
+        document.getAttachmentList().add(memoryAttachment);
+
+        XWikiAttachment fileAttachment = new XWikiAttachment(document, FILE_ATTACHMENT);
+        fileAttachment.setAttachment_content(new XWikiAttachmentContent(fileAttachment)
+        {
+            @Override
+            public File getContentFile()
+            {
+                return file;
+            }
+        });
+        fileAttachment.setDate(date);
+        document.getAttachmentList().add(fileAttachment);
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(xwiki);
+        final XWikiRequest request = getMockery().mock(XWikiRequest.class);
+        getContext().setRequest(request);
+        final XWikiResponse response = getMockery().mock(XWikiResponse.class);
+        getContext().setResponse(response);
+        final XWikiEngineContext engineContext = getMockery().mock(XWikiEngineContext.class);
+        getContext().setEngineContext(engineContext);
+
+        final XWikiPluginManager pluginManager = new XWikiPluginManager();
+        pluginManager.initInterface();
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(xwiki).getPluginManager();
+                will(returnValue(pluginManager));
+                allowing(engineContext).getMimeType(with(any(String.class)));
+                will(returnValue("application/octet-stream"));
+                allowing(request).getRequestURI();
+                will(new CustomAction("return the current URI")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation)
+                    {
+                        return DownloadActionBenchmarkTest.this.uri;
+                    }
+                });
+                allowing(request).getHeader("Range");
+                will(new CustomAction("return the current range")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation)
+                    {
+                        return DownloadActionBenchmarkTest.this.range;
+                    }
+                });
+                allowing(request).getDateHeader(with(any(String.class)));
+                will(returnValue(-1L));
+                allowing(request);
+                allowing(response).getOutputStream();
+                will(returnValue(DownloadActionBenchmarkTest.this.out));
+                allowing(response);
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkFullDownload() throws Exception
+    {
+        this.range = null;
+
+        // Warm up the JIT.
+        measure(MEMORY_ATTACHMENT);
+        measure(FILE_ATTACHMENT);
+
+        report("Full download", measure(MEMORY_ATTACHMENT), measure(FILE_ATTACHMENT));
+    }
+
+    @Test
+    public void benchmarkRangeDownload() throws Exception
+    {
+        this.range = TAIL_RANGE;
+
+        // Warm up the JIT.
+        measure(MEMORY_ATTACHMENT);
+        measure(FILE_ATTACHMENT);
+
+        report("Range download (" + TAIL_RANGE + ")", measure(MEMORY_ATTACHMENT), measure(FILE_ATTACHMENT));
+    }
+
+    /**
+     * @param attachmentName the name of the attachment to download
+     * @return the result of the measure
+     */
+    private Measure measure(String attachmentName) throws Exception
+    {
+        this.uri = "/xwiki/bin/download/space/page/" + attachmentName;
+        long expected = this.range != null ? 1024L : this.size;
+
+        Measure measure = new Measure();
+        long allocated = getAllocatedBytes();
+        long collections = getCollections();
+        long collectionTime = getCollectionTime();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < this.iterations; ++i) {
+            this.out.count = 0;
+            this.action.render(getContext());
+            Assert.assertEquals(expected, this.out.count);
+        }
+
+        measure.duration = System.nanoTime() - start;
+        measure.allocated = allocated >= 0 ? getAllocatedBytes() - allocated : -1;
+        measure.collections = getCollections() - collections;
+        measure.collectionTime = getCollectionTime() - collectionTime;
+
+        return measure;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, -1 if the JVM can't measure it
+     */
+    private long getAllocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+            if (hotspotBean.isThreadAllocatedMemorySupported() && hotspotBean.isThreadAllocatedMemoryEnabled()) {
+                return hotspotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+
+        return -1;
+    }
+
+    private long getCollections()
+    {
+        long collections = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(0, bean.getCollectionCount());
+        }
+
+        return collections;
+    }
+
+    private long getCollectionTime()
+    {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+
+        return time;
+    }
+
+    private String format(Measure measure)
+    {
+        return String.format("%d ms (%d downloads/s, %s allocated per download, %d GCs taking %d ms)",
+            TimeUnit.NANOSECONDS.toMillis(measure.duration),
+            this.iterations * 1000000000L / Math.max(1, measure.duration),
+            measure.allocated >= 0 ? (measure.allocated / this.iterations / 1024) + " KB" : "unknown",
+            measure.collections, measure.collectionTime);
+    }
+
+    private void report(String name, Measure memory, Measure file)
+    {
+        LOGGER.info("{}: {} downloads of {} MB, in memory {}, from file {}", new Object[] {name, this.iterations,
+            this.size / (1024 * 1024), format(memory), format(file)});
+    }
+}
@@ -20,6 +20,7 @@
 package com.xpn.xwiki.web;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Date;
@@ -27,6 +28,7 @@
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
@@ -38,6 +40,7 @@
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.plugin.XWikiPluginManager;
 import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
@@ -119,6 +122,7 @@ public void setUp() throws Exception
                 allowing(DownloadActionTest.this.response).setCharacterEncoding(with(""));
                 allowing(DownloadActionTest.this.response).getOutputStream();
                 will(returnValue(DownloadActionTest.this.out));
+                allowing(DownloadActionTest.this.response).setHeader(with("ETag"), with(any(String.class)));
             }
         });
     }
@@ -619,6 +623,163 @@ public void testEmptyRange() throws XWikiException, IOException
         Assert.assertNull(this.action.render(getContext()));
     }
 
+    @Test
+    public void testIfNoneMatch() throws XWikiException, IOException
+    {
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        final String etag = getETag(DEFAULT_FILE_NAME, d);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(DownloadActionTest.this.request).getHeader(with("If-None-Match"));
+                will(returnValue(etag));
+                one(DownloadActionTest.this.response).setStatus(with(HttpServletResponse.SC_NOT_MODIFIED));
+            }
+        });
+        // If-None-Match takes precedence over If-Modified-Since
+        setRequestExpectations(DEFAULT_URI, null, null, null, d.getTime() - 1000l);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testIfNoneMatchOtherVersion() throws XWikiException, IOException
+    {
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(DownloadActionTest.this.request).getHeader(with("If-None-Match"));
+                will(returnValue("\"0-1.1-0\""));
+            }
+        });
+        setRequestExpectations(DEFAULT_URI, null, null, null, d.getTime());
+        setResponseExpectations(d.getTime(), this.fileContent.length);
+        setOutputExpectations(0, this.fileContent.length);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testIfRangeOtherVersion() throws XWikiException, IOException
+    {
+        // The whole content is sent when the content changed
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(DownloadActionTest.this.request).getHeader(with("If-Range"));
+                will(returnValue("\"0-1.1-0\""));
+            }
+        });
+        setRequestExpectations(DEFAULT_URI, null, null, "bytes=0-3", -1l);
+        setResponseExpectations(d.getTime(), this.fileContent.length);
+        setOutputExpectations(0, this.fileContent.length);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testIfRangeSameVersion() throws XWikiException, IOException
+    {
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        final String etag = getETag(DEFAULT_FILE_NAME, d);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(DownloadActionTest.this.request).getHeader(with("If-Range"));
+                will(returnValue(etag));
+                one(DownloadActionTest.this.response).setStatus(with(HttpServletResponse.SC_PARTIAL_CONTENT));
+                one(DownloadActionTest.this.response).setHeader(with("Content-Range"), with("bytes 0-3/14"));
+            }
+        });
+        setRequestExpectations(DEFAULT_URI, null, null, "bytes=0-3", -1l);
+        setResponseExpectations(d.getTime(), 4);
+        setOutputExpectations(0, 4);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testFileContentDownload() throws XWikiException, IOException
+    {
+        final Date d = new Date();
+        createFileAttachment(d, DEFAULT_FILE_NAME);
+        setRequestExpectations(DEFAULT_URI, null, null, null, -1l);
+        setResponseExpectations(d.getTime(), this.fileContent.length);
+        setOutputExpectations(0, this.fileContent.length);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testFileContentRange() throws XWikiException, IOException
+    {
+        final Date d = new Date();
+        createFileAttachment(d, DEFAULT_FILE_NAME);
+        setRequestExpectations(DEFAULT_URI, null, null, "bytes=3-5", -1l);
+        getMockery().checking(new Expectations()
+        {
+            {
+                one(DownloadActionTest.this.response).setStatus(with(HttpServletResponse.SC_PARTIAL_CONTENT));
+                one(DownloadActionTest.this.response).setHeader(with("Content-Range"), with("bytes 3-5/14"));
+            }
+        });
+        setResponseExpectations(d.getTime(), 3);
+        setOutputExpectations(3, 6);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testFileContentRangeWithSendfile() throws XWikiException, IOException
+    {
+        final Date d = new Date();
+        final File file = createFileAttachment(d, DEFAULT_FILE_NAME);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(DownloadActionTest.this.request).getAttribute(with("org.apache.tomcat.sendfile.support"));
+                will(returnValue(Boolean.TRUE));
+                one(DownloadActionTest.this.request).setAttribute("org.apache.tomcat.sendfile.filename",
+                    file.getAbsolutePath());
+                one(DownloadActionTest.this.request).setAttribute("org.apache.tomcat.sendfile.start", 3L);
+                one(DownloadActionTest.this.request).setAttribute("org.apache.tomcat.sendfile.end", 6L);
+                one(DownloadActionTest.this.response).setStatus(with(HttpServletResponse.SC_PARTIAL_CONTENT));
+                one(DownloadActionTest.this.response).setHeader(with("Content-Range"), with("bytes 3-5/14"));
+            }
+        });
+        setRequestExpectations(DEFAULT_URI, null, null, "bytes=3-5", -1l);
+        setResponseExpectations(d.getTime(), 3);
+        // Nothing is written, the container sends the file
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    private String getETag(String name, Date d)
+    {
+        return "\"" + Long.toHexString(this.document.getAttachment(name).getId()) + "-1.1-"
+            + Long.toHexString(d.getTime()) + "\"";
+    }
+
+    private File createFileAttachment(Date d, String name) throws IOException
+    {
+        final File file = File.createTempFile("download", ".txt");
+        file.deleteOnExit();
+        FileUtils.writeByteArrayToFile(file, this.fileContent);
+
+        XWikiAttachment filetxt = new XWikiAttachment(this.document, name);
+        filetxt.setAttachment_content(new XWikiAttachmentContent(filetxt)
+        {
+            @Override
+            public File getContentFile()
+            {
+                return file;
+            }
+        });
+        filetxt.setDate(d);
+        this.document.getAttachmentList().add(filetxt);
+
+        return file;
+    }
+
     private void createAttachment(Date d, String name) throws IOException
     {
         XWikiAttachment filetxt = new XWikiAttachment(this.document, name);
@@ -644,6 +805,14 @@ private void setRequestExpectations(final String uri, final String id, final Str
                 will(returnValue(forceDownload));
                 allowing(DownloadActionTest.this.request).getHeader(with("Range"));
                 will(returnValue(range));
+                allowing(DownloadActionTest.this.request).getHeader(with("If-None-Match"));
+                will(returnValue(null));
+                allowing(DownloadActionTest.this.request).getHeader(with("If-Range"));
+                will(returnValue(null));
+                allowing(DownloadActionTest.this.request).getQueryString();
+                will(returnValue(null));
+                allowing(DownloadActionTest.this.request).getAttribute(with("org.apache.tomcat.sendfile.support"));
+                will(returnValue(null));
             }
         });
     }
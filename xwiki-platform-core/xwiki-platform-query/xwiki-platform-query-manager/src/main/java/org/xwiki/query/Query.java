@@ -157,4 +157,17 @@
      * @throws QueryException if something goes wrong.
      */
     <T> List<T> execute() throws QueryException;
+
+    /**
+     * Execute the query and iterate over its results without loading all of them in memory. This is the way to go for
+     * queries returning large results (exports, reindexing, etc.). The filters of the query are applied on each row
+     * when they are all {@link StreamableQueryFilter}s; otherwise the whole result list is fetched and filtered before
+     * being iterated. The returned iterator must be closed if it's not consumed completely.
+     *
+     * @param <T> expected type of elements in the result. If several fields are selected then T=Object[].
+     * @return an iterator over the results of the query
+     * @throws QueryException if something goes wrong
+     * @since 4.2M3
+     */
+    <T> QueryResultIterator<T> stream() throws QueryException;
 }
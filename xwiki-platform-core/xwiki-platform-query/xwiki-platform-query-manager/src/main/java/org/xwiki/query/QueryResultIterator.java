@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query;
+
+import java.util.Iterator;
+
+/**
+ * Iterator over the results of a query, fetching them from the store as they are requested instead of loading the
+ * whole result list in memory. See {@link Query#stream()}.
+ * <p>
+ * The iterator holds store resources (typically a database connection) until it is exhausted or explicitly closed, so
+ * callers which stop iterating before the end must call {@link #close()}.
+ *
+ * @param <T> expected type of the results. If several fields are selected then T=Object[].
+ * @version $Id$
+ * @since 4.2M3
+ */
+public interface QueryResultIterator<T> extends Iterator<T>
+{
+    /**
+     * Release the store resources held by this iterator. Calling it several times has no effect and it's called
+     * automatically once the last result has been returned.
+     */
+    void close();
+}
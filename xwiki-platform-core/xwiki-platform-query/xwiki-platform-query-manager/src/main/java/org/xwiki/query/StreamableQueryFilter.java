@@ -0,0 +1,32 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query;
+
+/**
+ * A {@link QueryFilter} whose {@link #filterResults(java.util.List)} transforms or drops each row independently of the
+ * others, so that it can be called with one row at a time on streamed results. Queries having filters which need the
+ * whole result list are not streamed, see {@link Query#stream()}.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public interface StreamableQueryFilter extends QueryFilter
+{
+}
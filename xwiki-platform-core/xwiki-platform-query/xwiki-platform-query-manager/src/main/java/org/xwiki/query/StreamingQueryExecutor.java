@@ -0,0 +1,40 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query;
+
+/**
+ * A {@link QueryExecutor} able to return the results of a query as they are fetched from the store, with a bounded
+ * memory footprint. The {@link StreamableQueryFilter} filters of the query are called with one row at a time, the
+ * results of a query having other filters are fetched as a whole before being filtered.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public interface StreamingQueryExecutor extends QueryExecutor
+{
+    /**
+     * @param <T> expected type of elements in the result
+     * @param query query to execute
+     * @return an iterator over the results of the query
+     * @throws QueryException if something goes wrong
+     * @see Query#stream()
+     */
+    <T> QueryResultIterator<T> stream(Query query) throws QueryException;
+}
@@ -20,9 +20,12 @@
 package org.xwiki.query.internal;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.collections.ListUtils;
+import org.apache.commons.collections.map.LRUMap;
 import org.xwiki.query.QueryFilter;
 
 /**
@@ -68,6 +71,44 @@ public abstract class AbstractQueryFilter implements QueryFilter
      */
     private static final String GROUP_BY = " group by ";
 
+    /**
+     * Maximum number of transformed statements kept in cache.
+     */
+    private static final int STATEMENT_CACHE_SIZE = 500;
+
+    /**
+     * Already transformed statements, indexed by language and original statement. Only used by filters calling
+     * {@link #getCachedStatement(String, String)} and {@link #cacheStatement(String, String, String)}, i.e. filters
+     * whose transformation depends only on the statement and its language.
+     */
+    @SuppressWarnings("unchecked")
+    private final Map<String, String> statementCache = Collections.synchronizedMap(new LRUMap(STATEMENT_CACHE_SIZE));
+
+    /**
+     * @param statement the original statement
+     * @param language the language of the statement
+     * @return the transformed statement stored by {@link #cacheStatement(String, String, String)}, null if none
+     * @since 4.2M3
+     */
+    protected String getCachedStatement(String statement, String language)
+    {
+        return this.statementCache.get(language + ':' + statement);
+    }
+
+    /**
+     * Remember the transformation of a statement, so that it can be retrieved with
+     * {@link #getCachedStatement(String, String)} next time the same statement is filtered.
+     *
+     * @param statement the original statement
+     * @param language the language of the statement
+     * @param result the transformed statement
+     * @since 4.2M3
+     */
+    protected void cacheStatement(String statement, String language, String result)
+    {
+        this.statementCache.put(language + ':' + statement, result);
+    }
+
     /**
      * Get the select columns of a given statement.
      *
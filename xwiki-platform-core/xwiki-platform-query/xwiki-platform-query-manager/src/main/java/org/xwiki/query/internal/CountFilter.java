@@ -28,6 +28,7 @@
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.query.Query;
+import org.xwiki.query.StreamableQueryFilter;
 
 /**
  * Query filter transforming queries in order to make them return the total number of results instead of a list of
@@ -43,7 +44,7 @@
 @Component
 @Named("count")
 @Singleton
-public class CountFilter extends AbstractQueryFilter
+public class CountFilter extends AbstractQueryFilter implements StreamableQueryFilter
 {
     /**
      * Used to log debug information.
@@ -63,6 +64,22 @@ private boolean isFilterable(String statement)
 
     @Override
     public String filterStatement(String statement, String language)
+    {
+        String result = getCachedStatement(statement, language);
+        if (result == null) {
+            result = transformStatement(statement, language);
+            cacheStatement(statement, language, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param statement statement to filter.
+     * @param language the language of the statement.
+     * @return the transformed statement.
+     */
+    private String transformStatement(String statement, String language)
     {
         String result = statement.trim();
         String original = result;
@@ -30,6 +30,8 @@
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryExecutor;
 import org.xwiki.query.QueryFilter;
+import org.xwiki.query.QueryResultIterator;
+import org.xwiki.query.StreamingQueryExecutor;
 
 /**
  * Stores all information needed for execute a query.
@@ -248,6 +250,17 @@ public <T> List<T> execute() throws QueryException
         return getExecuter().execute(this);
     }
 
+    @Override
+    public <T> QueryResultIterator<T> stream() throws QueryException
+    {
+        QueryExecutor executor = getExecuter();
+        if (executor instanceof StreamingQueryExecutor) {
+            return ((StreamingQueryExecutor) executor).stream(this);
+        }
+
+        return new ListQueryResultIterator<T>(executor.<T>execute(this));
+    }
+
     /**
      * @return QueryExecutor interface for execute the query.
      */
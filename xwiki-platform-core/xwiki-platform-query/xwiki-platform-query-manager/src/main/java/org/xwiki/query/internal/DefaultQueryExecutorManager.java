@@ -33,6 +33,8 @@
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryExecutor;
 import org.xwiki.query.QueryExecutorManager;
+import org.xwiki.query.QueryResultIterator;
+import org.xwiki.query.StreamingQueryExecutor;
 
 /**
  * Default implementation of {@link QueryExecutorManager}.
@@ -44,7 +46,7 @@
 // to users as a valid QueryExecutor component.
 @Component(roles = { QueryExecutorManager.class })
 @Singleton
-public class DefaultQueryExecutorManager implements QueryExecutorManager
+public class DefaultQueryExecutorManager implements QueryExecutorManager, StreamingQueryExecutor
 {
     /**
      * Map from language to its executor.
@@ -61,11 +63,31 @@ public class DefaultQueryExecutorManager implements QueryExecutorManager
 
     @Override
     public <T> List<T> execute(Query query) throws QueryException
+    {
+        return getExecutor(query).execute(query);
+    }
+
+    @Override
+    public <T> QueryResultIterator<T> stream(Query query) throws QueryException
+    {
+        QueryExecutor executor = getExecutor(query);
+        if (executor instanceof StreamingQueryExecutor) {
+            return ((StreamingQueryExecutor) executor).stream(query);
+        }
+
+        return new ListQueryResultIterator<T>(executor.<T>execute(query));
+    }
+
+    /**
+     * @param query the query to execute
+     * @return the executor to use for the passed query
+     */
+    private QueryExecutor getExecutor(Query query)
     {
         if (query.isNamed()) {
-            return this.namedQueryExecutorProvider.get().execute(query);
+            return this.namedQueryExecutorProvider.get();
         } else {
-            return this.executors.get(query.getLanguage()).execute(query);
+            return this.executors.get(query.getLanguage());
         }
     }
 
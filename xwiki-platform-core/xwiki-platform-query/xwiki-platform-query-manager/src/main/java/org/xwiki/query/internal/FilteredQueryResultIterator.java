@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query.internal;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.xwiki.query.QueryFilter;
+import org.xwiki.query.QueryResultIterator;
+import org.xwiki.query.StreamableQueryFilter;
+
+/**
+ * {@link QueryResultIterator} applying the {@link QueryFilter#filterResults(List)} method of a list of filters on each
+ * row returned by another iterator. Each filter is called with a single row and can drop it or replace it by any
+ * number of rows, so only {@link StreamableQueryFilter}s can be applied this way, see {@link #isStreamable(List)}.
+ *
+ * @param <T> the type of the filtered results
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class FilteredQueryResultIterator<T> implements QueryResultIterator<T>
+{
+    /**
+     * The iterator providing the raw rows.
+     */
+    private QueryResultIterator< ? > rows;
+
+    /**
+     * The filters to apply on each row.
+     */
+    private List<QueryFilter> filters;
+
+    /**
+     * The filtered rows not yet returned.
+     */
+    private LinkedList<T> pending = new LinkedList<T>();
+
+    /**
+     * @param rows the iterator providing the raw rows
+     * @param filters the filters to apply on each row
+     */
+    public FilteredQueryResultIterator(QueryResultIterator< ? > rows, List<QueryFilter> filters)
+    {
+        this.rows = rows;
+        this.filters = filters;
+    }
+
+    /**
+     * @param filters the filters of a query
+     * @return true if the filters can be applied on each row separately, false if they need the whole result list
+     */
+    public static boolean isStreamable(List<QueryFilter> filters)
+    {
+        if (filters != null) {
+            for (QueryFilter filter : filters) {
+                if (!(filter instanceof StreamableQueryFilter)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext()
+    {
+        while (this.pending.isEmpty() && this.rows.hasNext()) {
+            List results = Collections.singletonList(this.rows.next());
+            for (QueryFilter filter : this.filters) {
+                results = filter.filterResults(results);
+            }
+            this.pending.addAll(results);
+        }
+
+        return !this.pending.isEmpty();
+    }
+
+    @Override
+    public T next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return this.pending.removeFirst();
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Query results can't be removed");
+    }
+
+    @Override
+    public void close()
+    {
+        this.pending.clear();
+        this.rows.close();
+    }
+}
@@ -25,6 +25,7 @@
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryFilter;
+import org.xwiki.query.StreamableQueryFilter;
 import org.slf4j.Logger;
 
 import javax.inject.Inject;
@@ -41,7 +42,7 @@
 @Component
 @Named("hidden")
 @Singleton
-public class HiddenDocumentFilter implements QueryFilter
+public class HiddenDocumentFilter implements QueryFilter, StreamableQueryFilter
 {
     /**
      * Used to retrieve user preference regarding hidden documents.
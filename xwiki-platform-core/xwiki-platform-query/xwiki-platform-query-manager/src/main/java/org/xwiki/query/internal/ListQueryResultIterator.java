@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query.internal;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.xwiki.query.QueryResultIterator;
+
+/**
+ * {@link QueryResultIterator} over an already fetched result list, used when the executor of a query does not support
+ * streaming.
+ *
+ * @param <T> the type of the results
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class ListQueryResultIterator<T> implements QueryResultIterator<T>
+{
+    /**
+     * The iterator over the result list.
+     */
+    private Iterator<T> iterator;
+
+    /**
+     * @param results the results to iterate over
+     */
+    public ListQueryResultIterator(List<T> results)
+    {
+        this.iterator = results.iterator();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return this.iterator.hasNext();
+    }
+
+    @Override
+    public T next()
+    {
+        return this.iterator.next();
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Query results can't be removed");
+    }
+
+    @Override
+    public void close()
+    {
+        // Nothing to release
+    }
+}
@@ -28,6 +28,7 @@
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryFilter;
 import org.xwiki.query.QueryManager;
+import org.xwiki.query.QueryResultIterator;
 
 import java.util.List;
 import java.util.Map;
@@ -235,4 +236,10 @@ public <T> List<T> execute() throws QueryException
     {
         return query.execute();
     }
+
+    @Override
+    public <T> QueryResultIterator<T> stream() throws QueryException
+    {
+        return query.stream();
+    }
 }
\ No newline at end of file
@@ -25,6 +25,7 @@
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.query.Query;
+import org.xwiki.query.StreamableQueryFilter;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -40,7 +41,7 @@
 @Component
 @Named("unique")
 @Singleton
-public class UniqueDocumentFilter extends AbstractQueryFilter
+public class UniqueDocumentFilter extends AbstractQueryFilter implements StreamableQueryFilter
 {
     /**
      * Used to log debug information.
@@ -60,6 +61,22 @@ private boolean isFilterable(String statement)
 
     @Override
     public String filterStatement(String statement, String language)
+    {
+        String result = getCachedStatement(statement, language);
+        if (result == null) {
+            result = transformStatement(statement, language);
+            cacheStatement(statement, language, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param statement statement to filter.
+     * @param language the language of the statement.
+     * @return the transformed statement.
+     */
+    private String transformStatement(String statement, String language)
     {
         StringBuilder builder = new StringBuilder();
         String result = statement;
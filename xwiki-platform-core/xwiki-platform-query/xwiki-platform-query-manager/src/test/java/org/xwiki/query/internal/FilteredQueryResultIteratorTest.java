@@ -0,0 +1,138 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.query.QueryFilter;
+import org.xwiki.query.QueryResultIterator;
+import org.xwiki.query.StreamableQueryFilter;
+
+/**
+ * Tests for {@link FilteredQueryResultIterator}.
+ *
+ * @version $Id$
+ */
+public class FilteredQueryResultIteratorTest
+{
+    /**
+     * Drop the rows starting with "hidden".
+     */
+    private static class DropHiddenFilter implements StreamableQueryFilter
+    {
+        @Override
+        public String filterStatement(String statement, String language)
+        {
+            return statement;
+        }
+
+        @Override
+        public List filterResults(List results)
+        {
+            List filtered = new ArrayList();
+            for (Object result : results) {
+                if (!((String) result).startsWith("hidden")) {
+                    filtered.add(result);
+                }
+            }
+
+            return filtered;
+        }
+    }
+
+    private List<Object> consume(QueryResultIterator<Object> iterator)
+    {
+        List<Object> results = new ArrayList<Object>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        return results;
+    }
+
+    @Test
+    public void filterEachRow()
+    {
+        List<Object> rows =
+            Arrays.<Object>asList(new Object[] {"Main.WebHome", 1}, new Object[] {"Main.Other", 2});
+        QueryResultIterator<Object> iterator =
+            new FilteredQueryResultIterator<Object>(new ListQueryResultIterator<Object>(rows),
+                Collections.<QueryFilter>singletonList(new UniqueDocumentFilter()));
+
+        Assert.assertEquals(Arrays.asList("Main.WebHome", "Main.Other"), consume(iterator));
+    }
+
+    @Test
+    public void dropFilteredRows()
+    {
+        List<Object> rows = Arrays.<Object>asList("hidden1", "visible1", "hidden2", "hidden3", "visible2");
+        QueryResultIterator<Object> iterator =
+            new FilteredQueryResultIterator<Object>(new ListQueryResultIterator<Object>(rows),
+                Collections.<QueryFilter>singletonList(new DropHiddenFilter()));
+
+        Assert.assertEquals(Arrays.asList("visible1", "visible2"), consume(iterator));
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void allRowsFiltered()
+    {
+        List<Object> rows = Arrays.<Object>asList("hidden1", "hidden2");
+        QueryResultIterator<Object> iterator =
+            new FilteredQueryResultIterator<Object>(new ListQueryResultIterator<Object>(rows),
+                Collections.<QueryFilter>singletonList(new DropHiddenFilter()));
+
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void isStreamable()
+    {
+        Assert.assertTrue(FilteredQueryResultIterator.isStreamable(null));
+        Assert.assertTrue(FilteredQueryResultIterator.isStreamable(Arrays.<QueryFilter>asList(new DropHiddenFilter(),
+            new UniqueDocumentFilter())));
+
+        // A filter needing the whole result list
+        QueryFilter sortFilter = new QueryFilter()
+        {
+            @Override
+            public String filterStatement(String statement, String language)
+            {
+                return statement;
+            }
+
+            @Override
+            public List filterResults(List results)
+            {
+                List sorted = new ArrayList(results);
+                Collections.sort(sorted);
+
+                return sorted;
+            }
+        };
+        Assert.assertFalse(FilteredQueryResultIterator.isStreamable(Arrays.<QueryFilter>asList(new DropHiddenFilter(),
+            sortFilter)));
+    }
+}
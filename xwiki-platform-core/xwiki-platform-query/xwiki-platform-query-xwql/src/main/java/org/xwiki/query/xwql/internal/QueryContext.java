@@ -20,6 +20,7 @@
 package org.xwiki.query.xwql.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -56,6 +57,17 @@
 
     private DocumentAccessBridge documentAccessBridge;
 
+    /**
+     * Property types retrieved during the translation, as [class name, property name] to type.
+     */
+    private Map<List<String>, String> propertyTypes = new HashMap<List<String>, String>();
+
+    /**
+     * Custom mapping status of the properties retrieved during the translation, as [class name, property name] to
+     * status.
+     */
+    private Map<List<String>, Boolean> customMappedProperties = new HashMap<List<String>, Boolean>();
+
     public QueryContext(Start tree, DocumentAccessBridge documentAccessBridge)
     {
         this.tree = tree;
@@ -72,6 +84,48 @@ public AliasGenerator getAliasGenerator()
         return aliasGenerator;
     }
 
+    /**
+     * @return the type of the passed class property, retrieved only once per translation
+     */
+    public String getPropertyType(String className, String propertyName) throws Exception
+    {
+        List<String> key = Arrays.asList(className, propertyName);
+        if (!propertyTypes.containsKey(key)) {
+            propertyTypes.put(key, documentAccessBridge.getPropertyType(className, propertyName));
+        }
+        return propertyTypes.get(key);
+    }
+
+    /**
+     * @return true if the passed class property is custom mapped, retrieved only once per translation
+     */
+    public boolean isPropertyCustomMapped(String className, String propertyName) throws Exception
+    {
+        List<String> key = Arrays.asList(className, propertyName);
+        Boolean customMapped = customMappedProperties.get(key);
+        if (customMapped == null) {
+            customMapped = documentAccessBridge.isPropertyCustomMapped(className, propertyName);
+            customMappedProperties.put(key, customMapped);
+        }
+        return customMapped;
+    }
+
+    /**
+     * @return the property types the translation depends on, as [class name, property name] to type
+     */
+    public Map<List<String>, String> getPropertyTypes()
+    {
+        return propertyTypes;
+    }
+
+    /**
+     * @return the custom mapping status the translation depends on, as [class name, property name] to status
+     */
+    public Map<List<String>, Boolean> getCustomMappedProperties()
+    {
+        return customMappedProperties;
+    }
+
     public class DocumentInfo
     {
         public String alias;
@@ -145,12 +199,12 @@ public PropertyInfo(String name, ObjectInfo object)
 
         public String getType() throws Exception
         {
-            return documentAccessBridge.getPropertyType(object.className, name);
+            return getPropertyType(object.className, name);
         }
 
         public boolean isCustomMapped() throws Exception
         {
-            return documentAccessBridge.isPropertyCustomMapped(object.className, name);
+            return isPropertyCustomMapped(object.className, name);
         }
 
         public String getValueField() throws Exception
@@ -38,11 +38,13 @@
 import org.xwiki.query.QueryExecutor;
 import org.xwiki.query.QueryFilter;
 import org.xwiki.query.QueryManager;
+import org.xwiki.query.QueryResultIterator;
+import org.xwiki.query.StreamingQueryExecutor;
 
 @Component
 @Named("xwql")
 @Singleton
-public class XWQLQueryExecutor implements QueryExecutor
+public class XWQLQueryExecutor implements QueryExecutor, StreamingQueryExecutor
 {
     @Inject
     @Named("hql")
@@ -64,46 +66,83 @@ public QueryManager getQueryManager() throws ComponentLookupException
     public <T> List<T> execute(Query query) throws QueryException
     {
         EntityReference currentEntityReference = this.context.getCurrentEntityReference();
+        try {
+            return createNativeQuery(query).execute();
+        } catch (Exception e) {
+            throw toQueryException(query, e);
+        } finally {
+            this.context.setCurrentEntityReference(currentEntityReference);
+        }
+    }
 
-        Query nativeQuery;
+    @Override
+    public <T> QueryResultIterator<T> stream(Query query) throws QueryException
+    {
+        EntityReference currentEntityReference = this.context.getCurrentEntityReference();
         try {
-            if (query.getWiki() != null) {
-                if (currentEntityReference.getType() == EntityType.WIKI) {
-                    this.context.setCurrentEntityReference(new WikiReference(query.getWiki()));
-                } else {
-                    this.context.setCurrentEntityReference(currentEntityReference.replaceParent(
-                        currentEntityReference.extractReference(EntityType.WIKI), new WikiReference(query.getWiki())));
-                }
-            }
+            return createNativeQuery(query).stream();
+        } catch (Exception e) {
+            throw toQueryException(query, e);
+        } finally {
+            this.context.setCurrentEntityReference(currentEntityReference);
+        }
+    }
 
-            nativeQuery =
-                getQueryManager().createQuery(this.translator.translate(query.getStatement()),
-                    this.translator.getOutputLanguage());
-            nativeQuery.setLimit(query.getLimit());
-            nativeQuery.setOffset(query.getOffset());
-            nativeQuery.setWiki(query.getWiki());
-            if (query.getFilters() != null) {
-                for (QueryFilter filter : query.getFilters()) {
-                    nativeQuery.addFilter(filter);
-                }
-            }
-            for (Entry<String, Object> e : query.getNamedParameters().entrySet()) {
-                nativeQuery.bindValue(e.getKey(), e.getValue());
-            }
-            for (Entry<Integer, Object> e : query.getPositionalParameters().entrySet()) {
-                nativeQuery.bindValue(e.getKey(), e.getValue());
+    /**
+     * Translate the passed XWQL query into a query in the output language of the translator. The current entity
+     * reference is modified if the query targets another wiki, it's up to the caller to restore it.
+     *
+     * @param query the XWQL query
+     * @return the translated query
+     * @throws Exception if the translation fails
+     */
+    private Query createNativeQuery(Query query) throws Exception
+    {
+        EntityReference currentEntityReference = this.context.getCurrentEntityReference();
+
+        if (query.getWiki() != null) {
+            if (currentEntityReference.getType() == EntityType.WIKI) {
+                this.context.setCurrentEntityReference(new WikiReference(query.getWiki()));
+            } else {
+                this.context.setCurrentEntityReference(currentEntityReference.replaceParent(
+                    currentEntityReference.extractReference(EntityType.WIKI), new WikiReference(query.getWiki())));
             }
+        }
 
-            return nativeQuery.execute();
-        } catch (Exception e) {
-            if (e instanceof QueryException) {
-                throw (QueryException) e;
+        Query nativeQuery =
+            getQueryManager().createQuery(this.translator.translate(query.getStatement()),
+                this.translator.getOutputLanguage());
+        nativeQuery.setLimit(query.getLimit());
+        nativeQuery.setOffset(query.getOffset());
+        nativeQuery.setWiki(query.getWiki());
+        if (query.getFilters() != null) {
+            for (QueryFilter filter : query.getFilters()) {
+                nativeQuery.addFilter(filter);
             }
-            throw new QueryException("Exception while translating [" + query.getStatement() + "] XWQL query to the ["
-                + this.translator.getOutputLanguage() + "] language", query, e);
-        } finally {
-            this.context.setCurrentEntityReference(currentEntityReference);
         }
+        for (Entry<String, Object> e : query.getNamedParameters().entrySet()) {
+            nativeQuery.bindValue(e.getKey(), e.getValue());
+        }
+        for (Entry<Integer, Object> e : query.getPositionalParameters().entrySet()) {
+            nativeQuery.bindValue(e.getKey(), e.getValue());
+        }
+
+        return nativeQuery;
+    }
+
+    /**
+     * @param query the query which failed
+     * @param e the failure
+     * @return the exception to throw
+     */
+    private QueryException toQueryException(Query query, Exception e)
+    {
+        if (e instanceof QueryException) {
+            return (QueryException) e;
+        }
+
+        return new QueryException("Exception while translating [" + query.getStatement() + "] XWQL query to the ["
+            + this.translator.getOutputLanguage() + "] language", query, e);
     }
 
     public QueryTranslator getTranslator()
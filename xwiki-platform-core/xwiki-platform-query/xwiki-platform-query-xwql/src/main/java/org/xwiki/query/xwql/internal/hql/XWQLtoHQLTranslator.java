@@ -19,10 +19,16 @@
  */
 package org.xwiki.query.xwql.internal.hql;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.collections.map.LRUMap;
+import org.apache.commons.lang3.StringUtils;
 import org.xwiki.query.jpql.internal.JPQLParser;
 import org.xwiki.query.jpql.node.Start;
 import org.xwiki.query.xwql.internal.QueryAnalyzer;
@@ -37,13 +43,72 @@
 @Singleton
 public class XWQLtoHQLTranslator implements QueryTranslator
 {
+    /**
+     * Maximum number of translated statements kept in cache.
+     */
+    private static final int CACHE_SIZE = 500;
+
     @Inject
     protected DocumentAccessBridge documentAccessBridge;
 
+    /**
+     * Already translated statements, since parsing and printing a statement is expensive and the same queries are
+     * executed again and again.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Translation> translations = Collections.synchronizedMap(new LRUMap(CACHE_SIZE));
+
+    /**
+     * A translated statement along with the class properties information it was computed from, since the
+     * translation depends on the type and mapping of the properties used in the query.
+     */
+    private static class Translation
+    {
+        private final String statement;
+
+        private final Map<List<String>, String> propertyTypes;
+
+        private final Map<List<String>, Boolean> customMappedProperties;
+
+        Translation(String statement, QueryContext context)
+        {
+            this.statement = statement;
+            this.propertyTypes = context.getPropertyTypes();
+            this.customMappedProperties = context.getCustomMappedProperties();
+        }
+
+        boolean isUpToDate(DocumentAccessBridge bridge) throws Exception
+        {
+            for (Map.Entry<List<String>, String> entry : this.propertyTypes.entrySet()) {
+                if (!StringUtils.equals(entry.getValue(),
+                    bridge.getPropertyType(entry.getKey().get(0), entry.getKey().get(1)))) {
+                    return false;
+                }
+            }
+            for (Map.Entry<List<String>, Boolean> entry : this.customMappedProperties.entrySet()) {
+                if (entry.getValue() != bridge.isPropertyCustomMapped(entry.getKey().get(0), entry.getKey().get(1))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     @Override
     public String translate(String input) throws Exception
     {
-        input = input.trim();
+        Translation translation = translations.get(input);
+        if (translation == null || !translation.isUpToDate(getDocumentAccessBridge())) {
+            QueryContext context = new QueryContext(parse(input), getDocumentAccessBridge());
+            translation = new Translation(print(context), context);
+            translations.put(input, translation);
+        }
+        return translation.statement;
+    }
+
+    private Start parse(String statement) throws Exception
+    {
+        String input = statement.trim();
         String lcInput = input.toLowerCase();
         String addition = "select doc.fullName from Document as doc ";
         if (lcInput.startsWith("where") | lcInput.startsWith("order") || lcInput.length() == 0) {
@@ -52,10 +117,13 @@ public String translate(String input) throws Exception
             input = addition + "," + input.substring(4);
         }
         JPQLParser parser = new JPQLParser();
-        Start tree = parser.parse(input);
-        QueryContext context = new QueryContext(tree, getDocumentAccessBridge());
+        return parser.parse(input);
+    }
+
+    private String print(QueryContext context) throws Exception
+    {
         // analize query and store info in context
-        tree.apply(new QueryAnalyzer(context));
+        context.getTree().apply(new QueryAnalyzer(context));
 
         Printer printer = getPrinter(context);
         return printer.print();
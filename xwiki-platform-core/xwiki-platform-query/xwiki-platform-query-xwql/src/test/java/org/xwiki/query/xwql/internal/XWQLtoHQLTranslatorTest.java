@@ -19,6 +19,7 @@
  */
 package org.xwiki.query.xwql.internal;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import org.apache.commons.lang3.StringUtils;
@@ -30,6 +31,7 @@
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.query.xwql.internal.hql.Printer;
 import org.xwiki.query.xwql.internal.hql.XWQLtoHQLTranslator;
 
 @RunWith(JMock.class)
@@ -197,4 +199,33 @@ public void testCustomMapping() throws Exception
             "select doc from XWikiDocument as doc , BaseObject as c , Custom.Mapping as cCM1, StringProperty as c_prop2 " +
                 "where ( cCM1.cmprop = 'some' and c_prop2.value = 1 ) and doc.fullName=c.name and c.id=cCM1.id and c_prop2.id.id=c.id and c_prop2.id.name='prop'");
     }
+
+    @Test
+    public void testTranslationIsCached() throws Exception
+    {
+        final int[] printCount = new int[1];
+        XWQLtoHQLTranslator countingTranslator = new XWQLtoHQLTranslator()
+        {
+            @Override
+            public DocumentAccessBridge getDocumentAccessBridge()
+            {
+                return dab;
+            }
+
+            @Override
+            protected Printer getPrinter(QueryContext context)
+            {
+                printCount[0]++;
+                return super.getPrinter(context);
+            }
+        };
+
+        String statement = "from doc.object('XWiki.XWikiUsers') as user where user.email = 'some'";
+        String translation = countingTranslator.translate(statement);
+        assertEquals(translation, countingTranslator.translate(statement));
+        assertEquals(1, printCount[0]);
+
+        countingTranslator.translate("where doc.name = 'other'");
+        assertEquals(2, printCount[0]);
+    }
 }
@@ -40,6 +40,16 @@ public class DefaultPygmentsParserConfiguration implements PygmentsParserConfigu
      */
     private static final String PREFIX = "rendering.macro.code.pygments.";
 
+    /**
+     * The default maximum number of Python interpreters running Pygments concurrently.
+     */
+    private static final int DEFAULT_INTERPRETER_POOL_SIZE = 2;
+
+    /**
+     * The default maximum number of highlighted contents kept in memory.
+     */
+    private static final int DEFAULT_CACHE_SIZE = 500;
+
     /**
      * Defines from where to read the Pygments configuration data.
      */
@@ -51,4 +61,16 @@ public String getStyle()
     {
         return this.configuration.getProperty(PREFIX + "style", String.class);
     }
+
+    @Override
+    public int getInterpreterPoolSize()
+    {
+        return this.configuration.getProperty(PREFIX + "interpreters", DEFAULT_INTERPRETER_POOL_SIZE);
+    }
+
+    @Override
+    public int getCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "cacheSize", DEFAULT_CACHE_SIZE);
+    }
 }
@@ -22,9 +22,15 @@
 import java.io.IOException;
 import java.io.Reader;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -130,9 +136,25 @@ public class PygmentsParser extends AbstractHighlightParser implements Initializ
     private Syntax syntax;
 
     /**
-     * The Python interpreter used to execute Pygments.
+     * The Python interpreters used to execute Pygments which are not currently used.
      */
-    private PythonInterpreter pythonInterpreter;
+    private final BlockingQueue<PythonInterpreter> pythonInterpreters = new LinkedBlockingQueue<PythonInterpreter>();
+
+    /**
+     * The number of Python interpreters created so far.
+     */
+    private final AtomicInteger pythonInterpreterCount = new AtomicInteger();
+
+    /**
+     * The maximum number of Python interpreters to create.
+     */
+    private int pythonInterpreterPoolSize;
+
+    /**
+     * The highlighted contents, indexed by language, style and content, the least recently used first. {@code null}
+     * if the cache is disabled.
+     */
+    private Map<String, List<Block>> cache;
 
     /**
      * Used to parse Pygment token values into blocks.
@@ -159,15 +181,44 @@ public void initialize() throws InitializationException
         String highlightSyntaxId = getSyntaxId() + "-highlight";
         this.syntax = new Syntax(new SyntaxType(highlightSyntaxId, highlightSyntaxId), "1.0");
 
-        this.pythonInterpreter = new PythonInterpreter();
+        this.pythonInterpreterPoolSize = Math.max(1, this.configuration.getInterpreterPoolSize());
+
+        final int cacheSize = this.configuration.getCacheSize();
+        if (cacheSize > 0) {
+            this.cache =
+                Collections.synchronizedMap(new LinkedHashMap<String, List<Block>>(16, 0.75f, true)
+                {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, List<Block>> eldest)
+                    {
+                        return size() > cacheSize;
+                    }
+                });
+        }
+
+        // Warm up the first interpreter, the others are created when needed.
+        this.pythonInterpreterCount.incrementAndGet();
+        this.pythonInterpreters.add(createPythonInterpreter());
+    }
+
+    /**
+     * @return a new Python interpreter ready to execute Pygments
+     */
+    private PythonInterpreter createPythonInterpreter()
+    {
+        PythonInterpreter interpreter = new PythonInterpreter();
 
         // imports Pygments
-        this.pythonInterpreter.exec("import pygments"
+        interpreter.exec("import pygments"
             + "\nfrom pygments.lexers import guess_lexer"
             + "\nfrom pygments.lexers import get_lexer_by_name"
             + "\nfrom pygments.styles import get_style_by_name"
             + "\nfrom pygments.util import ClassNotFound"
             + "\nfrom pygments.formatters.xdom import XDOMFormatter");
+
+        return interpreter;
     }
 
     @Override
@@ -202,27 +253,109 @@ public List<Block> highlight(String syntaxId, Reader source) throws ParseExcepti
         return blocks;
     }
 
+    /**
+     * Return a highlighted version of the provided content, reusing the result of a previous highlighting of the same
+     * content if possible.
+     * 
+     * @param syntaxId the identifier of the source syntax.
+     * @param code the content to highlight.
+     * @return the highlighted version of the provided source.
+     * @throws ParseException the highlighting failed.
+     */
+    private List<Block> highlight(String syntaxId, String code) throws ParseException
+    {
+        String style = this.configuration.getStyle();
+
+        List<Block> blocks;
+        if (this.cache != null) {
+            String key = StringUtils.defaultString(syntaxId) + '\0' + StringUtils.defaultString(style) + '\0' + code;
+            blocks = this.cache.get(key);
+            if (blocks == null) {
+                blocks = highlight(syntaxId, style, code);
+                this.cache.put(key, blocks);
+            }
+        } else {
+            blocks = highlight(syntaxId, style, code);
+        }
+
+        // The blocks are modified when inserted in the XDOM, so never expose the cached ones.
+        List<Block> result = new ArrayList<Block>(blocks.size());
+        for (Block block : blocks) {
+            result.add(block.clone());
+        }
+
+        return result;
+    }
+
     /**
      * Return a highlighted version of the provided content.
      * <p>
-     * This method is synchronized because we reuse the same Jython interpreter (because recreating one eaach time would
-     * be costly) and an interpreter is not thread safe.
+     * An interpreter is not thread safe and recreating one each time would be costly, so each highlighting borrows an
+     * interpreter from a pool, waiting for one to be released if the pool is exhausted.
      * 
      * @param syntaxId the identifier of the source syntax.
+     * @param styleId the identifier of the Pygments style to use
      * @param code the content to highlight.
      * @return the highlighted version of the provided source.
      * @throws ParseException the highlighting failed.
      */
-    private synchronized List<Block> highlight(String syntaxId, String code) throws ParseException
+    private List<Block> highlight(String syntaxId, String styleId, String code) throws ParseException
+    {
+        PythonInterpreter interpreter = acquirePythonInterpreter();
+        try {
+            return highlight(interpreter, syntaxId, styleId, code);
+        } finally {
+            this.pythonInterpreters.add(interpreter);
+        }
+    }
+
+    /**
+     * @return a Python interpreter which is not used by any other thread
+     * @throws ParseException if the current thread was interrupted while waiting for an interpreter
+     */
+    private PythonInterpreter acquirePythonInterpreter() throws ParseException
+    {
+        PythonInterpreter interpreter = this.pythonInterpreters.poll();
+        if (interpreter == null) {
+            if (this.pythonInterpreterCount.incrementAndGet() <= this.pythonInterpreterPoolSize) {
+                try {
+                    interpreter = createPythonInterpreter();
+                } catch (RuntimeException e) {
+                    this.pythonInterpreterCount.decrementAndGet();
+                    throw e;
+                }
+            } else {
+                this.pythonInterpreterCount.decrementAndGet();
+                try {
+                    interpreter = this.pythonInterpreters.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ParseException("Interrupted while waiting for a Python interpreter", e);
+                }
+            }
+        }
+
+        return interpreter;
+    }
+
+    /**
+     * Return a highlighted version of the provided content.
+     * 
+     * @param interpreter the Python interpreter to use, not used by any other thread
+     * @param syntaxId the identifier of the source syntax.
+     * @param styleId the identifier of the Pygments style to use
+     * @param code the content to highlight.
+     * @return the highlighted version of the provided source.
+     */
+    private List<Block> highlight(PythonInterpreter interpreter, String syntaxId, String styleId, String code)
     {
-        PythonInterpreter interpreter = getPythonInterpreter();
         BlocksGeneratorPygmentsListener listener = new BlocksGeneratorPygmentsListener(this.plainTextParser);
 
         interpreter.set(PY_LISTENER_VARNAME, listener);
         interpreter.set(PY_CODE_VARNAME, new PyUnicode(code));
 
         // Resolve lexer
-        PyObject lexer = getLexer(syntaxId);
+        PyObject lexer = getLexer(interpreter, syntaxId);
         if (lexer == null || lexer == Py.None) {
             // No lexer found
             this.logger.debug("no lexer found");
@@ -231,7 +364,7 @@ private synchronized List<Block> highlight(String syntaxId, String code) throws
         }
 
         // Resolve style
-        PyObject style = getStyle();
+        PyObject style = getStyle(interpreter, styleId);
 
         if (style == null || style == Py.None) {
             interpreter.exec(MessageFormat
@@ -255,13 +388,12 @@ private synchronized List<Block> highlight(String syntaxId, String code) throws
     /**
      * Resolve lexer from provided language identifier.
      * 
+     * @param interpreter the Python interpreter to use
      * @param language the source language
      * @return the lexer, null or Py.None if none can be found
      */
-    private PyObject getLexer(String language)
+    private PyObject getLexer(PythonInterpreter interpreter, String language)
     {
-        PythonInterpreter interpreter = getPythonInterpreter();
-
         if (StringUtils.isNotEmpty(language)) {
             interpreter.exec(MessageFormat.format(PY_LEXER_CREATE, language));
         } else {
@@ -274,14 +406,12 @@ private PyObject getLexer(String language)
     /**
      * Resolve style to use to highlight the source.
      * 
+     * @param interpreter the Python interpreter to use
+     * @param style the identifier of the style
      * @return the style object
      */
-    private PyObject getStyle()
+    private PyObject getStyle(PythonInterpreter interpreter, String style)
     {
-        PythonInterpreter interpreter = getPythonInterpreter();
-
-        String style = this.configuration.getStyle();
-
         if (style != null) {
             interpreter.exec(MessageFormat.format(PY_STYLE_CREATE, style));
 
@@ -290,12 +420,4 @@ private PyObject getStyle()
             return null;
         }
     }
-
-    /**
-     * @return the python interpreter.
-     */
-    protected PythonInterpreter getPythonInterpreter()
-    {
-        return this.pythonInterpreter;
-    }
 }
@@ -38,4 +38,16 @@
      * @return the id of the Pygments style to use.
      */
     String getStyle();
+
+    /**
+     * @return the maximum number of Python interpreters running Pygments concurrently
+     * @since 4.2M3
+     */
+    int getInterpreterPoolSize();
+
+    /**
+     * @return the maximum number of highlighted contents kept in memory, 0 to disable the cache
+     * @since 4.2M3
+     */
+    int getCacheSize();
 }
@@ -19,16 +19,29 @@
  */
 package org.xwiki.rendering.internal.macro.groovy;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
 
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.classloader.ExtendedURLClassLoader;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.rendering.internal.macro.script.CachingScriptEngine;
+import org.xwiki.rendering.macro.MacroExecutionException;
 import org.xwiki.rendering.macro.descriptor.DefaultContentDescriptor;
 import org.xwiki.rendering.macro.script.AbstractJSR223ScriptMacro;
 import org.xwiki.rendering.macro.script.JSR223ScriptMacroParameters;
+import org.xwiki.rendering.transformation.MacroTransformationContext;
 
 /**
  * Execute script in the provided script language.
@@ -51,6 +64,11 @@ public class GroovyMacro extends AbstractJSR223ScriptMacro<JSR223ScriptMacroPara
      */
     private static final String CONTENT_DESCRIPTION = "the groovy script to execute";
 
+    /**
+     * The maximum number of engines kept to compile the scripts shared between executions.
+     */
+    private static final int SHARED_ENGINES_CAPACITY = 100;
+
     /**
      * A specific XWiki Groovy Script Engine Factory.
      */
@@ -58,6 +76,28 @@ public class GroovyMacro extends AbstractJSR223ScriptMacro<JSR223ScriptMacroPara
     @Named("groovy")
     private ScriptEngineFactory groovyScriptEngineFactory;
 
+    /**
+     * Used to get the rights of the author of the executed script.
+     */
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    /**
+     * The engines compiling the scripts shared between executions, indexed by the transformation executing the scripts
+     * (i.e. the document holding them) and the rights of their author, the least recently used first.
+     */
+    private final Map<String, CachingScriptEngine> sharedEngines = new LinkedHashMap<String, CachingScriptEngine>(16,
+        0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachingScriptEngine> eldest)
+        {
+            return size() > SHARED_ENGINES_CAPACITY;
+        }
+    };
+
     /**
      * Create and initialize the descriptor of the macro.
      */
@@ -75,4 +115,83 @@ public void initialize() throws InitializationException
         // the default Groovy Script Engine Factory and registers Compilation Customizers.
         this.scriptEngineManager.registerEngineName("groovy", this.groovyScriptEngineFactory);
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Groovy engines keep the classes defined by the scripts they evaluate, so they can't be pooled. Instead the
+     * scripts executed by a transformation (i.e. of a document) are compiled once by an engine shared by all the
+     * executions of this transformation with the same author rights, and each execution runs the compiled class with a
+     * new Binding on its own script context. The secure customizer checks the scripts when they are compiled, so a
+     * script compiled with programming rights is never run by an engine used without them. The scripts executed with
+     * jars, after jars were added during the current execution, or by a transformation without id still use an engine
+     * of their own.
+     */
+    @Override
+    protected ScriptEngine getScriptEngine(String engineName, JSR223ScriptMacroParameters parameters,
+        MacroTransformationContext context) throws MacroExecutionException
+    {
+        String key = getSharedEngineKey(context);
+        if (key == null || (parameters != null && StringUtils.isNotEmpty(parameters.getJars()))) {
+            return super.getScriptEngine(engineName, parameters, context);
+        }
+
+        synchronized (this.sharedEngines) {
+            CachingScriptEngine engine = this.sharedEngines.get(key);
+            if (engine == null) {
+                ScriptEngine scriptEngine = createSharedScriptEngine(engineName);
+                if (scriptEngine == null) {
+                    return null;
+                }
+                engine = new CachingScriptEngine(scriptEngine);
+                this.sharedEngines.put(key, engine);
+            }
+
+            return engine.getEngine();
+        }
+    }
+
+    @Override
+    protected CompiledScript getCompiledScript(String content, Compilable engine) throws ScriptException
+    {
+        CachingScriptEngine sharedEngine = null;
+        synchronized (this.sharedEngines) {
+            for (CachingScriptEngine cachingEngine : this.sharedEngines.values()) {
+                if (cachingEngine.getEngine() == engine) {
+                    sharedEngine = cachingEngine;
+                    break;
+                }
+            }
+        }
+
+        if (sharedEngine != null) {
+            return sharedEngine.getCompiledScript(content);
+        }
+
+        return super.getCompiledScript(content, engine);
+    }
+
+    /**
+     * @param context the context of the macro transformation
+     * @return the key of the shared engine to use for the current execution, {@code null} if the scripts of the
+     *         current execution can't be shared
+     */
+    private String getSharedEngineKey(MacroTransformationContext context)
+    {
+        // The scripts of an execution which added jars to the class loader may use classes which are not visible
+        // to the shared engines.
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        if (contextClassLoader instanceof ExtendedURLClassLoader
+            && ((ExtendedURLClassLoader) contextClassLoader).getURLs().length > 0) {
+            return null;
+        }
+
+        // Same as the Velocity macro, the id of the transformation identifies the document holding the scripts.
+        String transformationId = context.getId();
+        if (transformationId == null) {
+            return null;
+        }
+
+        return transformationId + ":" + this.bridge.hasProgrammingRights();
+    }
 }
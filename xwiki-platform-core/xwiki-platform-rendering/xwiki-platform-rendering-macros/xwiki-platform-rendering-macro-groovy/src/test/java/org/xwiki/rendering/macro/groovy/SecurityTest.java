@@ -23,6 +23,7 @@
 import java.util.Collections;
 
 import org.jmock.Expectations;
+import org.jmock.States;
 import org.junit.Before;
 import org.junit.Test;
 import org.xwiki.bridge.DocumentAccessBridge;
@@ -161,18 +162,60 @@ public void testExecutionWhenSecureCustomizerAndRestricted() throws Exception
         executeGroovyMacro("new Integer(0)", true);
     }
 
+    @Test
+    public void testScriptCompiledWithProgrammingRightsIsNotReusedWithoutThem() throws Exception
+    {
+        final States rights = getMockery().states("rights").startsAs("programming");
+        getMockery().checking(new Expectations()
+        {{
+            allowing(dab).hasProgrammingRights();
+            when(rights.is("programming"));
+            will(returnValue(true));
+            allowing(dab).hasProgrammingRights();
+            when(rights.isNot("programming"));
+            will(returnValue(false));
+
+            // The secure AST Customizer is active
+            allowing(configurationSource).getProperty("groovy.compilationCustomizers", Collections.emptyList());
+                will(returnValue(Arrays.asList("secure")));
+        }});
+
+        // Compiled and cached by the engine shared by the executions of this document with programming rights.
+        executeGroovyMacro("synchronized(this) {}", false, "wiki:Space.Page");
+        executeGroovyMacro("synchronized(this) {}", false, "wiki:Space.Page");
+
+        // The same script of the same document, after its author lost programming rights.
+        rights.become("none");
+        try {
+            executeGroovyMacro("synchronized(this) {}", false, "wiki:Space.Page");
+            Assert.fail("Should have thrown an exception here!");
+        } catch (MacroExecutionException expected) {
+            // The script has been compiled again, and rejected by the secure customizer.
+        }
+
+        // The script compiled with programming rights is still available to the executions having them.
+        rights.become("programming");
+        executeGroovyMacro("synchronized(this) {}", false, "wiki:Space.Page");
+    }
+
     private void executeGroovyMacro(String script) throws Exception
     {
         executeGroovyMacro(script, false);
     }
 
     private void executeGroovyMacro(String script, boolean restricted) throws Exception
+    {
+        executeGroovyMacro(script, restricted, null);
+    }
+
+    private void executeGroovyMacro(String script, boolean restricted, String transformationId) throws Exception
     {
         Macro macro = getComponentManager().getInstance(Macro.class, "groovy");
         JSR223ScriptMacroParameters parameters = new JSR223ScriptMacroParameters();
 
         MacroTransformationContext context = new MacroTransformationContext();
         context.getTransformationContext().setRestricted(restricted);
+        context.setId(transformationId);
         // The script macro checks the current block (which is a macro block) to see what engine to use
         context.setCurrentMacroBlock(new MacroBlock("groovy", Collections.<String, String>emptyMap(), false));
 
@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.script;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * Wraps a JSR223 script engine to keep the scripts it compiled, so that the same script content is compiled only once
+ * by a given engine.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class CachingScriptEngine
+{
+    /**
+     * The maximum number of compiled scripts kept for each engine.
+     */
+    private static final int COMPILED_SCRIPTS_CAPACITY = 100;
+
+    /**
+     * The wrapped engine.
+     */
+    private final ScriptEngine engine;
+
+    /**
+     * The scripts compiled by the engine, indexed by their content, the least recently used first.
+     */
+    private final Map<String, CompiledScript> compiledScripts = new LinkedHashMap<String, CompiledScript>(16, 0.75f,
+        true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest)
+        {
+            return size() > COMPILED_SCRIPTS_CAPACITY;
+        }
+    };
+
+    /**
+     * @param engine the engine to wrap
+     */
+    public CachingScriptEngine(ScriptEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    /**
+     * @return the wrapped engine
+     */
+    public ScriptEngine getEngine()
+    {
+        return this.engine;
+    }
+
+    /**
+     * Get the compiled version of a script, compiling it only if it was not already compiled by this engine.
+     * 
+     * @param content the script to compile
+     * @return the compiled script, {@code null} if the engine doesn't support compilation
+     * @throws ScriptException failed to compile the script
+     */
+    public synchronized CompiledScript getCompiledScript(String content) throws ScriptException
+    {
+        if (!(this.engine instanceof Compilable)) {
+            return null;
+        }
+
+        CompiledScript compiledScript = this.compiledScripts.get(content);
+        if (compiledScript == null) {
+            compiledScript = ((Compilable) this.engine).compile(content);
+            this.compiledScripts.put(content, compiledScript);
+        }
+
+        return compiledScript;
+    }
+}
@@ -34,10 +34,12 @@
 import javax.script.ScriptException;
 
 import org.apache.commons.lang3.StringUtils;
+import org.xwiki.classloader.ExtendedURLClassLoader;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.internal.macro.script.CachingScriptEngine;
 import org.xwiki.rendering.macro.MacroExecutionException;
 import org.xwiki.rendering.macro.descriptor.ContentDescriptor;
 import org.xwiki.rendering.transformation.MacroTransformationContext;
@@ -167,7 +169,7 @@ protected List<Block> evaluateBlock(P parameters, String content, MacroTransform
         List<Block> result;
         if (engineName != null) {
             try {
-                ScriptEngine engine = getScriptEngine(engineName);
+                ScriptEngine engine = getScriptEngine(engineName, parameters, context);
 
                 if (engine != null) {
                     result = evaluateBlock(engine, parameters, content, context);
@@ -232,11 +234,20 @@ protected List<Block> evaluateBlock(ScriptEngine engine, P parameters, String co
     }
 
     /**
+     * Get the engine to use for the current execution. Jython, JRuby, PHP and the other JSR223 engines keep the
+     * variables, functions and classes defined by the scripts they evaluate, so they are not shared between executions:
+     * each execution gets its own engines, which compile each script only once during the execution. Macros reusing the
+     * scripts of other executions (see the Groovy macro) have to override this method.
+     * 
      * @param engineName the script engine name (eg "groovy", etc)
+     * @param parameters the macro parameters
+     * @param context the context of the macro transformation
      * @return the Script engine to use to evaluate the script
      * @throws MacroExecutionException in case of an error in parsing the jars parameter
+     * @since 4.2M3
      */
-    private ScriptEngine getScriptEngine(String engineName) throws MacroExecutionException
+    protected ScriptEngine getScriptEngine(String engineName, P parameters, MacroTransformationContext context)
+        throws MacroExecutionException
     {
         // Look for a script engine in the Execution Context since we want the same engine to be used
         // for all evals during the same execution lifetime.
@@ -248,20 +259,47 @@ private ScriptEngine getScriptEngine(String engineName) throws MacroExecutionExc
         // we ensure in AbstractScriptMacro to reuse the same thread context ClassLoader during the whole
         // request execution.
         ExecutionContext executionContext = this.execution.getContext();
-        Map<String, ScriptEngine> scriptEngines =
-            (Map<String, ScriptEngine>) executionContext.getProperty(EXECUTION_CONTEXT_ENGINE_KEY);
+        Map<String, CachingScriptEngine> scriptEngines =
+            (Map<String, CachingScriptEngine>) executionContext.getProperty(EXECUTION_CONTEXT_ENGINE_KEY);
         if (scriptEngines == null) {
-            scriptEngines = new HashMap<String, ScriptEngine>();
+            scriptEngines = new HashMap<String, CachingScriptEngine>();
             executionContext.setProperty(EXECUTION_CONTEXT_ENGINE_KEY, scriptEngines);
         }
-        ScriptEngine engine = scriptEngines.get(engineName);
+        CachingScriptEngine engine = scriptEngines.get(engineName);
 
         if (engine == null) {
-            engine = this.scriptEngineManager.getEngineByName(engineName);
+            ScriptEngine scriptEngine = this.scriptEngineManager.getEngineByName(engineName);
+            if (scriptEngine == null) {
+                return null;
+            }
+            engine = new CachingScriptEngine(scriptEngine);
             scriptEngines.put(engineName, engine);
         }
 
-        return engine;
+        return engine.getEngine();
+    }
+
+    /**
+     * Create an engine which can be used by other executions than the current one.
+     * 
+     * @param engineName the script engine name (eg "groovy", etc)
+     * @return the new engine, {@code null} if there's no engine with this name
+     * @since 4.2M3
+     */
+    protected ScriptEngine createSharedScriptEngine(String engineName)
+    {
+        // The engine may keep the context class loader, which is specific to the current request and can be extended
+        // with the jars of the next script macros, so create the engine with the original one.
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        if (contextClassLoader instanceof ExtendedURLClassLoader && contextClassLoader.getParent() != null) {
+            thread.setContextClassLoader(contextClassLoader.getParent());
+        }
+        try {
+            return this.scriptEngineManager.getEngineByName(engineName);
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
     }
 
     /**
@@ -277,6 +315,10 @@ private ScriptEngine getScriptEngine(String engineName) throws MacroExecutionExc
      */
     protected Object eval(String content, ScriptEngine engine, ScriptContext scriptContext) throws ScriptException
     {
+        if (engine instanceof Compilable) {
+            return getCompiledScript(content, (Compilable) engine).eval(scriptContext);
+        }
+
         return engine.eval(content, scriptContext);
     }
 
@@ -284,7 +326,8 @@ protected Object eval(String content, ScriptEngine engine, ScriptContext scriptC
     // Compiled scripts management
 
     /**
-     * Return a compiled version of the provided script.
+     * Return a compiled version of the provided script. The scripts compiled by the engines used by the current
+     * execution are cached along with the engine, so that the same script is compiled only once by each engine.
      * 
      * @param content the script to compile.
      * @param engine the script engine.
@@ -293,7 +336,15 @@ protected Object eval(String content, ScriptEngine engine, ScriptContext scriptC
      */
     protected CompiledScript getCompiledScript(String content, Compilable engine) throws ScriptException
     {
-        // TODO: add caching
+        Map<String, CachingScriptEngine> scriptEngines =
+            (Map<String, CachingScriptEngine>) this.execution.getContext().getProperty(EXECUTION_CONTEXT_ENGINE_KEY);
+        if (scriptEngines != null) {
+            for (CachingScriptEngine cachingEngine : scriptEngines.values()) {
+                if (cachingEngine.getEngine() == engine) {
+                    return cachingEngine.getCompiledScript(content);
+                }
+            }
+        }
 
         return engine.compile(content);
     }
@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.macro.script;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.rendering.internal.macro.script.CachingScriptEngine;
+
+/**
+ * Unit tests for {@link CachingScriptEngine}.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class CachingScriptEngineTest
+{
+    private interface CompilableScriptEngine extends ScriptEngine, Compilable
+    {
+    }
+
+    private static class TestCompiledScript extends CompiledScript
+    {
+        @Override
+        public Object eval(ScriptContext context)
+        {
+            return null;
+        }
+
+        @Override
+        public ScriptEngine getEngine()
+        {
+            return null;
+        }
+    }
+
+    private Mockery mockery = new Mockery();
+
+    @Test
+    public void testCompiledScriptIsCached() throws Exception
+    {
+        final CompilableScriptEngine engine = this.mockery.mock(CompilableScriptEngine.class);
+        final CompiledScript script1 = new TestCompiledScript();
+        final CompiledScript script2 = new TestCompiledScript();
+        this.mockery.checking(new Expectations() {{
+            oneOf(engine).compile("script1");
+                will(returnValue(script1));
+            oneOf(engine).compile("script2");
+                will(returnValue(script2));
+        }});
+
+        CachingScriptEngine cachingEngine = new CachingScriptEngine(engine);
+
+        Assert.assertSame(script1, cachingEngine.getCompiledScript("script1"));
+        Assert.assertSame(script2, cachingEngine.getCompiledScript("script2"));
+        Assert.assertSame(script1, cachingEngine.getCompiledScript("script1"));
+
+        this.mockery.assertIsSatisfied();
+    }
+
+    @Test
+    public void testNotCompilableEngine() throws Exception
+    {
+        ScriptEngine engine = this.mockery.mock(ScriptEngine.class);
+
+        Assert.assertNull(new CachingScriptEngine(engine).getCompiledScript("script"));
+    }
+}
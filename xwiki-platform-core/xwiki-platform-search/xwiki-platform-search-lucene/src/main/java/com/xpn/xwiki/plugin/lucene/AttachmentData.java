@@ -19,9 +19,11 @@
  */
 package com.xpn.xwiki.plugin.lucene;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -188,7 +190,13 @@ private String getContentAsText(XWikiDocument doc, XWikiContext context)
             Metadata metadata = new Metadata();
             metadata.set(Metadata.RESOURCE_NAME_KEY, this.filename);
 
-            contentText = StringUtils.lowerCase(tika.parseToString(att.getContentInputStream(context), metadata));
+            // The content is streamed to the parser, and Tika bounds the length of the extracted text.
+            InputStream stream = att.getContentInputStream(context);
+            try {
+                contentText = StringUtils.lowerCase(tika.parseToString(stream, metadata));
+            } finally {
+                IOUtils.closeQuietly(stream);
+            }
         } catch (Throwable ex) {
             LOGGER.warn("error getting content of attachment [{}] for document [{}]",
                 new Object[] {this.filename, doc.getDocumentReference(), ex});
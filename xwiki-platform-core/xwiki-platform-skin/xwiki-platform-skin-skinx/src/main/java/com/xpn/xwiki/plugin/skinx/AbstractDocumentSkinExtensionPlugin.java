@@ -28,6 +28,7 @@
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,6 +69,11 @@ public abstract class AbstractDocumentSkinExtensionPlugin extends AbstractSkinEx
      */
     private static final String USE_FIELDNAME = "use";
 
+    /**
+     * The name of the preference (in the configuration file) enabling the bundling of the extensions pulled in a page.
+     */
+    private static final String BUNDLE_PARAM = "xwiki.plugins.skinx.bundle";
+
     /**
      * A Map with wiki/database name as keys and sets of extensions to use always for this wiki as values.
      */
@@ -219,6 +225,120 @@ public boolean hasPageExtensions(XWikiContext context)
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When bundling is enabled, the consecutive extensions sharing the same parameters are imported together through a
+     * single link, which holds a fingerprint of the bundled document versions so that it can be cached for a long
+     * time. The extensions which are not meant to be cached are still imported separately.
+     * </p>
+     * 
+     * @see AbstractSkinExtensionPlugin#getImportString(XWikiContext)
+     */
+    @Override
+    public String getImportString(XWikiContext context)
+    {
+        if (!"1".equals(context.getWiki().Param(BUNDLE_PARAM, "0"))) {
+            return super.getImportString(context);
+        }
+
+        StringBuilder result = new StringBuilder();
+        // Only consecutive extensions are bundled together, to preserve the extensions order.
+        List<String> bundle = new ArrayList<String>();
+        String bundleParameters = null;
+        for (String documentName : getImportedExtensions(context)) {
+            String parameters = getBundleParameters(documentName, context);
+            if (parameters == null || !parameters.equals(bundleParameters)) {
+                result.append(getBundleLink(bundle, context));
+                bundle.clear();
+            }
+            if (parameters == null) {
+                result.append(getLink(documentName, context));
+            } else {
+                bundle.add(documentName);
+            }
+            bundleParameters = parameters;
+        }
+        result.append(getBundleLink(bundle, context));
+
+        return result.toString();
+    }
+
+    /**
+     * Get what distinguishes the link of an extension, besides its document, so that only the extensions sharing the
+     * same parameters are bundled together.
+     * 
+     * @param documentName the name of the document holding the extension
+     * @param context the current request context
+     * @return the parameters of the extension link, or {@code null} if the extension can't be bundled
+     * @since 4.2M3
+     */
+    protected String getBundleParameters(String documentName, XWikiContext context)
+    {
+        try {
+            XWikiDocument document = context.getWiki().getDocument(documentName, context);
+            if (document.isNew()) {
+                return null;
+            }
+            List<BaseObject> objects = document.getObjects(getExtensionClassName());
+            if (objects != null) {
+                for (BaseObject obj : objects) {
+                    if (obj != null && "forbid".equals(obj.getStringValue("cache"))) {
+                        return null;
+                    }
+                }
+            }
+        } catch (XWikiException e) {
+            LOGGER.warn("Failed to load skin extension [{}]: [{}]", documentName, e.getMessage());
+            return null;
+        }
+
+        return parametersAsQueryString(documentName, context);
+    }
+
+    /**
+     * @param documentNames the names of the documents holding the extensions to bundle
+     * @param context the current request context
+     * @return the XHTML fragment importing all the given extensions at once
+     */
+    private String getBundleLink(List<String> documentNames, XWikiContext context)
+    {
+        if (documentNames.isEmpty()) {
+            return "";
+        } else if (documentNames.size() == 1) {
+            return getLink(documentNames.get(0), context);
+        }
+
+        StringBuilder query = new StringBuilder();
+        StringBuilder fingerprint = new StringBuilder();
+        for (String documentName : documentNames) {
+            query.append("&amp;bundle=").append(sanitize(documentName));
+            fingerprint.append(documentName).append(':');
+            try {
+                fingerprint.append(context.getWiki().getDocument(documentName, context).getVersion());
+            } catch (XWikiException e) {
+                // Already checked when computing the bundle parameters.
+            }
+            fingerprint.append('\n');
+        }
+        // Change the link whenever any of the bundled extensions is modified.
+        query.append("&amp;hash=").append(DigestUtils.md5Hex(fingerprint.toString()));
+
+        return getLink(documentNames.get(0), query.toString(), context);
+    }
+
+    /**
+     * Get the link to an extension, with additional query parameters.
+     * 
+     * @param documentName the name of the document holding the extension
+     * @param queryString additional parameters to add to the URL, already escaped and prefixed with {@code &amp;amp;}
+     * @param context the current request context
+     * @return the XHTML fragment importing the extension
+     * @see #getLink(String, XWikiContext)
+     * @since 4.2M3
+     */
+    protected abstract String getLink(String documentName, String queryString, XWikiContext context);
+
     /**
      * {@inheritDoc}
      * <p>
@@ -212,6 +212,23 @@ protected void initializeRequestListIfNeeded(XWikiContext context)
     public String getImportString(XWikiContext context)
     {
         StringBuilder result = new StringBuilder();
+        for (String documentName : getImportedExtensions(context)) {
+            result.append(getLink(documentName, context));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Get the extensions to import in the current request, in the order they should be imported.
+     * 
+     * @param context The current request context.
+     * @return the always used extensions, followed by the extensions pulled in the current request and the on page
+     *         extensions
+     * @see #getImportString(XWikiContext)
+     * @since 4.2M3
+     */
+    protected Set<String> getImportedExtensions(XWikiContext context)
+    {
         // Using LinkedHashSet to preserve the extensions order.
         Set<String> extensions = new LinkedHashSet<String>();
         // First, we add to the import string the extensions that should always be used.
@@ -226,10 +243,7 @@ public String getImportString(XWikiContext context)
             extensions.add(context.getDoc().getFullName());
         }
 
-        for (String documentName : extensions) {
-            result.append(getLink(documentName, context));
-        }
-        return result.toString();
+        return extensions;
     }
 
     /**
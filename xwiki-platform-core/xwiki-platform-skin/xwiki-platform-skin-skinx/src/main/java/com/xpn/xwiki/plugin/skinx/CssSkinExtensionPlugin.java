@@ -68,11 +68,17 @@ public void virtualInit(XWikiContext context)
 
     @Override
     public String getLink(String documentName, XWikiContext context)
+    {
+        return getLink(documentName, "", context);
+    }
+
+    @Override
+    protected String getLink(String documentName, String queryString, XWikiContext context)
     {
         return "<link rel='stylesheet' type='text/css' href='"
             + context.getWiki().getURL(documentName, PLUGIN_NAME,
-                "language=" + sanitize(context.getLanguage()) + parametersAsQueryString(documentName, context),
-                context) + "'/>";
+                "language=" + sanitize(context.getLanguage()) + parametersAsQueryString(documentName, context)
+                    + queryString, context) + "'/>";
     }
 
     @Override
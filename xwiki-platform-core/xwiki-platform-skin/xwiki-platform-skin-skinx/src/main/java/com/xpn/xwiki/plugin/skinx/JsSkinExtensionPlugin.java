@@ -77,20 +77,53 @@ public void virtualInit(XWikiContext context)
 
     @Override
     public String getLink(String documentName, XWikiContext context)
+    {
+        return getLink(documentName, "", context);
+    }
+
+    @Override
+    protected String getLink(String documentName, String queryString, XWikiContext context)
     {
         StringBuilder result = new StringBuilder("<script type='text/javascript' src='");
         result.append(context.getWiki().getURL(documentName, PLUGIN_NAME,
-            "language=" + sanitize(context.getLanguage()) + parametersAsQueryString(documentName, context), context));
-        // check if js should be deferred, defaults to the preference configured in the cfg file, which defaults to true
-        String defaultDeferString = context.getWiki().Param(DEFER_DEFAULT_PARAM);
-        Boolean defaultDefer = (!StringUtils.isEmpty(defaultDeferString)) ? Boolean.valueOf(defaultDeferString) : true;
-        if (BooleanUtils.toBooleanDefaultIfNull((Boolean) getParameter("defer", documentName, context), defaultDefer)) {
+            "language=" + sanitize(context.getLanguage()) + parametersAsQueryString(documentName, context)
+                + queryString, context));
+        if (isDeferred(documentName, context)) {
             result.append("' defer='defer");
         }
         result.append("'></script>\n");
         return result.toString();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Deferred and non deferred extensions can't be bundled together.
+     * </p>
+     * 
+     * @see AbstractDocumentSkinExtensionPlugin#getBundleParameters(String, XWikiContext)
+     */
+    @Override
+    protected String getBundleParameters(String documentName, XWikiContext context)
+    {
+        String parameters = super.getBundleParameters(documentName, context);
+        return parameters != null ? parameters + isDeferred(documentName, context) : null;
+    }
+
+    /**
+     * @param documentName the name of the document holding the extension
+     * @param context the current request context
+     * @return {@code true} if the extension should be loaded after the page is parsed
+     */
+    private boolean isDeferred(String documentName, XWikiContext context)
+    {
+        // check if js should be deferred, defaults to the preference configured in the cfg file, which defaults to true
+        String defaultDeferString = context.getWiki().Param(DEFER_DEFAULT_PARAM);
+        Boolean defaultDefer = (!StringUtils.isEmpty(defaultDeferString)) ? Boolean.valueOf(defaultDeferString) : true;
+        return BooleanUtils.toBooleanDefaultIfNull((Boolean) getParameter("defer", documentName, context),
+            defaultDefer);
+    }
+
     @Override
     protected String getExtensionClassName()
     {
@@ -20,6 +20,7 @@
 package com.xpn.xwiki.web.sx;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.Date;
 
 import javax.servlet.http.HttpServletResponse;
@@ -28,10 +29,15 @@
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
+import org.xwiki.skinx.internal.SxContent;
+import org.xwiki.skinx.internal.SxContentCache;
+
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.web.XWikiAction;
 import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.Utils;
 import com.xpn.xwiki.web.XWikiResponse;
 import com.xpn.xwiki.web.sx.SxSource.CachePolicy;
 
@@ -59,12 +65,24 @@ public abstract class AbstractSxAction extends XWikiAction
     /** What http header parameter is used to specify when the cache should expire. */
     private static final String CACHE_EXPIRES_HEADER = "Expires";
 
+    /** What http header parameter is used to identify the version of the content. */
+    private static final String ETAG_HEADER = "ETag";
+
+    /** What http header parameter is used to specify the encoding of the content. */
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    /** The content encoding used when sending compressed content. */
+    private static final String GZIP_ENCODING = "gzip";
+
     /** The response will be sent to the browser as a byte array in this character set. */
     private static final String RESPONSE_CHARACTER_SET = "UTF-8";
 
     /** If the user passes this parameter in the URL, we will look for the script in the jar files. */
     private static final String JAR_RESOURCE_REQUEST_PARAMETER = "resource";
 
+    /** If the user passes this parameter in the URL, we will bundle the extensions of the listed documents. */
+    private static final String BUNDLE_REQUEST_PARAMETER = "bundle";
+
     /** If the user specifies this url parameter equals false, we will send uncompressed script content. */
     private static final String COMPRESS_SCRIPT_REQUEST_PARAMETER = "minify";
 
@@ -86,8 +104,6 @@ public void renderExtension(SxSource sxSource, Extension sxType, XWikiContext co
         XWikiRequest request = context.getRequest();
         XWikiResponse response = context.getResponse();
 
-        String extensionContent = sxSource.getContent();
-
         response.setContentType(sxType.getContentType());
 
         if (sxSource.getLastModifiedDate() > 0) {
@@ -109,20 +125,157 @@ public void renderExtension(SxSource sxSource, Extension sxType, XWikiContext co
             response.setHeader(CACHE_CONTROL_HEADER, "no-cache, no-store, must-revalidate");
         }
 
-        if (BooleanUtils.toBoolean(StringUtils.defaultIfEmpty(
-            request.get(COMPRESS_SCRIPT_REQUEST_PARAMETER), "true"))) {
-            extensionContent = sxType.getCompressor().compress(extensionContent);
+        boolean minify =
+            BooleanUtils.toBoolean(StringUtils.defaultIfEmpty(request.get(COMPRESS_SCRIPT_REQUEST_PARAMETER), "true"));
+
+        // Parsed extensions are rendered for each request, so there's no point in checking if the client has them.
+        boolean cacheable = cachePolicy != CachePolicy.FORBID && !isParsed(sxSource);
+        SxContent content = getContent(sxSource, sxType, minify, cacheable, context);
+
+        if (cacheable) {
+            response.setHeader(ETAG_HEADER, content.getEntityTag());
+            if (isNotModified(request, content)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+
+        byte[] data = content.getContent();
+        if (content.getGzippedContent() != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+            if (StringUtils.contains(request.getHeader("Accept-Encoding"), GZIP_ENCODING)) {
+                response.setHeader(CONTENT_ENCODING_HEADER, GZIP_ENCODING);
+                data = content.getGzippedContent();
+            }
         }
 
         try {
-            response.setContentLength(extensionContent.getBytes(RESPONSE_CHARACTER_SET).length);
-            response.getOutputStream().write(extensionContent.getBytes(RESPONSE_CHARACTER_SET));
+            response.setContentLength(data.length);
+            response.getOutputStream().write(data);
         } catch (IOException ex) {
             getLogger().warn("Failed to send SX content: [{}]", ex.getMessage());
         }
 
     }
 
+    /**
+     * Get the content to send, rendered and compressed if requested. Cacheable content is cached for the version of the
+     * source, the language and the {@code minify} parameter, and invalidated when a document holding the extension is
+     * modified. The other request parameters are left out of the cache key: they don't change content which is not
+     * parsed, and they would let any client fill the cache.
+     * 
+     * @param sxSource the source of the extension
+     * @param sxType the type of extension
+     * @param minify whether the content should be compressed
+     * @param cacheable {@code false} if the cache is forbidden or the extension is parsed, {@code true} otherwise
+     * @param context the XWiki context
+     * @return the content to send
+     */
+    private SxContent getContent(SxSource sxSource, Extension sxType, boolean minify, boolean cacheable,
+        XWikiContext context)
+    {
+        SxContentCache cache = null;
+        XWikiDocument document = null;
+        Object[] parameters = null;
+        if (cacheable) {
+            cache = Utils.getComponent(SxContentCache.class);
+            if (sxSource instanceof SxDocumentSource) {
+                document = ((SxDocumentSource) sxSource).getDocument();
+                parameters = new Object[] {sxType.getClassName(), document.getVersion(), context.getLanguage(), minify};
+                SxContent content = cache.getDocumentContent(document.getDocumentReference(), parameters);
+                if (content != null) {
+                    return content;
+                }
+            } else if (sxSource instanceof SxBundleSource) {
+                parameters =
+                    new Object[] {sxType.getClassName(), ((SxBundleSource) sxSource).getVersions(),
+                    context.getLanguage(), minify};
+                SxContent content =
+                    cache.getBundleContent(((SxBundleSource) sxSource).getDocumentReferences(), parameters);
+                if (content != null) {
+                    return content;
+                }
+            } else if (sxSource instanceof SxResourceSource) {
+                parameters = new Object[] {sxType.getClassName(), minify};
+                SxContent content =
+                    cache.getResourceContent(((SxResourceSource) sxSource).getResourceName(), parameters);
+                if (content != null) {
+                    return content;
+                }
+            }
+        }
+
+        String extensionContent = sxSource.getContent();
+        if (minify) {
+            extensionContent = sxType.getCompressor().compress(extensionContent);
+        }
+
+        SxContent content;
+        try {
+            content = new SxContent(extensionContent.getBytes(RESPONSE_CHARACTER_SET), sxSource.getLastModifiedDate());
+        } catch (UnsupportedEncodingException e) {
+            // Should never happen, UTF-8 is always supported.
+            throw new RuntimeException(e);
+        }
+
+        if (document != null) {
+            cache.setDocumentContent(content, document.getDocumentReference(), parameters);
+        } else if (sxSource instanceof SxBundleSource && parameters != null) {
+            cache.setBundleContent(content, ((SxBundleSource) sxSource).getDocumentReferences(), parameters);
+        } else if (parameters != null) {
+            cache.setResourceContent(content, ((SxResourceSource) sxSource).getResourceName(), parameters);
+        }
+
+        return content;
+    }
+
+    /**
+     * Parsed extensions can depend on the current user, the color theme or anything else their script reads, so their
+     * content can't be shared between requests.
+     * 
+     * @param sxSource the source of the extension
+     * @return {@code true} if the content of the extension, or of one of the bundled extensions, is parsed with
+     *         Velocity
+     */
+    private boolean isParsed(SxSource sxSource)
+    {
+        if (sxSource instanceof SxDocumentSource) {
+            return ((SxDocumentSource) sxSource).isParsed();
+        } else if (sxSource instanceof SxBundleSource) {
+            return ((SxBundleSource) sxSource).isParsed();
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the client already has the content, according to the conditional headers of the request.
+     * 
+     * @param request the request
+     * @param content the content to send
+     * @return {@code true} if the client already has the content and a 304 status can be sent instead
+     */
+    private boolean isNotModified(XWikiRequest request, SxContent content)
+    {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            // Some proxies drop the weak indicator, so only compare the opaque part of the tag.
+            return "*".equals(ifNoneMatch.trim())
+                || ifNoneMatch.contains(StringUtils.removeStart(content.getEntityTag(), "W/"));
+        }
+
+        if (content.getLastModified() > 0) {
+            try {
+                long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+                // HTTP dates have a precision of one second.
+                return ifModifiedSince >= 0 && content.getLastModified() / 1000 <= ifModifiedSince / 1000;
+            } catch (IllegalArgumentException e) {
+                // Invalid date, send the content.
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public String render(XWikiContext context) throws XWikiException
     {
@@ -130,6 +283,10 @@ public String render(XWikiContext context) throws XWikiException
 
         if (context.getRequest().getParameter(JAR_RESOURCE_REQUEST_PARAMETER) != null) {
             sxSource = new SxResourceSource(context.getRequest().getParameter(JAR_RESOURCE_REQUEST_PARAMETER));
+        } else if (context.getRequest().getParameterValues(BUNDLE_REQUEST_PARAMETER) != null) {
+            sxSource =
+                new SxBundleSource(context, getExtensionType(), context.getRequest().getParameterValues(
+                    BUNDLE_REQUEST_PARAMETER));
         } else {
             if (context.getDoc().isNew()) {
                 context.getResponse().setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -0,0 +1,171 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.web.sx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.velocity.VelocityContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.velocity.VelocityManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Bundle source for Skin Extensions: the concatenation of the extensions stored in several wiki documents, so that all
+ * of them can be sent to the client in a single response.
+ * 
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class SxBundleSource implements SxSource
+{
+    /** The name of the velocity context entry holding the current document. */
+    private static final String DOC = "doc";
+
+    /** Logging helper. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SxBundleSource.class);
+
+    /** The current XWikiContext. */
+    private XWikiContext context;
+
+    /** The type of Extension bundled. */
+    private Extension extension;
+
+    /** The documents containing the bundled extensions, in the order they are bundled. */
+    private List<XWikiDocument> documents = new ArrayList<XWikiDocument>();
+
+    /**
+     * Constructor for this extension source. The documents which don't exist or which the current user isn't allowed
+     * to view are left out of the bundle.
+     * 
+     * @param context The XWikiContext
+     * @param extension The Extension type
+     * @param documentNames the names of the documents containing the extensions to bundle
+     */
+    public SxBundleSource(XWikiContext context, Extension extension, String[] documentNames)
+    {
+        this.context = context;
+        this.extension = extension;
+
+        for (String documentName : documentNames) {
+            try {
+                XWikiDocument document = context.getWiki().getDocument(documentName, context);
+                if (!document.isNew()
+                    && context.getWiki().getRightService().hasAccessLevel("view", context.getUser(),
+                        document.getPrefixedFullName(), context)) {
+                    this.documents.add(document);
+                }
+            } catch (XWikiException e) {
+                LOGGER.warn("Failed to load skin extension [{}]: [{}]", documentName, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public CachePolicy getCachePolicy()
+    {
+        CachePolicy finalCache = CachePolicy.LONG;
+        for (XWikiDocument document : this.documents) {
+            CachePolicy cache = new SxDocumentSource(document, this.context, this.extension).getCachePolicy();
+            if (cache.compareTo(finalCache) > 0) {
+                finalCache = cache;
+            }
+        }
+        return finalCache;
+    }
+
+    @Override
+    public String getContent()
+    {
+        StringBuilder resultBuilder = new StringBuilder();
+        // Protect against members which don't end their last statement.
+        String separator = (this.extension instanceof JsExtension) ? ";\n" : "\n";
+
+        VelocityContext vcontext = Utils.getComponent(VelocityManager.class).getVelocityContext();
+        XWikiDocument currentDocument = this.context.getDoc();
+        Object currentVelocityDocument = vcontext.get(DOC);
+        try {
+            for (XWikiDocument document : this.documents) {
+                // Parsed extensions expect to be rendered in the context of the document holding them.
+                this.context.setDoc(document);
+                vcontext.put(DOC, document.newDocument(this.context));
+                resultBuilder.append(new SxDocumentSource(document, this.context, this.extension).getContent());
+                resultBuilder.append(separator);
+            }
+        } finally {
+            this.context.setDoc(currentDocument);
+            vcontext.put(DOC, currentVelocityDocument);
+        }
+        return resultBuilder.toString();
+    }
+
+    @Override
+    public long getLastModifiedDate()
+    {
+        long lastModified = 0;
+        for (XWikiDocument document : this.documents) {
+            lastModified = Math.max(lastModified, document.getDate().getTime());
+        }
+        return lastModified;
+    }
+
+    /**
+     * @return {@code true} if at least one of the bundled extensions is parsed with Velocity
+     */
+    boolean isParsed()
+    {
+        for (XWikiDocument document : this.documents) {
+            if (new SxDocumentSource(document, this.context, this.extension).isParsed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the references of the documents containing the bundled extensions, in the order they are bundled
+     */
+    List<DocumentReference> getDocumentReferences()
+    {
+        List<DocumentReference> references = new ArrayList<DocumentReference>(this.documents.size());
+        for (XWikiDocument document : this.documents) {
+            references.add(document.getDocumentReference());
+        }
+        return references;
+    }
+
+    /**
+     * @return the versions of the documents containing the bundled extensions, in the order they are bundled
+     */
+    String getVersions()
+    {
+        StringBuilder versions = new StringBuilder();
+        for (XWikiDocument document : this.documents) {
+            versions.append(document.getVersion()).append(' ');
+        }
+        return versions.toString();
+    }
+}
@@ -77,6 +77,21 @@ public SxDocumentSource(XWikiContext context, Extension extension)
         this.extension = extension;
     }
 
+    /**
+     * Constructor for an extension source which is not the current document.
+     * 
+     * @param document the document containing the extension
+     * @param context the XWikiContext
+     * @param extension the Extension type
+     * @since 4.2M3
+     */
+    public SxDocumentSource(XWikiDocument document, XWikiContext context, Extension extension)
+    {
+        this.context = context;
+        this.document = document;
+        this.extension = extension;
+    }
+
     @Override
     public CachePolicy getCachePolicy()
     {
@@ -149,4 +164,27 @@ public long getLastModifiedDate()
         return this.document.getDate().getTime();
     }
 
+    /**
+     * @return {@code true} if the content of at least one of the extension objects is parsed with Velocity
+     */
+    boolean isParsed()
+    {
+        if (this.document.getObjects(this.extension.getClassName()) != null) {
+            for (BaseObject sxObj : this.document.getObjects(this.extension.getClassName())) {
+                if (sxObj != null && sxObj.getIntValue(PARSE_CONTENT_PROPERTY_NAME) == 1) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the document containing the extension
+     */
+    XWikiDocument getDocument()
+    {
+        return this.document;
+    }
+
 }
@@ -65,6 +65,14 @@ public String getContent()
         }
     }
 
+    /**
+     * @return the full path of the resource to use as extension
+     */
+    String getResourceName()
+    {
+        return this.resourceName;
+    }
+
     @Override
     public long getLastModifiedDate()
     {
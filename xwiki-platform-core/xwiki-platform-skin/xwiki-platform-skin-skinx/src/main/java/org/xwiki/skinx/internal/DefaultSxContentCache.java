@@ -0,0 +1,349 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.bridge.event.AbstractDocumentEvent;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.internal.cache.DocumentCache;
+
+/**
+ * Default implementation of {@link SxContentCache}.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+@Component
+@Singleton
+public class DefaultSxContentCache implements SxContentCache, Initializable
+{
+    /**
+     * Identifier of the cache of the extensions stored in documents.
+     */
+    private static final String DOCUMENT_CACHE_NAME = "skinx.content.documents";
+
+    /**
+     * Identifier of the cache of the extensions stored as resources.
+     */
+    private static final String RESOURCE_CACHE_NAME = "skinx.content.resources";
+
+    /**
+     * Identifier of the cache of the bundles of extensions stored in documents.
+     */
+    private static final String BUNDLE_CACHE_NAME = "skinx.content.bundles";
+
+    /**
+     * The maximum number of entries in each cache.
+     */
+    private static final int CACHE_SIZE = 500;
+
+    /**
+     * Removes the bundles including a document when the document is modified.
+     *
+     * @version $Id$
+     */
+    private class BundleListener implements EventListener
+    {
+        /**
+         * The events to match.
+         */
+        private final List<Event> events = Arrays.<Event> asList(new DocumentCreatedEvent(),
+            new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+
+        @Override
+        public String getName()
+        {
+            return BUNDLE_CACHE_NAME;
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return this.events;
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            Set<String> keys = bundleKeys.remove(((AbstractDocumentEvent) event).getEventFilter().getFilter());
+            if (keys != null) {
+                for (String key : keys) {
+                    bundleCache.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the bundles evicted from the cache, so that the index of the bundle keys doesn't grow forever.
+     *
+     * @version $Id$
+     */
+    private class BundleCacheListener implements CacheEntryListener<SxContent>
+    {
+        @Override
+        public void cacheEntryAdded(CacheEntryEvent<SxContent> event)
+        {
+            // Nothing to do.
+        }
+
+        @Override
+        public void cacheEntryRemoved(CacheEntryEvent<SxContent> event)
+        {
+            String key = event.getEntry().getKey();
+            Collection<String> members = bundleMembers.remove(key);
+            if (members != null) {
+                for (String member : members) {
+                    Set<String> keys = bundleKeys.get(member);
+                    if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                        bundleKeys.remove(member, keys);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void cacheEntryModified(CacheEntryEvent<SxContent> event)
+        {
+            // Nothing to do.
+        }
+    }
+
+    /**
+     * Used to create the cache of the resource extensions.
+     */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * Used to be notified when the members of the cached bundles are modified.
+     */
+    @Inject
+    private ObservationManager observationManager;
+
+    /**
+     * Used to serialize the references of the members of the bundles.
+     */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /**
+     * The extensions stored in documents, automatically cleaned when a document is modified.
+     */
+    @Inject
+    private DocumentCache<SxContent> documentCache;
+
+    /**
+     * The extensions stored as resources, which can't change while XWiki is running.
+     */
+    private Cache<SxContent> resourceCache;
+
+    /**
+     * The bundles of extensions stored in documents.
+     */
+    private Cache<SxContent> bundleCache;
+
+    /**
+     * The keys of the cached bundles, indexed by the serialized reference of their member documents.
+     */
+    private final ConcurrentMap<String, Set<String>> bundleKeys = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * The serialized references of the member documents of the cached bundles, indexed by bundle key.
+     */
+    private final ConcurrentMap<String, Collection<String>> bundleMembers =
+        new ConcurrentHashMap<String, Collection<String>>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.documentCache.create(createCacheConfiguration(DOCUMENT_CACHE_NAME));
+            this.resourceCache = this.cacheManager.createNewCache(createCacheConfiguration(RESOURCE_CACHE_NAME));
+            this.bundleCache = this.cacheManager.createNewCache(createCacheConfiguration(BUNDLE_CACHE_NAME));
+            this.bundleCache.addCacheEntryListener(new BundleCacheListener());
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to initialize skin extension cache", e);
+        }
+
+        this.observationManager.addListener(new BundleListener());
+    }
+
+    /**
+     * @param name the identifier of the cache
+     * @return the configuration of the cache
+     */
+    private CacheConfiguration createCacheConfiguration(String name)
+    {
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId(name);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        return cacheConfiguration;
+    }
+
+    @Override
+    public SxContent getDocumentContent(DocumentReference documentReference, Object... parameters)
+    {
+        return this.documentCache.get(documentReference, parameters);
+    }
+
+    @Override
+    public void setDocumentContent(SxContent content, DocumentReference documentReference, Object... parameters)
+    {
+        this.documentCache.set(content, documentReference, parameters);
+    }
+
+    @Override
+    public SxContent getResourceContent(String resourceName, Object... parameters)
+    {
+        return this.resourceCache.get(getResourceKey(resourceName, parameters));
+    }
+
+    @Override
+    public void setResourceContent(SxContent content, String resourceName, Object... parameters)
+    {
+        this.resourceCache.set(getResourceKey(resourceName, parameters), content);
+    }
+
+    @Override
+    public SxContent getBundleContent(Collection<DocumentReference> documentReferences, Object... parameters)
+    {
+        return this.bundleCache.get(getBundleKey(documentReferences, parameters));
+    }
+
+    @Override
+    public void setBundleContent(SxContent content, Collection<DocumentReference> documentReferences,
+        Object... parameters)
+    {
+        String key = getBundleKey(documentReferences, parameters);
+        // Remember the bundle key for each member so that the bundle is dropped when any of them is modified.
+        List<String> members = new ArrayList<String>(documentReferences.size());
+        for (DocumentReference documentReference : documentReferences) {
+            String documentReferenceString = this.serializer.serialize(documentReference);
+            members.add(documentReferenceString);
+            Set<String> keys = this.bundleKeys.get(documentReferenceString);
+            if (keys == null) {
+                Set<String> newKeys = new CopyOnWriteArraySet<String>();
+                keys = this.bundleKeys.putIfAbsent(documentReferenceString, newKeys);
+                if (keys == null) {
+                    keys = newKeys;
+                }
+            }
+            keys.add(key);
+        }
+        this.bundleMembers.put(key, members);
+        this.bundleCache.set(key, content);
+    }
+
+    /**
+     * @param resourceName the full path of the resource
+     * @param parameters what the content depends on, besides the resource
+     * @return the key of the content in the cache
+     */
+    private String getResourceKey(String resourceName, Object... parameters)
+    {
+        StringBuilder key = new StringBuilder(escape(resourceName));
+        appendParameters(key, parameters);
+
+        return key.toString();
+    }
+
+    /**
+     * @param documentReferences the documents holding the extensions, in the order they are bundled
+     * @param parameters what the content depends on, besides the documents
+     * @return the key of the content in the cache
+     */
+    private String getBundleKey(Collection<DocumentReference> documentReferences, Object... parameters)
+    {
+        StringBuilder key = new StringBuilder();
+        for (DocumentReference documentReference : documentReferences) {
+            key.append(escape(this.serializer.serialize(documentReference))).append(',');
+        }
+        appendParameters(key, parameters);
+
+        return key.toString();
+    }
+
+    /**
+     * @param key the key to complete
+     * @param parameters the parameters to append to the key
+     */
+    private void appendParameters(StringBuilder key, Object... parameters)
+    {
+        for (Object parameter : parameters) {
+            key.append(':').append(escape(parameter != null ? parameter.toString() : ""));
+        }
+    }
+
+    /**
+     * Escape the separators so that different keys can't be produced from different values.
+     *
+     * @param value the value to escape
+     * @return the escaped value
+     */
+    private String escape(String value)
+    {
+        return StringUtils.replaceEach(StringUtils.replace(value, "\\", "\\\\"), new String[] {":", ","},
+            new String[] {"\\:", "\\,"});
+    }
+
+    @Override
+    public void flush()
+    {
+        this.documentCache.removeAll();
+        this.resourceCache.removeAll();
+        this.bundleCache.removeAll();
+        this.bundleKeys.clear();
+        this.bundleMembers.clear();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * The content of a skin extension as sent to the clients: rendered, compressed if requested, and encoded. A gzipped
+ * version of the content is prepared as well when it's worth it, so that it can be sent as is to the clients accepting
+ * it.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class SxContent
+{
+    /**
+     * The contents smaller than this size (in bytes) are not gzipped, since the gain would be negligible.
+     */
+    private static final int GZIP_THRESHOLD = 256;
+
+    /**
+     * The encoded content.
+     */
+    private final byte[] content;
+
+    /**
+     * The gzipped content, null if it's not worth it.
+     */
+    private final byte[] gzippedContent;
+
+    /**
+     * The entity tag identifying the content.
+     */
+    private final String entityTag;
+
+    /**
+     * The modification date of the source of the content, 0 if it's unknown.
+     */
+    private final long lastModified;
+
+    /**
+     * @param content the encoded content
+     * @param lastModified the modification date of the source of the content, 0 if it's unknown
+     */
+    public SxContent(byte[] content, long lastModified)
+    {
+        this.content = content;
+        this.gzippedContent = gzip(content);
+        // A weak entity tag, since the same entity can be sent gzipped or not.
+        this.entityTag = "W/\"" + DigestUtils.md5Hex(content) + '"';
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param data the data to compress
+     * @return the gzipped data, null if it's not smaller than the original data
+     */
+    private static byte[] gzip(byte[] data)
+    {
+        if (data.length < GZIP_THRESHOLD) {
+            return null;
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2);
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(output);
+            gzip.write(data);
+            gzip.close();
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            return null;
+        }
+
+        return output.size() < data.length ? output.toByteArray() : null;
+    }
+
+    /**
+     * @return the encoded content
+     */
+    public byte[] getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return the gzipped content, null if it's not worth it
+     */
+    public byte[] getGzippedContent()
+    {
+        return this.gzippedContent;
+    }
+
+    /**
+     * @return the entity tag identifying the content, to be used as {@code ETag} header
+     */
+    public String getEntityTag()
+    {
+        return this.entityTag;
+    }
+
+    /**
+     * @return the modification date of the source of the content, 0 if it's unknown
+     */
+    public long getLastModified()
+    {
+        return this.lastModified;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.ComponentRole;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Cache the content sent by the skin extension actions so that the extensions are not rendered and compressed again
+ * for each request.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+@ComponentRole
+public interface SxContentCache
+{
+    /**
+     * Get the content of an extension stored in a document.
+     * <p>
+     * The entries are invalidated when the document is modified.
+     *
+     * @param documentReference the document holding the extension
+     * @param parameters what the content depends on, besides the document
+     * @return the cached content, null if it's not cached
+     */
+    SxContent getDocumentContent(DocumentReference documentReference, Object... parameters);
+
+    /**
+     * @param content the content of an extension stored in a document
+     * @param documentReference the document holding the extension
+     * @param parameters what the content depends on, besides the document
+     */
+    void setDocumentContent(SxContent content, DocumentReference documentReference, Object... parameters);
+
+    /**
+     * Get the content of an extension stored as a resource of the class path.
+     *
+     * @param resourceName the full path of the resource
+     * @param parameters what the content depends on, besides the resource
+     * @return the cached content, null if it's not cached
+     */
+    SxContent getResourceContent(String resourceName, Object... parameters);
+
+    /**
+     * @param content the content of an extension stored as a resource of the class path
+     * @param resourceName the full path of the resource
+     * @param parameters what the content depends on, besides the resource
+     */
+    void setResourceContent(SxContent content, String resourceName, Object... parameters);
+
+    /**
+     * Get the content of a bundle of extensions stored in documents.
+     * <p>
+     * The entries are invalidated when any of the member documents is modified.
+     *
+     * @param documentReferences the documents holding the extensions, in the order they are bundled
+     * @param parameters what the content depends on, besides the documents
+     * @return the cached content, null if it's not cached
+     */
+    SxContent getBundleContent(Collection<DocumentReference> documentReferences, Object... parameters);
+
+    /**
+     * @param content the content of a bundle of extensions stored in documents
+     * @param documentReferences the documents holding the extensions, in the order they are bundled
+     * @param parameters what the content depends on, besides the documents
+     */
+    void setBundleContent(SxContent content, Collection<DocumentReference> documentReferences,
+        Object... parameters);
+
+    /**
+     * Remove all the entries of the cache.
+     */
+    void flush();
+}
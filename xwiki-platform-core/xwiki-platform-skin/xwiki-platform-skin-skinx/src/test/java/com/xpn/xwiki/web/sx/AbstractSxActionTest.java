@@ -0,0 +1,264 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.web.sx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jmock.Mock;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.skinx.internal.SxContentCache;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
+import com.xpn.xwiki.web.JsxAction;
+import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.XWikiResponse;
+
+/**
+ * Unit tests for the content cache of {@link AbstractSxAction}.
+ * 
+ * @version $Id$
+ */
+public class AbstractSxActionTest extends AbstractBridgedXWikiComponentTestCase
+{
+    /**
+     * Counts the renderings of the extension, whose content changes with each rendering like a parsed extension
+     * depending on the current user would.
+     */
+    private class TestDocumentSource extends SxDocumentSource
+    {
+        private int renderings;
+
+        TestDocumentSource()
+        {
+            super(document, getContext(), JsxAction.JSX);
+        }
+
+        @Override
+        public String getContent()
+        {
+            return "var renderings = " + (++this.renderings) + ";";
+        }
+    }
+
+    private XWikiDocument document;
+
+    private Map<String, Object> cachedContents;
+
+    private Map<String, String> headers;
+
+    private int status;
+
+    private ByteArrayOutputStream output;
+
+    private String ifNoneMatch;
+
+    private String queryString;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        this.document = new XWikiDocument(new DocumentReference("xwiki", "Space", "Page"));
+        this.document.setDate(new Date(1000));
+
+        // The cache is backed by a map, to look at the cached contents.
+        this.cachedContents = new HashMap<String, Object>();
+        Mock mockCache = registerMockComponent(SxContentCache.class);
+        mockCache.stubs().method("getDocumentContent").will(new CustomStub("Implements getDocumentContent")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                return cachedContents.get(getKey(invocation.parameterValues.get(0), invocation.parameterValues.get(1)));
+            }
+        });
+        mockCache.stubs().method("setDocumentContent").will(new CustomStub("Implements setDocumentContent")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                cachedContents.put(getKey(invocation.parameterValues.get(1), invocation.parameterValues.get(2)),
+                    invocation.parameterValues.get(0));
+                return null;
+            }
+        });
+
+        Mock mockRequest = mock(XWikiRequest.class);
+        mockRequest.stubs().method("get").will(returnValue(null));
+        mockRequest.stubs().method("get").with(eq("minify")).will(returnValue("false"));
+        mockRequest.stubs().method("getQueryString").will(new CustomStub("Returns the query string")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                return queryString;
+            }
+        });
+        mockRequest.stubs().method("getDateHeader").will(returnValue(-1L));
+        mockRequest.stubs().method("getHeader").will(returnValue(null));
+        mockRequest.stubs().method("getHeader").with(eq("If-None-Match")).will(new CustomStub("Returns the ETag")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                return ifNoneMatch;
+            }
+        });
+        getContext().setRequest((XWikiRequest) mockRequest.proxy());
+
+        Mock mockResponse = mock(XWikiResponse.class);
+        mockResponse.stubs().method("setContentType");
+        mockResponse.stubs().method("setDateHeader");
+        mockResponse.stubs().method("setContentLength");
+        mockResponse.stubs().method("setHeader").will(new CustomStub("Records the header")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                headers.put((String) invocation.parameterValues.get(0), (String) invocation.parameterValues.get(1));
+                return null;
+            }
+        });
+        mockResponse.stubs().method("setStatus").will(new CustomStub("Records the status")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                status = (Integer) invocation.parameterValues.get(0);
+                return null;
+            }
+        });
+        mockResponse.stubs().method("getOutputStream").will(new CustomStub("Returns the output")
+        {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                return new ServletOutputStream()
+                {
+                    @Override
+                    public void write(int b) throws IOException
+                    {
+                        output.write(b);
+                    }
+                };
+            }
+        });
+        getContext().setResponse((XWikiResponse) mockResponse.proxy());
+    }
+
+    private String getKey(Object documentReference, Object parameters)
+    {
+        return documentReference + Arrays.asList((Object[]) parameters).toString();
+    }
+
+    private String render(SxSource source) throws Exception
+    {
+        this.headers = new HashMap<String, String>();
+        this.status = HttpServletResponse.SC_OK;
+        this.output = new ByteArrayOutputStream();
+
+        new JsxAction().renderExtension(source, JsxAction.JSX, getContext());
+
+        return this.output.toString("UTF-8");
+    }
+
+    private void addExtensionObject(int parse)
+    {
+        BaseObject object = new BaseObject();
+        object.setXClassReference(new DocumentReference("xwiki", "XWiki", "JavaScriptExtension"));
+        object.setIntValue("parse", parse);
+        this.document.addXObject(object);
+    }
+
+    public void testContentIsCached() throws Exception
+    {
+        addExtensionObject(0);
+        TestDocumentSource source = new TestDocumentSource();
+
+        assertEquals("var renderings = 1;", render(source));
+        assertEquals(1, this.cachedContents.size());
+        assertEquals("var renderings = 1;", render(source));
+        assertEquals(1, source.renderings);
+        assertNotNull(this.headers.get("ETag"));
+    }
+
+    public void testNewVersionIsRendered() throws Exception
+    {
+        addExtensionObject(0);
+        TestDocumentSource source = new TestDocumentSource();
+
+        assertEquals("var renderings = 1;", render(source));
+        this.document.setVersion("1.2");
+        assertEquals("var renderings = 2;", render(source));
+        assertEquals(2, this.cachedContents.size());
+    }
+
+    public void testUnknownParametersDontChangeTheCacheKey() throws Exception
+    {
+        addExtensionObject(0);
+        TestDocumentSource source = new TestDocumentSource();
+
+        this.queryString = "minify=false&noise=1";
+        assertEquals("var renderings = 1;", render(source));
+        this.queryString = "minify=false&noise=2";
+        assertEquals("var renderings = 1;", render(source));
+        assertEquals(1, this.cachedContents.size());
+    }
+
+    public void testNotModified() throws Exception
+    {
+        addExtensionObject(0);
+        TestDocumentSource source = new TestDocumentSource();
+
+        render(source);
+        this.ifNoneMatch = this.headers.get("ETag");
+
+        assertEquals("", render(source));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, this.status);
+        assertEquals(1, source.renderings);
+    }
+
+    public void testParsedContentIsNeitherCachedNorValidated() throws Exception
+    {
+        addExtensionObject(1);
+        TestDocumentSource source = new TestDocumentSource();
+        this.ifNoneMatch = "*";
+
+        assertEquals("var renderings = 1;", render(source));
+        assertEquals(HttpServletResponse.SC_OK, this.status);
+        assertEquals("var renderings = 2;", render(source));
+        assertEquals(HttpServletResponse.SC_OK, this.status);
+        assertNull(this.headers.get("ETag"));
+        assertTrue(this.cachedContents.isEmpty());
+    }
+}
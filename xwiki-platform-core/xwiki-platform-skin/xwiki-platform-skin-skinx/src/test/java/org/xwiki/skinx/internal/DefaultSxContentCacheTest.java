@@ -0,0 +1,297 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.util.AbstractCache;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.AbstractMockingComponentTestCase;
+import org.xwiki.test.annotation.MockingRequirement;
+
+import com.xpn.xwiki.internal.cache.DocumentCache;
+
+/**
+ * Unit tests for {@link DefaultSxContentCache}.
+ *
+ * @version $Id$
+ */
+public class DefaultSxContentCacheTest extends AbstractMockingComponentTestCase
+{
+    /**
+     * A cache backed by a map, evicting the least recently used entries beyond its capacity.
+     */
+    static class TestCache<T> extends AbstractCache<T>
+    {
+        private final int capacity;
+
+        private final Map<String, T> entries = new LinkedHashMap<String, T>(16, 0.75f, true);
+
+        TestCache(int capacity)
+        {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void set(String key, T value)
+        {
+            this.entries.put(key, value);
+            Iterator<Map.Entry<String, T>> iterator = this.entries.entrySet().iterator();
+            while (this.entries.size() > this.capacity) {
+                Map.Entry<String, T> eldest = iterator.next();
+                iterator.remove();
+                sendEntryRemovedEvent(getEvent(eldest.getKey(), eldest.getValue()));
+            }
+        }
+
+        @Override
+        public T get(String key)
+        {
+            return this.entries.get(key);
+        }
+
+        @Override
+        public void remove(String key)
+        {
+            T value = this.entries.remove(key);
+            if (value != null) {
+                sendEntryRemovedEvent(getEvent(key, value));
+            }
+        }
+
+        @Override
+        public void removeAll()
+        {
+            this.entries.clear();
+        }
+
+        int size()
+        {
+            return this.entries.size();
+        }
+
+        private CacheEntryEvent<T> getEvent(final String key, final T value)
+        {
+            final CacheEntry<T> entry = new CacheEntry<T>()
+            {
+                @Override
+                public Cache<T> getCache()
+                {
+                    return TestCache.this;
+                }
+
+                @Override
+                public String getKey()
+                {
+                    return key;
+                }
+
+                @Override
+                public T getValue()
+                {
+                    return value;
+                }
+            };
+
+            return new CacheEntryEvent<T>()
+            {
+                @Override
+                public CacheEntry<T> getEntry()
+                {
+                    return entry;
+                }
+
+                @Override
+                public Cache<T> getCache()
+                {
+                    return TestCache.this;
+                }
+            };
+        }
+    }
+
+    @MockingRequirement(exceptions = {EntityReferenceSerializer.class})
+    private DefaultSxContentCache cache;
+
+    private TestCache<SxContent> resourceCache;
+
+    private TestCache<SxContent> bundleCache;
+
+    private EventListener bundleListener;
+
+    private final DocumentReference first = new DocumentReference("xwiki", "Space", "First");
+
+    private final DocumentReference second = new DocumentReference("xwiki", "Space", "Second");
+
+    private final DocumentReference third = new DocumentReference("xwiki", "Space", "Third");
+
+    @Override
+    public void configure() throws Exception
+    {
+        this.resourceCache = new TestCache<SxContent>(500);
+        this.bundleCache = new TestCache<SxContent>(2);
+
+        final CacheManager cacheManager = getComponentManager().getInstance(CacheManager.class);
+        final DocumentCache<SxContent> documentCache =
+            getComponentManager().getInstance(new DefaultParameterizedType(null, DocumentCache.class, SxContent.class));
+        final ObservationManager observationManager = getComponentManager().getInstance(ObservationManager.class);
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(documentCache).create(with(any(CacheConfiguration.class)));
+                oneOf(cacheManager).createNewCache(with(any(CacheConfiguration.class)));
+                will(returnValue(resourceCache));
+                oneOf(cacheManager).createNewCache(with(any(CacheConfiguration.class)));
+                will(returnValue(bundleCache));
+                oneOf(observationManager).addListener(with(any(EventListener.class)));
+                will(new CustomAction("Captures the bundle listener")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        bundleListener = (EventListener) invocation.getParameter(0);
+                        return null;
+                    }
+                });
+            }
+        });
+    }
+
+    private SxContent newContent(String content) throws Exception
+    {
+        return new SxContent(content.getBytes("UTF-8"), 0);
+    }
+
+    @Test
+    public void testResourceContent() throws Exception
+    {
+        Assert.assertNull(this.cache.getResourceContent("skin.js", "jsx", true));
+
+        SxContent content = newContent("var a = 1;");
+        this.cache.setResourceContent(content, "skin.js", "jsx", true);
+
+        Assert.assertSame(content, this.cache.getResourceContent("skin.js", "jsx", true));
+        Assert.assertNull(this.cache.getResourceContent("skin.js", "jsx", false));
+        Assert.assertNull(this.cache.getResourceContent("other.js", "jsx", true));
+    }
+
+    @Test
+    public void testBundleContent() throws Exception
+    {
+        List<DocumentReference> bundle = Arrays.asList(this.first, this.second);
+        Assert.assertNull(this.cache.getBundleContent(bundle, "jsx", true));
+
+        SxContent content = newContent("var a = 1;");
+        this.cache.setBundleContent(content, bundle, "jsx", true);
+
+        Assert.assertSame(content, this.cache.getBundleContent(bundle, "jsx", true));
+        Assert.assertNull(this.cache.getBundleContent(bundle, "jsx", false));
+        // The order of the members matters.
+        Assert.assertNull(this.cache.getBundleContent(Arrays.asList(this.second, this.first), "jsx", true));
+    }
+
+    @Test
+    public void testBundleIsInvalidatedWhenMemberIsDeleted() throws Exception
+    {
+        List<DocumentReference> bundle = Arrays.asList(this.first, this.second);
+        this.cache.setBundleContent(newContent("var a = 1;"), bundle, "jsx", true);
+        this.cache.setBundleContent(newContent("var b = 1;"), Arrays.asList(this.first), "jsx", true);
+
+        this.bundleListener.onEvent(new DocumentDeletedEvent(this.second), null, null);
+
+        Assert.assertNull(this.cache.getBundleContent(bundle, "jsx", true));
+        Assert.assertNotNull(this.cache.getBundleContent(Arrays.asList(this.first), "jsx", true));
+    }
+
+    @Test
+    public void testBundleIsInvalidatedWhenMemberIsEdited() throws Exception
+    {
+        List<DocumentReference> bundle = Arrays.asList(this.first, this.second);
+        this.cache.setBundleContent(newContent("var a = 1;"), bundle, "jsx", true);
+        this.cache.setBundleContent(newContent("var a=1;"), bundle, "jsx", false);
+        Assert.assertEquals(2, this.bundleCache.size());
+
+        this.bundleListener.onEvent(new DocumentUpdatedEvent(this.first), null, null);
+
+        Assert.assertNull(this.cache.getBundleContent(bundle, "jsx", true));
+        Assert.assertNull(this.cache.getBundleContent(bundle, "jsx", false));
+        Assert.assertEquals(0, this.bundleCache.size());
+        Assert.assertTrue(getIndex("bundleKeys").isEmpty());
+        Assert.assertTrue(getIndex("bundleMembers").isEmpty());
+    }
+
+    @Test
+    public void testEvictedBundlesAreForgotten() throws Exception
+    {
+        // The bundle cache holds 2 bundles.
+        this.cache.setBundleContent(newContent("var a = 1;"), Arrays.asList(this.first, this.second), "jsx", true);
+        this.cache.setBundleContent(newContent("var b = 1;"), Arrays.asList(this.second), "jsx", true);
+        this.cache.setBundleContent(newContent("var c = 1;"), Arrays.asList(this.third), "jsx", true);
+
+        Assert.assertNull(this.cache.getBundleContent(Arrays.asList(this.first, this.second), "jsx", true));
+        Map<String, ? > bundleKeys = getIndex("bundleKeys");
+        Assert.assertFalse(bundleKeys.containsKey("xwiki:Space.First"));
+        Assert.assertEquals(1, ((Set< ? >) bundleKeys.get("xwiki:Space.Second")).size());
+        Assert.assertEquals(1, ((Set< ? >) bundleKeys.get("xwiki:Space.Third")).size());
+        Assert.assertEquals(2, getIndex("bundleMembers").size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ? > getIndex(String name) throws Exception
+    {
+        Field field = DefaultSxContentCache.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return (Map<String, ? >) field.get(this.cache);
+    }
+
+    @Test
+    public void testFlush() throws Exception
+    {
+        this.cache.setResourceContent(newContent("var a = 1;"), "skin.js", "jsx", true);
+        this.cache.setBundleContent(newContent("var b = 1;"), Arrays.asList(this.first), "jsx", true);
+
+        this.cache.flush();
+
+        Assert.assertNull(this.cache.getResourceContent("skin.js", "jsx", true));
+        Assert.assertNull(this.cache.getBundleContent(Arrays.asList(this.first), "jsx", true));
+    }
+}
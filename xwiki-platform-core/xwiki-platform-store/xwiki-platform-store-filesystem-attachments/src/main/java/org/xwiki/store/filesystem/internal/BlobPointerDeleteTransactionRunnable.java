@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.filesystem.internal;
+
+import java.io.File;
+
+import org.xwiki.store.FileDeleteTransactionRunnable;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.TransactionRunnable;
+
+/**
+ * A TransactionRunnable for deleting a pointer to a blob of a {@link FilesystemBlobStore}.
+ * The reference to the blob is released on commit, the blob being deleted if it's not referenced anymore.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+class BlobPointerDeleteTransactionRunnable extends StartableTransactionRunnable<TransactionRunnable>
+{
+    /**
+     * The store of the blob.
+     */
+    private final FilesystemBlobStore blobStore;
+
+    /**
+     * The pointer file to delete.
+     */
+    private final File pointerFile;
+
+    /**
+     * The hash of the blob pointed to, null if the pointer does not exist.
+     */
+    private String hash;
+
+    /**
+     * The Constructor.
+     *
+     * @param blobStore the store of the blob.
+     * @param pointerFile the pointer file to delete.
+     */
+    BlobPointerDeleteTransactionRunnable(final FilesystemBlobStore blobStore, final File pointerFile)
+    {
+        this.blobStore = blobStore;
+        this.pointerFile = pointerFile;
+
+        final FilesystemStoreTools fileTools = blobStore.getFileTools();
+        new FileDeleteTransactionRunnable(pointerFile,
+            fileTools.getBackupFile(pointerFile),
+            fileTools.getLockForFile(pointerFile)).runIn(this);
+    }
+
+    @Override
+    protected void onRun() throws Exception
+    {
+        // The pointer is locked since all the runnables have been pre-run, and not yet deleted.
+        this.hash = this.blobStore.readPointer(this.pointerFile);
+    }
+
+    @Override
+    protected void onCommit() throws Exception
+    {
+        if (this.hash != null) {
+            this.blobStore.removeReference(this.hash);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.filesystem.internal;
+
+import java.io.File;
+
+import org.xwiki.store.FileDeleteTransactionRunnable;
+import org.xwiki.store.FileSaveTransactionRunnable;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.StreamProvider;
+import org.xwiki.store.TransactionRunnable;
+
+/**
+ * A TransactionRunnable for saving some content as a blob of a {@link FilesystemBlobStore} and pointing the location
+ * of the content to it.
+ * The blob is stored (or gets one more reference) when the runnable runs, the pointer file is written like any other
+ * file and the reference to the blob previously pointed to is released on commit.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+class BlobSaveTransactionRunnable extends StartableTransactionRunnable<TransactionRunnable>
+    implements FilesystemBlobStore.HashHolder
+{
+    /**
+     * The store where the blob is saved.
+     */
+    private final FilesystemBlobStore blobStore;
+
+    /**
+     * The file pointing to the blob.
+     */
+    private final File pointerFile;
+
+    /**
+     * The means to get the content to save.
+     */
+    private final StreamProvider provider;
+
+    /**
+     * The hash of the saved content, known once run.
+     */
+    private String hash;
+
+    /**
+     * The hash of the content previously saved at this location, if it was deduplicated.
+     */
+    private String previousHash;
+
+    /**
+     * The Constructor.
+     *
+     * @param blobStore the store where the blob is saved.
+     * @param contentFile the location of the content.
+     * @param provider the means to get the content to save.
+     */
+    BlobSaveTransactionRunnable(final FilesystemBlobStore blobStore,
+        final File contentFile,
+        final StreamProvider provider)
+    {
+        this.blobStore = blobStore;
+        this.pointerFile = blobStore.getPointerFile(contentFile);
+        this.provider = provider;
+
+        final FilesystemStoreTools fileTools = blobStore.getFileTools();
+        new FileSaveTransactionRunnable(this.pointerFile,
+            fileTools.getTempFile(this.pointerFile),
+            fileTools.getBackupFile(this.pointerFile),
+            fileTools.getLockForFile(this.pointerFile),
+            FilesystemBlobStore.getPointerStreamProvider(this)).runIn(this);
+
+        // The content of the location is not stored as a regular file anymore.
+        new FileDeleteTransactionRunnable(contentFile,
+            fileTools.getBackupFile(contentFile),
+            fileTools.getLockForFile(contentFile)).runIn(this);
+    }
+
+    @Override
+    public String getHash()
+    {
+        return this.hash;
+    }
+
+    @Override
+    protected void onRun() throws Exception
+    {
+        // The pointer is locked since all the runnables have been pre-run.
+        this.previousHash = this.blobStore.readPointer(this.pointerFile);
+        this.hash = this.blobStore.store(this.provider);
+    }
+
+    @Override
+    protected void onCommit() throws Exception
+    {
+        if (this.previousHash != null) {
+            this.blobStore.removeReference(this.previousHash);
+        }
+    }
+
+    @Override
+    protected void onRollback() throws Exception
+    {
+        if (this.hash != null) {
+            this.blobStore.removeReference(this.hash);
+        }
+    }
+}
@@ -32,6 +32,7 @@
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.context.Execution;
 import org.xwiki.environment.Environment;
 import org.xwiki.model.reference.DocumentReference;
@@ -62,17 +63,17 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
      * This must have a URL illegal character in it,
      * otherwise it will be confused if/when nested spaces are implemented.
      */
-    private static final String DOCUMENT_DIR_NAME = "~this";
+    static final String DOCUMENT_DIR_NAME = "~this";
 
     /**
      * The directory within each document's directory where the document's attachments are stored.
      */
-    private static final String ATTACHMENT_DIR_NAME = "attachments";
+    static final String ATTACHMENT_DIR_NAME = "attachments";
 
     /**
      * The directory within each document's directory for attachments which have been deleted.
      */
-    private static final String DELETED_ATTACHMENT_DIR_NAME = "deleted-attachments";
+    static final String DELETED_ATTACHMENT_DIR_NAME = "deleted-attachments";
 
     /**
      * The part of the deleted attachment directory name after this is the date of deletion,
@@ -85,14 +86,14 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
      * If the save operation fails then this file will be moved back to the regular position to come as
      * close as possible to ACID transaction handling.
      */
-    private static final String BACKUP_FILE_SUFFIX = "~bak";
+    static final String BACKUP_FILE_SUFFIX = "~bak";
 
     /**
      * When a file is being deleted, it will be renamed with this at the end of the filename in the
      * transaction. If the transaction succeeds then the temp file will be deleted, if it fails then the
      * temp file will be renamed back to the original filename.
      */
-    private static final String TEMP_FILE_SUFFIX = "~tmp";
+    static final String TEMP_FILE_SUFFIX = "~tmp";
 
     /**
      * Serializer used for obtaining a safe file path from a document reference.
@@ -119,11 +120,23 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
     @Inject
     private Environment environment;
 
+    /**
+     * Used to know if the content of the attachments should be deduplicated.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
     /**
      * This is the directory where all of the attachments will stored.
      */
     private File storageDir;
 
+    /**
+     * The store where the content of the attachments is deduplicated.
+     */
+    private FilesystemBlobStore blobStore;
+
     /**
      * Testing Constructor.
      *
@@ -135,10 +148,29 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
     public DefaultFilesystemStoreTools(final EntityReferenceSerializer<String> pathSerializer,
         final File storageDir,
         final LockProvider lockProvider)
+    {
+        this(pathSerializer, storageDir, lockProvider, false);
+    }
+
+    /**
+     * Testing Constructor.
+     *
+     * @param pathSerializer an EntityReferenceSerializer for generating file paths.
+     * @param storageDir the directory to store the content in.
+     * @param lockProvider a means of getting locks for making sure
+     * only one thread accesses an attachment at a time.
+     * @param deduplicate true if the content of the attachments should be deduplicated.
+     * @since 4.2M3
+     */
+    public DefaultFilesystemStoreTools(final EntityReferenceSerializer<String> pathSerializer,
+        final File storageDir,
+        final LockProvider lockProvider,
+        final boolean deduplicate)
     {
         this.pathSerializer = pathSerializer;
         this.storageDir = storageDir;
         this.lockProvider = lockProvider;
+        this.blobStore = new FilesystemBlobStore(storageDir, this, deduplicate);
     }
 
     /**
@@ -152,6 +184,8 @@ public DefaultFilesystemStoreTools()
     public void initialize()
     {
         this.storageDir = new File(this.environment.getPermanentDirectory(), STORAGE_DIR_NAME);
+        this.blobStore = new FilesystemBlobStore(this.storageDir, this,
+            this.configuration.getProperty("store.filesystem.attachments.deduplicate", Boolean.FALSE));
         deleteEmptyDirs(this.storageDir);
     }
 
@@ -349,4 +383,10 @@ public ReadWriteLock getLockForFile(final File toLock)
     {
         return this.lockProvider.getLock(toLock);
     }
+
+    @Override
+    public FilesystemBlobStore getBlobStore()
+    {
+        return this.blobStore;
+    }
 }
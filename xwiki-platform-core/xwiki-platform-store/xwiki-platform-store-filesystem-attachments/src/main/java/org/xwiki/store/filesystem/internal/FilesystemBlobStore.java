@@ -0,0 +1,671 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.filesystem.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.xwiki.store.FileDeleteTransactionRunnable;
+import org.xwiki.store.FileSaveTransactionRunnable;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.StreamProvider;
+import org.xwiki.store.TransactionRunnable;
+
+/**
+ * A content addressed store of attachment content, shared by all the attachments, attachment versions and deleted
+ * attachments which have the same content.
+ * <p>
+ * Each distinct content is stored once in storage/~blobs/ab/abcdef... where abcdef... is the SHA-1 of the content,
+ * along with the number of places referencing it. Instead of the content, the usual location of an attachment (or
+ * version, or deleted attachment) then holds a small pointer file (the location with {@link #POINTER_SUFFIX} appended)
+ * containing the hash of the content. When both a content file and a pointer file exist for the same location, the
+ * content file wins, this way content saved while deduplication was disabled is always honored.
+ * <p>
+ * Pointers are always resolved, but new content is only deduplicated when the store is enabled, see
+ * {@link #isEnabled()}. Existing content can be converted using {@link #migrate()} and the reference counts fixed
+ * (and unreferenced blobs removed) using {@link #collectGarbage()}, both being meant to be run while XWiki is stopped
+ * (see {@link FilesystemBlobStoreTool}).
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class FilesystemBlobStore
+{
+    /**
+     * The suffix of the pointer files, appended to the location of the content they replace.
+     */
+    public static final String POINTER_SUFFIX = "~blob";
+
+    /**
+     * The number of references returned when the references file can't be parsed. The blob is then kept until the next
+     * garbage collection recounts its references.
+     */
+    public static final int UNKNOWN_REFERENCES = -1;
+
+    /**
+     * The name of the directory in the storage directory where the blobs are stored.
+     * This must have a URL illegal character in it so that it can't be confused with a wiki.
+     */
+    static final String BLOB_DIR_NAME = "~blobs";
+
+    /**
+     * The suffix of the files holding the number of references to a blob.
+     */
+    private static final String REFERENCES_SUFFIX = "~refs";
+
+    /**
+     * The prefix of the files where content is written while its hash is computed.
+     */
+    private static final String NEW_BLOB_PREFIX = "~new";
+
+    /**
+     * The algorithm used to identify the content.
+     */
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    /**
+     * The encoding of the pointer and references files.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The directory where the whole hierarchy is stored.
+     */
+    private final File storageDir;
+
+    /**
+     * The directory where the blobs are stored.
+     */
+    private final File blobDir;
+
+    /**
+     * Tools for getting temporary and backup files and locks.
+     */
+    private final FilesystemStoreTools fileTools;
+
+    /**
+     * @see #isEnabled()
+     */
+    private final boolean enabled;
+
+    /**
+     * The Constructor.
+     *
+     * @param storageDir the directory where the whole hierarchy is stored.
+     * @param fileTools tools for getting temporary and backup files and locks.
+     * @param enabled true if new content should be deduplicated.
+     */
+    public FilesystemBlobStore(final File storageDir, final FilesystemStoreTools fileTools, final boolean enabled)
+    {
+        this.storageDir = storageDir;
+        this.blobDir = new File(storageDir, BLOB_DIR_NAME);
+        this.fileTools = fileTools;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return true if new content is deduplicated, false if it's stored as a regular file at its location.
+     */
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    /**
+     * @param contentFile the location of some content.
+     * @return the file which points to the blob holding the content of this location when deduplicated.
+     */
+    public File getPointerFile(final File contentFile)
+    {
+        return new File(contentFile.getPath() + POINTER_SUFFIX);
+    }
+
+    /**
+     * @param file a file in the storage.
+     * @return true if the file is a pointer to a blob.
+     */
+    public boolean isPointerFile(final File file)
+    {
+        return file.getName().endsWith(POINTER_SUFFIX);
+    }
+
+    /**
+     * @param hash the hash of some content.
+     * @return the file holding the content with this hash.
+     */
+    public File getBlobFile(final String hash)
+    {
+        return new File(new File(this.blobDir, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * @param contentFile the location of some content.
+     * @return true if there is content at this location, deduplicated or not.
+     */
+    public boolean exists(final File contentFile)
+    {
+        return contentFile.exists() || getPointerFile(contentFile).exists();
+    }
+
+    /**
+     * Get the file holding the content of a location, following the pointer if the content is deduplicated.
+     *
+     * @param contentFile the location of some content.
+     * @return the file to read the content from, contentFile itself if the content is not deduplicated.
+     * @throws IOException if the pointer can't be read.
+     */
+    public File getContentFile(final File contentFile) throws IOException
+    {
+        if (!contentFile.exists()) {
+            final String hash = readPointer(getPointerFile(contentFile));
+            if (hash != null) {
+                return getBlobFile(hash);
+            }
+        }
+
+        return contentFile;
+    }
+
+    /**
+     * Get a runnable which saves some content at the given location, deduplicated or not depending on
+     * {@link #isEnabled()}.
+     *
+     * @param contentFile the location of the content.
+     * @param provider the means to get the content to save. When it's a {@link FileStreamProvider} providing the
+     *            content of a blob, the content is not even read and the blob just gets one more reference.
+     * @return a runnable which will save the content.
+     */
+    public StartableTransactionRunnable<TransactionRunnable> getSaveRunnable(final File contentFile,
+        final StreamProvider provider)
+    {
+        if (this.enabled) {
+            return new BlobSaveTransactionRunnable(this, contentFile, provider);
+        }
+
+        final StartableTransactionRunnable<TransactionRunnable> out =
+            new StartableTransactionRunnable<TransactionRunnable>();
+        // The content of the location is not deduplicated anymore.
+        new BlobPointerDeleteTransactionRunnable(this, getPointerFile(contentFile)).runIn(out);
+        new FileSaveTransactionRunnable(contentFile,
+            this.fileTools.getTempFile(contentFile),
+            this.fileTools.getBackupFile(contentFile),
+            this.fileTools.getLockForFile(contentFile),
+            provider).runIn(out);
+
+        return out;
+    }
+
+    /**
+     * Get a runnable which deletes the content at the given location, deduplicated or not.
+     *
+     * @param contentFile the location of the content.
+     * @return a runnable which will delete the content.
+     */
+    public StartableTransactionRunnable<TransactionRunnable> getDeleteRunnable(final File contentFile)
+    {
+        final StartableTransactionRunnable<TransactionRunnable> out =
+            new StartableTransactionRunnable<TransactionRunnable>();
+        new BlobPointerDeleteTransactionRunnable(this, getPointerFile(contentFile)).runIn(out);
+        new FileDeleteTransactionRunnable(contentFile,
+            this.fileTools.getBackupFile(contentFile),
+            this.fileTools.getLockForFile(contentFile)).runIn(out);
+
+        return out;
+    }
+
+    /**
+     * Get a runnable which deletes a pointer file and releases the blob it points to.
+     *
+     * @param pointerFile the pointer file.
+     * @return a runnable which will delete the pointer.
+     */
+    public StartableTransactionRunnable<TransactionRunnable> getPointerDeleteRunnable(final File pointerFile)
+    {
+        return new BlobPointerDeleteTransactionRunnable(this, pointerFile);
+    }
+
+    /**
+     * @return the tools for getting temporary and backup files and locks.
+     */
+    FilesystemStoreTools getFileTools()
+    {
+        return this.fileTools;
+    }
+
+    /**
+     * @param pointerFile a pointer file.
+     * @return the hash contained in the pointer file, null if it does not exist.
+     * @throws IOException if the pointer can't be read.
+     */
+    String readPointer(final File pointerFile) throws IOException
+    {
+        if (!pointerFile.exists()) {
+            return null;
+        }
+
+        return FileUtils.readFileToString(pointerFile, ENCODING).trim();
+    }
+
+    /**
+     * @param hash a hash.
+     * @return a provider of the content of a pointer file pointing to the blob with this hash.
+     */
+    static StreamProvider getPointerStreamProvider(final HashHolder hash)
+    {
+        return new StreamProvider()
+        {
+            @Override
+            public InputStream getStream() throws IOException
+            {
+                return IOUtils.toInputStream(hash.getHash(), ENCODING);
+            }
+        };
+    }
+
+    /**
+     * Store some content as a blob, or add a reference to the existing blob if the same content is already stored.
+     *
+     * @param provider the means to get the content.
+     * @return the hash of the content.
+     * @throws Exception if the content can't be stored.
+     */
+    String store(final StreamProvider provider) throws Exception
+    {
+        final File source = provider instanceof FileStreamProvider ? ((FileStreamProvider) provider).getFile() : null;
+        if (source != null && source.getParentFile() != null
+            && this.blobDir.equals(source.getParentFile().getParentFile()) && addReference(source.getName())) {
+            return source.getName();
+        }
+
+        this.blobDir.mkdirs();
+        final File newBlob = File.createTempFile(NEW_BLOB_PREFIX, null, this.blobDir);
+        try {
+            final MessageDigest digest = getMessageDigest();
+            final InputStream in = new DigestInputStream(provider.getStream(), digest);
+            try {
+                final OutputStream out = new FileOutputStream(newBlob);
+                try {
+                    IOUtils.copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            final String hash = new String(Hex.encodeHex(digest.digest()));
+            final File blob = getBlobFile(hash);
+            final ReadWriteLock lock = this.fileTools.getLockForFile(blob);
+            lock.writeLock().lock();
+            try {
+                if (!blob.exists()) {
+                    blob.getParentFile().mkdirs();
+                    if (!newBlob.renameTo(blob)) {
+                        throw new IOException("Could not move [" + newBlob.getAbsolutePath() + "] to ["
+                            + blob.getAbsolutePath() + "]");
+                    }
+                }
+                incrementReferences(blob);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            return hash;
+        } finally {
+            newBlob.delete();
+        }
+    }
+
+    /**
+     * Add a reference to an existing blob.
+     *
+     * @param hash the hash of the blob.
+     * @return false if there is no blob with this hash.
+     * @throws IOException if the number of references can't be updated.
+     */
+    boolean addReference(final String hash) throws IOException
+    {
+        final File blob = getBlobFile(hash);
+        final ReadWriteLock lock = this.fileTools.getLockForFile(blob);
+        lock.writeLock().lock();
+        try {
+            if (!blob.exists()) {
+                return false;
+            }
+            incrementReferences(blob);
+
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a reference to a blob, deleting it when it's not referenced anymore.
+     *
+     * @param hash the hash of the blob.
+     * @throws IOException if the number of references can't be updated.
+     */
+    void removeReference(final String hash) throws IOException
+    {
+        final File blob = getBlobFile(hash);
+        final ReadWriteLock lock = this.fileTools.getLockForFile(blob);
+        lock.writeLock().lock();
+        try {
+            final int references = getReferences(blob);
+            if (references == UNKNOWN_REFERENCES) {
+                // Never delete a blob which might still be referenced, the next garbage collection will recount.
+            } else if (references > 1) {
+                setReferences(blob, references - 1);
+            } else {
+                blob.delete();
+                getReferencesFile(blob).delete();
+                this.fileTools.getBackupFile(getReferencesFile(blob)).delete();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param hash the hash of a blob.
+     * @return the number of places referencing the blob, {@link #UNKNOWN_REFERENCES} if it can't be parsed.
+     * @throws IOException if the number of references can't be read.
+     */
+    public int getReferences(final String hash) throws IOException
+    {
+        return getReferences(getBlobFile(hash));
+    }
+
+    /**
+     * @param blob a blob.
+     * @return the number of places referencing the blob, {@link #UNKNOWN_REFERENCES} if it can't be parsed.
+     * @throws IOException if the number of references can't be read.
+     */
+    private int getReferences(final File blob) throws IOException
+    {
+        File file = getReferencesFile(blob);
+        if (!file.exists()) {
+            // The update of the references might have been interrupted after the current count was moved aside.
+            file = this.fileTools.getBackupFile(file);
+            if (!file.exists()) {
+                return 0;
+            }
+        }
+
+        try {
+            return Integer.parseInt(FileUtils.readFileToString(file, ENCODING).trim());
+        } catch (NumberFormatException e) {
+            // Will be fixed by the next garbage collection.
+            return UNKNOWN_REFERENCES;
+        }
+    }
+
+    /**
+     * Add a reference to a blob, unless its current number of references is unknown.
+     *
+     * @param blob a blob.
+     * @throws IOException if the number of references can't be updated.
+     */
+    private void incrementReferences(final File blob) throws IOException
+    {
+        final int references = getReferences(blob);
+        if (references != UNKNOWN_REFERENCES) {
+            setReferences(blob, references + 1);
+        }
+    }
+
+    /**
+     * @param blob a blob.
+     * @param references the number of places referencing the blob.
+     * @throws IOException if the number of references can't be written.
+     */
+    private void setReferences(final File blob, final int references) throws IOException
+    {
+        final File file = getReferencesFile(blob);
+        final File temp = this.fileTools.getTempFile(file);
+        FileUtils.writeStringToFile(temp, String.valueOf(references), ENCODING);
+        final File backup = this.fileTools.getBackupFile(file);
+        if (temp.renameTo(file)) {
+            // The existing count was replaced atomically, drop the leftover of a previously interrupted update.
+            backup.delete();
+            return;
+        }
+
+        // Some platforms can't rename over an existing file. Move the current count aside instead of deleting it, so
+        // that it's still read if the update is interrupted and can be restored if the rename fails.
+        backup.delete();
+        if (file.exists() && !file.renameTo(backup)) {
+            temp.delete();
+            throw new IOException("Could not move [" + file.getAbsolutePath() + "] to [" + backup.getAbsolutePath()
+                + "]");
+        }
+        if (!temp.renameTo(file)) {
+            backup.renameTo(file);
+            temp.delete();
+            throw new IOException("Could not move [" + temp.getAbsolutePath() + "] to [" + file.getAbsolutePath()
+                + "]");
+        }
+        backup.delete();
+    }
+
+    /**
+     * @param blob a blob.
+     * @return the file holding the number of references to the blob.
+     */
+    private File getReferencesFile(final File blob)
+    {
+        return new File(blob.getPath() + REFERENCES_SUFFIX);
+    }
+
+    /**
+     * Deduplicate all the attachment content (current attachments, versions and deleted attachments) which is still
+     * stored as regular files. This should be run while XWiki is stopped.
+     *
+     * @return the number of deduplicated files.
+     * @throws Exception if a file can't be deduplicated.
+     */
+    public int migrate() throws Exception
+    {
+        int count = 0;
+        for (final File contentFile : listContentFiles(this.storageDir, new ArrayList<File>())) {
+            new BlobSaveTransactionRunnable(this, contentFile, new StreamProvider()
+            {
+                @Override
+                public InputStream getStream() throws IOException
+                {
+                    return new FileInputStream(contentFile);
+                }
+            }).start();
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Recount the references to each blob from the pointer files, fix the references files and delete the blobs which
+     * are not referenced anymore, as well as the pointers hidden by a regular content file. This should be run while
+     * XWiki is stopped since content saved during the collection could be lost.
+     *
+     * @return the number of deleted blobs.
+     * @throws IOException if the storage can't be read or updated.
+     */
+    public int collectGarbage() throws IOException
+    {
+        // Mark
+        final Map<String, Integer> references = new HashMap<String, Integer>();
+        for (File pointer : listPointerFiles(this.storageDir, new ArrayList<File>())) {
+            final File contentFile =
+                new File(pointer.getPath().substring(0, pointer.getPath().length() - POINTER_SUFFIX.length()));
+            if (contentFile.exists()) {
+                pointer.delete();
+            } else {
+                final String hash = readPointer(pointer);
+                final Integer count = references.get(hash);
+                references.put(hash, count != null ? count + 1 : 1);
+            }
+        }
+
+        // Sweep
+        int deleted = 0;
+        final File[] dirs = this.blobDir.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (!dir.isDirectory()) {
+                    // Leftover of an interrupted save.
+                    dir.delete();
+                    continue;
+                }
+                for (File file : dir.listFiles()) {
+                    if (file.getName().endsWith(REFERENCES_SUFFIX)) {
+                        final String blobPath =
+                            file.getPath().substring(0, file.getPath().length() - REFERENCES_SUFFIX.length());
+                        if (!new File(blobPath).exists()) {
+                            file.delete();
+                        }
+                    } else if (file.getName().indexOf('~') != -1) {
+                        // Leftover of an interrupted update of the references.
+                        file.delete();
+                    } else {
+                        final Integer count = references.get(file.getName());
+                        if (count == null) {
+                            file.delete();
+                            getReferencesFile(file).delete();
+                            deleted++;
+                        } else if (count != getReferences(file)) {
+                            setReferences(file, count);
+                        }
+                    }
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * @param dir a directory of the storage.
+     * @param files the list where to add the regular content files found in the directory.
+     * @return the passed list.
+     */
+    private List<File> listContentFiles(final File dir, final List<File> files)
+    {
+        final File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    if (!child.equals(this.blobDir)) {
+                        listContentFiles(child, files);
+                    }
+                } else if (isContentFile(child)) {
+                    files.add(child);
+                }
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * @param file a file of the storage.
+     * @return true if the file holds the content of an attachment, attachment version or deleted attachment.
+     */
+    private boolean isContentFile(final File file)
+    {
+        // A ~ is URL encoded in attachment names so metadata files can't be confused with content.
+        final String name = file.getName();
+        if (name.startsWith("~") || name.endsWith(POINTER_SUFFIX)
+            || name.endsWith(DefaultFilesystemStoreTools.TEMP_FILE_SUFFIX)
+            || name.endsWith(DefaultFilesystemStoreTools.BACKUP_FILE_SUFFIX)) {
+            return false;
+        }
+
+        // storage/xwiki/Main/WebHome/~this/attachments/some.file/some.file
+        final File attachmentsDir = file.getParentFile().getParentFile();
+        return attachmentsDir != null
+            && (DefaultFilesystemStoreTools.ATTACHMENT_DIR_NAME.equals(attachmentsDir.getName())
+                || DefaultFilesystemStoreTools.DELETED_ATTACHMENT_DIR_NAME.equals(attachmentsDir.getName()))
+            && attachmentsDir.getParentFile() != null
+            && DefaultFilesystemStoreTools.DOCUMENT_DIR_NAME.equals(attachmentsDir.getParentFile().getName());
+    }
+
+    /**
+     * @param dir a directory of the storage.
+     * @param files the list where to add the pointer files found in the directory.
+     * @return the passed list.
+     */
+    private List<File> listPointerFiles(final File dir, final List<File> files)
+    {
+        final File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    if (!child.equals(this.blobDir)) {
+                        listPointerFiles(child, files);
+                    }
+                } else if (isPointerFile(child)) {
+                    files.add(child);
+                }
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Holds a hash which is only known once the content has been stored.
+     */
+    interface HashHolder
+    {
+        /**
+         * @return the hash.
+         */
+        String getHash();
+    }
+
+    /**
+     * @return a message digest computing the hash used to identify content.
+     */
+    static MessageDigest getMessageDigest()
+    {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1.
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.filesystem.internal;
+
+import java.io.File;
+
+import org.xwiki.model.internal.reference.PathStringEntityReferenceSerializer;
+import org.xwiki.store.locks.preemptive.internal.PreemptiveLockProvider;
+
+/**
+ * Command line tool to maintain the {@link FilesystemBlobStore} of an installation while XWiki is stopped.
+ * <ul>
+ * <li>{@code migrate <permanent directory>} deduplicates all the attachment content still stored as regular files,
+ * typically after enabling {@code store.filesystem.attachments.deduplicate} on an existing installation</li>
+ * <li>{@code gc <permanent directory>} recounts the references to each blob and deletes the unreferenced ones</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public final class FilesystemBlobStoreTool
+{
+    /**
+     * Utility class.
+     */
+    private FilesystemBlobStoreTool()
+    {
+    }
+
+    /**
+     * @param args the command ({@code migrate} or {@code gc}) and the XWiki permanent directory
+     * @throws Exception if the storage can't be updated
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        if (args.length != 2 || !("migrate".equals(args[0]) || "gc".equals(args[0]))) {
+            System.err.println("Usage: FilesystemBlobStoreTool <migrate|gc> <permanent directory>");
+            System.exit(1);
+        }
+
+        final File storageDir = new File(args[1], "storage");
+        final FilesystemBlobStore blobStore = new DefaultFilesystemStoreTools(new PathStringEntityReferenceSerializer(),
+            storageDir, new PreemptiveLockProvider(), true).getBlobStore();
+
+        if ("migrate".equals(args[0])) {
+            System.out.println("Deduplicated " + blobStore.migrate() + " files in [" + storageDir + "]");
+        } else {
+            System.out.println("Deleted " + blobStore.collectGarbage() + " unreferenced blobs in [" + storageDir
+                + "]");
+        }
+    }
+}
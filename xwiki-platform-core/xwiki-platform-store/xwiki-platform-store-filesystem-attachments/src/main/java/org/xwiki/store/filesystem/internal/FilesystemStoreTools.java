@@ -119,4 +119,10 @@ DeletedAttachmentFileProvider getDeletedAttachmentFileProvider(final XWikiAttach
      * @return a lock for the given file.
      */
     ReadWriteLock getLockForFile(final File toLock);
+
+    /**
+     * @return the store where the content of the attachments is deduplicated.
+     * @since 4.2M3
+     */
+    FilesystemBlobStore getBlobStore();
 }
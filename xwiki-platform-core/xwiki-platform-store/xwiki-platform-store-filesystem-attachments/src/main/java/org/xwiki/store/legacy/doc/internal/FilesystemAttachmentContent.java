@@ -89,6 +89,12 @@ public InputStream getContentInputStream()
         }
     }
 
+    @Override
+    public File getContentFile()
+    {
+        return this.storageFile;
+    }
+
     @Override
     public void setContent(final InputStream is) throws IOException
     {
@@ -20,8 +20,6 @@
 package org.xwiki.store.legacy.store.internal;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
 
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
 import org.suigeneris.jrcs.rcs.Version;
@@ -49,18 +47,15 @@ public AttachmentArchiveDeleteRunnable(final XWikiAttachmentArchive archive,
         final FilesystemStoreTools fileTools,
         final AttachmentFileProvider provider)
     {
-        final List<File> toDelete = new ArrayList<File>();
-        toDelete.add(provider.getAttachmentVersioningMetaFile());
+        final File metaFile = provider.getAttachmentVersioningMetaFile();
+        new FileDeleteTransactionRunnable(metaFile,
+            fileTools.getBackupFile(metaFile),
+            fileTools.getLockForFile(metaFile)).runIn(this);
 
         final Version[] versions = archive.getVersions();
         for (int i = 0; i < versions.length; i++) {
-            toDelete.add(provider.getAttachmentVersionContentFile(versions[i].toString()));
-        }
-
-        for (File file : toDelete) {
-            new FileDeleteTransactionRunnable(file,
-                fileTools.getBackupFile(file),
-                fileTools.getLockForFile(file)).runIn(this);
+            final File file = provider.getAttachmentVersionContentFile(versions[i].toString());
+            fileTools.getBlobStore().getDeleteRunnable(file).runIn(this);
         }
     }
 }
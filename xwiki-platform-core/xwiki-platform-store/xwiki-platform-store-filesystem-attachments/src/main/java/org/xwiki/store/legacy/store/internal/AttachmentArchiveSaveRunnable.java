@@ -83,11 +83,12 @@ public AttachmentArchiveSaveRunnable(final XWikiAttachmentArchive archive,
 
             // If the content is not dirty and the file was already saved then we will not update.
             if (attachVer.isContentDirty()
-                || !provider.getAttachmentVersionContentFile(versionName).exists())
+                || !fileTools.getBlobStore().exists(provider.getAttachmentVersionContentFile(versionName)))
             {
                 final StreamProvider contentProvider =
                     new AttachmentContentStreamProvider(attachVer, context);
-                addSaver(contentProvider, fileTools, provider.getAttachmentVersionContentFile(versionName));
+                fileTools.getBlobStore().getSaveRunnable(provider.getAttachmentVersionContentFile(versionName),
+                    contentProvider).runIn(this);
             }
         }
 
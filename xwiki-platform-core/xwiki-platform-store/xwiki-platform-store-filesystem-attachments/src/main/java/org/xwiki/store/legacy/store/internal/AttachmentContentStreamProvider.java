@@ -19,13 +19,15 @@
  */
 package org.xwiki.store.legacy.store.internal;
 
+import java.io.File;
 import java.io.InputStream;
 
-import org.xwiki.store.StreamProvider;
+import org.xwiki.store.filesystem.internal.FileStreamProvider;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
 
 /**
  * A stream provider based on the content of an attachment.
@@ -34,7 +36,7 @@
  * @version $Id$
  * @since 3.0M2
  */
-public class AttachmentContentStreamProvider implements StreamProvider
+public class AttachmentContentStreamProvider implements FileStreamProvider
 {
     /**
      * The attachment to save content of.
@@ -65,4 +67,11 @@ public InputStream getStream() throws XWikiException
     {
         return this.attachment.getContentInputStream(this.context);
     }
+
+    @Override
+    public File getFile()
+    {
+        final XWikiAttachmentContent content = this.attachment.getAttachment_content();
+        return content != null ? content.getContentFile() : null;
+    }
 }
@@ -392,9 +392,14 @@ private StartableTransactionRunnable getDeletedAttachmentPurgeRunnable(
         }
         // Easy thing to do is just delete everything in the deleted-attachment directory.
         for (File toDelete : deletedAttachDir.listFiles()) {
-            new FileDeleteTransactionRunnable(toDelete,
-                this.fileTools.getBackupFile(toDelete),
-                this.fileTools.getLockForFile(toDelete)).runIn(out);
+            if (this.fileTools.getBlobStore().isPointerFile(toDelete)) {
+                // Release the deduplicated content.
+                this.fileTools.getBlobStore().getPointerDeleteRunnable(toDelete).runIn(out);
+            } else {
+                new FileDeleteTransactionRunnable(toDelete,
+                    this.fileTools.getBackupFile(toDelete),
+                    this.fileTools.getLockForFile(toDelete)).runIn(out);
+            }
         }
 
         // Remove the entry from the pathById map so that it doesn't cause a memory leak.
@@ -449,7 +454,7 @@ private DeletedAttachment deletedAttachmentFromProvider(
             lock.readLock().unlock();
         }
 
-        final File contentFile = provider.getAttachmentContentFile();
+        final File contentFile = this.fileTools.getBlobStore().getContentFile(provider.getAttachmentContentFile());
         final XWikiAttachment attachment = delAttach.getAttachment();
         attachment.setAttachment_content(new FilesystemAttachmentContent(contentFile, attachment));
 
@@ -20,8 +20,8 @@
 package org.xwiki.store.legacy.store.internal;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
@@ -37,8 +37,7 @@
 import javax.inject.Singleton;
 import org.hibernate.Session;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.store.FileDeleteTransactionRunnable;
-import org.xwiki.store.FileSaveTransactionRunnable;
+import org.xwiki.store.filesystem.internal.FilesystemBlobStore;
 import org.xwiki.store.filesystem.internal.FilesystemStoreTools;
 import org.xwiki.store.legacy.doc.internal.FilesystemAttachmentContent;
 import org.xwiki.store.legacy.doc.internal.ListAttachmentArchive;
@@ -154,9 +153,7 @@ private TransactionRunnable<XWikiHibernateTransaction> getAttachmentContentSaveR
             updateDocument,
             context,
             attachFile,
-            this.fileTools.getTempFile(attachFile),
-            this.fileTools.getBackupFile(attachFile),
-            this.fileTools.getLockForFile(attachFile));
+            this.fileTools.getBlobStore());
     }
 
     /**
@@ -215,9 +212,17 @@ public void loadAttachmentContent(final XWikiAttachment attachment,
         final File attachFile =
             this.fileTools.getAttachmentFileProvider(attachment).getAttachmentContentFile();
 
-        if (attachFile.exists()) {
+        if (this.fileTools.getBlobStore().exists(attachFile)) {
+            final File contentFile;
+            try {
+                contentFile = this.fileTools.getBlobStore().getContentFile(attachFile);
+            } catch (IOException e) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_FILENOTFOUND,
+                    "Failed to read the location of the deduplicated attachment content.", e);
+            }
             attachment.setAttachment_content(
-                new FilesystemAttachmentContent(attachFile, attachment));
+                new FilesystemAttachmentContent(contentFile, attachment));
             return;
         }
 
@@ -282,8 +287,7 @@ private TransactionRunnable<XWikiHibernateTransaction> getAttachmentDeleteRunnab
             updateDocument,
             context,
             attachFile,
-            this.fileTools.getBackupFile(attachFile),
-            this.fileTools.getLockForFile(attachFile));
+            this.fileTools.getBlobStore());
     }
 
     @Override
@@ -322,9 +326,7 @@ public void cleanUp(XWikiContext context)
          * @param updateDocument whether or not to update the document at the same time.
          * @param context the XWikiContext for the request.
          * @param attachFile the File to store the attachment in.
-         * @param tempFile the File to put the attachment content in until the transaction is complete.
-         * @param backupFile the File to backup the content of the existing attachment in.
-         * @param lock this Lock will be locked while the attachment file is being written to.
+         * @param blobStore the store where the content is deduplicated, if enabled.
          * @throws XWikiException if thrown by {@link XWikiAttachment#updateContentArchive(XWikiContext)}
          * or {@link FilesystemAttachmentVersioningStore#
          * getArchiveSaveRunnable(XWikiAttachmentArchive, XWikiContext)
@@ -333,13 +335,11 @@ public AttachmentSaveTransactionRunnable(final XWikiAttachment attachment,
             final boolean updateDocument,
             final XWikiContext context,
             final File attachFile,
-            final File tempFile,
-            final File backupFile,
-            final ReadWriteLock lock)
+            final FilesystemBlobStore blobStore)
             throws XWikiException
         {
             final StreamProvider provider = new AttachmentContentStreamProvider(attachment, context);
-            new FileSaveTransactionRunnable(attachFile, tempFile, backupFile, lock, provider).runIn(this);
+            blobStore.getSaveRunnable(attachFile, provider).runIn(this);
 
             // If the versioning store supports TransactionRunnable then use it, otherwise don't.
             final AttachmentVersioningStore avs = context.getWiki().getAttachmentVersioningStore();
@@ -410,19 +410,17 @@ protected void onRun() throws XWikiException
          * @param updateDocument whether or not to update the document at the same time.
          * @param context the XWikiContext for the request.
          * @param attachFile the file to where the attachment content is stored.
-         * @param tempFile the file to to move the attachment content to temporarily.
-         * @param lock this Lock will be locked while the attachment file is being written to.
+         * @param blobStore the store where the content is deduplicated, if it is.
          * @throws XWikiException if unable to load the archive for the attachment to delete.
          */
         public AttachmentDeleteTransactionRunnable(final XWikiAttachment attachment,
             final boolean updateDocument,
             final XWikiContext context,
             final File attachFile,
-            final File tempFile,
-            final ReadWriteLock lock)
+            final FilesystemBlobStore blobStore)
             throws XWikiException
         {
-            new FileDeleteTransactionRunnable(attachFile, tempFile, lock).runIn(this);
+            blobStore.getDeleteRunnable(attachFile).runIn(this);
 
             // If the store supports deleting in the same transaction then do it.
             final AttachmentVersioningStore avs = context.getWiki().getAttachmentVersioningStore();
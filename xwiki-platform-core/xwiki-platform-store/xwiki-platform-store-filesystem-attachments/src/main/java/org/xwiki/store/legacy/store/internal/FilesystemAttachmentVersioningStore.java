@@ -148,7 +148,8 @@ XWikiAttachmentArchive loadArchive(final XWikiAttachment attachment,
 
         // Get the content file and lock for each revision.
         for (XWikiAttachment attach : attachList) {
-            final File contentFile = provider.getAttachmentVersionContentFile(attach.getVersion());
+            final File contentFile = this.fileTools.getBlobStore().getContentFile(
+                provider.getAttachmentVersionContentFile(attach.getVersion()));
             attach.setAttachment_content(new FilesystemAttachmentContent(contentFile, attach));
             // Pass the document since it will be lost in the serialize/deserialize.
             attach.setDoc(attachment.getDoc());
@@ -85,9 +85,7 @@ public SaveTrashAttachmentRunnable(final DeletedFilesystemAttachment deleted,
 
         // Save the attachment's content.
         final StreamProvider contentProvider = new AttachmentContentStreamProvider(attachment, context);
-        this.addSaver(contentProvider,
-            fileTools,
-            provider.getAttachmentContentFile());
+        fileTools.getBlobStore().getSaveRunnable(provider.getAttachmentContentFile(), contentProvider).runIn(this);
     }
 
     /**
@@ -0,0 +1,255 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.filesystem.internal;
+
+import java.io.File;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.model.internal.reference.PathStringEntityReferenceSerializer;
+import org.xwiki.store.StreamProvider;
+import org.xwiki.store.locks.preemptive.internal.PreemptiveLockProvider;
+
+/**
+ * Tests for {@link FilesystemBlobStore}.
+ *
+ * @version $Id$
+ * @since 4.2M3
+ */
+public class FilesystemBlobStoreTest
+{
+    private static final String CONTENT = "Hello World";
+
+    private File storageLocation;
+
+    private FilesystemBlobStore blobStore;
+
+    private File attachment1;
+
+    private File attachment2;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        this.storageLocation = new File(tmpDir, "test-blob-storage-location");
+
+        this.blobStore = createBlobStore(true);
+
+        final File attachmentsDir = new File(this.storageLocation, "xwiki/Main/WebHome/~this/attachments");
+        this.attachment1 = new File(new File(attachmentsDir, "file1.txt"), "file1.txt");
+        this.attachment2 = new File(new File(attachmentsDir, "file2.txt"), "file2.txt");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.storageLocation);
+    }
+
+    private FilesystemBlobStore createBlobStore(boolean enabled)
+    {
+        return new DefaultFilesystemStoreTools(new PathStringEntityReferenceSerializer(), this.storageLocation,
+            new PreemptiveLockProvider(), enabled).getBlobStore();
+    }
+
+    private StreamProvider getStreamProvider(final String content)
+    {
+        return new StreamProvider()
+        {
+            @Override
+            public InputStream getStream() throws Exception
+            {
+                return IOUtils.toInputStream(content, "UTF-8");
+            }
+        };
+    }
+
+    private String read(File contentFile) throws Exception
+    {
+        return FileUtils.readFileToString(this.blobStore.getContentFile(contentFile), "UTF-8");
+    }
+
+    private String getHash(File contentFile) throws Exception
+    {
+        return this.blobStore.getContentFile(contentFile).getName();
+    }
+
+    @Test
+    public void testSameContentIsStoredOnce() throws Exception
+    {
+        this.blobStore.getSaveRunnable(this.attachment1, getStreamProvider(CONTENT)).start();
+        this.blobStore.getSaveRunnable(this.attachment2, getStreamProvider(CONTENT)).start();
+
+        Assert.assertFalse(this.attachment1.exists());
+        Assert.assertTrue(this.blobStore.exists(this.attachment1));
+        Assert.assertEquals(CONTENT, read(this.attachment1));
+        Assert.assertEquals(this.blobStore.getContentFile(this.attachment1),
+            this.blobStore.getContentFile(this.attachment2));
+        Assert.assertEquals(2, this.blobStore.getReferences(getHash(this.attachment1)));
+    }
+
+    @Test
+    public void testUpdateReleasesPreviousContent() throws Exception
+    {
+        this.blobStore.getSaveRunnable(this.attachment1, getStreamProvider(CONTENT)).start();
+        final File previousBlob = this.blobStore.getContentFile(this.attachment1);
+
+        this.blobStore.getSaveRunnable(this.attachment1, getStreamProvider("Bye World")).start();
+
+        Assert.assertEquals("Bye World", read(this.attachment1));
+        Assert.assertFalse(previousBlob.exists());
+        Assert.assertEquals(1, this.blobStore.getReferences(getHash(this.attachment1)));
+    }
+
+    @Test
+    public void testBlobIsReferencedWithoutReadingIt() throws Exception
+    {
+        this.blobStore.getSaveRunnable(this.attachment1, getStreamProvider(CONTENT)).start();
+        final File blob = this.blobStore.getContentFile(this.attachment1);
+
+        this.blobStore.getSaveRunnable(this.attachment2, new FileStreamProvider()
+        {
+            @Override
+            public InputStream getStream() throws Exception
+            {
+                throw new Exception("The content should not be read");
+            }
+
+            @Override
+            public File getFile()
+            {
+                return blob;
+            }
+        }).start();
+
+        Assert.assertEquals(blob, this.blobStore.getContentFile(this.attachment2));
+        Assert.assertEquals(2, this.blobStore.getReferences(blob.getName()));
+    }
+
+    @Test
+    public void testDelete() throws Exception
+    {
+        this.blobStore.getSaveRunnable(this.attachment1, getStreamProvider(CONTENT)).start();
+        this.blobStore.getSaveRunnable(this.attachment2, getStreamProvider(CONTENT)).start();
+        final File blob = this.blobStore.getContentFile(this.attachment1);
+
+        this.blobStore.getDeleteRunnable(this.attachment1).start();
+
+        Assert.assertFalse(this.blobStore.exists(this.attachment1));
+        Assert.assertTrue(blob.exists());
+        Assert.assertEquals(1, this.blobStore.getReferences(blob.getName()));
+
+        this.blobStore.getDeleteRunnable(this.attachment2).start();
+
+        Assert.assertFalse(blob.exists());
+    }
+
+    @Test
+    public void testUnreadableReferencesKeepTheBlob() throws Exception
+    {
+        this.blobStore.getSaveRunnable(this.attachment1, getStreamProvider(CONTENT)).start();
+        this.blobStore.getSaveRunnable(this.attachment2, getStreamProvider(CONTENT)).start();
+        final File blob = this.blobStore.getContentFile(this.attachment1);
+        FileUtils.writeStringToFile(new File(blob.getPath() + "~refs"), "corrupted", "UTF-8");
+
+        Assert.assertEquals(FilesystemBlobStore.UNKNOWN_REFERENCES, this.blobStore.getReferences(blob.getName()));
+
+        this.blobStore.getDeleteRunnable(this.attachment1).start();
+        this.blobStore.getDeleteRunnable(this.attachment2).start();
+
+        Assert.assertTrue(blob.exists());
+
+        // The garbage collection recounts the references from the pointers, and there is none left.
+        Assert.assertEquals(1, this.blobStore.collectGarbage());
+        Assert.assertFalse(blob.exists());
+    }
+
+    @Test
+    public void testReferencesAreReadFromTheBackupOfAnInterruptedUpdate() throws Exception
+    {
+        this.blobStore.getSaveRunnable(this.attachment1, getStreamProvider(CONTENT)).start();
+        this.blobStore.getSaveRunnable(this.attachment2, getStreamProvider(CONTENT)).start();
+        final File blob = this.blobStore.getContentFile(this.attachment1);
+        final File references = new File(blob.getPath() + "~refs");
+        Assert.assertTrue(references.renameTo(new File(references.getPath() + "~bak")));
+
+        Assert.assertEquals(2, this.blobStore.getReferences(blob.getName()));
+
+        this.blobStore.getDeleteRunnable(this.attachment1).start();
+
+        Assert.assertTrue(blob.exists());
+        Assert.assertEquals(1, this.blobStore.getReferences(blob.getName()));
+        Assert.assertFalse(new File(references.getPath() + "~bak").exists());
+    }
+
+    @Test
+    public void testSaveWhenDisabled() throws Exception
+    {
+        this.blobStore.getSaveRunnable(this.attachment1, getStreamProvider(CONTENT)).start();
+        final File blob = this.blobStore.getContentFile(this.attachment1);
+
+        this.blobStore = createBlobStore(false);
+        Assert.assertEquals(CONTENT, read(this.attachment1));
+
+        this.blobStore.getSaveRunnable(this.attachment1, getStreamProvider("Bye World")).start();
+
+        Assert.assertTrue(this.attachment1.exists());
+        Assert.assertFalse(this.blobStore.getPointerFile(this.attachment1).exists());
+        Assert.assertEquals("Bye World", read(this.attachment1));
+        Assert.assertFalse(blob.exists());
+    }
+
+    @Test
+    public void testMigrateAndCollectGarbage() throws Exception
+    {
+        FileUtils.writeStringToFile(this.attachment1, CONTENT, "UTF-8");
+        FileUtils.writeStringToFile(this.attachment2, CONTENT, "UTF-8");
+        final File version = new File(this.attachment1.getParentFile(), "file1~v1.1.txt");
+        FileUtils.writeStringToFile(version, CONTENT, "UTF-8");
+        final File metadata = new File(this.attachment1.getParentFile(), "~METADATA.xml");
+        FileUtils.writeStringToFile(metadata, "<attachment-list/>", "UTF-8");
+
+        Assert.assertEquals(3, this.blobStore.migrate());
+
+        Assert.assertFalse(this.attachment1.exists());
+        Assert.assertFalse(version.exists());
+        Assert.assertTrue(metadata.exists());
+        Assert.assertEquals(CONTENT, read(version));
+        final String hash = getHash(this.attachment1);
+        Assert.assertEquals(3, this.blobStore.getReferences(hash));
+
+        // Lose a pointer without releasing its blob and leave an unreferenced blob behind.
+        this.blobStore.getPointerFile(this.attachment2).delete();
+        this.blobStore.getSaveRunnable(this.attachment2, getStreamProvider("Bye World")).start();
+        final File unreferenced = this.blobStore.getContentFile(this.attachment2);
+        this.blobStore.getPointerFile(this.attachment2).delete();
+
+        Assert.assertEquals(1, this.blobStore.collectGarbage());
+
+        Assert.assertFalse(unreferenced.exists());
+        Assert.assertEquals(2, this.blobStore.getReferences(hash));
+    }
+}
@@ -22,12 +22,22 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -35,6 +45,7 @@
 import com.xpn.xwiki.plugin.applicationmanager.core.plugin.XWikiPluginMessageTool;
 import com.xpn.xwiki.plugin.globalsearch.tools.GlobalSearchQuery;
 import com.xpn.xwiki.plugin.globalsearch.tools.GlobalSearchResult;
+import com.xpn.xwiki.web.Utils;
 
 /**
  * Tool to be able to make and merge multi wikis search queries.
@@ -115,14 +126,40 @@
      */
     private XWikiPluginMessageTool messageTool;
 
+    /**
+     * Run the queries of the different wikis concurrently, null to run them one after the other.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The time in milliseconds after which the queries still running are abandoned when running concurrently.
+     */
+    private long timeout;
+
     /**
      * Hidden constructor of GlobalSearch only access via getInstance().
      * 
      * @param messageTool the plugin internationalization service.
      */
     public GlobalSearch(XWikiPluginMessageTool messageTool)
+    {
+        this(messageTool, null, 0);
+    }
+
+    /**
+     * Hidden constructor of GlobalSearch only access via getInstance().
+     * 
+     * @param messageTool the plugin internationalization service.
+     * @param executor run the queries of the different wikis concurrently, null to run them one after the other.
+     * @param timeout the time in milliseconds, counted from the start of the search, after which the queries still
+     *            running are abandoned, 0 to wait forever.
+     * @since 4.2M3
+     */
+    public GlobalSearch(XWikiPluginMessageTool messageTool, ExecutorService executor, long timeout)
     {
         this.messageTool = messageTool;
+        this.executor = executor;
+        this.timeout = timeout;
     }
 
     // ////////////////////////////////////////////////////////////////////////////
@@ -147,6 +184,13 @@ private Collection<String> getAllWikiNameList(XWikiContext context) throws XWiki
      * Execute query in all provided wikis and return list containing all results. Compared to XWiki Platform search,
      * searchDocuments and searchDocumentsName it's potentially "time-consuming" since it issues one request per
      * provided wiki.
+     * <p>
+     * The wikis are queried concurrently when the plugin is configured with more than one search thread. Each wiki
+     * returns at most the <code>start + max</code> first results and the sorted results of the wikis are merged without
+     * going further than the requested page.
+     * <p>
+     * The names of the wikis which did not answer in time, and whose results are thus missing, are put in the context
+     * under the key {@link GlobalSearchPluginApi#CONTEXT_TIMEDOUTWIKIS}.
      * 
      * @param query the query parameters.
      * @param context the XWiki context.
@@ -155,8 +199,6 @@ private Collection<String> getAllWikiNameList(XWikiContext context) throws XWiki
      */
     public Collection<GlobalSearchResult> search(GlobalSearchQuery query, XWikiContext context) throws XWikiException
     {
-        List<GlobalSearchResult> resultList = Collections.emptyList();
-
         List<String> selectColumns = parseSelectColumns(query.getHql());
         List<Object[]> orderColumns = parseOrderColumns(query.getHql());
 
@@ -172,87 +214,249 @@ public Collection<GlobalSearchResult> search(GlobalSearchQuery query, XWikiConte
 
         int max = query.getMax() > 0 ? query.getMax() + (query.getStart() > 0 ? query.getStart() : 0) : 0;
 
-        String database = context.getDatabase();
-        try {
-            resultList = new LinkedList<GlobalSearchResult>();
+        List<String> timedOutWikis = new ArrayList<String>();
+        context.put(GlobalSearchPluginApi.CONTEXT_TIMEDOUTWIKIS, timedOutWikis);
 
-            for (String wikiName : wikiNameList) {
-                context.setDatabase(wikiName);
-
-                List< ? > resultsTmp =
-                    context.getWiki().getStore().search(query.getHql(), max, 0, query.getParameterList(), context);
+        List<List<GlobalSearchResult>> wikiResultList;
+        if (this.executor != null && wikiNameList.size() > 1) {
+            wikiResultList =
+                searchConcurrently(wikiNameList, max, query, selectColumns, orderColumns, timedOutWikis, context);
+        } else {
+            wikiResultList = new ArrayList<List<GlobalSearchResult>>(wikiNameList.size());
 
-                insertResults(wikiName, resultList, resultsTmp, query, selectColumns, orderColumns, context);
+            String database = context.getDatabase();
+            try {
+                for (String wikiName : wikiNameList) {
+                    wikiResultList.add(searchWiki(wikiName, max, query, selectColumns, orderColumns, context));
+                }
+            } finally {
+                context.setDatabase(database);
             }
-        } finally {
-            context.setDatabase(database);
         }
 
-        if (resultList.size() > max || query.getStart() > 0) {
-            resultList =
-                resultList.subList(query.getStart() > 0 ? query.getStart() : 0, resultList.size() > max ? max
-                    : resultList.size());
+        return mergeResults(wikiResultList, query.getStart() > 0 ? query.getStart() : 0, max, orderColumns);
+    }
+
+    /**
+     * Execute query in one wiki.
+     * 
+     * @param wikiName the name of the wiki where to search.
+     * @param max the maximum number of results to return, 0 for all.
+     * @param query the query parameters.
+     * @param selectColumns the names of selected fields.
+     * @param orderColumns the fields to order.
+     * @param context the XWiki context, its current wiki is modified.
+     * @return the results found in the wiki, sorted according to <code>orderColumns</code>.
+     * @throws XWikiException error when executing query.
+     */
+    private List<GlobalSearchResult> searchWiki(String wikiName, int max, GlobalSearchQuery query,
+        List<String> selectColumns, final List<Object[]> orderColumns, XWikiContext context) throws XWikiException
+    {
+        context.setDatabase(wikiName);
+
+        List< ? > resultsTmp =
+            context.getWiki().getStore().search(query.getHql(), max, 0, query.getParameterList(), context);
+
+        List<GlobalSearchResult> resultList = new ArrayList<GlobalSearchResult>(resultsTmp.size());
+        for (Object item : resultsTmp) {
+            resultList.add(new GlobalSearchResult(wikiName, selectColumns, (Object[]) item));
+        }
+
+        // The database does not necessarily order the same way (case, collation) as the merge
+        if (!orderColumns.isEmpty()) {
+            Collections.sort(resultList, new Comparator<GlobalSearchResult>()
+            {
+                @Override
+                public int compare(GlobalSearchResult result1, GlobalSearchResult result2)
+                {
+                    return GlobalSearch.this.compare(result1, result2, orderColumns);
+                }
+            });
         }
 
         return resultList;
     }
 
     /**
-     * Insert a list of result in the sorted main list.
+     * Execute query in all provided wikis at the same time.
      * 
-     * @param wikiName the name of the wiki from where the list <code>list</code> come.
-     * @param sortedList the sorted main list.
-     * @param list the list to insert.
+     * @param wikiNameList the names of the wikis where to search.
+     * @param max the maximum number of results to return for each wiki, 0 for all.
      * @param query the query parameters.
      * @param selectColumns the names of selected fields.
      * @param orderColumns the fields to order.
+     * @param timedOutWikis filled with the names of the wikis which did not answer in time.
      * @param context the XWiki context.
+     * @return the results found in each wiki, in the order of the provided wikis. The wikis which did not answer in
+     *         time have no results.
+     * @throws XWikiException error when executing query.
      */
-    private void insertResults(String wikiName, List<GlobalSearchResult> sortedList, Collection< ? > list,
-        GlobalSearchQuery query, List<String> selectColumns, List<Object[]> orderColumns, XWikiContext context)
+    private List<List<GlobalSearchResult>> searchConcurrently(Collection<String> wikiNameList, final int max,
+        final GlobalSearchQuery query, final List<String> selectColumns, final List<Object[]> orderColumns,
+        List<String> timedOutWikis, XWikiContext context) throws XWikiException
     {
-        boolean sort = !sortedList.isEmpty();
+        // All the wikis share the same deadline, whatever the order in which their results are waited for
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+
+        List<Future<List<GlobalSearchResult>>> futures =
+            new ArrayList<Future<List<GlobalSearchResult>>>(wikiNameList.size());
+        for (final String wikiName : wikiNameList) {
+            // Each query needs its own context since they all change the current wiki
+            final XWikiContext wikiContext = context.clone();
+
+            futures.add(this.executor.submit(new Callable<List<GlobalSearchResult>>()
+            {
+                @Override
+                public List<GlobalSearchResult> call() throws Exception
+                {
+                    ExecutionContext executionContext = new ExecutionContext();
+                    // Prevent XWikiStubContextInitializer from injecting a stub context
+                    executionContext.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, wikiContext);
+                    Utils.getComponent(ExecutionContextManager.class).initialize(executionContext);
+
+                    try {
+                        return searchWiki(wikiName, max, query, selectColumns, orderColumns, wikiContext);
+                    } finally {
+                        Utils.getComponent(Execution.class).removeContext();
+                    }
+                }
+            }));
+        }
 
-        for (Object item : list) {
-            Object[] objects = (Object[]) item;
+        List<List<GlobalSearchResult>> wikiResultList = new ArrayList<List<GlobalSearchResult>>(futures.size());
+        try {
+            Iterator<String> wikiNameIt = wikiNameList.iterator();
+            for (Future<List<GlobalSearchResult>> future : futures) {
+                String wikiName = wikiNameIt.next();
+                try {
+                    if (this.timeout > 0) {
+                        wikiResultList.add(future.get(Math.max(0, deadline - System.nanoTime()),
+                            TimeUnit.NANOSECONDS));
+                    } else {
+                        wikiResultList.add(future.get());
+                    }
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    wikiResultList.add(Collections.<GlobalSearchResult> emptyList());
+                    timedOutWikis.add(wikiName);
+
+                    LOGGER.warn("Search in wiki [{}] did not finish within [{}] ms, its results are left out",
+                        wikiName, this.timeout);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof XWikiException) {
+                        throw (XWikiException) e.getCause();
+                    }
 
-            GlobalSearchResult result = new GlobalSearchResult(wikiName, selectColumns, objects);
+                    throw new GlobalSearchException(GlobalSearchException.ERROR_GS_SEARCH, "Failed to search in wiki ["
+                        + wikiName + "]", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
 
-            if (sort) {
-                insertResult(sortedList, result, query, selectColumns, orderColumns, context);
-            } else {
-                sortedList.add(result);
+            throw new GlobalSearchException(GlobalSearchException.ERROR_GS_SEARCH, "Search interrupted", e);
+        } finally {
+            // Don't let the remaining queries use the search threads when the search failed
+            for (Future<List<GlobalSearchResult>> future : futures) {
+                future.cancel(true);
             }
         }
+
+        return wikiResultList;
     }
 
     /**
-     * Insert a result of result in the sorted main list.
+     * Merge the sorted results of the wikis, stopping as soon as the requested page is filled.
      * 
-     * @param sortedList the sorted main list.
-     * @param result the fields values to insert.
-     * @param query the query parameters.
-     * @param selectColumns the names of selected fields.
+     * @param wikiResultList the results of each wiki, sorted according to <code>orderColumns</code>.
+     * @param start the index of the first result to return.
+     * @param max the index after the last result to return, 0 for all.
      * @param orderColumns the fields to order.
-     * @param context the XWiki context.
+     * @return the merged results.
      */
-    private void insertResult(List<GlobalSearchResult> sortedList, GlobalSearchResult result, GlobalSearchQuery query,
-        List<String> selectColumns, List<Object[]> orderColumns, XWikiContext context)
+    List<GlobalSearchResult> mergeResults(List<List<GlobalSearchResult>> wikiResultList, int start, int max,
+        final List<Object[]> orderColumns)
     {
-        int max = query.getMax() > 0 ? query.getMax() + (query.getStart() > 0 ? query.getStart() : 0) : -1;
+        // The next result of each wiki, the equal results being taken in the order of the wikis
+        PriorityQueue<WikiResults> queue =
+            new PriorityQueue<WikiResults>(Math.max(1, wikiResultList.size()), new Comparator<WikiResults>()
+            {
+                @Override
+                public int compare(WikiResults results1, WikiResults results2)
+                {
+                    int result = GlobalSearch.this.compare(results1.current, results2.current, orderColumns);
+
+                    return result != 0 ? result : results1.index - results2.index;
+                }
+            });
+
+        int size = 0;
+        for (int index = 0; index < wikiResultList.size(); ++index) {
+            List<GlobalSearchResult> results = wikiResultList.get(index);
+            WikiResults wikiResults = new WikiResults(index, results.iterator());
+            if (wikiResults.next()) {
+                queue.add(wikiResults);
+            }
+            size += results.size();
+        }
+
+        int end = max > 0 ? Math.min(max, size) : size;
+        List<GlobalSearchResult> resultList = new ArrayList<GlobalSearchResult>(Math.max(0, end - start));
+        for (int index = 0; index < end; ++index) {
+            WikiResults wikiResults = queue.poll();
 
-        int index = 0;
-        for (Iterator<GlobalSearchResult> itSorted = sortedList.iterator(); itSorted.hasNext()
-            && (max <= 0 || index < max); ++index) {
-            GlobalSearchResult sortedResult = itSorted.next();
+            if (index >= start) {
+                resultList.add(wikiResults.current);
+            }
 
-            if (compare(sortedResult, result, orderColumns) > 0) {
-                break;
+            if (wikiResults.next()) {
+                queue.add(wikiResults);
             }
         }
 
-        if (max <= 0 || index < max) {
-            sortedList.add(index, result);
+        return resultList;
+    }
+
+    /**
+     * The remaining sorted results of a wiki.
+     */
+    private static final class WikiResults
+    {
+        /**
+         * The position of the wiki in the list of searched wikis.
+         */
+        private final int index;
+
+        /**
+         * The remaining results of the wiki.
+         */
+        private final Iterator<GlobalSearchResult> iterator;
+
+        /**
+         * The current result of the wiki.
+         */
+        private GlobalSearchResult current;
+
+        /**
+         * @param index the position of the wiki in the list of searched wikis.
+         * @param iterator the sorted results of the wiki.
+         */
+        private WikiResults(int index, Iterator<GlobalSearchResult> iterator)
+        {
+            this.index = index;
+            this.iterator = iterator;
+        }
+
+        /**
+         * Move to the next result of the wiki.
+         * 
+         * @return false if there's no more results.
+         */
+        private boolean next()
+        {
+            this.current = this.iterator.hasNext() ? this.iterator.next() : null;
+
+            return this.current != null;
         }
     }
 
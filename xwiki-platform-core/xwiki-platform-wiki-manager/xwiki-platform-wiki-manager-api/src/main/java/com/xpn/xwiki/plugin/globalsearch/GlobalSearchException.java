@@ -39,6 +39,13 @@ public class GlobalSearchException extends PluginException
      */
     public static final int ERROR_FS_CANT_ACCESS_FIELD = 60000;
 
+    /**
+     * Error when trying to search in a wiki.
+     * 
+     * @since 4.2M3
+     */
+    public static final int ERROR_GS_SEARCH = 60001;
+
     // //////
 
     /**
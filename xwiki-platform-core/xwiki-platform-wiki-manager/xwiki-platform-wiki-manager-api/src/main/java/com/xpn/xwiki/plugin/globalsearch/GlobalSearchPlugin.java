@@ -19,6 +19,12 @@
  */
 package com.xpn.xwiki.plugin.globalsearch;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +51,32 @@ public class GlobalSearchPlugin extends XWikiDefaultPlugin
      */
     protected static final Logger LOGGER = LoggerFactory.getLogger(GlobalSearchPlugin.class);
 
+    /**
+     * The default number of wikis searched at the same time.
+     */
+    private static final long DEFAULT_THREADS = 4;
+
+    /**
+     * The default time in seconds after which the wikis which did not answer yet are left out of a search.
+     */
+    private static final long DEFAULT_TIMEOUT = 30;
+
+    // ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The threads searching the wikis, shared by all the searches so that the number of wikis searched at the same
+     * time is bounded. The number of threads can be configured using the key {@code xwiki.plugin.globalsearch.threads},
+     * null when the wikis are searched one after the other.
+     */
+    private ExecutorService searchExecutor;
+
+    /**
+     * The time in milliseconds, counted from the start of a search, after which the wikis which did not answer yet are
+     * left out of its results. This can be configured in seconds using the key
+     * {@code xwiki.plugin.globalsearch.timeout}.
+     */
+    private long searchTimeout;
+
     // ////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -59,9 +91,62 @@ public GlobalSearchPlugin(String name, String className, XWikiContext context)
         super(PLUGIN_NAME, className, context);
     }
 
+    @Override
+    public void init(XWikiContext context)
+    {
+        super.init(context);
+
+        int threads = (int) context.getWiki().ParamAsLong("xwiki.plugin.globalsearch.threads", DEFAULT_THREADS);
+        if (threads > 1 && this.searchExecutor == null) {
+            this.searchExecutor = Executors.newFixedThreadPool(threads, new SearchThreadFactory());
+        }
+
+        this.searchTimeout =
+            TimeUnit.SECONDS.toMillis(context.getWiki().ParamAsLong("xwiki.plugin.globalsearch.timeout",
+                DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * @return the threads searching the wikis, null when the wikis are searched one after the other.
+     * @since 4.2M3
+     */
+    public ExecutorService getSearchExecutor()
+    {
+        return this.searchExecutor;
+    }
+
+    /**
+     * @return the time in milliseconds, counted from the start of a search, after which the wikis which did not answer
+     *         yet are left out of its results, 0 to wait forever.
+     * @since 4.2M3
+     */
+    public long getSearchTimeout()
+    {
+        return this.searchTimeout;
+    }
+
     @Override
     public com.xpn.xwiki.api.Api getPluginApi(XWikiPluginInterface plugin, XWikiContext context)
     {
         return new GlobalSearchPluginApi((GlobalSearchPlugin) plugin, context);
     }
+
+    /**
+     * Creates the daemon threads searching the wikis.
+     */
+    private static class SearchThreadFactory implements ThreadFactory
+    {
+        /**
+         * Used to number the threads.
+         */
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "XWiki global search thread " + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
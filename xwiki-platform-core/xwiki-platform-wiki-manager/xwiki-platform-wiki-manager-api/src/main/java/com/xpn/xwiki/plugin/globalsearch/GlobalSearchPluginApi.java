@@ -22,6 +22,7 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 
 import org.slf4j.Logger;
@@ -54,6 +55,14 @@ public class GlobalSearchPluginApi extends PluginApi<GlobalSearchPlugin>
      */
     public static final String CONTEXT_LASTEXCEPTION = "lastexception";
 
+    /**
+     * Field name of the names of the wikis inserted in context, whose results are missing from the last search because
+     * they did not answer in time.
+     * 
+     * @since 4.2M3
+     */
+    public static final String CONTEXT_TIMEDOUTWIKIS = "timedoutwikis";
+
     /**
      * Logging tool.
      */
@@ -84,7 +93,7 @@ public GlobalSearchPluginApi(GlobalSearchPlugin plugin, XWikiContext context)
         this.messageTool = new GlobalSearchMessageTool(locale, plugin, context);
         context.put(GlobalSearchMessageTool.MESSAGETOOL_CONTEXT_KEY, this.messageTool);
 
-        this.search = new GlobalSearch(this.messageTool);
+        this.search = new GlobalSearch(this.messageTool, plugin.getSearchExecutor(), plugin.getSearchTimeout());
     }
 
     /**
@@ -101,6 +110,19 @@ public void logError(String errorMessage, XWikiException e)
         context.put(CONTEXT_LASTEXCEPTION, new XWikiExceptionApi(e, context));
     }
 
+    /**
+     * @return the names of the wikis whose results are missing from the last search because they did not answer in
+     *         time, empty when the last search results are complete.
+     * @since 4.2M3
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getTimedOutWikis()
+    {
+        List<String> timedOutWikis = (List<String>) this.context.get(CONTEXT_TIMEDOUTWIKIS);
+
+        return timedOutWikis != null ? Collections.unmodifiableList(timedOutWikis) : Collections.<String> emptyList();
+    }
+
     /**
      * Create a new instance of {@link GlobalSearchQuery} and return it.
      * 
@@ -121,7 +143,8 @@ public GlobalSearchQuery newQuery()
      *            <li>"*" is not supported in SELECT clause.</li>
      *            <li>All ORDER BY fields has to be listed in SELECT clause.</li>
      *            </ul>
-     * @return the search result as list of {@link GlobalSearchResult} containing all selected fields values.
+     * @return the search result as list of {@link GlobalSearchResult} containing all selected fields values. It's
+     *         partial when some wikis did not answer in time, see {@link #getTimedOutWikis()}.
      * @throws XWikiException error when executing query.
      */
     public Collection<GlobalSearchResult> search(GlobalSearchQuery query) throws XWikiException
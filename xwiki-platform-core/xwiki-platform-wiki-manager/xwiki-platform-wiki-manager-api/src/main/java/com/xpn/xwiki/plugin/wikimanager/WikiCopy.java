@@ -155,7 +155,7 @@ public void copyWiki(String sourceWiki, String targetWiki, String comment, XWiki
         XWiki xwiki = context.getWiki();
 
         // Copy all the wiki
-        xwiki.copyWiki(sourceWiki, targetWiki, null, context);
+        xwiki.copyTemplateWiki(sourceWiki, targetWiki, context);
 
         String database = context.getDatabase();
         try {
@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.globalsearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xpn.xwiki.plugin.globalsearch.tools.GlobalSearchResult;
+
+/**
+ * Unit tests for the merging of the results of the wikis in {@link GlobalSearch}.
+ * 
+ * @version $Id$
+ */
+public class GlobalSearchTest
+{
+    private static final List<String> COLUMNS = Arrays.asList("doc.name", "doc.date");
+
+    private static final List<Object[]> ORDER_BY_NAME = Collections.singletonList(new Object[] {"doc.name", true});
+
+    private static final List<Object[]> ORDER_BY_DATE_DESC =
+        Collections.singletonList(new Object[] {"doc.date", false});
+
+    private GlobalSearch search = new GlobalSearch(null);
+
+    private List<GlobalSearchResult> getResults(String wikiName, Object[]... rows)
+    {
+        List<GlobalSearchResult> results = new ArrayList<GlobalSearchResult>();
+
+        for (Object[] row : rows) {
+            results.add(new GlobalSearchResult(wikiName, COLUMNS, row));
+        }
+
+        return results;
+    }
+
+    private List<String> getNames(List<GlobalSearchResult> results)
+    {
+        List<String> names = new ArrayList<String>();
+
+        for (GlobalSearchResult result : results) {
+            names.add(result.getWikiName() + ":" + result.get("doc.name"));
+        }
+
+        return names;
+    }
+
+    private List<List<GlobalSearchResult>> getWikiResults()
+    {
+        List<List<GlobalSearchResult>> wikiResults = new ArrayList<List<GlobalSearchResult>>();
+
+        wikiResults.add(getResults("wiki1", new Object[] {"a", 1}, new Object[] {"c", 5}, new Object[] {"e", 3}));
+        wikiResults.add(getResults("wiki2"));
+        wikiResults.add(getResults("wiki3", new Object[] {"B", 2}, new Object[] {"c", 6}, new Object[] {"f", 4}));
+
+        return wikiResults;
+    }
+
+    @Test
+    public void testMergeResults()
+    {
+        List<GlobalSearchResult> results = this.search.mergeResults(getWikiResults(), 0, 0, ORDER_BY_NAME);
+
+        // Case is ignored and equal results are taken in the order of the wikis
+        Assert.assertEquals(Arrays.asList("wiki1:a", "wiki3:B", "wiki1:c", "wiki3:c", "wiki1:e", "wiki3:f"),
+            getNames(results));
+    }
+
+    @Test
+    public void testMergeResultsDescending()
+    {
+        List<List<GlobalSearchResult>> wikiResults = new ArrayList<List<GlobalSearchResult>>();
+        wikiResults.add(getResults("wiki1", new Object[] {"c", 5}, new Object[] {"e", 3}, new Object[] {"a", 1}));
+        wikiResults.add(getResults("wiki2", new Object[] {"c", 6}, new Object[] {"f", 4}, new Object[] {"B", 2}));
+
+        List<GlobalSearchResult> results = this.search.mergeResults(wikiResults, 0, 0, ORDER_BY_DATE_DESC);
+
+        Assert.assertEquals(Arrays.asList("wiki2:c", "wiki1:c", "wiki2:f", "wiki1:e", "wiki2:B", "wiki1:a"),
+            getNames(results));
+    }
+
+    @Test
+    public void testMergeResultsPage()
+    {
+        List<GlobalSearchResult> results = this.search.mergeResults(getWikiResults(), 2, 4, ORDER_BY_NAME);
+
+        Assert.assertEquals(Arrays.asList("wiki1:c", "wiki3:c"), getNames(results));
+    }
+
+    @Test
+    public void testMergeResultsPageAfterTheEnd()
+    {
+        Assert.assertEquals(Arrays.asList("wiki1:e", "wiki3:f"),
+            getNames(this.search.mergeResults(getWikiResults(), 4, 10, ORDER_BY_NAME)));
+        Assert.assertTrue(this.search.mergeResults(getWikiResults(), 6, 10, ORDER_BY_NAME).isEmpty());
+        Assert.assertTrue(this.search.mergeResults(getWikiResults(), 8, 10, ORDER_BY_NAME).isEmpty());
+    }
+
+    @Test
+    public void testMergeResultsWithoutOrder()
+    {
+        List<GlobalSearchResult> results =
+            this.search.mergeResults(getWikiResults(), 0, 2, Collections.<Object[]> emptyList());
+
+        // Without order the wikis results are taken one after the other
+        Assert.assertEquals(Arrays.asList("wiki1:a", "wiki1:c"), getNames(results));
+    }
+
+    @Test
+    public void testMergeResultsWithoutWikis()
+    {
+        Assert.assertTrue(this.search.mergeResults(new ArrayList<List<GlobalSearchResult>>(), 0, 10, ORDER_BY_NAME)
+            .isEmpty());
+    }
+}
@@ -19,7 +19,6 @@
  */
 package com.xpn.xwiki.plugin.zipexplorer;
 
-import java.io.ByteArrayInputStream;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
@@ -140,12 +139,9 @@ public XWikiAttachment downloadAttachment(XWikiAttachment attachment, XWikiConte
                     newAttachment.setFilename(entryName);
 
                     if (entry.getSize() == -1) {
-                        // Note: We're copying the content of the file in the ZIP in memory. This is
-                        // potentially going to cause an error if the file's size is greater than the
-                        // maximum size of a byte[] array in Java or if there's not enough memomry.
-                        byte[] data = IOUtils.toByteArray(zis);
-
-                        newAttachment.setContent(data);
+                        // The size of the file in the ZIP is unknown, its content is buffered on disk past a
+                        // threshold instead of being loaded in memory.
+                        newAttachment.setContent(zis);
                     } else {
                         newAttachment.setContent(zis, (int) entry.getSize());
                     }
@@ -177,7 +173,7 @@ public List<String> getFileList(Document document, String attachmentName, XWikiC
 
         InputStream stream = null;
         try {
-            stream = new ByteArrayInputStream(attachment.getContent());
+            stream = new BufferedInputStream(attachment.getContentInputStream());
 
             if (isZipFile(stream)) {
                 ZipInputStream zis = new ZipInputStream(stream);
@@ -190,6 +186,8 @@ public List<String> getFileList(Document document, String attachmentName, XWikiC
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            IOUtils.closeQuietly(stream);
         }
         return zipList;
     }
@@ -223,7 +223,7 @@ private XWikiAttachment createAttachment(String filename, byte[] content, XWikiD
         mockAttachment.stubs().method("getDate").will(returnValue(new Date()));
         mockAttachment.stubs().method("getFilesize").will(returnValue((content == null) ? 0 : content.length));
         mockAttachment.stubs().method("getContentSize").will(returnValue((content == null) ? 0 : content.length));
-        mockAttachment.stubs().method("getContent").will(returnValue((content == null) ? new byte[0] : content));
+        // The content is only available as a stream, to make sure it's never loaded in memory as a whole.
         mockAttachment.stubs().method("getContentInputStream").will(
             returnValue(new ByteArrayInputStream((content == null) ? new byte[0] : content)));
         return (XWikiAttachment) mockAttachment.proxy();